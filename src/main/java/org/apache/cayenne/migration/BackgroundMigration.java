@@ -0,0 +1,78 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import org.apache.cayenne.access.DataNode;
+
+/**
+ * <p>A migration whose data changes run in the background after application startup.</p>
+ * 
+ * The {@link #upgrade(MigrationDatabase)} method is applied synchronously along with the other migrations, so it should
+ * contain the schema changes that the new code depends on. The version is then marked as applied and the
+ * work in {@link #upgradeBatch(MigrationDatabase, long)} is performed one batch at a time by a
+ * {@link BackgroundMigrationRunner}, with its progress stored in the database so it resumes after a restart.
+ * For example:
+ * 
+ * <code><pre>
+ * public class MyDataMap5 extends BackgroundMigration {
+ *
+ *   public MyDataMap5(DataNode node) {
+ *     super(node);
+ *   }
+ *
+ *   public void upgrade(MigrationDatabase db) {
+ *     db.alterTable("Artist").addVarcharColumn("sort_name", 100);
+ *   }
+ *
+ *   public void upgradeBatch(MigrationDatabase db, long batch) {
+ *     db.execute("UPDATE Artist SET sort_name = LOWER(name) WHERE artist_id IN " +
+ *       "(SELECT artist_id FROM Artist WHERE sort_name IS NULL LIMIT 1000)");
+ *   }
+ * }
+ * </pre></code>
+ * 
+ * <p>Later migrations must not depend on the background work having finished.</p>
+ * 
+ * @author john
+ *
+ */
+public abstract class BackgroundMigration extends Migration {
+
+	public BackgroundMigration(DataNode node) {
+		super(node);
+	}
+
+	/**
+	 * Performs the synchronous part of the migration. By default this does nothing.
+	 */
+	@Override
+	public void upgrade(MigrationDatabase db) {
+	}
+	
+	/**
+	 * Subclasses implement this to queue the operations for a single batch of work on the passed in db object.
+	 * Each batch is committed on its own. The migration is complete once a batch queues no operations or its
+	 * statements don't touch any rows, so batches should be written to only process rows that still need it.
+	 * 
+	 * @param db a new, empty database for each batch
+	 * @param batch the zero based number of the batch
+	 */
+	public abstract void upgradeBatch(MigrationDatabase db, long batch);
+	
+}
@@ -0,0 +1,104 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.util.Date;
+
+/**
+ * The persisted progress of a {@link BackgroundMigration}.
+ * 
+ * @author john
+ *
+ */
+public class BackgroundMigrationProgress {
+
+	public enum Status {
+		PENDING, RUNNING, PAUSED, COMPLETED, CANCELLED, FAILED
+	}
+	
+	private final String dataMap;
+	private final int version;
+	private final Status status;
+	private final long batch;
+	private final long rowCount;
+	private final String host;
+	private final Date updatedAt;
+	private final String message;
+	
+	BackgroundMigrationProgress(String dataMap, int version, Status status, long batch, long rowCount, String host, Date updatedAt, String message) {
+		this.dataMap = dataMap;
+		this.version = version;
+		this.status = status;
+		this.batch = batch;
+		this.rowCount = rowCount;
+		this.host = host;
+		this.updatedAt = updatedAt;
+		this.message = message;
+	}
+
+	public String getDataMap() {
+		return dataMap;
+	}
+
+	public int getVersion() {
+		return version;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return the number of batches that have been completed
+	 */
+	public long getBatch() {
+		return batch;
+	}
+
+	/**
+	 * @return the total number of rows touched so far
+	 */
+	public long getRowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * @return the host that last worked on the migration
+	 */
+	public String getHost() {
+		return host;
+	}
+
+	public Date getUpdatedAt() {
+		return updatedAt;
+	}
+
+	/**
+	 * @return the error message if the migration failed
+	 */
+	public String getMessage() {
+		return message;
+	}
+	
+	@Override
+	public String toString() {
+		return dataMap + " version " + version + ": " + status + ", " + batch + " batches, " + rowCount + " rows";
+	}
+	
+}
@@ -0,0 +1,461 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cayenne.configuration.server.ServerRuntime;
+import org.apache.cayenne.di.Injector;
+import org.apache.cayenne.map.DataMap;
+import org.apache.cayenne.map.DbEntity;
+import org.apache.cayenne.migration.BackgroundMigrationProgress.Status;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Performs the batches of pending {@link BackgroundMigration}s, one migration at a time in version order, using
+ * its own connection, followed by the pending validations of constraints added as NOT VALID. The progress of each migration is stored in the background table of the {@link Migrator}
+ * and committed with every batch, so work that is interrupted resumes from the last completed batch.
+ * 
+ * A migration is claimed by one instance at a time; a migration that hasn't been updated within the stale
+ * timeout (because the instance running it died) may be claimed by another instance. While a batch runs, the claim
+ * is refreshed on a connection of its own, so a batch that takes longer than the stale timeout isn't claimed twice.
+ * 
+ * @author john
+ *
+ */
+public class BackgroundMigrationRunner implements Runnable {
+
+	private static final Logger log = LoggerFactory.getLogger(BackgroundMigrationRunner.class);
+	
+	private final Migrator migrator;
+	private Migrator worker;
+	private Migrator pulse;
+	private ScheduledExecutorService heartbeats;
+	private Injector injector;
+	
+	private volatile long throttleMillis = 0;
+	private volatile long staleMillis = 10 * 60 * 1000;
+	private volatile boolean running;
+	private boolean paused;
+	private boolean cancelled;
+	
+	BackgroundMigrationRunner(Migrator migrator) {
+		this.migrator = migrator;
+	}
+	
+	static DbEntity entity(Migrator migrator, DataMap map) {
+		DbEntity entity = MigrationHistory.entity(map, migrator.migrationBackgroundTableName(map));
+		MigrationHistory.addAttribute(entity, "dataMap", Types.VARCHAR, Migrator.DATA_MAP_LENGTH, true);
+		MigrationHistory.addAttribute(entity, "version", Types.INTEGER, -1, true);
+		MigrationHistory.addAttribute(entity, "status", Types.VARCHAR, 20, false);
+		MigrationHistory.addAttribute(entity, "batch", Types.BIGINT, -1, false);
+		MigrationHistory.addAttribute(entity, "rowCount", Types.BIGINT, -1, false);
+		MigrationHistory.addAttribute(entity, "host", Types.VARCHAR, 255, false);
+		MigrationHistory.addAttribute(entity, "updatedAt", Types.TIMESTAMP, -1, false);
+		MigrationHistory.addAttribute(entity, "message", Types.VARCHAR, 255, false);
+		return entity;
+	}
+	
+	/**
+	 * Creates the background table if it doesn't exist yet. This should only be called while holding the
+	 * migration lock and without uncommitted changes.
+	 */
+	static void createTableIfNeeded(Migrator migrator, DataMap map) throws SQLException {
+		try {
+			migrator.executeSqlReturnInt("SELECT COUNT(*) FROM " + migrator.migrationBackgroundTableName(map));
+		} catch (RuntimeException e) {
+			migrator.executeSqlWithUpdateCount(migrator.getDataNode().getAdapter().createTable(entity(migrator, map)));
+		}
+		migrator.getConnection().commit();
+	}
+	
+	/**
+	 * Records a new pending background migration; the caller is responsible for committing.
+	 */
+	static void register(Migrator migrator, DataMap map, int version) throws SQLException {
+		migrator.executePreparedUpdate(String.format("INSERT INTO %s(dataMap, version, status, batch, rowCount, host, updatedAt) VALUES (?, ?, ?, ?, ?, ?, ?)", migrator.migrationBackgroundTableName(map)),
+				map.getName(), version, Status.PENDING.name(), 0L, 0L, MigrationHistory.hostName(), now());
+	}
+	
+	/**
+	 * Starts performing the pending background migrations on the executor, or on the calling thread
+	 * if the executor is null. Does nothing if the runner is already running.
+	 */
+	void start(Executor executor) {
+		synchronized (this) {
+			if (running) {
+				return;
+			}
+			running = true;
+			cancelled = false;
+			injector = ServerRuntime.getThreadInjector();
+			// copied now so the settings the Migrator has when it migrates are used
+			worker = migrator.copy(migrator.getSchema());
+			pulse = migrator.copy(migrator.getSchema());
+		}
+		
+		if (executor != null) {
+			executor.execute(this);
+		} else {
+			run();
+		}
+	}
+	
+	/**
+	 * Performs the pending migrations; this is called on the executor once the runner has been started by
+	 * {@link Migrator#migrateToLatest()}.
+	 */
+	@Override
+	public void run() {
+		if (!running) {
+			throw new IllegalStateException("The background migration runner hasn't been started; it is started by Migrator.migrateToLatest().");
+		}
+		Injector previous = ServerRuntime.getThreadInjector();
+		ServerRuntime.bindThreadInjector(injector);
+		heartbeats = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "background-migration-heartbeat");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			worker.applyLockTimeout();
+			for (DataMap map : migrator.getDataNode().getDataMaps()) {
+				for (BackgroundMigrationProgress progress : load(worker, map)) {
+					if (isCancelled()) {
+						return;
+					}
+					if (isClaimable(progress) && claim(map, progress.getVersion())) {
+						runMigration(map, progress);
+					}
+				}
+				validateConstraints(map);
+			}
+		} catch (Exception e) {
+			log.error("Background migrations stopped for node: " + migrator.getDataNode().getName() + ": " + e.getMessage(), e);
+		} finally {
+			ServerRuntime.bindThreadInjector(previous);
+			stopHeartbeats();
+			worker.resetLockTimeout();
+			worker.closeConnection();
+			running = false;
+		}
+	}
+	
+	boolean isClaimable(BackgroundMigrationProgress progress) {
+		switch (progress.getStatus()) {
+		case PENDING:
+			return true;
+		case RUNNING:
+		case PAUSED:
+			return progress.getUpdatedAt() == null || progress.getUpdatedAt().getTime() < System.currentTimeMillis() - staleMillis;
+		default:
+			return false;
+		}
+	}
+	
+	private boolean claim(DataMap map, int version) throws SQLException {
+		int count = worker.executePreparedUpdate(String.format("UPDATE %s SET status = ?, host = ?, updatedAt = ? WHERE dataMap = ? AND version = ? AND (status = ? OR (status IN (?, ?) AND updatedAt < ?))", migrator.migrationBackgroundTableName(map)),
+				Status.RUNNING.name(), MigrationHistory.hostName(), now(), map.getName(), version,
+				Status.PENDING.name(), Status.RUNNING.name(), Status.PAUSED.name(), new Timestamp(System.currentTimeMillis() - staleMillis));
+		worker.getConnection().commit();
+		return count > 0;
+	}
+	
+	/**
+	 * Validates the constraints that migrations of the map added as NOT VALID, including those left pending by an
+	 * earlier run that was interrupted.
+	 */
+	private void validateConstraints(DataMap map) throws SQLException {
+		if (DbFamily.of(migrator.getDataNode().getAdapter()) != DbFamily.POSTGRES) {
+			return;
+		}
+		ConstraintValidator validator = new ConstraintValidator(worker);
+		for (String[] validation : validator.pending(map)) {
+			if (isCancelled()) {
+				return;
+			}
+			if (validator.claim(map, validation, staleMillis)) {
+				ScheduledFuture<?> heartbeat = heartbeat(validator.refreshSql(map), validation[5], Integer.valueOf(validation[0]), Integer.valueOf(validation[1]));
+				try {
+					validator.validate(map, validation);
+				} finally {
+					heartbeat.cancel(false);
+				}
+			}
+		}
+	}
+	
+	private void runMigration(DataMap map, BackgroundMigrationProgress progress) throws SQLException {
+		int version = progress.getVersion();
+		long batch = progress.getBatch();
+		long rowCount = progress.getRowCount();
+		
+		Migration migration = migrator.createMigrationClassForVersion(map, version);
+		if (!(migration instanceof BackgroundMigration)) {
+			update(map, version, Status.FAILED, batch, rowCount, "Background migration class not found");
+			return;
+		}
+		
+		log.info(String.format("Starting background migration of dataMap '%s' version %d at batch %d", map.getName(), version, batch));
+		String databaseProductName = worker.getConnection().getMetaData().getDatabaseProductName();
+		ScheduledFuture<?> heartbeat = heartbeat(String.format("UPDATE %s SET updatedAt = ? WHERE dataMap = ? AND version = ? AND status IN (?, ?)", migrator.migrationBackgroundTableName(map)),
+				map.getName(), version, Status.RUNNING.name(), Status.PAUSED.name());
+		try {
+			while (true) {
+				if (!awaitResume(map, version, batch, rowCount)) {
+					update(map, version, Status.CANCELLED, batch, rowCount, null);
+					log.info(String.format("Cancelled background migration of dataMap '%s' version %d at batch %d", map.getName(), version, batch));
+					return;
+				}
+				
+				MigrationDatabase db = new MigrationDatabase(migrator.getDataNode());
+				db.setDatabaseProductName(databaseProductName);
+				db.setCapabilities(worker.getCapabilities());
+				((BackgroundMigration) migration).upgradeBatch(db, batch);
+				
+				long rows = 0;
+				for (MigrationHistoryStep step : worker.executeOperations(db.getOperations())) {
+					rows += step.getRowCount();
+				}
+				
+				if (db.getOperations().isEmpty() || rows == 0) {
+					update(map, version, Status.COMPLETED, batch, rowCount, null);
+					log.info(String.format("Completed background migration of dataMap '%s' version %d: %d batches, %d rows", map.getName(), version, batch, rowCount));
+					return;
+				}
+				
+				batch++;
+				rowCount += rows;
+				update(map, version, Status.RUNNING, batch, rowCount, null);
+				throttle();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			worker.getConnection().rollback();
+			update(map, version, Status.PENDING, batch, rowCount, null);
+		} catch (Exception e) {
+			log.error(String.format("Background migration of dataMap '%s' version %d failed at batch %d: %s", map.getName(), version, batch, e.getMessage()), e);
+			worker.getConnection().rollback();
+			update(map, version, Status.FAILED, batch, rowCount, MigrationHistory.truncate(e.getMessage()));
+		} finally {
+			heartbeat.cancel(false);
+		}
+	}
+	
+	/**
+	 * Executes the statement every third of the stale timeout until the returned future is cancelled, to refresh
+	 * the claim of the work in progress. The first parameter of the statement is set to the current time.
+	 */
+	private ScheduledFuture<?> heartbeat(final String sql, final Object... parameters) {
+		long interval = Math.max(1, staleMillis / 3);
+		return heartbeats.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				Object[] values = new Object[parameters.length + 1];
+				values[0] = now();
+				System.arraycopy(parameters, 0, values, 1, parameters.length);
+				try {
+					pulse.executePreparedUpdate(sql, values);
+					pulse.getConnection().commit();
+				} catch (SQLException e) {
+					log.warn("Failed to refresh the claim of background work: " + e.getMessage());
+					pulse.closeConnection();
+				}
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+	}
+	
+	private void stopHeartbeats() {
+		heartbeats.shutdownNow();
+		try {
+			heartbeats.awaitTermination(staleMillis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		pulse.closeConnection();
+	}
+	
+	/**
+	 * Blocks while the runner is paused, refreshing the progress so the migration isn't considered stale.
+	 * @return false if the runner has been cancelled
+	 */
+	private boolean awaitResume(DataMap map, int version, long batch, long rowCount) throws SQLException, InterruptedException {
+		boolean wasPaused = false;
+		while (true) {
+			synchronized (this) {
+				if (cancelled) {
+					return false;
+				}
+				if (!paused) {
+					break;
+				}
+			}
+			
+			update(map, version, Status.PAUSED, batch, rowCount, null);
+			wasPaused = true;
+			
+			synchronized (this) {
+				if (paused && !cancelled) {
+					wait(Math.max(1, staleMillis / 2));
+				}
+			}
+		}
+		
+		if (wasPaused) {
+			update(map, version, Status.RUNNING, batch, rowCount, null);
+		}
+		return true;
+	}
+	
+	private synchronized void throttle() throws InterruptedException {
+		if (throttleMillis > 0 && !cancelled) {
+			wait(throttleMillis);
+		}
+	}
+	
+	private void update(DataMap map, int version, Status status, long batch, long rowCount, String message) throws SQLException {
+		worker.executePreparedUpdate(String.format("UPDATE %s SET status = ?, batch = ?, rowCount = ?, host = ?, updatedAt = ?, message = ? WHERE dataMap = ? AND version = ?", migrator.migrationBackgroundTableName(map)),
+				status.name(), batch, rowCount, MigrationHistory.hostName(), now(), message, map.getName(), version);
+		worker.getConnection().commit();
+	}
+	
+	private static Timestamp now() {
+		return new Timestamp(System.currentTimeMillis());
+	}
+	
+	/**
+	 * Loads the progress of all background migrations of the map using the given migrator's connection.
+	 * Returns an empty list if no background migrations have been registered yet.
+	 */
+	List<BackgroundMigrationProgress> load(Migrator migrator, DataMap map) throws SQLException {
+		List<BackgroundMigrationProgress> result = new ArrayList<BackgroundMigrationProgress>();
+		
+		String sql = String.format("SELECT version, status, batch, rowCount, host, updatedAt, message FROM %s WHERE dataMap = ? ORDER BY version", this.migrator.migrationBackgroundTableName(map));
+		migrator.getDataNode().getJdbcEventLogger().log(sql);
+		PreparedStatement st = migrator.getConnection().prepareStatement(sql);
+		try {
+			st.setString(1, map.getName());
+			ResultSet rs;
+			try {
+				rs = st.executeQuery();
+			} catch (SQLException e) {
+				// the background table hasn't been created yet
+				migrator.getConnection().rollback();
+				return result;
+			}
+			while (rs.next()) {
+				result.add(new BackgroundMigrationProgress(map.getName(), rs.getInt(1), Status.valueOf(rs.getString(2)), rs.getLong(3), rs.getLong(4), rs.getString(5), rs.getTimestamp(6), rs.getString(7)));
+			}
+			rs.close();
+		} finally {
+			st.close();
+		}
+		migrator.getConnection().commit();
+		
+		return result;
+	}
+	
+	/**
+	 * Returns the persisted progress of all background migrations of the node, including those run by other instances.
+	 */
+	public List<BackgroundMigrationProgress> progress() throws SQLException {
+		Migrator reader = migrator.copy(migrator.getSchema());
+		try {
+			List<BackgroundMigrationProgress> result = new ArrayList<BackgroundMigrationProgress>();
+			for (DataMap map : migrator.getDataNode().getDataMaps()) {
+				result.addAll(load(reader, map));
+			}
+			return result;
+		} finally {
+			reader.closeConnection();
+		}
+	}
+	
+	/**
+	 * Pauses the runner after the batch in progress.
+	 */
+	public synchronized void pause() {
+		paused = true;
+	}
+	
+	public synchronized void resume() {
+		paused = false;
+		notifyAll();
+	}
+	
+	/**
+	 * Stops the runner after the batch in progress; the migration in progress is marked as cancelled and won't be
+	 * resumed. Migrations that haven't started yet remain pending.
+	 */
+	public synchronized void cancel() {
+		cancelled = true;
+		notifyAll();
+	}
+	
+	public synchronized boolean isPaused() {
+		return paused;
+	}
+	
+	synchronized boolean isCancelled() {
+		return cancelled;
+	}
+	
+	public boolean isRunning() {
+		return running;
+	}
+	
+	public long getThrottleMillis() {
+		return throttleMillis;
+	}
+
+	/**
+	 * Sets a pause between batches to limit the load on the database.
+	 */
+	public void setThrottleMillis(long throttleMillis) {
+		this.throttleMillis = throttleMillis;
+	}
+	
+	public long getStaleMillis() {
+		return staleMillis;
+	}
+
+	/**
+	 * Sets how long a running migration may go without progress before another instance may claim it.
+	 */
+	public void setStaleMillis(long staleMillis) {
+		this.staleMillis = staleMillis;
+	}
+	
+}
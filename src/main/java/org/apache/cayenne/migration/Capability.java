@@ -0,0 +1,51 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+/**
+ * Features of a database that decide which strategy the Migrator uses for an operation. Whether a database
+ * supports a feature is determined from its adapter and server version, and can be overridden with
+ * {@link Migrator#setCapability(Capability, boolean)} or for a single migration with
+ * {@link MigrationDatabase#setCapability(Capability, boolean)}.
+ * 
+ * @author john
+ *
+ */
+public enum Capability {
+
+	/**
+	 * A column with a default value can be added to an existing table with a single ADD COLUMN ... DEFAULT ... NOT NULL
+	 * statement without rewriting the table. Without it a new column is added as nullable, filled in with an UPDATE
+	 * and then made NOT NULL.
+	 */
+	ADD_COLUMN_WITH_DEFAULT,
+	
+	/**
+	 * Constraints can be added as NOT VALID and validated later without blocking writes to the table, which is
+	 * used by {@link MigrationDatabase#setOnlineConstraints(boolean)}.
+	 */
+	NOT_VALID_CONSTRAINTS,
+	
+	/**
+	 * A column can be made NOT NULL without scanning the table when a validated CHECK (column IS NOT NULL)
+	 * constraint proves it, which the online constraint mode needs to add NOT NULL constraints without blocking writes.
+	 */
+	NOT_NULL_FROM_CHECK
+	
+}
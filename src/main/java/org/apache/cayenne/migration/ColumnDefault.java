@@ -0,0 +1,82 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+/**
+ * A column default that is an SQL expression evaluated by the database rather than a literal value. Pass it as
+ * the defaultValue when adding a column. A column with an expression default is added to an existing table without
+ * the default, which is then set and backfilled, since the expression may be evaluated for every row. For example:
+ * 
+ * <pre>
+ * table.addColumn("id", Types.OTHER, true, ColumnDefault.timeOrderedUuid());
+ * </pre>
+ * 
+ * @author john
+ *
+ */
+public abstract class ColumnDefault {
+
+	/**
+	 * @return a default that is the given SQL expression, used as is on every database
+	 */
+	public static ColumnDefault expression(final String sql) {
+		return new ColumnDefault() {
+			@Override
+			String sql(DbFamily family) {
+				return sql;
+			}
+		};
+	}
+	
+	/**
+	 * A UUID that starts with the current time in milliseconds, like a version 7 UUID, so new rows are appended
+	 * to the end of a B-tree index instead of being inserted at random positions. The column type is uuid on
+	 * PostgreSQL and H2, BINARY(16) on MySQL and uniqueidentifier on SQL Server. SQL Server only allows
+	 * NEWSEQUENTIALID() in a DEFAULT, so it uses a random UUID ending with the current time instead, which is how
+	 * SQL Server orders uniqueidentifier values and can also backfill existing rows.
+	 */
+	public static ColumnDefault timeOrderedUuid() {
+		return new ColumnDefault() {
+			@Override
+			String sql(DbFamily family) {
+				switch (family) {
+				case POSTGRES:
+					// gen_random_uuid() with the timestamp in the first 48 bits and the version bits changed from 4 to 7
+					return "encode(set_bit(set_bit(overlay(uuid_send(gen_random_uuid()) placing "
+							+ "substring(int8send(floor(extract(epoch from clock_timestamp()) * 1000)::bigint) from 3) from 1 for 6), 52, 1), 53, 1), 'hex')::uuid";
+				case MYSQL:
+					// a version 1 UUID with the time fields swapped so the most significant part comes first
+					return "(UUID_TO_BIN(UUID(), 1))";
+				case SQLSERVER:
+					return "CAST(CAST(NEWID() AS BINARY(10)) + CAST(GETDATE() AS BINARY(6)) AS UNIQUEIDENTIFIER)";
+				case H2:
+					return "RANDOM_UUID(7)";
+				default:
+					throw new UnsupportedOperationException("Time ordered UUID defaults are not supported by " + family + "; generate them in the application.");
+				}
+			}
+		};
+	}
+	
+	/**
+	 * @return the SQL expression for the database
+	 */
+	abstract String sql(DbFamily family);
+	
+}
@@ -0,0 +1,294 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.cayenne.dba.DbAdapter;
+import org.apache.cayenne.dbsync.merge.token.MergerToken;
+import org.apache.cayenne.dbsync.merge.token.db.AbstractToDbToken;
+import org.apache.cayenne.map.DbAttribute;
+import org.apache.cayenne.map.DbEntity;
+import org.apache.cayenne.migration.SchemaCache.Column;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Changes the type of a column using the cheapest form of the statement for the change. The current type of the
+ * column is looked up in the Migrator's {@link SchemaCache} when the migration runs and the change is classified as either a metadata-only
+ * change, such as widening a VARCHAR or raising the precision of a NUMERIC, or one that rewrites the table, such as
+ * INTEGER to BIGINT. Rewrites of tables larger than the Migrator's table rewrite limit are logged or refused
+ * according to its {@link TableRewritePolicy}, which is checked for all the changes of a version before any of
+ * its statements run.
+ * 
+ * @author john
+ *
+ */
+class ColumnTypeChangeToDb extends DirectToDb {
+
+	private static final Logger log = LoggerFactory.getLogger(ColumnTypeChangeToDb.class);
+	
+	enum Cost {
+		METADATA_ONLY,
+		REWRITE
+	}
+	
+	/**
+	 * The type, length and scale of a column.
+	 */
+	static class ColumnType {
+		final int jdbcType;
+		final int size;
+		final int scale;
+		
+		ColumnType(int jdbcType, int size, int scale) {
+			this.jdbcType = jdbcType;
+			this.size = size;
+			this.scale = scale;
+		}
+		
+		static ColumnType of(DbAttribute attribute) {
+			int size = attribute.getAttributePrecision() > 0 ? attribute.getAttributePrecision() : attribute.getMaxLength();
+			return new ColumnType(attribute.getType(), size, attribute.getScale());
+		}
+		
+		boolean isUnbounded() {
+			return size <= 0 || jdbcType == Types.LONGVARCHAR || jdbcType == Types.LONGNVARCHAR || jdbcType == Types.CLOB || jdbcType == Types.NCLOB;
+		}
+	}
+	
+	private final DbEntity entity;
+	private final DbAttribute attribute;
+	private final AbstractToDbToken change;
+	private boolean rewriteChecked;
+	
+	ColumnTypeChangeToDb(DbEntity entity, DbAttribute attribute, MergerToken change) {
+		super("Change Column Type");
+		this.entity = entity;
+		this.attribute = attribute;
+		this.change = (AbstractToDbToken) change;
+	}
+	
+	/**
+	 * @return the token of the plain ALTER statement
+	 */
+	MergerToken getChange() {
+		return change;
+	}
+	
+	public String getTokenValue() {
+		return entity.getName() + "." + attribute.getName();
+	}
+	
+	private static boolean isVaryingString(int jdbcType) {
+		switch (jdbcType) {
+		case Types.VARCHAR:
+		case Types.NVARCHAR:
+		case Types.LONGVARCHAR:
+		case Types.LONGNVARCHAR:
+		case Types.CLOB:
+		case Types.NCLOB:
+			return true;
+		default:
+			return false;
+		}
+	}
+	
+	private static boolean hasLength(int jdbcType) {
+		return isVaryingString(jdbcType) || isDecimal(jdbcType) || jdbcType == Types.CHAR || jdbcType == Types.NCHAR
+				|| jdbcType == Types.BINARY || jdbcType == Types.VARBINARY;
+	}
+	
+	private static boolean isDecimal(int jdbcType) {
+		return jdbcType == Types.NUMERIC || jdbcType == Types.DECIMAL;
+	}
+	
+	private static String category(int jdbcType) {
+		switch (jdbcType) {
+		case Types.CHAR:
+		case Types.NCHAR:
+			return "string";
+		case Types.TINYINT:
+		case Types.SMALLINT:
+		case Types.INTEGER:
+		case Types.BIGINT:
+		case Types.NUMERIC:
+		case Types.DECIMAL:
+		case Types.REAL:
+		case Types.FLOAT:
+		case Types.DOUBLE:
+			return "number";
+		case Types.DATE:
+		case Types.TIME:
+		case Types.TIMESTAMP:
+			return "temporal";
+		case Types.BIT:
+		case Types.BOOLEAN:
+			return "boolean";
+		case Types.BINARY:
+		case Types.VARBINARY:
+		case Types.LONGVARBINARY:
+		case Types.BLOB:
+			return "binary";
+		default:
+			return isVaryingString(jdbcType) ? "string" : String.valueOf(jdbcType);
+		}
+	}
+	
+	/**
+	 * @return true if the column already has the target type
+	 */
+	static boolean isSameType(ColumnType current, ColumnType target) {
+		return current.jdbcType == target.jdbcType && (!hasLength(target.jdbcType)
+				|| (current.size == target.size && (!isDecimal(target.jdbcType) || current.scale == target.scale)));
+	}
+	
+	/**
+	 * Classifies the change from the current to the new type for the database.
+	 */
+	static Cost classify(DbFamily family, ColumnType current, ColumnType target) {
+		if (isSameType(current, target)) {
+			return Cost.METADATA_ONLY;
+		}
+		
+		if (family == DbFamily.POSTGRES) {
+			if (isVaryingString(current.jdbcType) && isVaryingString(target.jdbcType)) {
+				// varchar and text share their representation, only the length check changes
+				if (target.isUnbounded() || (!current.isUnbounded() && target.size >= current.size)) {
+					return Cost.METADATA_ONLY;
+				}
+			} else if (isDecimal(current.jdbcType) && isDecimal(target.jdbcType)) {
+				if (target.size <= 0 || (current.size > 0 && target.scale == current.scale && target.size >= current.size)) {
+					return Cost.METADATA_ONLY;
+				}
+			} else if ((current.jdbcType == Types.VARBINARY || current.jdbcType == Types.LONGVARBINARY || current.jdbcType == Types.BLOB)
+					&& (target.jdbcType == Types.VARBINARY || target.jdbcType == Types.LONGVARBINARY || target.jdbcType == Types.BLOB)) {
+				// all bytea
+				return Cost.METADATA_ONLY;
+			}
+		} else if (family == DbFamily.MYSQL) {
+			if (current.jdbcType == Types.VARCHAR && target.jdbcType == Types.VARCHAR && target.size >= current.size) {
+				// in place as long as the length prefix keeps its size, assuming 4 bytes per character
+				if ((current.size * 4 < 256) == (target.size * 4 < 256)) {
+					return Cost.METADATA_ONLY;
+				}
+			}
+		}
+		return Cost.REWRITE;
+	}
+	
+	/**
+	 * @return true if PostgreSQL needs a USING clause because there is no implicit conversion between the types
+	 */
+	static boolean needsUsing(ColumnType current, ColumnType target) {
+		return !category(current.jdbcType).equals(category(target.jdbcType));
+	}
+	
+	/**
+	 * @return the statements for the change
+	 */
+	List<String> createSql(DbAdapter adapter, DbFamily family, Cost cost, ColumnType current) {
+		List<String> result = new ArrayList<String>();
+		for (String sql : change.createSql(adapter)) {
+			int type = sql.toUpperCase().lastIndexOf(" TYPE ");
+			if (family == DbFamily.POSTGRES && current != null && type > 0 && needsUsing(current, ColumnType.of(attribute))) {
+				sql += " USING " + attribute.getName() + "::" + sql.substring(type + 6).trim();
+			} else if (family == DbFamily.MYSQL && cost == Cost.METADATA_ONLY && sql.toUpperCase().startsWith("ALTER TABLE")) {
+				// fails instead of copying the table if the change can't be made in place
+				sql += ", ALGORITHM=INPLACE, LOCK=NONE";
+			}
+			result.add(sql);
+		}
+		return result;
+	}
+	
+	/**
+	 * Checks the table rewrites of the type changes among the operations of a version against the Migrator's
+	 * {@link TableRewritePolicy}, so a refused change fails the version before any of its statements run.
+	 * Changes nested in other operations are checked when they are executed.
+	 */
+	static void checkRewrites(Migrator migrator, List<MergerToken> operations) throws SQLException {
+		for (MergerToken operation : operations) {
+			if (operation instanceof ColumnTypeChangeToDb) {
+				ColumnTypeChangeToDb change = (ColumnTypeChangeToDb) operation;
+				change.checkRewrite(migrator, DbFamily.of(migrator.getDataNode().getAdapter()), change.currentType(migrator));
+			}
+		}
+	}
+	
+	private ColumnType currentType(Migrator migrator) throws SQLException {
+		Column column = migrator.getSchemaCache().column(migrator, entity.getName(), attribute.getName());
+		return column != null ? column.type : null;
+	}
+	
+	private Cost cost(DbFamily family, ColumnType current) {
+		return current != null ? classify(family, current, ColumnType.of(attribute)) : Cost.REWRITE;
+	}
+	
+	private void checkRewrite(Migrator migrator, DbFamily family, ColumnType current) throws SQLException {
+		rewriteChecked = true;
+		if (cost(family, current) == Cost.REWRITE && migrator.getTableRewritePolicy() != TableRewritePolicy.ALLOW) {
+			Integer size = tableSize(migrator, family);
+			if (size != null && size > migrator.getTableRewriteLimit()) {
+				String message = String.format("Changing the type of %s rewrites the table, which is %d MB. "
+						+ "Add a new column, backfill it in a background migration and drop the old column in the contract phase instead.", getTokenValue(), size);
+				if (migrator.getTableRewritePolicy() == TableRewritePolicy.REFUSE) {
+					throw new MigrationValidationException(message);
+				}
+				log.warn(message);
+			}
+		}
+	}
+	
+	@Override
+	long execute(Migrator migrator) throws SQLException {
+		DbAdapter adapter = migrator.getDataNode().getAdapter();
+		DbFamily family = DbFamily.of(adapter);
+		ColumnType current = currentType(migrator);
+		Cost cost = cost(family, current);
+		if (!rewriteChecked) {
+			checkRewrite(migrator, family, current);
+		}
+		
+		for (String sql : createSql(adapter, family, cost, current)) {
+			migrator.executeSqlWithRetry(sql);
+		}
+		return 0;
+	}
+	
+	/**
+	 * @return the size of the table and its indexes in MB, or null if it can't be determined for the database
+	 */
+	private Integer tableSize(Migrator migrator, DbFamily family) throws SQLException {
+		String table = entity.getName();
+		if (family == DbFamily.POSTGRES) {
+			return migrator.executeSqlReturnInt("SELECT (COALESCE(pg_total_relation_size(to_regclass(" + PartitionBounds.literal(table) + ")), 0) / 1048576)::int");
+		} else if (family == DbFamily.MYSQL) {
+			int dot = table.lastIndexOf('.');
+			String schema = dot < 0 ? "DATABASE()" : PartitionBounds.literal(table.substring(0, dot));
+			return migrator.executeSqlReturnInt("SELECT CAST((data_length + index_length) / 1048576 AS SIGNED) FROM information_schema.tables WHERE table_schema = "
+					+ schema + " AND table_name = " + PartitionBounds.literal(table.substring(dot + 1)));
+		}
+		return null;
+	}
+	
+}
@@ -0,0 +1,143 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.cayenne.dbsync.merge.token.MergerToken;
+import org.apache.cayenne.dbsync.merge.token.db.AbstractToDbToken;
+import org.apache.cayenne.map.DbAttribute;
+import org.apache.cayenne.migration.ColumnTypeChangeToDb.ColumnType;
+import org.apache.cayenne.migration.SchemaCache.Column;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executes a group of operations on an existing table only if the live schema shows that they haven't been applied
+ * yet, used by {@link MigrationDatabase#setIdempotent(boolean)}. The schema is looked up in the Migrator's
+ * {@link SchemaCache} when the migration runs.
+ * 
+ * @author john
+ *
+ */
+class ConditionalToDb extends DirectToDb {
+
+	private static final Logger log = LoggerFactory.getLogger(ConditionalToDb.class);
+	
+	enum Condition {
+		TABLE_EXISTS,
+		COLUMN_MISSING,
+		COLUMN_EXISTS,
+		COLUMN_NULLABLE,
+		COLUMN_NOT_NULL,
+		TYPE_DIFFERENT
+	}
+	
+	private final Condition condition;
+	private final String table;
+	private final DbAttribute attribute;
+	private final List<MergerToken> operations = new ArrayList<MergerToken>();
+	
+	/**
+	 * @param attribute the column the condition checks, or null for conditions on the table
+	 */
+	ConditionalToDb(Condition condition, String table, DbAttribute attribute) {
+		super("Conditional");
+		this.condition = condition;
+		this.table = table;
+		this.attribute = attribute;
+	}
+	
+	void add(MergerToken operation) {
+		operations.add(operation);
+	}
+	
+	List<MergerToken> getOperations() {
+		return operations;
+	}
+	
+	Condition getCondition() {
+		return condition;
+	}
+	
+	public String getTokenValue() {
+		return condition + " " + (attribute != null ? table + "." + attribute.getName() : table);
+	}
+	
+	/**
+	 * @return true if the operations still need to be applied to a table with the given columns; changes of a
+	 * column that doesn't exist are skipped
+	 */
+	boolean isNeeded(Map<String, Column> columns) {
+		Column column = columns != null && attribute != null ? columns.get(attribute.getName().toLowerCase()) : null;
+		switch (condition) {
+		case TABLE_EXISTS:
+			return columns != null;
+		case COLUMN_MISSING:
+			return column == null;
+		case COLUMN_EXISTS:
+			return column != null;
+		case COLUMN_NULLABLE:
+			return column != null && column.nullable;
+		case COLUMN_NOT_NULL:
+			return column != null && !column.nullable;
+		case TYPE_DIFFERENT:
+			return column != null && !ColumnTypeChangeToDb.isSameType(column.type, ColumnType.of(attribute));
+		default:
+			return true;
+		}
+	}
+	
+	@Override
+	long execute(Migrator migrator) throws SQLException {
+		Map<String, Column> columns = migrator.getSchemaCache().table(migrator, table);
+		if (!isNeeded(columns)) {
+			log.info("Skipping operations that are already applied: " + getTokenValue());
+			return 0;
+		}
+		
+		Column column = columns != null && attribute != null ? columns.get(attribute.getName().toLowerCase()) : null;
+		if (column != null && attribute.getType() == Types.OTHER) {
+			// existing columns only know their name, but some databases repeat the type when changing a column
+			attribute.setType(column.type.jdbcType);
+			attribute.setMaxLength(column.type.size);
+			if (column.type.jdbcType == Types.NUMERIC || column.type.jdbcType == Types.DECIMAL) {
+				attribute.setAttributePrecision(column.type.size);
+				attribute.setScale(column.type.scale);
+			}
+		}
+		
+		long count = 0;
+		for (MergerToken operation : operations) {
+			if (operation instanceof DirectToDb) {
+				count += ((DirectToDb) operation).execute(migrator);
+				continue;
+			}
+			for (String sql : ((AbstractToDbToken) operation).createSql(migrator.getDataNode().getAdapter())) {
+				count += Math.max(migrator.executeSqlWithRetry(sql), 0);
+			}
+		}
+		return count;
+	}
+	
+}
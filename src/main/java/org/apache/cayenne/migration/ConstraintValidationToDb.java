@@ -0,0 +1,68 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.sql.SQLException;
+
+/**
+ * Marks a constraint that was added as NOT VALID for validation once its version is committed. The Migrator
+ * records the pending validation in the same transaction as the version, see {@link ConstraintValidator}.
+ * 
+ * @author john
+ *
+ */
+class ConstraintValidationToDb extends DirectToDb {
+
+	private final String table;
+	private final String constraint;
+	private final String notNullColumn;
+	
+	/**
+	 * @param notNullColumn the column to make NOT NULL once the check constraint is validated, or null
+	 */
+	ConstraintValidationToDb(String table, String constraint, String notNullColumn) {
+		super("Validate Constraint");
+		this.table = table;
+		this.constraint = constraint;
+		this.notNullColumn = notNullColumn;
+	}
+	
+	String getTable() {
+		return table;
+	}
+	
+	String getConstraint() {
+		return constraint;
+	}
+	
+	String getNotNullColumn() {
+		return notNullColumn;
+	}
+	
+	public String getTokenValue() {
+		return table + "." + constraint;
+	}
+	
+	@Override
+	long execute(Migrator migrator) throws SQLException {
+		// recorded by the Migrator, validated after the commit
+		return 0;
+	}
+	
+}
@@ -0,0 +1,196 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.cayenne.dbsync.merge.token.MergerToken;
+import org.apache.cayenne.map.DataMap;
+import org.apache.cayenne.map.DbEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Validates the constraints that migrations added as NOT VALID. Adding a constraint that way only takes a brief
+ * lock, and validating it afterwards scans the table under a lock that doesn't block writes. Each pending
+ * validation is recorded in the validation table of the {@link Migrator} along with its version, and removed once
+ * it is done, so validations interrupted by a crash are resumed by the next run of the Migrator.
+ * 
+ * The validations are performed by the {@link BackgroundMigrationRunner} rather than during startup. Each one is
+ * claimed by one instance at a time; a claim that hasn't been refreshed within the stale timeout of the runner may
+ * be taken over by another instance.
+ * 
+ * A NOT NULL constraint is added as a CHECK (column IS NOT NULL) constraint; once that is validated the column
+ * is made NOT NULL, which doesn't need to scan the table on PostgreSQL 12 and later, and the check constraint is
+ * dropped.
+ * 
+ * @author john
+ *
+ */
+class ConstraintValidator {
+
+	private static final Logger log = LoggerFactory.getLogger(ConstraintValidator.class);
+	
+	private final Migrator migrator;
+	
+	ConstraintValidator(Migrator migrator) {
+		this.migrator = migrator;
+	}
+	
+	static DbEntity entity(Migrator migrator, DataMap map) {
+		DbEntity entity = MigrationHistory.entity(map, migrator.migrationValidationTableName(map));
+		MigrationHistory.addAttribute(entity, "dataMap", Types.VARCHAR, Migrator.DATA_MAP_LENGTH, true);
+		MigrationHistory.addAttribute(entity, "version", Types.INTEGER, -1, true);
+		MigrationHistory.addAttribute(entity, "position", Types.INTEGER, -1, true);
+		MigrationHistory.addAttribute(entity, "tableName", Types.VARCHAR, 255, false);
+		MigrationHistory.addAttribute(entity, "constraintName", Types.VARCHAR, 255, false);
+		MigrationHistory.addAttribute(entity, "columnName", Types.VARCHAR, 255, false);
+		MigrationHistory.addAttribute(entity, "claimedAt", Types.TIMESTAMP, -1, false);
+		return entity;
+	}
+	
+	/**
+	 * Creates the validation table if it doesn't exist yet. This should only be called while holding the
+	 * migration lock and without uncommitted changes.
+	 */
+	static void createTableIfNeeded(Migrator migrator, DataMap map) throws SQLException {
+		try {
+			migrator.executeSqlReturnInt("SELECT COUNT(*) FROM " + migrator.migrationValidationTableName(map));
+		} catch (RuntimeException e) {
+			migrator.executeSqlWithUpdateCount(migrator.getDataNode().getAdapter().createTable(entity(migrator, map)));
+		}
+		migrator.getConnection().commit();
+	}
+	
+	static boolean hasValidations(List<MergerToken> operations) {
+		for (MergerToken operation : operations) {
+			if (operation instanceof ConstraintValidationToDb) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Records the validations of the version's operations under the key of the phase, the map name for the expand
+	 * phase and the contract key for the contract phase, so both phases of a version can add validations; the
+	 * caller is responsible for committing.
+	 */
+	static void register(Migrator migrator, DataMap map, String key, int version, List<MergerToken> operations) throws SQLException {
+		int position = 0;
+		for (MergerToken operation : operations) {
+			if (operation instanceof ConstraintValidationToDb) {
+				ConstraintValidationToDb validation = (ConstraintValidationToDb) operation;
+				migrator.executePreparedUpdate(String.format("INSERT INTO %s(dataMap, version, position, tableName, constraintName, columnName) VALUES (?, ?, ?, ?, ?, ?)", migrator.migrationValidationTableName(map)),
+						key, version, position++, validation.getTable(), validation.getConstraint(), validation.getNotNullColumn());
+			}
+		}
+	}
+	
+	/**
+	 * @return the statements that complete the validation; all of them can be repeated
+	 */
+	static List<String> validationSql(String table, String constraint, String notNullColumn) {
+		List<String> result = new ArrayList<String>();
+		result.add("ALTER TABLE " + table + " VALIDATE CONSTRAINT " + constraint);
+		if (notNullColumn != null) {
+			result.add("ALTER TABLE " + table + " ALTER COLUMN " + notNullColumn + " SET NOT NULL");
+			result.add("ALTER TABLE " + table + " DROP CONSTRAINT IF EXISTS " + constraint);
+		}
+		return result;
+	}
+	
+	/**
+	 * Loads the pending validations of both phases of the map in the order they were added, each as its version,
+	 * position, table, constraint, NOT NULL column and the key of its phase.
+	 */
+	List<String[]> pending(DataMap map) throws SQLException {
+		List<String[]> pending = new ArrayList<String[]>();
+		String sql = String.format("SELECT version, position, tableName, constraintName, columnName, dataMap FROM %s WHERE dataMap IN (?, ?) ORDER BY version, dataMap, position", migrator.migrationValidationTableName(map));
+		migrator.getDataNode().getJdbcEventLogger().log(sql);
+		PreparedStatement st = migrator.getConnection().prepareStatement(sql);
+		try {
+			st.setString(1, map.getName());
+			st.setString(2, migrator.contractKey(map));
+			ResultSet rs;
+			try {
+				rs = st.executeQuery();
+			} catch (SQLException e) {
+				// the validation table hasn't been created yet
+				migrator.getConnection().rollback();
+				return pending;
+			}
+			while (rs.next()) {
+				pending.add(new String[] { rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4), rs.getString(5), rs.getString(6) });
+			}
+			rs.close();
+		} finally {
+			st.close();
+		}
+		migrator.getConnection().commit();
+		return pending;
+	}
+	
+	/**
+	 * Claims the validation unless another instance has claimed it within the stale timeout.
+	 * @return true if the validation was claimed
+	 */
+	boolean claim(DataMap map, String[] validation, long staleMillis) throws SQLException {
+		long now = System.currentTimeMillis();
+		int count = migrator.executePreparedUpdate(String.format("UPDATE %s SET claimedAt = ? WHERE dataMap = ? AND version = ? AND position = ? AND (claimedAt IS NULL OR claimedAt < ?)", migrator.migrationValidationTableName(map)),
+				new Timestamp(now), validation[5], Integer.valueOf(validation[0]), Integer.valueOf(validation[1]), new Timestamp(now - staleMillis));
+		migrator.getConnection().commit();
+		return count > 0;
+	}
+	
+	/**
+	 * @return the statement refreshing the claim of a validation, with the time, phase key, version and position as parameters
+	 */
+	String refreshSql(DataMap map) {
+		return String.format("UPDATE %s SET claimedAt = ? WHERE dataMap = ? AND version = ? AND position = ?", migrator.migrationValidationTableName(map));
+	}
+	
+	/**
+	 * Performs a claimed validation in its own transaction. A validation that fails, for example because existing rows
+	 * violate the constraint, is logged and released so the next run retries it; the constraint is still enforced for
+	 * new rows.
+	 */
+	void validate(DataMap map, String[] validation) throws SQLException {
+		String table = migrator.migrationValidationTableName(map);
+		try {
+			migrator.executeSqlWithUpdateCount(validationSql(validation[2], validation[3], validation[4]));
+			migrator.executePreparedUpdate(String.format("DELETE FROM %s WHERE dataMap = ? AND version = ? AND position = ?", table),
+					validation[5], Integer.valueOf(validation[0]), Integer.valueOf(validation[1]));
+			migrator.getConnection().commit();
+		} catch (RuntimeException e) {
+			log.warn("Failed to validate constraint " + validation[3] + " of " + validation[2] + "; it will be retried by the next migration: " + e.getMessage());
+			migrator.getConnection().rollback();
+			migrator.executePreparedUpdate(String.format("UPDATE %s SET claimedAt = NULL WHERE dataMap = ? AND version = ? AND position = ?", table),
+					validation[5], Integer.valueOf(validation[0]), Integer.valueOf(validation[1]));
+			migrator.getConnection().commit();
+		}
+	}
+	
+}
@@ -0,0 +1,134 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.cayenne.dba.DbAdapter;
+import org.apache.cayenne.dbsync.merge.factory.MergerTokenFactory;
+import org.apache.cayenne.dbsync.merge.token.DummyReverseToken;
+import org.apache.cayenne.dbsync.merge.token.MergerToken;
+import org.apache.cayenne.dbsync.merge.token.db.AbstractToDbToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates the index, rendering the options that the database of the adapter supports. Options that are
+ * dropped are logged.
+ * 
+ * @author john
+ *
+ */
+class CreateIndexToDb extends AbstractToDbToken.Entity {
+
+	private static final Logger log = LoggerFactory.getLogger(CreateIndexToDb.class);
+	
+	private final MigrationIndex index;
+	
+	CreateIndexToDb(MigrationIndex index) {
+		super("Create Index", 1, index.getTable().getEntity());
+		this.index = index;
+	}
+	
+	MigrationIndex getIndex() {
+		return index;
+	}
+	
+	@Override
+	public List<String> createSql(DbAdapter adapter) {
+		return Collections.singletonList(createSql(DbFamily.of(adapter)));
+	}
+	
+	String createSql(DbFamily family) {
+		if (index.getKeys().isEmpty()) {
+			throw new IllegalStateException("Index " + index.getName() + " has no columns or expressions.");
+		}
+		boolean supportsInclude = family == DbFamily.POSTGRES || family == DbFamily.SQLSERVER;
+		boolean supportsPredicate = family == DbFamily.POSTGRES || family == DbFamily.SQLSERVER || family == DbFamily.SQLITE;
+		if (index.getPredicate() != null && !supportsPredicate && index.isUnique()) {
+			throw new UnsupportedOperationException("Partial unique index " + index.getName() + " is not supported by " + family + ".");
+		}
+		
+		List<String> keys = new ArrayList<String>();
+		for (MigrationIndex.Key key : index.getKeys()) {
+			keys.add(key.expression ? expression(family, key.sql) : key.sql);
+		}
+		if (!supportsInclude && !index.isUnique()) {
+			// a trailing key column covers the same queries
+			keys.addAll(index.getIncludedColumns());
+		} else if (!supportsInclude) {
+			// trailing key columns would change what is unique
+			unsupported(family, "INCLUDE", index.getIncludedColumns().isEmpty() ? null : index.getIncludedColumns());
+		}
+		if (!supportsPredicate) {
+			unsupported(family, "WHERE", index.getPredicate());
+		}
+		boolean supportsMethod = family == DbFamily.POSTGRES
+				|| (family == DbFamily.MYSQL && (index.getMethod() == IndexMethod.BTREE || index.getMethod() == IndexMethod.HASH));
+		if (!supportsMethod) {
+			unsupported(family, "USING", index.getMethod());
+		}
+		
+		StringBuilder sql = new StringBuilder("CREATE ");
+		if (index.isUnique()) {
+			sql.append("UNIQUE ");
+		}
+		sql.append("INDEX ").append(index.getName()).append(" ON ").append(getEntity().getName());
+		if (family == DbFamily.POSTGRES && index.getMethod() != null) {
+			sql.append(" USING ").append(index.getMethod().name().toLowerCase());
+		}
+		sql.append(" (").append(String.join(", ", keys)).append(")");
+		if (family == DbFamily.MYSQL && (index.getMethod() == IndexMethod.BTREE || index.getMethod() == IndexMethod.HASH)) {
+			sql.append(" USING ").append(index.getMethod().name());
+		}
+		if (supportsInclude && !index.getIncludedColumns().isEmpty()) {
+			sql.append(" INCLUDE (").append(String.join(", ", index.getIncludedColumns())).append(")");
+		}
+		if (supportsPredicate && index.getPredicate() != null) {
+			sql.append(" WHERE ").append(index.getPredicate());
+		}
+		return sql.toString();
+	}
+	
+	private void unsupported(DbFamily family, String option, Object value) {
+		if (value != null) {
+			log.warn("Ignoring index option " + option + " " + value + " for " + index.getName() + "; it isn't supported by " + family + ".");
+		}
+	}
+	
+	private String expression(DbFamily family, String expression) {
+		switch (family) {
+		case POSTGRES:
+		case MYSQL:
+			return "(" + expression + ")";
+		case ORACLE:
+		case SQLITE:
+			return expression;
+		default:
+			throw new UnsupportedOperationException("Expression index " + index.getName() + " is not supported by " + family + ".");
+		}
+	}
+	
+	public MergerToken createReverse(MergerTokenFactory factory) {
+		return new DummyReverseToken(this);
+	}
+	
+}
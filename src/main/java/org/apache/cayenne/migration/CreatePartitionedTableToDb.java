@@ -0,0 +1,93 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.cayenne.dba.DbAdapter;
+import org.apache.cayenne.dbsync.merge.factory.MergerTokenFactory;
+import org.apache.cayenne.dbsync.merge.token.DummyReverseToken;
+import org.apache.cayenne.dbsync.merge.token.MergerToken;
+import org.apache.cayenne.dbsync.merge.token.db.AbstractToDbToken;
+
+/**
+ * Creates a partitioned table by adding the partitioning clause to the CREATE TABLE rendered by the adapter.
+ * For MySQL the partitions added by the same migration are defined in the statement as well.
+ * 
+ * @author john
+ *
+ */
+class CreatePartitionedTableToDb extends AbstractToDbToken.Entity {
+
+	private final AbstractToDbToken create;
+	private final PartitionType type;
+	private final List<String> columns;
+	private final List<PartitionToDb> partitions = new ArrayList<PartitionToDb>();
+	
+	CreatePartitionedTableToDb(AbstractToDbToken.Entity create, PartitionType type, List<String> columns) {
+		super("Create Partitioned Table", 1, create.getEntity());
+		this.create = create;
+		this.type = type;
+		this.columns = columns;
+	}
+	
+	void addPartition(PartitionToDb partition) {
+		partitions.add(partition);
+	}
+	
+	@Override
+	public List<String> createSql(DbAdapter adapter) {
+		List<String> statements = new ArrayList<String>(create.createSql(adapter));
+		int index = statements.size() - 1;
+		while (index > 0 && !statements.get(index).trim().toUpperCase().startsWith("CREATE TABLE")) {
+			index--;
+		}
+		statements.set(index, statements.get(index) + partitionClause(DbFamily.of(adapter)));
+		return statements;
+	}
+	
+	String partitionClause(DbFamily family) {
+		String columnList = String.join(", ", columns);
+		if (family == DbFamily.POSTGRES) {
+			return " PARTITION BY " + type.name() + " (" + columnList + ")";
+		} else if (family == DbFamily.MYSQL) {
+			if (type == PartitionType.HASH) {
+				return " PARTITION BY KEY(" + columnList + ") PARTITIONS " + Math.max(1, partitions.size());
+			}
+			if (partitions.isEmpty()) {
+				throw new IllegalStateException("MySQL requires the partitions of " + getEntity().getName() + " to be added by the migration that creates it.");
+			}
+			StringBuilder definitions = new StringBuilder();
+			for (PartitionToDb partition : partitions) {
+				if (definitions.length() > 0) {
+					definitions.append(", ");
+				}
+				definitions.append(partition.getBounds().mysqlSql(partition.getPartition()));
+			}
+			return " PARTITION BY " + type.name() + " COLUMNS(" + columnList + ") (" + definitions + ")";
+		}
+		throw new UnsupportedOperationException("Partitioned tables are only supported for PostgreSQL and MySQL.");
+	}
+	
+	public MergerToken createReverse(MergerTokenFactory factory) {
+		return new DummyReverseToken(this);
+	}
+	
+}
@@ -0,0 +1,133 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.apache.cayenne.dba.DbAdapter;
+
+/**
+ * The capabilities of a database, determined from its adapter and server version along with any overrides.
+ * 
+ * @author john
+ *
+ */
+class DbCapabilities {
+
+	/**
+	 * Used when the server version is not known, like when compiling migration plans; features that depend on the
+	 * version are then assumed to be missing.
+	 */
+	static final int UNKNOWN_VERSION = -1;
+	
+	private final DbFamily family;
+	private final int majorVersion;
+	private final int minorVersion;
+	private final Map<Capability, Boolean> overrides;
+	
+	DbCapabilities(DbFamily family, int majorVersion, int minorVersion, Map<Capability, Boolean> overrides) {
+		this.family = family;
+		this.majorVersion = majorVersion;
+		this.minorVersion = minorVersion;
+		this.overrides = overrides.isEmpty() ? Collections.<Capability, Boolean>emptyMap() : new EnumMap<Capability, Boolean>(overrides);
+	}
+	
+	static DbCapabilities of(DbAdapter adapter) {
+		return new DbCapabilities(DbFamily.of(adapter), UNKNOWN_VERSION, UNKNOWN_VERSION, Collections.<Capability, Boolean>emptyMap());
+	}
+	
+	static DbCapabilities of(DbAdapter adapter, DatabaseMetaData metaData) throws SQLException {
+		return new DbCapabilities(DbFamily.of(adapter), metaData.getDatabaseMajorVersion(), metaData.getDatabaseMinorVersion(), Collections.<Capability, Boolean>emptyMap());
+	}
+	
+	/**
+	 * @return a copy of these capabilities with the given overrides applied on top of the existing ones
+	 */
+	DbCapabilities withOverrides(Map<Capability, Boolean> overrides) {
+		if (overrides.isEmpty()) {
+			return this;
+		}
+		Map<Capability, Boolean> combined = new EnumMap<Capability, Boolean>(Capability.class);
+		combined.putAll(this.overrides);
+		combined.putAll(overrides);
+		return new DbCapabilities(family, majorVersion, minorVersion, combined);
+	}
+	
+	/**
+	 * @return true if support for the capability was set explicitly rather than derived from the database
+	 */
+	boolean isOverridden(Capability capability) {
+		return overrides.containsKey(capability);
+	}
+	
+	boolean supports(Capability capability) {
+		Boolean override = overrides.get(capability);
+		if (override != null) {
+			return override;
+		}
+		
+		switch (capability) {
+		case ADD_COLUMN_WITH_DEFAULT:
+			switch (family) {
+			case POSTGRES:
+				// 11 stores the default in the catalog instead of rewriting the table
+				return atLeast(11, 0);
+			case MYSQL:
+				// 8.0 adds columns instantly; before that any way of adding the column copies the table, so one
+				// statement copies it once instead of once per statement
+				return true;
+			case ORACLE:
+				// 11g stores the default in the dictionary for NOT NULL columns
+				return atLeast(11, 0);
+			case SQLSERVER:
+				// 2012 adds columns with a constant default as a metadata change
+				return atLeast(11, 0);
+			case SQLITE:
+				// can't make an existing column NOT NULL, so the slow path isn't possible
+			case H2:
+			case HSQLDB:
+			case DERBY:
+			case DB2:
+				return true;
+			default:
+				return false;
+			}
+		case NOT_VALID_CONSTRAINTS:
+			return family == DbFamily.POSTGRES;
+		case NOT_NULL_FROM_CHECK:
+			// before 12 SET NOT NULL scans the table under an exclusive lock regardless of the check constraint
+			return family == DbFamily.POSTGRES && atLeast(12, 0);
+		default:
+			return false;
+		}
+	}
+	
+	private boolean atLeast(int major, int minor) {
+		return majorVersion > major || (majorVersion == major && minorVersion >= minor);
+	}
+	
+	DbFamily getFamily() {
+		return family;
+	}
+	
+}
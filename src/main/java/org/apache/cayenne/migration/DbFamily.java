@@ -0,0 +1,187 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import org.apache.cayenne.dba.DbAdapter;
+import org.apache.cayenne.dba.db2.DB2Adapter;
+import org.apache.cayenne.dba.derby.DerbyAdapter;
+import org.apache.cayenne.dba.h2.H2Adapter;
+import org.apache.cayenne.dba.hsqldb.HSQLDBAdapter;
+import org.apache.cayenne.dba.mysql.MySQLAdapter;
+import org.apache.cayenne.dba.oracle.OracleAdapter;
+import org.apache.cayenne.dba.postgres.PostgresAdapter;
+import org.apache.cayenne.dba.sqlite.SQLiteAdapter;
+import org.apache.cayenne.dba.sqlserver.SQLServerAdapter;
+import org.apache.cayenne.dbsync.merge.factory.DB2MergerTokenFactory;
+import org.apache.cayenne.dbsync.merge.factory.DefaultMergerTokenFactory;
+import org.apache.cayenne.dbsync.merge.factory.DerbyMergerTokenFactory;
+import org.apache.cayenne.dbsync.merge.factory.H2MergerTokenFactory;
+import org.apache.cayenne.dbsync.merge.factory.HSQLMergerTokenFactory;
+import org.apache.cayenne.dbsync.merge.factory.MergerTokenFactory;
+import org.apache.cayenne.dbsync.merge.factory.MySQLMergerTokenFactory;
+import org.apache.cayenne.dbsync.merge.factory.OracleMergerTokenFactory;
+import org.apache.cayenne.dbsync.merge.factory.PostgresMergerTokenFactory;
+import org.apache.cayenne.dbsync.merge.factory.SQLServerMergerTokenFactory;
+
+/**
+ * The database engines the Migrator knows about, determined from the DbAdapter, along with the
+ * engine specific behavior that the migration SQL depends on.
+ * 
+ * @author john
+ *
+ */
+enum DbFamily {
+
+	POSTGRES(true),
+	MYSQL(false),
+	ORACLE(false),
+	SQLSERVER(true),
+	DB2(true),
+	H2(true),
+	DERBY(true),
+	HSQLDB(false),
+	SQLITE(true),
+	OTHER(false);
+	
+	private final boolean transactionalDdl;
+	
+	private DbFamily(boolean transactionalDdl) {
+		this.transactionalDdl = transactionalDdl;
+	}
+	
+	/**
+	 * @return true if DDL statements can be rolled back, false if they commit the current transaction implicitly
+	 */
+	boolean hasTransactionalDdl() {
+		return transactionalDdl;
+	}
+	
+	/**
+	 * @return the statement that limits how long the session waits for locks, or null if the
+	 * database has no such setting
+	 */
+	String lockTimeoutSql(long millis) {
+		long seconds = Math.max(1, (millis + 999) / 1000);
+		switch (this) {
+		case POSTGRES:
+			return "SET lock_timeout = " + millis;
+		case MYSQL:
+			return "SET SESSION lock_wait_timeout = " + seconds;
+		case SQLSERVER:
+			return "SET LOCK_TIMEOUT " + millis;
+		case ORACLE:
+			return "ALTER SESSION SET DDL_LOCK_TIMEOUT = " + seconds;
+		case DB2:
+			return "SET CURRENT LOCK TIMEOUT " + seconds;
+		case H2:
+			return "SET LOCK_TIMEOUT " + millis;
+		default:
+			return null;
+		}
+	}
+	
+	/**
+	 * @return true if the database has a session setting that limits lock waits, so a timeout means a lock wasn't
+	 * acquired rather than that the statement ran too long
+	 */
+	boolean hasLockTimeout() {
+		return lockTimeoutSql(1) != null;
+	}
+	
+	/**
+	 * @return the statement that restores the default lock timeout of the session, or null if the
+	 * database has no such setting
+	 */
+	String resetLockTimeoutSql() {
+		switch (this) {
+		case POSTGRES:
+			return "RESET lock_timeout";
+		case MYSQL:
+			return "SET SESSION lock_wait_timeout = DEFAULT";
+		case SQLSERVER:
+			return "SET LOCK_TIMEOUT -1";
+		case ORACLE:
+			return "ALTER SESSION SET DDL_LOCK_TIMEOUT = 0";
+		case DB2:
+			return "SET CURRENT LOCK TIMEOUT NULL";
+		case H2:
+			// the default of H2
+			return "SET LOCK_TIMEOUT 1000";
+		default:
+			return null;
+		}
+	}
+	
+	/**
+	 * @return the factory of the tokens for the database, the same one the DbSyncModule provides for its adapter,
+	 * for when there is no Cayenne runtime
+	 */
+	MergerTokenFactory mergerTokenFactory() {
+		switch (this) {
+		case POSTGRES:
+			return new PostgresMergerTokenFactory();
+		case MYSQL:
+			return new MySQLMergerTokenFactory();
+		case ORACLE:
+			return new OracleMergerTokenFactory();
+		case SQLSERVER:
+			return new SQLServerMergerTokenFactory();
+		case DB2:
+			return new DB2MergerTokenFactory();
+		case H2:
+			return new H2MergerTokenFactory();
+		case DERBY:
+			return new DerbyMergerTokenFactory();
+		case HSQLDB:
+			return new HSQLMergerTokenFactory();
+		default:
+			return new DefaultMergerTokenFactory();
+		}
+	}
+	
+	static DbFamily of(DbAdapter adapter) {
+		if (adapter == null) {
+			return OTHER;
+		}
+		
+		// resolves an AutoAdapter to the detected adapter
+		DbAdapter actual = adapter.unwrap();
+		if (actual instanceof PostgresAdapter) {
+			return POSTGRES;
+		} else if (actual instanceof MySQLAdapter) {
+			return MYSQL;
+		} else if (actual instanceof OracleAdapter) {
+			return ORACLE;
+		} else if (actual instanceof SQLServerAdapter) {
+			return SQLSERVER;
+		} else if (actual instanceof DB2Adapter) {
+			return DB2;
+		} else if (actual instanceof H2Adapter) {
+			return H2;
+		} else if (actual instanceof DerbyAdapter) {
+			return DERBY;
+		} else if (actual instanceof HSQLDBAdapter) {
+			return HSQLDB;
+		} else if (actual instanceof SQLiteAdapter) {
+			return SQLITE;
+		}
+		return OTHER;
+	}
+	
+}
@@ -0,0 +1,67 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.cayenne.dba.DbAdapter;
+import org.apache.cayenne.dbsync.merge.factory.MergerTokenFactory;
+import org.apache.cayenne.dbsync.merge.token.DummyReverseToken;
+import org.apache.cayenne.dbsync.merge.token.MergerToken;
+import org.apache.cayenne.dbsync.merge.token.db.AbstractToDbToken;
+
+/**
+ * A MergerToken that is executed directly through JDBC by the {@link Migrator} rather than by running
+ * the SQL from {@link #createSql(DbAdapter)}, for operations that can't be expressed as a list of statements.
+ * 
+ * @author john
+ *
+ */
+abstract class DirectToDb extends AbstractToDbToken {
+
+	DirectToDb(String tokenName) {
+		super(tokenName, 1);
+	}
+	
+	/**
+	 * Performs the operation using the migrator's connection.
+	 * @return the number of rows touched
+	 */
+	abstract long execute(Migrator migrator) throws SQLException;
+	
+	/**
+	 * Direct operations have no SQL to render.
+	 */
+	@Override
+	public List<String> createSql(DbAdapter adapter) {
+		return Collections.emptyList();
+	}
+	
+	public MergerToken createReverse(MergerTokenFactory factory) {
+		return new DummyReverseToken(this);
+	}
+
+	@Override
+	public int compareTo(MergerToken token) {
+		return (token instanceof DirectToDb) ? 0 : 1;
+	}
+	
+}
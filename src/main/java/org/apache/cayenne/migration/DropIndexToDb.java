@@ -0,0 +1,65 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.cayenne.dba.DbAdapter;
+import org.apache.cayenne.dbsync.merge.factory.MergerTokenFactory;
+import org.apache.cayenne.dbsync.merge.token.DummyReverseToken;
+import org.apache.cayenne.dbsync.merge.token.MergerToken;
+import org.apache.cayenne.dbsync.merge.token.db.AbstractToDbToken;
+import org.apache.cayenne.map.DbEntity;
+
+/**
+ * Drops an index of the table.
+ * 
+ * @author john
+ *
+ */
+class DropIndexToDb extends AbstractToDbToken.Entity {
+
+	private final String indexName;
+	
+	DropIndexToDb(DbEntity entity, String indexName) {
+		super("Drop Index", 1, entity);
+		this.indexName = indexName;
+	}
+	
+	@Override
+	public List<String> createSql(DbAdapter adapter) {
+		return Collections.singletonList(createSql(DbFamily.of(adapter)));
+	}
+	
+	String createSql(DbFamily family) {
+		if (family == DbFamily.MYSQL || family == DbFamily.SQLSERVER) {
+			return "DROP INDEX " + indexName + " ON " + getEntity().getName();
+		}
+		// the index is in the schema of its table
+		String tableName = getEntity().getName();
+		String schema = tableName.contains(".") && !indexName.contains(".") ? tableName.substring(0, tableName.lastIndexOf('.') + 1) : "";
+		return "DROP INDEX " + schema + indexName;
+	}
+	
+	public MergerToken createReverse(MergerTokenFactory factory) {
+		return new DummyReverseToken(this);
+	}
+	
+}
@@ -0,0 +1,71 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks the foreign keys that were deferred by a bulk load against the loaded data before they are created, so
+ * all the violations are reported at once instead of failing on the first constraint.
+ * 
+ * @author john
+ *
+ */
+class ForeignKeyValidationToDb extends DirectToDb {
+
+	private final List<String[]> foreignKeys = new ArrayList<String[]>();
+	
+	ForeignKeyValidationToDb() {
+		super("Validate Foreign Keys");
+	}
+	
+	void addForeignKey(String table, String column, String referencedTable, String referencedColumn) {
+		foreignKeys.add(new String[] { table, column, referencedTable, referencedColumn });
+	}
+	
+	public String getTokenValue() {
+		return foreignKeys.size() + " foreign keys";
+	}
+	
+	/**
+	 * @return the query that counts the rows of the table that have no matching row in the referenced table
+	 */
+	static String violationSql(String table, String column, String referencedTable, String referencedColumn) {
+		return String.format("SELECT COUNT(*) FROM %s s WHERE s.%s IS NOT NULL AND NOT EXISTS (SELECT 1 FROM %s r WHERE r.%s = s.%s)",
+				table, column, referencedTable, referencedColumn, column);
+	}
+	
+	@Override
+	long execute(Migrator migrator) throws SQLException {
+		StringBuilder violations = new StringBuilder();
+		for (String[] foreignKey : foreignKeys) {
+			Integer count = migrator.executeSqlReturnInt(violationSql(foreignKey[0], foreignKey[1], foreignKey[2], foreignKey[3]));
+			if (count != null && count > 0) {
+				violations.append(String.format("%n  %s.%s -> %s.%s: %d rows", foreignKey[0], foreignKey[1], foreignKey[2], foreignKey[3], count));
+			}
+		}
+		if (violations.length() > 0) {
+			throw new MigrationValidationException("Foreign keys can't be created because the loaded data violates them:" + violations);
+		}
+		return 0;
+	}
+	
+}
@@ -0,0 +1,158 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransactionRollbackException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Limits how long a migration statement may wait for a lock and how often it is retried when it couldn't get one.
+ * 
+ * The timeout is applied as a session setting where the database supports one for lock waits (PostgreSQL
+ * lock_timeout, MySQL lock_wait_timeout, SQL Server LOCK_TIMEOUT, Oracle DDL_LOCK_TIMEOUT, DB2 CURRENT LOCK TIMEOUT
+ * and H2 LOCK_TIMEOUT), otherwise as a JDBC query timeout, which limits the total execution time of each statement
+ * instead.
+ * 
+ * Statements that fail because of a lock timeout, deadlock or serialization failure are retried after a jittered,
+ * exponentially growing delay; any other error fails the migration immediately. On databases limited by the query
+ * timeout a timeout isn't retried, since it can't be told apart from a statement that simply ran too long. Deadlocks
+ * and serialization failures are only retried when a savepoint restored the transaction, since databases like MySQL
+ * and SQL Server roll back the whole transaction, and retrying only the statement would lose the earlier ones.
+ * 
+ * @author john
+ *
+ */
+public class LockTimeoutPolicy {
+
+	private final long lockTimeoutMillis;
+	private final int maxRetries;
+	private final long initialBackoffMillis;
+	private final long maxBackoffMillis;
+	
+	/**
+	 * @param lockTimeoutMillis how long a statement may wait for a lock
+	 * @param maxRetries how many times a statement is retried after failing to get a lock
+	 * @param initialBackoffMillis the delay before the first retry, doubled for each subsequent retry
+	 * @param maxBackoffMillis the upper limit for the delay between retries
+	 */
+	public LockTimeoutPolicy(long lockTimeoutMillis, int maxRetries, long initialBackoffMillis, long maxBackoffMillis) {
+		if (lockTimeoutMillis < 1 || maxRetries < 0 || initialBackoffMillis < 0 || maxBackoffMillis < initialBackoffMillis) {
+			throw new IllegalArgumentException("Invalid lock timeout policy.");
+		}
+		this.lockTimeoutMillis = lockTimeoutMillis;
+		this.maxRetries = maxRetries;
+		this.initialBackoffMillis = initialBackoffMillis;
+		this.maxBackoffMillis = maxBackoffMillis;
+	}
+	
+	public long getLockTimeoutMillis() {
+		return lockTimeoutMillis;
+	}
+
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+
+	public long getInitialBackoffMillis() {
+		return initialBackoffMillis;
+	}
+
+	public long getMaxBackoffMillis() {
+		return maxBackoffMillis;
+	}
+	
+	/**
+	 * @return the lock timeout as a query timeout in whole seconds
+	 */
+	int getQueryTimeoutSeconds() {
+		return (int) Math.max(1, (lockTimeoutMillis + 999) / 1000);
+	}
+
+	/**
+	 * @param retry the zero based number of the retry
+	 * @return a random delay between half and all of the exponential backoff for the retry
+	 */
+	long backoffMillis(int retry) {
+		long backoff = initialBackoffMillis << Math.min(retry, 30);
+		if (backoff <= 0 || backoff > maxBackoffMillis) {
+			backoff = maxBackoffMillis;
+		}
+		return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+	}
+	
+	/**
+	 * Determines whether the exception, or one of the exceptions chained to it, was caused by failing to
+	 * acquire a lock rather than by the statement itself, so the statement can be retried.
+	 * @param family the database, whose timeouts only count as lock failures if it limits lock waits
+	 * @param restored whether the transaction was rolled back to a savepoint taken before the statement, which is
+	 * required to retry after a deadlock or serialization failure
+	 */
+	static boolean isLockFailure(SQLException e, DbFamily family, boolean restored) {
+		boolean lockTimeout = family.hasLockTimeout();
+		for (SQLException current = e; current != null; current = current.getNextException()) {
+			if ((restored && current instanceof SQLTransactionRollbackException) || (lockTimeout && current instanceof SQLTimeoutException)) {
+				return true;
+			}
+			
+			String state = current.getSQLState();
+			if (state != null) {
+				if ((restored && state.startsWith("40")) // serialization failure and deadlocks
+						|| (family == DbFamily.POSTGRES && state.equals("55P03")) // lock_not_available
+						|| (family == DbFamily.DB2 && state.equals("57033"))) { // lock timeout
+					return true;
+				}
+				if (lockTimeout && (state.equals("HYT00") || state.equals("HYT01"))) { // timeout expired
+					return true;
+				}
+			}
+			
+			int code = current.getErrorCode();
+			switch (family) {
+			case MYSQL:
+				// 1205 is a lock wait timeout, which only rolls back the statement, 1213 a deadlock
+				if (code == 1205 || (restored && code == 1213)) {
+					return true;
+				}
+				break;
+			case SQLSERVER:
+				// 1222 is a lock request timeout, 1205 a deadlock
+				if (code == 1222 || (restored && code == 1205)) {
+					return true;
+				}
+				break;
+			case ORACLE:
+				// resource busy
+				if (code == 54) {
+					return true;
+				}
+				break;
+			default:
+				break;
+			}
+			
+			if (current.getNextException() == current) {
+				break;
+			}
+		}
+		return false;
+	}
+	
+}
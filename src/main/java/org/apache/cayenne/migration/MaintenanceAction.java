@@ -0,0 +1,41 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+/**
+ * The maintenance performed on the tables changed by a migration once it is committed.
+ * 
+ * @author john
+ *
+ */
+public enum MaintenanceAction {
+	/**
+	 * Refreshes the planner statistics (ANALYZE, ANALYZE TABLE, UPDATE STATISTICS).
+	 */
+	ANALYZE,
+	/**
+	 * Reclaims the space of updated and deleted rows (VACUUM on PostgreSQL). This is skipped on MySQL,
+	 * where OPTIMIZE TABLE rebuilds the table.
+	 */
+	VACUUM,
+	/**
+	 * Loads the table into the buffer cache (pg_prewarm on PostgreSQL, which requires the extension).
+	 */
+	PREWARM
+}
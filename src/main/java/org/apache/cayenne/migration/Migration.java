@@ -65,10 +65,12 @@ public abstract class Migration {
 
 	private final DataNode node;
 	private final MigrationDatabase database;
+	private final MigrationDatabase contractDatabase;
 	
 	public Migration(DataNode node) {
 		this.node = node;
 		this.database = new MigrationDatabase(node);
+		this.contractDatabase = new MigrationDatabase(node);
 	}
 
 	public DataNode getDataNode() {
@@ -82,13 +84,51 @@ public abstract class Migration {
 	 */
 	public abstract void upgrade(MigrationDatabase db);
 	
+	/**
+	 * Subclasses can override this to perform the contract phase of the migration, which removes what is no longer
+	 * needed once the new version of the application is deployed, like a column that was replaced in upgrade.
+	 * It is applied by {@link Migrator#migrateToLatest(MigrationPhase)} with {@link MigrationPhase#CONTRACT}, or
+	 * right after upgrade by {@link Migrator#migrateToLatest()}.
+	 * 
+	 * @param db
+	 */
+	public void contract(MigrationDatabase db) {
+	}
+	
 	void run() {
-		upgrade(database);
+		run(MigrationPhase.EXPAND);
+	}
+	
+	void run(MigrationPhase phase) {
+		MigrationDatabase db = getDatabase(phase);
+		if (phase == MigrationPhase.CONTRACT) {
+			contract(db);
+		} else {
+			upgrade(db);
+		}
+		if (db.isBulkLoad()) {
+			throw new IllegalStateException(getClass().getName() + " began a bulk load without ending it.");
+		}
+	}
+	
+	/**
+	 * @return true if the migration has a contract phase
+	 */
+	boolean hasContract() {
+		try {
+			return getClass().getMethod("contract", MigrationDatabase.class).getDeclaringClass() != Migration.class;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
 	}
 	
 	MigrationDatabase getDatabase() {
 		return database;
 	}
+	
+	MigrationDatabase getDatabase(MigrationPhase phase) {
+		return phase == MigrationPhase.CONTRACT ? contractDatabase : database;
+	}
 
 //	void executeOperations() {
 //		MergerContext ctx = new ExecutingMergerContext(database.getDataMap(), node);
@@ -105,6 +145,33 @@ public abstract class Migration {
 		database.execute(sql);
 	}
 	
+	/**
+	 * Adds a Java-side transformation of the rows returned by selectSql to the queue of operations. For example:
+	 * 
+	 * <code><pre>
+	 * transformRows("SELECT id, email FROM Artist", "UPDATE Artist SET email_hash = ? WHERE id = ?", (row, update) -> {
+	 *   update.setString(1, hash(row.getString("email")));
+	 *   update.setInt(2, row.getInt("id"));
+	 *   return true;
+	 * });
+	 * </pre></code>
+	 * 
+	 * @see MigrationDatabase#transformRows(String, String, int, int, RowTransformer)
+	 */
+	public void transformRows(String selectSql, String updateSql, RowTransformer transformer) {
+		database.transformRows(selectSql, updateSql, transformer);
+	}
+	
+	/**
+	 * Adds a Java-side transformation of the rows returned by selectSql to the queue of operations, with the
+	 * given cursor fetch size and update batch size.
+	 * 
+	 * @see MigrationDatabase#transformRows(String, String, int, int, RowTransformer)
+	 */
+	public void transformRows(String selectSql, String updateSql, int fetchSize, int batchSize, RowTransformer transformer) {
+		database.transformRows(selectSql, updateSql, fetchSize, batchSize, transformer);
+	}
+	
 	/**
 	 * Adds sql from a file in the classpath to the queue of operations. 
 	 * 
@@ -46,6 +46,7 @@ public abstract class MigrationColumn {
 	
 	MigrationColumn(MigrationTable table, String name, int jdbcType, int maxLength, int precision, int scale, boolean isMandatory, Object defaultValue) {
 		this.table = table;
+		table.checkChangeable();
 
 		if (this.table.getColumns().containsKey(name)) {
 			throw new IllegalStateException(name + " has already been added to table: " + table.getEntity().getName());
@@ -130,6 +131,8 @@ public abstract class MigrationColumn {
     protected String sqlForLiteral(Object value) {
         if (value == null) {
             return "null";
+        } else if (value instanceof ColumnDefault) {
+            return ((ColumnDefault) value).sql(DbFamily.of(getTable().getDatabase().getAdapter()));
         } else if (value instanceof String) {
             return "'" + value + "'";
         } else if (value instanceof BigDecimal) {
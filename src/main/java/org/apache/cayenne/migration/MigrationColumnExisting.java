@@ -20,6 +20,9 @@ package org.apache.cayenne.migration;
 
 import java.sql.Types;
 
+import org.apache.cayenne.dbsync.merge.token.MergerToken;
+import org.apache.cayenne.merge.ArbitrarySqlToDb;
+
 
 
 /**
@@ -43,11 +46,26 @@ public class MigrationColumnExisting extends MigrationColumn {
 	}
 	
 	/**
-	 * Adds a "NOT NULL" constraint to an existing column.
+	 * Adds a "NOT NULL" constraint to an existing column. In the online constraint mode, on databases that can use
+	 * a CHECK constraint to make a column NOT NULL without a scan, this goes through a CHECK constraint that is
+	 * validated after the migration is committed.
 	 */
 	public MigrationColumnExisting addNotNullConstraint() {
 		getAttribute().setMandatory(true);
+		if (getTable().getDatabase().useOnlineConstraints() && getTable().getDatabase().supports(Capability.NOT_NULL_FROM_CHECK)) {
+		    String tableName = getTable().getEntity().getName();
+		    String constraintName = tableName.replaceFirst(".+\\.", "") + "_" + getAttribute().getName() + "_not_null";
+		    int first = getTable().getDatabase().getOperations().size();
+		    getTable().getDatabase().addOperation(new ArbitrarySqlToDb(String.format("ALTER TABLE %s ADD CONSTRAINT %s CHECK (%s IS NOT NULL) NOT VALID",
+		            tableName, constraintName, getAttribute().getName())), tableName, null);
+		    getTable().getDatabase().addOperation(new ConstraintValidationToDb(tableName, constraintName, getAttribute().getName()), tableName, null);
+		    // an empty table can take the constraint directly
+		    getTable().getDatabase().setEmptyTableForm(first, tableName, null, factory().createSetNotNullToDb(getTable().getEntity(), getAttribute()));
+		    return this;
+		}
+		getTable().getDatabase().beginConditional(ConditionalToDb.Condition.COLUMN_NULLABLE, getTable().getEntity().getName(), getAttribute());
 		getTable().getDatabase().addOperation(factory().createSetNotNullToDb(getTable().getEntity(), getAttribute()));
+		getTable().getDatabase().endConditional();
 		return this;
 	}
 
@@ -56,10 +74,22 @@ public class MigrationColumnExisting extends MigrationColumn {
 	 */
 	public MigrationColumnExisting dropNotNullConstraint() {
 	    getAttribute().setMandatory(false);
+	    getTable().getDatabase().beginConditional(ConditionalToDb.Condition.COLUMN_NOT_NULL, getTable().getEntity().getName(), getAttribute());
 	    getTable().getDatabase().addOperation(factory().createSetAllowNullToDb(getTable().getEntity(), getAttribute()));
+	    getTable().getDatabase().endConditional();
 		return this;
 	}
 	
+	/**
+	 * Adds the type change, whose statement is chosen when the migration runs based on the current type of the column.
+	 */
+	private void changeDataType() {
+	    MergerToken change = factory().createSetColumnTypeToDb(getTable().getEntity(), getAttribute(), getAttribute());
+	    getTable().getDatabase().beginConditional(ConditionalToDb.Condition.TYPE_DIFFERENT, getTable().getEntity().getName(), getAttribute());
+	    getTable().getDatabase().addOperation(new ColumnTypeChangeToDb(getTable().getEntity(), getAttribute(), change), getTable().getEntity().getName(), null);
+	    getTable().getDatabase().endConditional();
+	}
+	
 	/**
 	 * Changes the data type for an existing column with configurable precision and scale.
 	 * @param jdbcType
@@ -71,7 +101,7 @@ public class MigrationColumnExisting extends MigrationColumn {
 	    getAttribute().setAttributePrecision(precision);
 	    getAttribute().setMaxLength(precision);
 	    getAttribute().setScale(scale);
-		getTable().getDatabase().addOperation(factory().createSetColumnTypeToDb(getTable().getEntity(), getAttribute(), getAttribute()));
+		changeDataType();
 		return this;
 	}
 	
@@ -83,7 +113,7 @@ public class MigrationColumnExisting extends MigrationColumn {
 	public MigrationColumnExisting setDataType(int jdbcType, int width) {
 	    getAttribute().setType(jdbcType);
 	    getAttribute().setMaxLength(width);
-	    getTable().getDatabase().addOperation(factory().createSetColumnTypeToDb(getTable().getEntity(), getAttribute(), getAttribute()));
+	    changeDataType();
 		return this;
 	}
 	
@@ -93,7 +123,7 @@ public class MigrationColumnExisting extends MigrationColumn {
 	 */
 	public MigrationColumnExisting setDataType(int jdbcType) {
 	    getAttribute().setType(jdbcType);
-	    getTable().getDatabase().addOperation(factory().createSetColumnTypeToDb(getTable().getEntity(), getAttribute(), getAttribute()));
+	    changeDataType();
 		return this;
 	}
 	
@@ -34,7 +34,12 @@ import org.apache.cayenne.merge.ArbitrarySqlToDb;
 public class MigrationColumnNew extends MigrationColumn {
 
 	MigrationColumnNew(MigrationTable table, String name, int jdbcType, int maxLength, int precision, int scale, boolean isMandatory, Object defaultValue) {
+		this(table, name, jdbcType, maxLength, precision, scale, isMandatory, defaultValue, false);
+	}
+	
+	MigrationColumnNew(MigrationTable table, String name, int jdbcType, int maxLength, int precision, int scale, boolean isMandatory, Object defaultValue, boolean isGenerated) {
 		super(table, name, jdbcType, maxLength, precision, scale, isMandatory, defaultValue);
+		getAttribute().setGenerated(isGenerated);
 		if (!table.isNew()) {
 			create();
 		} else if (getDefaultValue() != null) {
@@ -48,20 +53,24 @@ public class MigrationColumnNew extends MigrationColumn {
 	}
 	
 	protected void create() {
-	    if (Migrator.USE_EFFICIENT_ALTER_TABLE) {
-	           MergerToken op = factory().createAddColumnToDb(getTable().getEntity(), getAttribute());
-	           String sql = ((AbstractToDbToken)op).createSql(getTable().getDatabase().getAdapter()).get(0);
-	           
-	           if (getDefaultValue() != null) {
-	               sql += " DEFAULT " + sqlForLiteral(getDefaultValue());
-	           }
-	           
-	           if (getAttribute().isMandatory()) {
-	               sql += " NOT NULL";
-	           }
-	           
-	           getTable().getDatabase().addOperation(new ArbitrarySqlToDb(sql));
+	    getTable().getDatabase().beginConditional(ConditionalToDb.Condition.COLUMN_MISSING, getTable().getEntity().getName(), getAttribute());
+	    createColumn();
+	    getTable().getDatabase().endConditional();
+	}
+	
+	private void createColumn() {
+	    if (getAttribute().isGenerated()) {
+	        getTable().getDatabase().addOperation(new ArbitrarySqlToDb(addIdentityColumnSql()), getTable().getEntity().getName(), null);
+	        return;
+	    }
+	    
+	    // an expression may be volatile, like a time ordered UUID, and is then evaluated for every existing row in one
+	    // statement, which rewrites the table on PostgreSQL and can't be done instantly on MySQL
+	    boolean expressionDefault = getDefaultValue() instanceof ColumnDefault;
+	    if (!expressionDefault && getTable().getDatabase().supports(Capability.ADD_COLUMN_WITH_DEFAULT)) {
+	        getTable().getDatabase().addOperation(new ArbitrarySqlToDb(addColumnSql()), getTable().getEntity().getName(), null);
 	    } else {
+	        int first = getTable().getDatabase().getOperations().size();
     		MergerToken op = factory().createAddColumnToDb(getTable().getEntity(), getAttribute());
     		getTable().getDatabase().addOperation(op);
     		
@@ -69,13 +78,64 @@ public class MigrationColumnNew extends MigrationColumn {
                 setDefault(getDefaultValue());
             }
     		
-    		if (getAttribute().isMandatory()) {
+    		// generated columns are filled in and not null when they are added
+    		if ((getAttribute().isMandatory() || expressionDefault) && !getAttribute().isGenerated()) {
     		    getTable().getDatabase().execute("UPDATE " +  getTable().getEntity().getFullyQualifiedName() + " SET " + getAttribute().getName() + " = " + sqlForLiteral(getDefaultValue()));
-    		    
+    		}
+    		if (getAttribute().isMandatory() && !getAttribute().isGenerated()) {
                 op = factory().createSetNotNullToDb(getTable().getEntity(), getAttribute());
                 getTable().getDatabase().addOperation(op);
     		}
+    		
+    		if ((getDefaultValue() != null || getAttribute().isMandatory()) && !getAttribute().isGenerated()) {
+    		    // a table created earlier in the run has no rows to backfill
+    		    getTable().getDatabase().setEmptyTableForm(first, getTable().getEntity().getName(), null, new ArbitrarySqlToDb(addColumnSql()));
+    		}
+	    }
+	}
+	
+	/**
+	 * @return the statement adding an identity column to an existing table, which numbers the existing rows
+	 */
+	private String addIdentityColumnSql() {
+	    DbFamily family = DbFamily.of(getTable().getDatabase().getAdapter());
+	    String table = getTable().getEntity().getFullyQualifiedName();
+	    String name = getAttribute().getName();
+	    String type = getTable().getDatabase().getAdapter().externalTypesForJdbcType(getAttribute().getType())[0];
+	    switch (family) {
+	    case POSTGRES:
+	    case H2:
+	    case HSQLDB:
+	        return "ALTER TABLE " + table + " ADD COLUMN " + name + " " + type + " GENERATED BY DEFAULT AS IDENTITY";
+	    case DB2:
+	        return "ALTER TABLE " + table + " ADD COLUMN " + name + " " + type + " NOT NULL GENERATED BY DEFAULT AS IDENTITY";
+	    case ORACLE:
+	        return "ALTER TABLE " + table + " ADD (" + name + " " + type + " GENERATED BY DEFAULT AS IDENTITY)";
+	    case SQLSERVER:
+	        return "ALTER TABLE " + table + " ADD " + name + " " + type + " IDENTITY(1,1) NOT NULL";
+	    case MYSQL:
+	        // an auto increment column has to be the first column of an index
+	        return "ALTER TABLE " + table + " ADD COLUMN " + name + " " + type + " NOT NULL AUTO_INCREMENT, ADD UNIQUE KEY (" + name + ")";
+	    default:
+	        throw new UnsupportedOperationException("Adding an identity column to an existing table is not supported by " + family + ".");
+	    }
+	}
+	
+	/**
+	 * @return the statement adding the column along with its default and NOT NULL constraint
+	 */
+	private String addColumnSql() {
+	    MergerToken op = factory().createAddColumnToDb(getTable().getEntity(), getAttribute());
+	    String sql = ((AbstractToDbToken)op).createSql(getTable().getDatabase().getAdapter()).get(0);
+	    
+	    if (getDefaultValue() != null) {
+	        sql += " DEFAULT " + sqlForLiteral(getDefaultValue());
+	    }
+	    
+	    if (getAttribute().isMandatory()) {
+	        sql += " NOT NULL";
 	    }
+	    return sql;
 	}
 	
 }
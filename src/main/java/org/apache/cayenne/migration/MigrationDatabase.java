@@ -19,18 +19,27 @@
 package org.apache.cayenne.migration;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
 
 import org.apache.cayenne.access.DataNode;
 import org.apache.cayenne.configuration.server.ServerRuntime;
 import org.apache.cayenne.dba.DbAdapter;
-import org.apache.cayenne.dbsync.merge.factory.DefaultMergerTokenFactory;
 import org.apache.cayenne.dbsync.merge.factory.MergerTokenFactory;
 import org.apache.cayenne.dbsync.merge.token.MergerToken;
+import org.apache.cayenne.dbsync.merge.token.db.AbstractToDbToken;
 import org.apache.cayenne.di.Injector;
 import org.apache.cayenne.map.DataMap;
+import org.apache.cayenne.map.DbAttribute;
+import org.apache.cayenne.map.DbEntity;
 import org.apache.cayenne.merge.ArbitrarySqlToDb;
 
 /**
@@ -44,14 +53,34 @@ import org.apache.cayenne.merge.ArbitrarySqlToDb;
  */
 public class MigrationDatabase {
 
+	static final int DEFAULT_FETCH_SIZE = 1000;
+	static final int DEFAULT_BATCH_SIZE = 1000;
+	
+	private static final Pattern CREATE_INDEX = Pattern.compile("^\\s*CREATE\\s+(UNIQUE\\s+)?INDEX\\b.*", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
 	private List<MergerToken> operations = new ArrayList<MergerToken>();
 	private DbAdapter adapter;
 	private String databaseProductName;
 	private DataMap map = new DataMap("GeneratedMigration");
 	private Map<String, MigrationTable> tables = new HashMap<String, MigrationTable>();
+	private Map<MergerToken, String> operationTables = new IdentityHashMap<MergerToken, String>();
+	private Map<MergerToken, String> referencedTables = new IdentityHashMap<MergerToken, String>();
+	private Map<MergerToken, EmptyTableForm> emptyTableForms = new IdentityHashMap<MergerToken, EmptyTableForm>();
+	private List<MigrationTableNew> bulkLoadTables;
+	private List<MergerToken> deferredKeys;
+	private List<MergerToken> deferredIndexes;
+	private List<MergerToken> deferredForeignKeys;
+	private ForeignKeyValidationToDb deferredValidation;
+	private Set<MaintenanceAction> maintenance;
+	private boolean onlineConstraints;
+	private boolean idempotent;
+	private ConditionalToDb conditional;
+	private DbCapabilities capabilities;
+	private Map<Capability, Boolean> capabilityOverrides = new EnumMap<Capability, Boolean>(Capability.class);
 	
 	MigrationDatabase(DataNode node) {
 		this.adapter = node.getAdapter();
+		this.capabilities = DbCapabilities.of(adapter);
 	}
 	
 	/**
@@ -70,11 +99,26 @@ public class MigrationDatabase {
 		} else {
 			result = new MigrationTableNew(this, tableName);
 			tables.put(tableName, result);
+			if (isBulkLoad()) {
+			    bulkLoadTables.add((MigrationTableNew) result);
+			}
 		}
 		
 		return (MigrationTableNew) result;
 	}
 
+	/**
+	 * Creates a new table in the database with the given storage options.
+	 * @param tableName
+	 * @param storage
+	 * @return
+	 */
+	public MigrationTableNew createTable(String tableName, StorageOptions storage) {
+		MigrationTableNew result = createTable(tableName);
+		result.setStorage(storage);
+		return result;
+	}
+
 	/**
 	 * Returns an existing table that can be modified.
 	 * @param tableName
@@ -101,11 +145,40 @@ public class MigrationDatabase {
     public void dropTable(String tableName) {
     	MigrationTable table = alterTable(tableName);
         MergerToken op = factory().createDropTableToDb(table.getEntity());
+        beginConditional(ConditionalToDb.Condition.TABLE_EXISTS, tableName, null);
         addOperation(op);
+        endConditional();
         map.removeDbEntity(tableName);
         tables.remove(tableName);
     }
     
+    /**
+     * Creates a new sequence; the increment, start and cache size can be set on the returned sequence.
+     * @param sequenceName
+     * @return
+     */
+    public MigrationSequence createSequence(String sequenceName) {
+        MigrationSequence sequence = new MigrationSequence(sequenceName);
+        addOperation(new SequenceToDb(SequenceToDb.Action.CREATE, sequence));
+        return sequence;
+    }
+    
+    /**
+     * Changes an existing sequence; only the options set on the returned sequence are changed, and setting the
+     * start restarts the sequence with that value.
+     * @param sequenceName
+     * @return
+     */
+    public MigrationSequence alterSequence(String sequenceName) {
+        MigrationSequence sequence = new MigrationSequence(sequenceName);
+        addOperation(new SequenceToDb(SequenceToDb.Action.ALTER, sequence));
+        return sequence;
+    }
+    
+    public void dropSequence(String sequenceName) {
+        addOperation(new SequenceToDb(SequenceToDb.Action.DROP, new MigrationSequence(sequenceName)));
+    }
+    
 	DataMap getDataMap() {
 		return map;
 	}
@@ -119,7 +192,7 @@ public class MigrationDatabase {
 	    if (injector != null) {
 	        return injector.getInstance(MergerTokenFactory.class);
 	    } else {
-	        return new DefaultMergerTokenFactory();
+	        return DbFamily.of(adapter).mergerTokenFactory();
 	    }
 	}
 
@@ -130,14 +203,154 @@ public class MigrationDatabase {
 	void setDatabaseProductName(String databaseProductName) {
 	    this.databaseProductName = databaseProductName;
 	}
+	
+	void setCapabilities(DbCapabilities capabilities) {
+	    this.capabilities = capabilities;
+	}
+	
+	/**
+	 * Overrides whether the database supports a capability for the rest of this migration, for example to add a
+	 * column in one statement on a database version the Migrator doesn't know about.
+	 * @param capability
+	 * @param supported
+	 */
+	public void setCapability(Capability capability, boolean supported) {
+	    capabilityOverrides.put(capability, supported);
+	}
+	
+	/**
+	 * @return true if the database supports the capability, based on its adapter and server version and any overrides
+	 */
+	public boolean supports(Capability capability) {
+	    return supports(capabilities.withOverrides(capabilityOverrides), capability);
+	}
+	
+	@SuppressWarnings("deprecation")
+	private static boolean supports(DbCapabilities capabilities, Capability capability) {
+	    // the legacy flag only replaces the default, not an explicit override
+	    if (capability == Capability.ADD_COLUMN_WITH_DEFAULT && Migrator.USE_EFFICIENT_ALTER_TABLE && !capabilities.isOverridden(capability)) {
+	        return true;
+	    }
+	    return capabilities.supports(capability);
+	}
+	
+	/**
+	 * @return the capabilities the database supports before the overrides of the migration, which a migration plan
+	 * must have been rendered with to be used
+	 */
+	String supportedCapabilities() {
+	    StringBuilder result = new StringBuilder();
+	    for (Capability capability : Capability.values()) {
+	        if (supports(capabilities, capability)) {
+	            result.append(result.length() > 0 ? "," : "").append(capability.name());
+	        }
+	    }
+	    return result.toString();
+	}
 
 	void addOperation(MergerToken operation) {
-		operations.add(operation);
+		if (conditional != null) {
+		    conditional.add(operation);
+		} else {
+		    operations.add(operation);
+		}
+	}
+	
+	/**
+	 * In the idempotent mode, starts a group of operations on an existing table that is skipped when the condition
+	 * shows that it is already applied; the group ends with {@link #endConditional()}. Outside of the mode this
+	 * does nothing and the operations are added as usual.
+	 */
+	void beginConditional(ConditionalToDb.Condition condition, String table, DbAttribute attribute) {
+		if (idempotent) {
+		    ConditionalToDb group = new ConditionalToDb(condition, table, attribute);
+		    addOperation(group, table, null);
+		    conditional = group;
+		}
+	}
+	
+	void endConditional() {
+		conditional = null;
+	}
+	
+	/**
+	 * Adds an operation on the given table that also depends on referencedTable, for operations that don't carry
+	 * this information themselves, such as arbitrary SQL or foreign keys.
+	 */
+	void addOperation(MergerToken operation, String table, String referencedTable) {
+		addOperation(operation);
+		recordTables(operation, table, referencedTable);
+	}
+	
+	/**
+	 * Registers a cheaper form of the operations from the given index on, which are on one table, for when the
+	 * table was created earlier in the same run and is still empty: the first operation is replaced with the
+	 * replacement and the others are left out.
+	 * @see RunSchema
+	 */
+	void setEmptyTableForm(int fromIndex, String table, String referencedTable, MergerToken replacement) {
+		if (conditional != null || fromIndex >= operations.size()) {
+		    return;
+		}
+		recordTables(replacement, table, referencedTable);
+		for (int i = fromIndex; i < operations.size(); i++) {
+		    emptyTableForms.put(operations.get(i), new EmptyTableForm(table, i == fromIndex ? replacement : null));
+		}
+	}
+	
+	/**
+	 * @return the form of the operation for an empty table, or null if it doesn't have one
+	 */
+	EmptyTableForm emptyTableFormOf(MergerToken operation) {
+		return emptyTableForms.get(operation);
+	}
+	
+	/**
+	 * The cheaper form of an operation for a table that is still empty.
+	 */
+	static class EmptyTableForm {
+		final String table;
+		final MergerToken replacement;
+		
+		EmptyTableForm(String table, MergerToken replacement) {
+			this.table = table;
+			this.replacement = replacement;
+		}
+	}
+	
+	void replaceOperation(MergerToken operation, MergerToken replacement) {
+		operations.set(operations.indexOf(operation), replacement);
+	}
+	
+	private void recordTables(MergerToken operation, String table, String referencedTable) {
+		operationTables.put(operation, table);
+		if (referencedTable != null) {
+		    referencedTables.put(operation, referencedTable);
+		}
 	}
 	
 	List<MergerToken> getOperations() {
 		return operations;
 	}
+	
+	/**
+	 * @return the name of the table that the operation changes, or null if it isn't known
+	 */
+	String tableOf(MergerToken operation) {
+		if (operationTables.containsKey(operation)) {
+		    return operationTables.get(operation);
+		} else if (operation instanceof AbstractToDbToken.Entity) {
+		    return ((AbstractToDbToken.Entity) operation).getEntity().getName();
+		}
+		return null;
+	}
+	
+	/**
+	 * @return the name of the table that a foreign key operation refers to, or null
+	 */
+	String referencedTableOf(MergerToken operation) {
+		return referencedTables.get(operation);
+	}
 
 	/**
 	 * Add an arbitrary SQL operation to the list of operations to be performed
@@ -145,8 +358,220 @@ public class MigrationDatabase {
 	 */
 	public void execute(String sql) {
 	    if (sql != null && sql.trim().length() != 0) {
-	        addOperation(new ArbitrarySqlToDb(sql));
+	        if (isBulkLoad() && CREATE_INDEX.matcher(sql).matches()) {
+	            deferredIndexes.add(new ArbitrarySqlToDb(sql));
+	        } else {
+	            addOperation(new ArbitrarySqlToDb(sql));
+	        }
+	    }
+	}
+	
+	/**
+	 * Sets the maintenance performed on the tables this migration changes once it is committed, overriding
+	 * the Migrator's default. Passing no actions turns the maintenance off for this migration.
+	 * @param actions
+	 */
+	public void setMaintenance(MaintenanceAction... actions) {
+	    maintenance = actions.length == 0 ? EnumSet.noneOf(MaintenanceAction.class) : EnumSet.copyOf(Arrays.asList(actions));
+	}
+	
+	/**
+	 * @return the maintenance set by the migration or null to use the Migrator's default
+	 */
+	Set<MaintenanceAction> getMaintenance() {
+	    return maintenance;
+	}
+	
+	/**
+	 * Turns on the online constraint mode for the rest of this migration. On PostgreSQL, foreign keys, check
+	 * constraints and, from version 12 on, NOT NULL constraints added to existing tables are then added as NOT VALID,
+	 * which only takes a brief lock, and validated in the background once the migration is committed, without blocking
+	 * writes to the table. Other databases add the constraints in one step as usual.
+	 * @param onlineConstraints
+	 */
+	public void setOnlineConstraints(boolean onlineConstraints) {
+	    this.onlineConstraints = onlineConstraints;
+	}
+	
+	public boolean isOnlineConstraints() {
+	    return onlineConstraints;
+	}
+	
+	/**
+	 * Turns on the idempotent mode for the rest of this migration. Operations on existing tables are then checked
+	 * against the live schema when the migration runs and skipped if they are already applied: columns are only added
+	 * if they are missing, dropped if they exist, changed to a different type, or made NOT NULL if they allow null, and
+	 * tables are only dropped if they exist. This allows a migration that was partially applied on a database without
+	 * transactional DDL to be run again. Migrations using this mode are not precompiled into plans.
+	 * @param idempotent
+	 */
+	public void setIdempotent(boolean idempotent) {
+	    this.idempotent = idempotent;
+	}
+	
+	public boolean isIdempotent() {
+	    return idempotent;
+	}
+	
+	/**
+	 * @return true if constraints should be added as NOT VALID and validated after the commit
+	 */
+	boolean useOnlineConstraints() {
+	    // a bulk load validates its foreign keys itself
+	    return onlineConstraints && !isBulkLoad() && supports(Capability.NOT_VALID_CONSTRAINTS);
+	}
+	
+	/**
+	 * Begins a bulk load section. Until {@link #endBulkLoad()} is called, the creation of primary keys, indexes
+	 * and foreign keys is held back so that the data statements in between don't have to maintain them row by row.
+	 * For example:
+	 * 
+	 * <code><pre>
+	 * db.beginBulkLoad();
+	 * MigrationTableNew painting = db.createTable("Painting");
+	 * ...
+	 * painting.addPrimaryKey("painting_id");
+	 * painting.addForeignKey("artist_id", "Artist", "artist_id", true);
+	 * db.execute("INSERT INTO Painting SELECT ... FROM legacy_painting");
+	 * db.endBulkLoad();
+	 * </pre></code>
+	 */
+	public void beginBulkLoad() {
+	    if (isBulkLoad()) {
+	        throw new IllegalStateException("A bulk load has already been started.");
+	    }
+	    bulkLoadTables = new ArrayList<MigrationTableNew>();
+	    deferredKeys = new ArrayList<MergerToken>();
+	    deferredIndexes = new ArrayList<MergerToken>();
+	    deferredForeignKeys = new ArrayList<MergerToken>();
+	    deferredValidation = new ForeignKeyValidationToDb();
+	}
+	
+	/**
+	 * Ends the bulk load section, adding the operations that were held back after the data statements:
+	 * the primary keys first, since the other indexes and the foreign keys can use them, then the indexes,
+	 * and finally the foreign keys. The loaded data is checked against all the foreign keys in one pass
+	 * before they are created and a {@link MigrationValidationException} listing the violations stops the
+	 * migration if any are found.
+	 * 
+	 * The tables created in the section are rendered at this point, so they can't be changed afterwards; adding a
+	 * column or primary key to one of them or partitioning it throws an IllegalStateException.
+	 */
+	public void endBulkLoad() {
+	    if (!isBulkLoad()) {
+	        throw new IllegalStateException("No bulk load has been started.");
 	    }
+	    for (MigrationTableNew table : bulkLoadTables) {
+	        deferPrimaryKey(table);
+	        table.endBulkLoad();
+	    }
+	    operations.addAll(deferredKeys);
+	    operations.addAll(deferredIndexes);
+	    if (!deferredForeignKeys.isEmpty()) {
+	        operations.add(deferredValidation);
+	        operations.addAll(deferredForeignKeys);
+	    }
+	    
+	    bulkLoadTables = null;
+	    deferredKeys = null;
+	    deferredIndexes = null;
+	    deferredForeignKeys = null;
+	    deferredValidation = null;
+	}
+	
+	boolean isBulkLoad() {
+	    return bulkLoadTables != null;
+	}
+	
+	/**
+	 * Renders the CREATE TABLE of a table created in a bulk load without its primary key and adds the primary
+	 * key separately.
+	 */
+	private void deferPrimaryKey(MigrationTableNew table) {
+	    int index = operations.indexOf(table.getCreateOperation());
+	    DbEntity entity = table.getEntity();
+	    List<DbAttribute> primaryKeys = new ArrayList<DbAttribute>(entity.getPrimaryKeys());
+	    if (index < 0 || primaryKeys.isEmpty()) {
+	        return;
+	    }
+	    
+	    MergerToken create = operations.remove(index);
+	    for (DbAttribute attribute : primaryKeys) {
+	        attribute.setPrimaryKey(false);
+	    }
+	    try {
+	        List<String> statements = ((AbstractToDbToken) create).createSql(adapter);
+	        for (int i = statements.size() - 1; i >= 0; i--) {
+	            operations.add(index, new RenderedSqlToDb(statements.get(i), create));
+	        }
+	    } finally {
+	        for (DbAttribute attribute : primaryKeys) {
+	            attribute.setPrimaryKey(true);
+	        }
+	    }
+	    deferredKeys.add(factory().createSetPrimaryKeyToDb(entity, Collections.<DbAttribute>emptyList(), primaryKeys, null));
+	}
+	
+	/**
+	 * Adds a primary key operation, which is deferred in a bulk load.
+	 */
+	void addPrimaryKeyOperation(MergerToken operation) {
+	    if (isBulkLoad()) {
+	        deferredKeys.add(operation);
+	    } else {
+	        addOperation(operation);
+	    }
+	}
+	
+	/**
+	 * Adds an index operation on the table, which is deferred in a bulk load.
+	 */
+	void addIndexOperation(MergerToken operation, String table) {
+	    if (isBulkLoad()) {
+	        deferredIndexes.add(operation);
+	        recordTables(operation, table, null);
+	    } else {
+	        addOperation(operation, table, null);
+	    }
+	}
+	
+	/**
+	 * Adds a foreign key operation, which is deferred and validated in a bulk load.
+	 */
+	void addForeignKeyOperation(MergerToken operation, String table, String column, String referencedTable, String referencedColumn) {
+	    if (isBulkLoad()) {
+	        deferredForeignKeys.add(operation);
+	        deferredValidation.addForeignKey(table, column, referencedTable, referencedColumn);
+	        recordTables(operation, table, referencedTable);
+	    } else {
+	        addOperation(operation, table, referencedTable);
+	    }
+	}
+
+	/**
+	 * Add a row transformation to the list of operations to be performed. The rows returned by selectSql are
+	 * streamed through the transformer, which sets the parameters of updateSql for each row.
+	 * 
+	 * @see #transformRows(String, String, int, int, RowTransformer)
+	 */
+	public void transformRows(String selectSql, String updateSql, RowTransformer transformer) {
+	    transformRows(selectSql, updateSql, DEFAULT_FETCH_SIZE, DEFAULT_BATCH_SIZE, transformer);
+	}
+	
+	/**
+	 * Add a row transformation to the list of operations to be performed. The rows returned by selectSql are read
+	 * through a cursor, fetchSize rows at a time, and streamed through the transformer, which sets the parameters
+	 * of updateSql for each row. The updates are executed in batches of batchSize and each batch is committed,
+	 * so the transformation should be written so that it can be safely re-run.
+	 * 
+	 * @param selectSql the query for the rows to transform
+	 * @param updateSql the parameterized statement to write each transformed row
+	 * @param fetchSize the number of rows fetched from the database at a time
+	 * @param batchSize the number of updates executed and committed at a time
+	 * @param transformer
+	 */
+	public void transformRows(String selectSql, String updateSql, int fetchSize, int batchSize, RowTransformer transformer) {
+	    addOperation(new RowTransformationToDb(selectSql, updateSql, fetchSize, batchSize, transformer));
 	}
 
 }
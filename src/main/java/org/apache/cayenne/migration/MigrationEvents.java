@@ -0,0 +1,104 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import org.apache.cayenne.dbsync.merge.token.MergerToken;
+import org.apache.cayenne.dbsync.merge.token.db.AbstractToDbToken;
+
+/**
+ * Emits Java Flight Recorder events for the phases of a migration, so they can be correlated with GC, I/O and
+ * lock contention in the same recording. The events are in the 'Cayenne / Migrations' category:<br>
+ * org.apache.cayenne.migration.Phase for lock acquisition, version checks, class loading, preparation and commits<br>
+ * org.apache.cayenne.migration.Statement for rendering and executing each statement, with its table and kind
+ * 
+ * Flight Recorder types are only referenced from JfrMigrationEvents, which is compiled for Java 11 and loaded by name,
+ * so the library still runs on Java 8 and on runtimes without the jdk.jfr module, just without the events. Events cost
+ * next to nothing when no recording is running.
+ * 
+ * @author john
+ *
+ */
+final class MigrationEvents {
+
+	static final String LOCK = "Lock";
+	static final String VERSION_CHECK = "Version Check";
+	static final String LOAD = "Load Class";
+	static final String PREPARE = "Prepare";
+	static final String COMMIT = "Commit";
+	static final String RENDER = "Render";
+	static final String EXECUTE = "Execute";
+	
+	/**
+	 * Records the events; implemented with the jdk.jfr API.
+	 */
+	interface Recorder {
+		Object beginPhase(String phase, String dataMap, int version);
+		Object beginStatement(String phase, String table, String kind, String sql);
+		void end(Object event, long rowCount);
+	}
+	
+	private static final Recorder RECORDER = recorder();
+	
+	private MigrationEvents() {
+	}
+	
+	private static Recorder recorder() {
+		try {
+			Class.forName("jdk.jfr.Event");
+			return (Recorder) Class.forName(MigrationEvents.class.getPackage().getName() + ".JfrMigrationEvents").getDeclaredConstructor().newInstance();
+		} catch (Throwable e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Begins timing a phase of the migration of a data map.
+	 * @return the event to pass to {@link #end(Object)}, or null if Flight Recorder isn't available
+	 */
+	static Object beginPhase(String phase, String dataMap, int version) {
+		return RECORDER != null ? RECORDER.beginPhase(phase, dataMap, version) : null;
+	}
+	
+	/**
+	 * Begins timing the rendering or execution of an operation.
+	 * @return the event to pass to {@link #end(Object)}, or null if Flight Recorder isn't available
+	 */
+	static Object beginStatement(String phase, MergerToken operation, String sql) {
+		if (RECORDER == null) {
+			return null;
+		}
+		MergerToken source = operation instanceof RenderedSqlToDb ? ((RenderedSqlToDb) operation).getSource() : operation;
+		String table = source instanceof AbstractToDbToken.Entity ? ((AbstractToDbToken.Entity) source).getEntity().getName() : null;
+		return RECORDER.beginStatement(phase, table, source != null ? source.getTokenName() : null, sql);
+	}
+	
+	static void end(Object event) {
+		end(event, -1);
+	}
+	
+	/**
+	 * Ends the event, recording the number of rows touched if known.
+	 */
+	static void end(Object event, long rowCount) {
+		if (event != null) {
+			RECORDER.end(event, rowCount);
+		}
+	}
+	
+}
@@ -0,0 +1,277 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.cayenne.map.DataMap;
+import org.apache.cayenne.map.DbAttribute;
+import org.apache.cayenne.map.DbEntity;
+
+/**
+ * Maintains the append-only migration history tables. One row is written per applied version
+ * to the history table and one row per executed statement to the history step table, in the
+ * same transaction as the version update.
+ * 
+ * The tables are created through the DbAdapter so the column types are portable.
+ * 
+ * @author john
+ *
+ */
+class MigrationHistory {
+
+	static final int SQL_TEXT_LENGTH = 255;
+	
+	private final Migrator migrator;
+	
+	MigrationHistory(Migrator migrator) {
+		this.migrator = migrator;
+	}
+	
+	DbEntity historyEntity(DataMap map) {
+		DbEntity entity = entity(map, migrator.migrationHistoryTableName(map));
+		addAttribute(entity, "dataMap", Types.VARCHAR, Migrator.DATA_MAP_LENGTH, true);
+		addAttribute(entity, "version", Types.INTEGER, -1, true);
+		addAttribute(entity, "startedAt", Types.TIMESTAMP, -1, true);
+		addAttribute(entity, "finishedAt", Types.TIMESTAMP, -1, false);
+		addAttribute(entity, "host", Types.VARCHAR, 255, false);
+		addAttribute(entity, "rowCount", Types.BIGINT, -1, false);
+		addAttribute(entity, "checksum", Types.VARCHAR, 64, false);
+		return entity;
+	}
+	
+	DbEntity stepEntity(DataMap map) {
+		DbEntity entity = entity(map, migrator.migrationHistoryStepTableName(map));
+		addAttribute(entity, "dataMap", Types.VARCHAR, Migrator.DATA_MAP_LENGTH, true);
+		addAttribute(entity, "version", Types.INTEGER, -1, true);
+		addAttribute(entity, "startedAt", Types.TIMESTAMP, -1, true);
+		addAttribute(entity, "step", Types.INTEGER, -1, true);
+		addAttribute(entity, "durationMillis", Types.BIGINT, -1, false);
+		addAttribute(entity, "rowCount", Types.BIGINT, -1, false);
+		addAttribute(entity, "sqlText", Types.VARCHAR, SQL_TEXT_LENGTH, false);
+		return entity;
+	}
+	
+	/**
+	 * Creates an entity for one of the Migrator's internal tables so its DDL can be generated by the DbAdapter.
+	 */
+	static DbEntity entity(DataMap map, String qualifiedName) {
+		DataMap internalMap = new DataMap("dbupdater");
+		int dot = qualifiedName.lastIndexOf('.');
+		DbEntity entity = new DbEntity(qualifiedName.substring(dot + 1));
+		entity.setSchema(dot > 0 ? qualifiedName.substring(0, dot) : null);
+		entity.setDataMap(internalMap);
+		internalMap.addDbEntity(entity);
+		return entity;
+	}
+	
+	static void addAttribute(DbEntity entity, String name, int jdbcType, int maxLength, boolean isPrimaryKey) {
+		DbAttribute attribute = new DbAttribute(name, jdbcType, entity);
+		attribute.setMaxLength(maxLength);
+		attribute.setPrimaryKey(isPrimaryKey);
+		attribute.setMandatory(isPrimaryKey);
+		entity.addAttribute(attribute);
+	}
+	
+	/**
+	 * Creates the history tables if they don't exist yet. This should only be called while holding the migration lock.
+	 */
+	void createTablesIfNeeded(DataMap map) throws SQLException {
+		try {
+			migrator.executeSqlReturnInt("SELECT COUNT(*) FROM " + migrator.migrationHistoryTableName(map));
+		} catch (RuntimeException e) {
+			migrator.executeSqlWithUpdateCount(migrator.getDataNode().getAdapter().createTable(historyEntity(map)));
+			migrator.executeSqlWithUpdateCount(migrator.getDataNode().getAdapter().createTable(stepEntity(map)));
+		}
+		migrator.getConnection().commit();
+	}
+	
+	/**
+	 * Inserts the entry and its steps; the caller is responsible for committing.
+	 */
+	void record(DataMap map, MigrationHistoryEntry entry) throws SQLException {
+		Timestamp startedAt = new Timestamp(entry.getStartedAt().getTime());
+		
+		String sql = String.format("INSERT INTO %s(dataMap, version, startedAt, finishedAt, host, rowCount, checksum) VALUES (?, ?, ?, ?, ?, ?, ?)", migrator.migrationHistoryTableName(map));
+		migrator.getDataNode().getJdbcEventLogger().log(sql);
+		PreparedStatement st = migrator.getConnection().prepareStatement(sql);
+		try {
+			st.setString(1, dataMapKey(map, entry.getPhase()));
+			st.setInt(2, entry.getVersion());
+			st.setTimestamp(3, startedAt);
+			st.setTimestamp(4, new Timestamp(entry.getFinishedAt().getTime()));
+			st.setString(5, entry.getHost());
+			st.setLong(6, entry.getRowCount());
+			st.setString(7, entry.getChecksum());
+			st.executeUpdate();
+		} finally {
+			st.close();
+		}
+		
+		if (entry.getSteps().isEmpty()) {
+			return;
+		}
+		
+		sql = String.format("INSERT INTO %s(dataMap, version, startedAt, step, durationMillis, rowCount, sqlText) VALUES (?, ?, ?, ?, ?, ?, ?)", migrator.migrationHistoryStepTableName(map));
+		migrator.getDataNode().getJdbcEventLogger().log(sql);
+		st = migrator.getConnection().prepareStatement(sql);
+		try {
+			for (MigrationHistoryStep step : entry.getSteps()) {
+				st.setString(1, dataMapKey(map, entry.getPhase()));
+				st.setInt(2, entry.getVersion());
+				st.setTimestamp(3, startedAt);
+				st.setInt(4, step.getStep());
+				st.setLong(5, step.getDurationMillis());
+				st.setLong(6, step.getRowCount());
+				st.setString(7, truncate(step.getSql()));
+				st.addBatch();
+			}
+			st.executeBatch();
+		} finally {
+			st.close();
+		}
+	}
+	
+	/**
+	 * Loads all the history entries for the given map, of both phases, ordered by version and time. Returns an
+	 * empty list if no migrations have been recorded yet.
+	 */
+	List<MigrationHistoryEntry> load(DataMap map) throws SQLException {
+		Map<String, MigrationHistoryEntry> entries = new LinkedHashMap<String, MigrationHistoryEntry>();
+		String contractKey = migrator.contractKey(map);
+		
+		String sql = String.format("SELECT version, startedAt, finishedAt, host, rowCount, checksum, dataMap FROM %s WHERE dataMap IN (?, ?) ORDER BY version, startedAt", migrator.migrationHistoryTableName(map));
+		migrator.getDataNode().getJdbcEventLogger().log(sql);
+		PreparedStatement st = migrator.getConnection().prepareStatement(sql);
+		try {
+			st.setString(1, map.getName());
+			st.setString(2, contractKey);
+			ResultSet rs;
+			try {
+				rs = st.executeQuery();
+			} catch (SQLException e) {
+				// the history table hasn't been created yet
+				migrator.getConnection().rollback();
+				return new ArrayList<MigrationHistoryEntry>();
+			}
+			while (rs.next()) {
+				MigrationPhase phase = contractKey.equals(rs.getString(7)) ? MigrationPhase.CONTRACT : MigrationPhase.EXPAND;
+				MigrationHistoryEntry entry = new MigrationHistoryEntry(map.getName(), rs.getInt(1), phase, rs.getString(4), rs.getTimestamp(2), rs.getTimestamp(3), rs.getLong(5), rs.getString(6));
+				entries.put(key(rs.getString(7), entry.getVersion(), rs.getTimestamp(2)), entry);
+			}
+			rs.close();
+		} finally {
+			st.close();
+		}
+		
+		sql = String.format("SELECT version, startedAt, step, durationMillis, rowCount, sqlText, dataMap FROM %s WHERE dataMap IN (?, ?) ORDER BY version, startedAt, step", migrator.migrationHistoryStepTableName(map));
+		migrator.getDataNode().getJdbcEventLogger().log(sql);
+		st = migrator.getConnection().prepareStatement(sql);
+		try {
+			st.setString(1, map.getName());
+			st.setString(2, contractKey);
+			ResultSet rs = st.executeQuery();
+			while (rs.next()) {
+				MigrationHistoryEntry entry = entries.get(key(rs.getString(7), rs.getInt(1), rs.getTimestamp(2)));
+				if (entry != null) {
+					entry.addStep(new MigrationHistoryStep(rs.getInt(3), rs.getString(6), rs.getLong(4), rs.getLong(5)));
+				}
+			}
+			rs.close();
+		} finally {
+			st.close();
+		}
+		migrator.getConnection().commit();
+		
+		return new ArrayList<MigrationHistoryEntry>(entries.values());
+	}
+	
+	private static String key(String dataMap, int version, Timestamp startedAt) {
+		return dataMap + "@" + version + "@" + startedAt.getTime();
+	}
+	
+	/**
+	 * @return the value of the dataMap column the entries of the phase are recorded with
+	 */
+	private String dataMapKey(DataMap map, MigrationPhase phase) {
+		return phase == MigrationPhase.CONTRACT ? migrator.contractKey(map) : map.getName();
+	}
+	
+	static String truncate(String sql) {
+		return sql != null && sql.length() > SQL_TEXT_LENGTH ? sql.substring(0, SQL_TEXT_LENGTH) : sql;
+	}
+	
+	/**
+	 * @return a hex encoded SHA-256 checksum of the SQL of the given steps
+	 */
+	static String checksum(List<MigrationHistoryStep> steps) {
+		List<String> sql = new ArrayList<String>();
+		for (MigrationHistoryStep step : steps) {
+			sql.add(step.getSql());
+		}
+		return checksumOfSql(sql);
+	}
+	
+	/**
+	 * @return a hex encoded SHA-256 checksum of the given SQL statements
+	 */
+	static String checksumOfSql(List<String> statements) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		
+		for (String sql : statements) {
+			digest.update(sql.getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) '\n');
+		}
+		
+		StringBuilder result = new StringBuilder();
+		for (byte b : digest.digest()) {
+			result.append(String.format("%02x", b));
+		}
+		return result.toString();
+	}
+	
+	/**
+	 * @return the name of the host running the migrations
+	 */
+	static String hostName() {
+		try {
+			return InetAddress.getLocalHost().getHostName();
+		} catch (Exception e) {
+			return "unknown";
+		}
+	}
+	
+}
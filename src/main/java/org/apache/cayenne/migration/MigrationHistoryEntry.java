@@ -0,0 +1,133 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A record of one migration version having been applied to the database. Entries are read
+ * from the append-only history table maintained by the {@link Migrator}.
+ * 
+ * @author john
+ *
+ */
+public class MigrationHistoryEntry {
+
+	private final String dataMap;
+	private final int version;
+	private final MigrationPhase phase;
+	private final String host;
+	private final Date startedAt;
+	private final Date finishedAt;
+	private final long rowCount;
+	private final String checksum;
+	private final List<MigrationHistoryStep> steps = new ArrayList<MigrationHistoryStep>();
+	
+	MigrationHistoryEntry(String dataMap, int version, MigrationPhase phase, String host, Date startedAt, Date finishedAt, long rowCount, String checksum) {
+		this.dataMap = dataMap;
+		this.version = version;
+		this.phase = phase;
+		this.host = host;
+		this.startedAt = startedAt;
+		this.finishedAt = finishedAt;
+		this.rowCount = rowCount;
+		this.checksum = checksum;
+	}
+	
+	MigrationHistoryEntry(String dataMap, int version, MigrationPhase phase, String host, Date startedAt, Date finishedAt, List<MigrationHistoryStep> steps) {
+		this(dataMap, version, phase, host, startedAt, finishedAt, totalRowCount(steps), MigrationHistory.checksum(steps));
+		this.steps.addAll(steps);
+	}
+	
+	private static long totalRowCount(List<MigrationHistoryStep> steps) {
+		long result = 0;
+		for (MigrationHistoryStep step : steps) {
+			result += step.getRowCount();
+		}
+		return result;
+	}
+
+	public String getDataMap() {
+		return dataMap;
+	}
+
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return the phase of the migration version that was applied
+	 */
+	public MigrationPhase getPhase() {
+		return phase;
+	}
+
+	/**
+	 * @return the name of the host that applied the migration
+	 */
+	public String getHost() {
+		return host;
+	}
+
+	public Date getStartedAt() {
+		return startedAt;
+	}
+
+	public Date getFinishedAt() {
+		return finishedAt;
+	}
+	
+	public long getDurationMillis() {
+		return finishedAt.getTime() - startedAt.getTime();
+	}
+
+	/**
+	 * @return the total number of rows touched by all the statements of the migration
+	 */
+	public long getRowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * @return a SHA-256 checksum of the rendered SQL, useful to detect whether a migration has changed since it was applied
+	 */
+	public String getChecksum() {
+		return checksum;
+	}
+
+	/**
+	 * @return the individual statements, in execution order
+	 */
+	public List<MigrationHistoryStep> getSteps() {
+		return Collections.unmodifiableList(steps);
+	}
+	
+	void addStep(MigrationHistoryStep step) {
+		steps.add(step);
+	}
+	
+	@Override
+	public String toString() {
+		return dataMap + " version " + version + (phase == MigrationPhase.CONTRACT ? " (contract)" : "") + " on " + host + ": " + getDurationMillis() + "ms, " + rowCount + " rows";
+	}
+	
+}
@@ -0,0 +1,73 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+/**
+ * A single SQL statement that was executed as part of a migration, along with how long it took
+ * and how many rows it touched.
+ * 
+ * @author john
+ *
+ */
+public class MigrationHistoryStep {
+
+	private final int step;
+	private final String sql;
+	private final long durationMillis;
+	private final long rowCount;
+	
+	MigrationHistoryStep(int step, String sql, long durationMillis, long rowCount) {
+		this.step = step;
+		this.sql = sql;
+		this.durationMillis = durationMillis;
+		this.rowCount = rowCount;
+	}
+
+	/**
+	 * @return the position of this statement within the migration, starting at zero
+	 */
+	public int getStep() {
+		return step;
+	}
+
+	/**
+	 * @return the executed statement; when loaded from the history table this is truncated to
+	 * {@link MigrationHistory#SQL_TEXT_LENGTH} characters
+	 */
+	public String getSql() {
+		return sql;
+	}
+
+	public long getDurationMillis() {
+		return durationMillis;
+	}
+
+	/**
+	 * @return the update count reported by the driver, or zero for statements that don't report one (DDL)
+	 */
+	public long getRowCount() {
+		return rowCount;
+	}
+	
+	@Override
+	public String toString() {
+		return step + ": " + durationMillis + "ms, " + rowCount + " rows: " + sql;
+	}
+	
+}
@@ -0,0 +1,144 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Represents a new index on a table. The options can be set after the index is added since the SQL is
+ * produced when the migration is executed, for example:
+ * 
+ * <pre>
+ * table.addIndex("user_email_idx").expression("lower(email)").unique().where("deleted = false");
+ * </pre>
+ * 
+ * Features that a database lacks are left out where the index still serves its purpose without them:
+ * the WHERE predicate of a non-unique index is dropped so the index covers all rows, and INCLUDE columns become
+ * trailing key columns of a non-unique index. Expression keys, and partial unique indexes, fail on databases that
+ * can't express them.
+ * 
+ * @author john
+ *
+ */
+public class MigrationIndex {
+
+	/**
+	 * A key of the index; either a column name or an expression.
+	 */
+	static class Key {
+		final String sql;
+		final boolean expression;
+		
+		Key(String sql, boolean expression) {
+			this.sql = sql;
+			this.expression = expression;
+		}
+	}
+	
+	private final MigrationTable table;
+	private final String name;
+	private final List<Key> keys = new ArrayList<Key>();
+	private final List<String> includedColumns = new ArrayList<String>();
+	private boolean unique;
+	private String predicate;
+	private IndexMethod method;
+	
+	MigrationIndex(MigrationTable table, String name, String... columnNames) {
+		this.table = table;
+		this.name = name;
+		for (String columnName : columnNames) {
+			keys.add(new Key(columnName, false));
+		}
+	}
+	
+	public MigrationTable getTable() {
+		return table;
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * Adds a column to the key of the index.
+	 */
+	public MigrationIndex column(String columnName) {
+		keys.add(new Key(columnName, false));
+		return this;
+	}
+	
+	/**
+	 * Adds an expression, such as lower(email), to the key of the index.
+	 */
+	public MigrationIndex expression(String expression) {
+		keys.add(new Key(expression, true));
+		return this;
+	}
+	
+	public MigrationIndex unique() {
+		this.unique = true;
+		return this;
+	}
+	
+	/**
+	 * Only indexes the rows matching the predicate.
+	 */
+	public MigrationIndex where(String predicate) {
+		this.predicate = predicate;
+		return this;
+	}
+	
+	/**
+	 * Stores the values of the columns in the index without making them part of the key, so queries
+	 * reading only these columns are answered from the index.
+	 */
+	public MigrationIndex include(String... columnNames) {
+		includedColumns.addAll(Arrays.asList(columnNames));
+		return this;
+	}
+	
+	public MigrationIndex using(IndexMethod method) {
+		this.method = method;
+		return this;
+	}
+	
+	List<Key> getKeys() {
+		return Collections.unmodifiableList(keys);
+	}
+	
+	List<String> getIncludedColumns() {
+		return Collections.unmodifiableList(includedColumns);
+	}
+	
+	boolean isUnique() {
+		return unique;
+	}
+	
+	String getPredicate() {
+		return predicate;
+	}
+	
+	IndexMethod getMethod() {
+		return method;
+	}
+	
+}
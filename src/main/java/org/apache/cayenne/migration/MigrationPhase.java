@@ -0,0 +1,36 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+/**
+ * The phases of a migration for deploying schema changes without downtime. The expand phase, performed by
+ * {@link Migration#upgrade(MigrationDatabase)}, makes additive changes that the running version of the application
+ * can live with and is applied before a new version is rolled out. The contract phase, performed by
+ * {@link Migration#contract(MigrationDatabase)}, removes what only the old version needed and is applied once the
+ * rollout is complete.
+ * 
+ * @author john
+ *
+ */
+public enum MigrationPhase {
+
+	EXPAND,
+	CONTRACT
+	
+}
@@ -0,0 +1,275 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The SQL of a single migration rendered ahead of time for one database, so the Migrator can execute it without
+ * running the migration's upgrade method. Plans are created by {@link MigrationPlanCompiler} and stored next to
+ * the migration class as a resource named like the class with the database product name and a ".plan" extension,
+ * for example 'MyDataMap3-PostgreSQL.plan'.
+ * 
+ * A plan records the adapter and the database capabilities it was rendered with and a fingerprint of the migration
+ * class, and it is only used when all of them still match; otherwise the migration is run as usual.
+ * 
+ * The fingerprint only covers the migration class, its nested and anonymous classes and its superclasses along with
+ * theirs. A migration whose SQL depends on anything else, like a helper class or a configuration value, must not be
+ * compiled into a plan, because a change to it doesn't make the plan stale.
+ * 
+ * @author john
+ *
+ */
+class MigrationPlan {
+
+	static final String EXTENSION = ".plan";
+	
+	private static final String ADAPTER = "-- adapter: ";
+	private static final String FINGERPRINT = "-- fingerprint: ";
+	private static final String CAPABILITIES = "-- capabilities: ";
+	private static final String STATEMENT = "-- statement ";
+	
+	private final String adapterClass;
+	private final String fingerprint;
+	private final String capabilities;
+	private final List<String> statements;
+	
+	MigrationPlan(String adapterClass, String fingerprint, String capabilities, List<String> statements) {
+		this.adapterClass = adapterClass;
+		this.fingerprint = fingerprint;
+		this.capabilities = capabilities;
+		this.statements = Collections.unmodifiableList(statements);
+	}
+	
+	/**
+	 * @return the name of the plan resource for the migration class, relative to the class
+	 */
+	static String resourceName(Class<?> migrationClass, String databaseProductName) {
+		return migrationClass.getSimpleName() + "-" + databaseProductName.replace(" ", "") + EXTENSION;
+	}
+	
+	/**
+	 * Loads the plan for the migration, if there is one.
+	 * @return the plan or null if the migration has no plan for the database
+	 */
+	static MigrationPlan load(Migration migration, String databaseProductName) throws IOException {
+		InputStream in = migration.getClass().getResourceAsStream(resourceName(migration.getClass(), databaseProductName));
+		if (in == null) {
+			return null;
+		}
+		try {
+			return read(new InputStreamReader(in, StandardCharsets.UTF_8));
+		} finally {
+			in.close();
+		}
+	}
+	
+	static MigrationPlan read(Reader reader) throws IOException {
+		BufferedReader in = new BufferedReader(reader);
+		String adapterClass = null;
+		String fingerprint = null;
+		String capabilities = null;
+		List<String> statements = new ArrayList<String>();
+		StringBuilder statement = null;
+		
+		String line;
+		while ((line = in.readLine()) != null) {
+			if (statement == null && line.startsWith(ADAPTER)) {
+				adapterClass = line.substring(ADAPTER.length()).trim();
+			} else if (statement == null && line.startsWith(FINGERPRINT)) {
+				fingerprint = line.substring(FINGERPRINT.length()).trim();
+			} else if (statement == null && line.startsWith(CAPABILITIES)) {
+				capabilities = line.substring(CAPABILITIES.length()).trim();
+			} else if (line.startsWith(STATEMENT)) {
+				addStatement(statements, statement);
+				statement = new StringBuilder();
+			} else if (statement != null) {
+				statement.append(line).append('\n');
+			}
+		}
+		addStatement(statements, statement);
+		
+		if (adapterClass == null || fingerprint == null) {
+			throw new IOException("Invalid migration plan: missing adapter or fingerprint.");
+		}
+		// plans written before the capabilities were recorded never match
+		return new MigrationPlan(adapterClass, fingerprint, capabilities, statements);
+	}
+	
+	private static void addStatement(List<String> statements, StringBuilder statement) {
+		if (statement != null) {
+			String sql = statement.toString().trim();
+			if (sql.length() > 0) {
+				statements.add(sql);
+			}
+		}
+	}
+	
+	void write(Writer writer) throws IOException {
+		writer.write("-- Generated by " + MigrationPlanCompiler.class.getName() + ", do not edit.\n");
+		writer.write(ADAPTER + adapterClass + "\n");
+		writer.write(FINGERPRINT + fingerprint + "\n");
+		writer.write(CAPABILITIES + capabilities + "\n");
+		for (int i = 0; i < statements.size(); i++) {
+			writer.write("\n" + STATEMENT + (i + 1) + "\n");
+			writer.write(statements.get(i) + "\n");
+		}
+	}
+	
+	/**
+	 * The fingerprint identifies the code the plan was rendered from: the bytes of the migration class, of every
+	 * class nested in it, including anonymous and local classes, and of its superclasses and the classes nested in
+	 * them, and, for SQL file migrations, of the script. Migrations that depend on anything else should not be
+	 * compiled into plans.
+	 * 
+	 * @throws IOException if one of the classes can't be read, in which case the plan isn't used
+	 */
+	static String fingerprint(Migration migration) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		
+		Class<?> clazz = migration.getClass();
+		Set<String> classes = new TreeSet<String>();
+		for (Class<?> each = clazz; each != null && !each.getName().startsWith("java."); each = each.getSuperclass()) {
+			addNest(clazz, each.getName().replace('.', '/'), classes);
+		}
+		for (String name : classes) {
+			update(digest, clazz, "/" + name + ".class");
+		}
+		if (migration instanceof SqlFileMigration) {
+			update(digest, clazz, ((SqlFileMigration) migration).sqlFilename());
+		}
+		
+		StringBuilder result = new StringBuilder();
+		for (byte b : digest.digest()) {
+			result.append(String.format("%02x", b));
+		}
+		return result.toString();
+	}
+	
+	private static void update(MessageDigest digest, Class<?> clazz, String resource) throws IOException {
+		digest.update(read(clazz, resource));
+	}
+	
+	/**
+	 * Adds the top level class of the given class and all the classes nested in it. Nested classes, including
+	 * anonymous and local ones, are found by their names in the constant pool of the class declaring them.
+	 * @param name the internal name of a class, like org/example/MyMap3
+	 */
+	private static void addNest(Class<?> clazz, String name, Set<String> classes) throws IOException {
+		int nested = name.indexOf('$', name.lastIndexOf('/') + 1);
+		String host = nested < 0 ? name : name.substring(0, nested);
+		byte[] prefix = (host + "$").getBytes(StandardCharsets.UTF_8);
+		
+		List<String> pending = new ArrayList<String>();
+		pending.add(host);
+		while (!pending.isEmpty()) {
+			String each = pending.remove(pending.size() - 1);
+			if (!classes.add(each)) {
+				continue;
+			}
+			byte[] bytes = read(clazz, "/" + each + ".class");
+			for (int i = indexOf(bytes, prefix, 0); i >= 0; i = indexOf(bytes, prefix, i + 1)) {
+				int end = i + prefix.length;
+				while (end < bytes.length && isNameByte(bytes[end])) {
+					end++;
+				}
+				pending.add(new String(bytes, i, end - i, StandardCharsets.UTF_8));
+			}
+		}
+	}
+	
+	private static boolean isNameByte(byte b) {
+		return b == '$' || b == '_' || (b >= '0' && b <= '9') || (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z');
+	}
+	
+	private static int indexOf(byte[] bytes, byte[] part, int from) {
+		outer:
+		for (int i = from; i <= bytes.length - part.length; i++) {
+			for (int j = 0; j < part.length; j++) {
+				if (bytes[i + j] != part[j]) {
+					continue outer;
+				}
+			}
+			return i;
+		}
+		return -1;
+	}
+	
+	private static byte[] read(Class<?> clazz, String resource) throws IOException {
+		InputStream in = clazz.getResourceAsStream(resource);
+		if (in == null) {
+			throw new IOException("Resource not found: " + resource);
+		}
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * @return true if the plan was rendered with the given adapter and capabilities from the current version of the
+	 * migration
+	 */
+	boolean matches(String adapterClass, String fingerprint, String capabilities) {
+		return this.adapterClass.equals(adapterClass) && this.fingerprint.equals(fingerprint) && capabilities.equals(this.capabilities);
+	}
+	
+	String getAdapterClass() {
+		return adapterClass;
+	}
+	
+	String getFingerprint() {
+		return fingerprint;
+	}
+	
+	String getCapabilities() {
+		return capabilities;
+	}
+	
+	List<String> getStatements() {
+		return statements;
+	}
+	
+}
@@ -0,0 +1,219 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.cayenne.access.DataNode;
+import org.apache.cayenne.configuration.server.ServerRuntime;
+import org.apache.cayenne.configuration.server.ServerRuntimeBuilder;
+import org.apache.cayenne.dba.DbAdapter;
+import org.apache.cayenne.dbsync.DbSyncModule;
+import org.apache.cayenne.dbsync.merge.token.MergerToken;
+import org.apache.cayenne.dbsync.merge.token.db.AbstractToDbToken;
+import org.apache.cayenne.di.AdhocObjectFactory;
+import org.apache.cayenne.map.DataMap;
+import org.apache.cayenne.merge.ArbitrarySqlToDb;
+
+/**
+ * Renders the migrations of a Cayenne project to SQL for one or more databases at build time and writes them as
+ * {@link MigrationPlan} resources next to the migration classes, so the Migrator can execute them directly instead
+ * of running the migrations at startup. This also makes the exact SQL of each migration available for review.
+ * 
+ * The compiler is meant to run after the migration classes are compiled, with the output folder being the classes
+ * folder, so the plans are packaged along with them. With Maven, for example, by running this class with the
+ * exec-maven-plugin in the process-classes phase.
+ * 
+ * Migrations that contain row transformations can't be rendered to SQL and are skipped, so they are always run. So are
+ * migrations that set their own maintenance, or change tables that can't be recognized from the rendered SQL, since
+ * a plan only carries the SQL. Column type changes are planned as their plain ALTER statement, without checking the
+ * size of the table they rewrite.
+ * 
+ * A plan is only used with a server whose capabilities match the ones it was rendered for, so the server version
+ * of each database should be given; without it the version dependent capabilities are assumed to be missing.
+ * 
+ * @author john
+ *
+ */
+public class MigrationPlanCompiler {
+
+	/**
+	 * Runs the compiler. Expects 4 or more arguments:<br>
+	 * 1) The name or path to the cayenne project file (for example, "cayenne-MyDomain.xml")<br>
+	 * 2) The package that the migration classes reside in.<br>
+	 * 3) The output path for the plan files, usually the classes folder.<br>
+	 * 4) One or more databases to render plans for, each given as the database product name, as returned by
+	 * connection.getMetaData().getDatabaseProductName(), optionally followed by the major and minor server version
+	 * of the target database, and the adapter class name (for example,
+	 * "PostgreSQL:12=org.apache.cayenne.dba.postgres.PostgresAdapter" or "MySQL:8.0=org.apache.cayenne.dba.mysql.MySQLAdapter").
+	 * 
+	 * @param args
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 4) {
+			System.out.println("Usage:");
+			System.out.println("java " + MigrationPlanCompiler.class.getName() + " <cayenne-Project.xml> <migrations-package> <output-folder> <ProductName[:Version]=AdapterClass>...");
+			return;
+		}
+		
+		Map<String, String> adapters = new LinkedHashMap<String, String>();
+		for (int i = 3; i < args.length; i++) {
+			int separator = args[i].indexOf('=');
+			if (separator < 1) {
+				throw new IllegalArgumentException("Expected <ProductName[:Version]=AdapterClass> but got: " + args[i]);
+			}
+			adapters.put(args[i].substring(0, separator), args[i].substring(separator + 1));
+		}
+		
+		MigrationPlanCompiler compiler = new MigrationPlanCompiler();
+		compiler.compile(args[0], args[1], args[2], adapters);
+	}
+	
+	/**
+	 * Writes the plans of all the migrations of the project for each of the databases.
+	 * 
+	 * @param configurationLocation
+	 * @param migrationsPackage
+	 * @param outputFolder
+	 * @param adapters the adapter class names keyed by database product name, optionally followed by ':' and the
+	 * server version
+	 */
+	public void compile(String configurationLocation, String migrationsPackage, String outputFolder, Map<String, String> adapters) throws IOException {
+		ServerRuntimeBuilder builder = ServerRuntime.builder();
+		builder.addConfig(configurationLocation);
+		builder.addModule(new DbSyncModule());
+		ServerRuntime runtime = builder.build();
+		ServerRuntime.bindThreadInjector( runtime.getInjector() );
+		
+		try {
+			AdhocObjectFactory objectFactory = runtime.getInjector().getInstance(AdhocObjectFactory.class);
+			File folder = new File(outputFolder, migrationsPackage.replace('.', File.separatorChar));
+			for (Map.Entry<String, String> adapter : adapters.entrySet()) {
+				int separator = adapter.getKey().indexOf(':');
+				String productName = separator < 0 ? adapter.getKey() : adapter.getKey().substring(0, separator);
+				DataNode node = new DataNode(productName);
+				node.setAdapter(objectFactory.<DbAdapter>newInstance(DbAdapter.class, adapter.getValue()));
+				DbCapabilities capabilities = separator < 0 ? DbCapabilities.of(node.getAdapter())
+						: capabilities(node.getAdapter(), adapter.getKey().substring(separator + 1));
+				
+				for (DataMap map : runtime.getDataDomain().getDataMaps()) {
+					compile(new Migrator(node, migrationsPackage), map, productName, capabilities, folder);
+				}
+			}
+		} finally {
+			runtime.shutdown();
+		}
+	}
+	
+	/**
+	 * @return the capabilities of the adapter's database at the given "major[.minor]" server version
+	 */
+	static DbCapabilities capabilities(DbAdapter adapter, String version) {
+		try {
+			int dot = version.indexOf('.');
+			int major = Integer.parseInt(dot < 0 ? version : version.substring(0, dot));
+			int minor = dot < 0 ? 0 : Integer.parseInt(version.substring(dot + 1));
+			return new DbCapabilities(DbFamily.of(adapter), major, minor, Collections.<Capability, Boolean>emptyMap());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Expected the server version as <major>[.<minor>] but got: " + version);
+		}
+	}
+	
+	protected void compile(Migrator migrator, DataMap map, String databaseProductName, File folder) throws IOException {
+		compile(migrator, map, databaseProductName, DbCapabilities.of(migrator.getDataNode().getAdapter()), folder);
+	}
+	
+	void compile(Migrator migrator, DataMap map, String databaseProductName, DbCapabilities capabilities, File folder) throws IOException {
+		Migration migration;
+		for (int version = 0; (migration = migrator.createMigrationClassForVersion(map, version)) != null; version++) {
+			MigrationPlan plan = plan(migration, databaseProductName, migrator.getDataNode().getAdapter(), capabilities);
+			String resourceName = MigrationPlan.resourceName(migration.getClass(), databaseProductName);
+			if (plan == null) {
+				System.out.println("Skipping " + resourceName + ": the migration has operations or settings that can't be rendered to SQL.");
+				continue;
+			}
+			
+			folder.mkdirs();
+			Writer writer = new OutputStreamWriter(new FileOutputStream(new File(folder, resourceName)), StandardCharsets.UTF_8);
+			try {
+				plan.write(writer);
+			} finally {
+				writer.close();
+			}
+		}
+	}
+	
+	/**
+	 * Runs the migration and renders its operations with the adapter.
+	 * @return the plan or null if the migration has operations that are executed directly rather than as SQL, or
+	 * configures something a plan can't carry
+	 */
+	MigrationPlan plan(Migration migration, String databaseProductName, DbAdapter adapter) throws IOException {
+		return plan(migration, databaseProductName, adapter, DbCapabilities.of(adapter));
+	}
+	
+	/**
+	 * Runs the migration and renders its operations with the adapter for a server with the given capabilities.
+	 * @return the plan or null if it can't be planned
+	 */
+	MigrationPlan plan(Migration migration, String databaseProductName, DbAdapter adapter, DbCapabilities serverCapabilities) throws IOException {
+		migration.getDatabase().setCapabilities(serverCapabilities);
+		// recorded before the upgrade method adds the overrides of the migration
+		String capabilities = migration.getDatabase().supportedCapabilities();
+		PreparedMigration prepared = PreparedMigration.prepare(0, migration, databaseProductName, adapter);
+		MigrationDatabase database = migration.getDatabase();
+		if (database.getMaintenance() != null) {
+			return null;
+		}
+		
+		List<String> statements = new ArrayList<String>();
+		List<MergerToken> planned = new ArrayList<MergerToken>();
+		for (MergerToken token : prepared.getOperations()) {
+			List<String> sql;
+			if (token instanceof ColumnTypeChangeToDb) {
+				sql = ((AbstractToDbToken) ((ColumnTypeChangeToDb) token).getChange()).createSql(adapter);
+			} else if (token instanceof DirectToDb) {
+				return null;
+			} else {
+				sql = Collections.singletonList(token.getTokenValue());
+			}
+			for (String statement : sql) {
+				statements.add(statement);
+				planned.add(new ArbitrarySqlToDb(statement));
+			}
+		}
+		
+		// the tables the statements change must be recognizable from the SQL alone, since that is all a plan has
+		if (!TableMaintenance.touchedTables(prepared.getOperations(), database).equals(TableMaintenance.touchedTables(planned, database))) {
+			return null;
+		}
+		return new MigrationPlan(adapter.unwrap().getClass().getName(), MigrationPlan.fingerprint(migration), capabilities, statements);
+	}
+	
+}
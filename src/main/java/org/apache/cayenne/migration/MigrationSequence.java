@@ -0,0 +1,90 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+/**
+ * Represents a sequence being created or altered. The options can be set after the sequence is added since the
+ * SQL is produced when the migration is executed, for example:
+ * 
+ * <pre>
+ * db.createSequence("order_seq").incrementBy(50).cache(1000);
+ * </pre>
+ * 
+ * A larger cache lets each connection take many values at once, which avoids contention on the sequence during
+ * bulk inserts, at the cost of gaps when the cached values are discarded. For sequences used by Cayenne's
+ * primary key generator the increment must match the generator's pkCacheSize.
+ * 
+ * @author john
+ *
+ */
+public class MigrationSequence {
+
+	private final String name;
+	private Long startWith;
+	private Long incrementBy;
+	private Integer cache;
+	
+	MigrationSequence(String name) {
+		this.name = name;
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * The first value of a new sequence, or the value an altered sequence restarts with.
+	 */
+	public MigrationSequence startWith(long startWith) {
+		this.startWith = startWith;
+		return this;
+	}
+	
+	public MigrationSequence incrementBy(long incrementBy) {
+		if (incrementBy == 0) {
+			throw new IllegalArgumentException("incrementBy must not be 0.");
+		}
+		this.incrementBy = incrementBy;
+		return this;
+	}
+	
+	/**
+	 * The number of values each session preallocates.
+	 */
+	public MigrationSequence cache(int cache) {
+		if (cache < 1) {
+			throw new IllegalArgumentException("cache must be positive.");
+		}
+		this.cache = cache;
+		return this;
+	}
+	
+	Long getStartWith() {
+		return startWith;
+	}
+	
+	Long getIncrementBy() {
+		return incrementBy;
+	}
+	
+	Integer getCache() {
+		return cache;
+	}
+	
+}
@@ -69,6 +69,13 @@ public abstract class MigrationTable {
 	
 	abstract boolean isNew();
 	
+	/**
+	 * Checks that the definition of the table can still be changed.
+	 * @throws IllegalStateException if it can't
+	 */
+	void checkChangeable() {
+	}
+	
 	/**
 	 * Adds a column to a table; works for both new and existing tables.
 	 * @param columnName
@@ -96,6 +103,18 @@ public abstract class MigrationTable {
 		return new MigrationColumnNew(this, columnName, jdbcType, -1, precision, scale, isMandatory, defaultValue);
 	}
 	
+	/**
+	 * Adds a column whose values are generated by the database, rendered by the adapter as an identity,
+	 * serial or auto increment column. This avoids the shared AUTO_PK_SUPPORT table during inserts. On an existing
+	 * table the column is added with the database's identity syntax, which numbers the rows it already has.
+	 * @param columnName
+	 * @param jdbcType an integer type, usually BIGINT
+	 * @return
+	 */
+	public MigrationColumnNew addIdentityColumn(String columnName, int jdbcType) {
+		return new MigrationColumnNew(this, columnName, jdbcType, -1, -1, -1, true, null, true);
+	}
+	
 	public MigrationColumnNew addArrayColumn(String columnName) {
 		return addArrayColumn(columnName, false);
 	}
@@ -286,11 +305,12 @@ public abstract class MigrationTable {
 	 * @param columnName
 	 */
 	public void addPrimaryKey(String columnName) {
+		checkChangeable();
 		entity.getAttribute(columnName).setPrimaryKey(true);
 		if (!isNew()) {
 			MigrationColumn column = columns.get(columnName);
 			MergerToken op = factory().createSetPrimaryKeyToDb(getEntity(), Collections.EMPTY_LIST, Collections.singletonList(column.getAttribute()), null);
-			getDatabase().addOperation(op);
+			getDatabase().addPrimaryKeyOperation(op);
 		}
 	}
 
@@ -312,13 +332,120 @@ public abstract class MigrationTable {
      */
     public void addForeignKey(String sourceColumnName, String destinationTable, String destinationColumnName, boolean shouldCreateIndexIfNeeded) {
         if (shouldCreateIndexIfNeeded) {
-            String indexName = getEntity().getName().replaceFirst(".+\\.", "") + "_" + sourceColumnName + "_idx";
-            // TODO: the specific SQL should really come from the DbAdapter
-            getDatabase().addOperation(new ArbitrarySqlToDb(String.format("CREATE INDEX %s ON %s(%s)", indexName, getEntity().getName(), sourceColumnName)));
+            addIndex(getEntity().getName().replaceFirst(".+\\.", "") + "_" + sourceColumnName + "_idx", sourceColumnName);
         }
         
         MigrationRelationship relationship = new MigrationRelationship(this, sourceColumnName, destinationTable, destinationColumnName);
+        if (!isNew() && getDatabase().useOnlineConstraints()) {
+            String constraintName = getEntity().getName().replaceFirst(".+\\.", "") + "_" + sourceColumnName + "_fkey";
+            String sql = String.format("ALTER TABLE %s ADD CONSTRAINT %s FOREIGN KEY (%s) REFERENCES %s (%s)",
+                    getEntity().getName(), constraintName, sourceColumnName, destinationTable, destinationColumnName);
+            int first = getDatabase().getOperations().size();
+            getDatabase().addOperation(new ArbitrarySqlToDb(sql + " NOT VALID"), getEntity().getName(), destinationTable);
+            getDatabase().addOperation(new ConstraintValidationToDb(getEntity().getName(), constraintName, null), getEntity().getName(), destinationTable);
+            // there is nothing to validate in a table created earlier in the run
+            getDatabase().setEmptyTableForm(first, getEntity().getName(), destinationTable, new ArbitrarySqlToDb(sql));
+            return;
+        }
         MergerToken op = factory().createAddRelationshipToDb(getEntity(), relationship.getRelationship());
+        getDatabase().addForeignKeyOperation(op, getEntity().getName(), sourceColumnName, destinationTable, destinationColumnName);
+    }
+
+    /**
+     * Adds a CHECK constraint; works for both new and existing tables. In the online constraint mode the
+     * constraint is validated after the migration is committed.
+     * @param constraintName
+     * @param expression the condition that every row must satisfy
+     */
+    public void addCheckConstraint(String constraintName, String expression) {
+        String sql = String.format("ALTER TABLE %s ADD CONSTRAINT %s CHECK (%s)", getEntity().getName(), constraintName, expression);
+        if (!isNew() && getDatabase().useOnlineConstraints()) {
+            int first = getDatabase().getOperations().size();
+            getDatabase().addOperation(new ArbitrarySqlToDb(sql + " NOT VALID"), getEntity().getName(), null);
+            getDatabase().addOperation(new ConstraintValidationToDb(getEntity().getName(), constraintName, null), getEntity().getName(), null);
+            getDatabase().setEmptyTableForm(first, getEntity().getName(), null, new ArbitrarySqlToDb(sql));
+        } else {
+            getDatabase().addOperation(new ArbitrarySqlToDb(sql), getEntity().getName(), null);
+        }
+    }
+    
+    /**
+     * Changes the physical storage settings of the table; the options the database doesn't support are logged
+     * as warnings and ignored.
+     * @param storage
+     */
+    public void setStorage(StorageOptions storage) {
+        getDatabase().addOperation(new SetStorageToDb(getEntity(), storage));
+    }
+    
+    /**
+     * Adds a new index on the given columns; the returned index can be made unique, partial or covering,
+     * and given expression keys and an index method.
+     * @param indexName
+     * @param columnNames the key columns, in order
+     * @return the new index
+     */
+    public MigrationIndex addIndex(String indexName, String... columnNames) {
+        MigrationIndex index = new MigrationIndex(this, indexName, columnNames);
+        getDatabase().addIndexOperation(new CreateIndexToDb(index), getEntity().getName());
+        return index;
+    }
+    
+    /**
+     * Drops an index of this table.
+     * @param indexName
+     */
+    public void dropIndex(String indexName) {
+        getDatabase().addOperation(new DropIndexToDb(getEntity(), indexName));
+    }
+    
+    /**
+     * Adds a new partition to this partitioned table.
+     * @param partitionName
+     * @param bounds the values that belong in the partition
+     */
+    public void addPartition(String partitionName, PartitionBounds bounds) {
+        CreatePartitionedTableToDb create = null;
+        if (isNew()) {
+            checkChangeable();
+            MergerToken createOperation = ((MigrationTableNew) this).getCreateOperation();
+            if (!(createOperation instanceof CreatePartitionedTableToDb)) {
+                throw new IllegalStateException("Table " + getEntity().getName() + " is not partitioned; call partitionBy first.");
+            }
+            create = (CreatePartitionedTableToDb) createOperation;
+        }
+        PartitionToDb op = new PartitionToDb(getEntity(), PartitionToDb.Action.ADD, partitionName, bounds, create);
+        if (create != null) {
+            create.addPartition(op);
+        }
+        getDatabase().addOperation(op);
+    }
+    
+    /**
+     * Attaches an existing table as a partition of this partitioned table (PostgreSQL only).
+     * @param tableName
+     * @param bounds the values that belong in the partition
+     */
+    public void attachPartition(String tableName, PartitionBounds bounds) {
+        MergerToken op = new PartitionToDb(getEntity(), PartitionToDb.Action.ATTACH, tableName, bounds, null);
+        getDatabase().addOperation(op, getEntity().getName(), tableName);
+    }
+    
+    /**
+     * Detaches a partition from this partitioned table, leaving it as a standalone table (PostgreSQL only).
+     * @param partitionName
+     */
+    public void detachPartition(String partitionName) {
+        MergerToken op = new PartitionToDb(getEntity(), PartitionToDb.Action.DETACH, partitionName, null, null);
+        getDatabase().addOperation(op, getEntity().getName(), partitionName);
+    }
+    
+    /**
+     * Drops a partition of this partitioned table along with its rows.
+     * @param partitionName
+     */
+    public void dropPartition(String partitionName) {
+        MergerToken op = new PartitionToDb(getEntity(), PartitionToDb.Action.DROP, partitionName, null, null);
         getDatabase().addOperation(op);
     }
 }
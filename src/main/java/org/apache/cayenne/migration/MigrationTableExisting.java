@@ -65,7 +65,9 @@ public class MigrationTableExisting extends MigrationTable {
 	 */
 	public void dropColumn(String columnName) {
 		DbAttribute attribute = alterColumn(columnName).getAttribute();
+		getDatabase().beginConditional(ConditionalToDb.Condition.COLUMN_EXISTS, getEntity().getName(), attribute);
 		getDatabase().addOperation(factory().createDropColumnToDb(getEntity(), attribute));
+		getDatabase().endConditional();
 		attribute.getEntity().removeAttribute(columnName);
 		getColumns().remove(columnName);
 	}
@@ -79,7 +81,7 @@ public class MigrationTableExisting extends MigrationTable {
     public void dropForeignKey(String sourceColumnName, String destinationTable, String destinationColumnName) {
         MigrationRelationship relationship = new MigrationRelationship(this, sourceColumnName, destinationTable, destinationColumnName);
         MergerToken op = factory().createDropRelationshipToDb(getEntity(), relationship.getRelationship());
-        getDatabase().addOperation(op);
+        getDatabase().addOperation(op, getEntity().getName(), destinationTable);
     }
 	
 }
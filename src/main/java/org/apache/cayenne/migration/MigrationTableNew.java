@@ -18,7 +18,10 @@
  ****************************************************************/
 package org.apache.cayenne.migration;
 
+import java.util.Arrays;
+
 import org.apache.cayenne.dbsync.merge.token.MergerToken;
+import org.apache.cayenne.dbsync.merge.token.db.AbstractToDbToken;
 
 /**
  * Represents a new table in the database.
@@ -31,6 +34,9 @@ import org.apache.cayenne.dbsync.merge.token.MergerToken;
  */
 public class MigrationTableNew extends MigrationTable {
 
+	private MergerToken createOperation;
+	private boolean bulkLoadEnded;
+
 	MigrationTableNew(MigrationDatabase database, String tableName) {
 		super(database, tableName);
 		create();
@@ -42,8 +48,46 @@ public class MigrationTableNew extends MigrationTable {
 	}
 	
 	private void create() {
-		MergerToken op = factory().createCreateTableToDb(getEntity());
-		getDatabase().addOperation(op);
+		createOperation = factory().createCreateTableToDb(getEntity());
+		getDatabase().addOperation(createOperation);
+	}
+	
+	MergerToken getCreateOperation() {
+		return createOperation;
+	}
+	
+	/**
+	 * Marks the table as created in a bulk load section that has ended, after which its CREATE TABLE has been
+	 * rendered and its definition can't be changed anymore.
+	 */
+	void endBulkLoad() {
+		bulkLoadEnded = true;
+	}
+	
+	@Override
+	void checkChangeable() {
+		if (bulkLoadEnded) {
+			throw new IllegalStateException("Table " + getEntity().getName() + " was created in a bulk load that has ended; its definition can't be changed anymore.");
+		}
+	}
+	
+	/**
+	 * Creates the table as a partitioned table. The partitions are added with addPartition; for MySQL the
+	 * RANGE and LIST partitions must be added in the same migration since they are part of CREATE TABLE.
+	 * @param type
+	 * @param columnNames the columns of the partition key
+	 */
+	public void partitionBy(PartitionType type, String... columnNames) {
+		checkChangeable();
+		if (createOperation instanceof CreatePartitionedTableToDb) {
+			throw new IllegalStateException("Table " + getEntity().getName() + " is already partitioned.");
+		}
+		if (columnNames.length == 0) {
+			throw new IllegalArgumentException("A partition key requires at least one column.");
+		}
+		MergerToken partitioned = new CreatePartitionedTableToDb((AbstractToDbToken.Entity) createOperation, type, Arrays.asList(columnNames));
+		getDatabase().replaceOperation(createOperation, partitioned);
+		createOperation = partitioned;
 	}
 	
 }
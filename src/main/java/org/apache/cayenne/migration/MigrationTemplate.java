@@ -0,0 +1,220 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import org.apache.cayenne.access.DataNode;
+import org.apache.cayenne.map.DataMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Provisions new databases at the latest version by cloning a template database that has been migrated once,
+ * instead of replaying every migration for each new database. This is intended for integration tests and for
+ * creating tenant databases.
+ * 
+ * The template is identified by a key made of the highest version and the fingerprint of each migration, so it
+ * is migrated again, and any cached copy is recreated, whenever a migration is added or changed. The database
+ * is cloned using the fastest mechanism available:<br>
+ * PostgreSQL: CREATE DATABASE ... TEMPLATE, see {@link #provision(DataSource, String)}<br>
+ * H2: a script of the template created with SCRIPT, cached in a folder, and loaded with RUNSCRIPT<br>
+ * For other databases the migrations are applied to the new database as usual.
+ * 
+ * The template database should be dedicated to this purpose: PostgreSQL can't copy a database that has other
+ * sessions, so they are terminated before cloning.
+ * 
+ * @author john
+ *
+ */
+public class MigrationTemplate {
+
+	private static final Logger log = LoggerFactory.getLogger(MigrationTemplate.class);
+	
+	private final DataNode template;
+	private final String migrationsPackage;
+	private final File cacheFolder;
+	private String preparedKey;
+	private String templateDatabaseName;
+	
+	/**
+	 * 
+	 * @param template the node of the template database
+	 * @param migrationsPackage the package that your migration subclasses reside in
+	 * @param cacheFolder the folder to keep the scripts of template databases in, for databases that are cloned from a script
+	 */
+	public MigrationTemplate(DataNode template, String migrationsPackage, File cacheFolder) {
+		this.template = template;
+		this.migrationsPackage = migrationsPackage;
+		this.cacheFolder = cacheFolder;
+	}
+	
+	/**
+	 * Migrates the template database to the latest version if the migrations changed since it was last prepared,
+	 * and caches its script for databases that are cloned from a script.
+	 * 
+	 * @return the key of the template
+	 */
+	public synchronized String prepare() throws SQLException {
+		DbFamily family = DbFamily.of(template.getAdapter());
+		Connection connection = template.getDataSource().getConnection();
+		try {
+			String key = key(connection.getMetaData().getDatabaseProductName());
+			if (key.equals(preparedKey)) {
+				return key;
+			}
+			
+			new Migrator(template, migrationsPackage).migrateToLatest();
+			templateDatabaseName = connection.getCatalog();
+			
+			if (family == DbFamily.H2) {
+				File script = scriptFile(key);
+				if (!script.exists()) {
+					cacheFolder.mkdirs();
+					// write to a temporary file first so a partially written script is never used
+					File temporary = new File(cacheFolder, key + ".tmp");
+					execute(connection, "SCRIPT TO '" + path(temporary) + "'");
+					if (!temporary.renameTo(script)) {
+						throw new SQLException("Failed to move the template script to " + script);
+					}
+				}
+			}
+			
+			preparedKey = key;
+			log.info("Prepared template database for node " + template.getName() + " with key " + key);
+			return key;
+		} finally {
+			connection.close();
+		}
+	}
+	
+	/**
+	 * Brings the database of the target node to the latest version. For H2 the target, which should be empty,
+	 * is loaded from the script of the template; otherwise the migrations are applied to it.
+	 */
+	public void provision(DataNode target) throws SQLException {
+		prepare();
+		
+		if (DbFamily.of(target.getAdapter()) != DbFamily.H2 || DbFamily.of(template.getAdapter()) != DbFamily.H2) {
+			new Migrator(target, migrationsPackage).migrateToLatest();
+			return;
+		}
+		
+		Connection connection = target.getDataSource().getConnection();
+		try {
+			connection.setAutoCommit(true);
+			execute(connection, "RUNSCRIPT FROM '" + path(scriptFile(preparedKey)) + "'");
+		} finally {
+			connection.close();
+		}
+	}
+	
+	/**
+	 * Creates a new database as a copy of the template with CREATE DATABASE ... TEMPLATE. This is only
+	 * supported for PostgreSQL; for other databases it is refused before anything is changed.
+	 * 
+	 * @param server a connection to the database server that isn't connected to the template, for example to the 'postgres' database
+	 * @param databaseName the name of the database to create
+	 */
+	public void provision(DataSource server, String databaseName) throws SQLException {
+		if (DbFamily.of(template.getAdapter()) != DbFamily.POSTGRES) {
+			throw new MigrationValidationException("Creating a database from a template is only supported for PostgreSQL; use provision(DataNode) instead.");
+		}
+		prepare();
+		
+		Connection connection = server.getConnection();
+		try {
+			connection.setAutoCommit(true);
+			PreparedStatement st = connection.prepareStatement("SELECT pg_terminate_backend(pid) FROM pg_stat_activity WHERE datname = ? AND pid <> pg_backend_pid()");
+			try {
+				st.setString(1, templateDatabaseName);
+				st.executeQuery().close();
+			} finally {
+				st.close();
+			}
+			execute(connection, "CREATE DATABASE " + quote(databaseName) + " TEMPLATE " + quote(templateDatabaseName));
+		} finally {
+			connection.close();
+		}
+	}
+	
+	/**
+	 * The key identifies the migrations that the template was created from: the data maps, their highest
+	 * versions and the fingerprints of their migration classes.
+	 */
+	String key(String databaseProductName) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		
+		Migrator migrator = new Migrator(template, migrationsPackage);
+		for (DataMap map : template.getDataMaps()) {
+			Migration migration;
+			for (int version = 0; (migration = migrator.createMigrationClassForVersion(map, version)) != null; version++) {
+				migration.getDatabase().setDatabaseProductName(databaseProductName);
+				try {
+					digest.update((map.getName() + ":" + version + ":" + MigrationPlan.fingerprint(migration) + "\n").getBytes(StandardCharsets.UTF_8));
+				} catch (IOException e) {
+					throw new RuntimeException("Failed to fingerprint migration for dataMap=" + map.getName() + ", version=" + version + ": " + e.getMessage(), e);
+				}
+			}
+		}
+		
+		StringBuilder result = new StringBuilder();
+		for (byte b : digest.digest()) {
+			result.append(String.format("%02x", b));
+		}
+		return result.toString();
+	}
+	
+	File scriptFile(String key) {
+		return new File(cacheFolder, key + ".sql");
+	}
+	
+	private static String path(File file) {
+		return file.getAbsolutePath().replace("'", "''");
+	}
+	
+	private static String quote(String identifier) {
+		return "\"" + identifier.replace("\"", "\"\"") + "\"";
+	}
+	
+	private static void execute(Connection connection, String sql) throws SQLException {
+		Statement st = connection.createStatement();
+		try {
+			st.execute(sql);
+		} finally {
+			st.close();
+		}
+	}
+	
+}
@@ -0,0 +1,44 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+/**
+ * Thrown when the data doesn't satisfy a constraint that a migration is about to add, for example foreign keys
+ * whose creation was deferred until the end of a bulk load. Nothing has been changed by the constraint itself;
+ * the data needs to be fixed before the migration can be run again.
+ * 
+ * Also thrown when a migration is prepared and uses a feature the database doesn't support, before the migration
+ * lock is taken and before any version is applied.
+ * 
+ * @author john
+ *
+ */
+public class MigrationValidationException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public MigrationValidationException(String message) {
+		super(message);
+	}
+	
+	public MigrationValidationException(String message, Throwable cause) {
+		super(message, cause);
+	}
+	
+}
@@ -18,17 +18,49 @@
  ****************************************************************/
 package org.apache.cayenne.migration;
 
+import java.io.IOException;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.sql.Statement;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+import javax.sql.DataSource;
 
 import org.apache.cayenne.access.DataNode;
+import org.apache.cayenne.configuration.server.ServerRuntime;
+import org.apache.cayenne.dba.DbAdapter;
 import org.apache.cayenne.dbsync.merge.token.MergerToken;
 import org.apache.cayenne.dbsync.merge.token.db.AbstractToDbToken;
+import org.apache.cayenne.di.Injector;
 import org.apache.cayenne.log.JdbcEventLogger;
 import org.apache.cayenne.map.DataMap;
+import org.apache.cayenne.map.DbAttribute;
+import org.apache.cayenne.map.DbEntity;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -42,12 +74,43 @@ import org.slf4j.LoggerFactory;
 public class Migrator {
 
     private static final Logger log = LoggerFactory.getLogger(Migrator.class);
+    
+    /** The length of the dataMap column of the migration and history tables. */
+    static final int DATA_MAP_LENGTH = 100;
+    private static final int LEGACY_DATA_MAP_LENGTH = 50;
 
+    /**
+     * @deprecated whether a column is added in one statement is now decided per database by
+     * {@link Capability#ADD_COLUMN_WITH_DEFAULT}; use {@link #setCapability(Capability, boolean)} or
+     * {@link MigrationDatabase#setCapability(Capability, boolean)} to override it.
+     */
+    @Deprecated
     public static boolean USE_EFFICIENT_ALTER_TABLE = false;
     
 	private final DataNode node;
 	private final String migrationsPackage;
 	private Connection connection;
+	private Executor backgroundExecutor;
+	private BackgroundMigrationRunner backgroundMigrations;
+	private int transactionGroupSize = 1;
+	private Savepoint savepoint;
+	private LockTimeoutPolicy lockTimeoutPolicy;
+	private String schema;
+	private String originalSchema;
+	private int preparationThreads = Runtime.getRuntime().availableProcessors();
+	private boolean usePlans = true;
+	private int parallelConnections = 1;
+	private long lockPollInterval = 2000;
+	private final List<PartitionMaintenance> partitionMaintenance = new ArrayList<PartitionMaintenance>();
+	private Set<MaintenanceAction> maintenance = EnumSet.noneOf(MaintenanceAction.class);
+	private int maintenanceThreads = 4;
+	private TableRewritePolicy tableRewritePolicy = TableRewritePolicy.WARN;
+	private long tableRewriteLimit = 100;
+	private final Map<Capability, Boolean> capabilityOverrides = new EnumMap<Capability, Boolean>(Capability.class);
+	private DbCapabilities serverCapabilities;
+	private SchemaCache schemaCache = new SchemaCache();
+	private final RunSchema runSchema = new RunSchema();
+	private final Map<String, Set<MaintenanceAction>> pendingMaintenance = new LinkedHashMap<String, Set<MaintenanceAction>>();
 	
 	/**
 	 * 
@@ -59,29 +122,114 @@ public class Migrator {
 		this.migrationsPackage = migrationsPackage;
 	}
 
+	/**
+	 * Creates a Migrator for a data source without a Cayenne runtime or project file, see {@link StandaloneNode}.
+	 * 
+	 * @param dataSource the database to migrate
+	 * @param adapterType the adapter of the database, like PostgresAdapter.class
+	 * @param migrationsPackage the package that your migration subclasses reside in
+	 * @param dataMapNames the names of the data maps whose migrations are applied, in order
+	 */
+	public static Migrator create(DataSource dataSource, Class<? extends DbAdapter> adapterType, String migrationsPackage, String... dataMapNames) {
+		return new Migrator(StandaloneNode.create(dataSource, adapterType, dataMapNames), migrationsPackage);
+	}
+
+	/**
+	 * Creates a Migrator for the same node and settings that applies the migrations to the given schema.
+	 */
+	Migrator copy(String schema) {
+	    Migrator result = new Migrator(node, migrationsPackage);
+	    result.schema = schema;
+	    result.backgroundExecutor = backgroundExecutor;
+	    result.transactionGroupSize = transactionGroupSize;
+	    result.lockTimeoutPolicy = lockTimeoutPolicy;
+	    result.preparationThreads = preparationThreads;
+	    result.usePlans = usePlans;
+	    result.parallelConnections = parallelConnections;
+	    result.lockPollInterval = lockPollInterval;
+	    result.partitionMaintenance.addAll(partitionMaintenance);
+	    result.maintenance = maintenance;
+	    result.maintenanceThreads = maintenanceThreads;
+	    result.tableRewritePolicy = tableRewritePolicy;
+	    result.tableRewriteLimit = tableRewriteLimit;
+	    result.capabilityOverrides.putAll(capabilityOverrides);
+	    result.serverCapabilities = serverCapabilities;
+	    if (schema == null ? this.schema == null : schema.equals(this.schema)) {
+	        // copies working on the same schema see each other's changes
+	        result.schemaCache = schemaCache;
+	    }
+	    return result;
+	}
+	
+	/**
+	 * The schema that holds the Migrator's tables; either the schema this Migrator targets or the default schema of the map.
+	 * @param map
+	 * @return the schema or null to use the connection's default
+	 */
+	protected String schema(DataMap map) {
+	    return schema != null ? schema : map.getDefaultSchema();
+	}
+	
 	/**
 	 * The name of the table that holds the version and lock information for the Migrator to use.
 	 * @param map 
 	 * @return
 	 */
 	protected String migrationTableName(DataMap map) {
-	    String schema = map.getDefaultSchema() != null ? map.getDefaultSchema() + "." : "";
+	    String schema = schema(map) != null ? schema(map) + "." : "";
 		return schema + "dbupdater";
 	}
 	
+	/**
+	 * The name of the append-only table that records each applied version along with its timing, host and checksum.
+	 * @param map
+	 * @return
+	 */
+	protected String migrationHistoryTableName(DataMap map) {
+	    return migrationTableName(map) + "_history";
+	}
+	
+	/**
+	 * The name of the append-only table that records the timing and row count of each statement of an applied version.
+	 * @param map
+	 * @return
+	 */
+	protected String migrationHistoryStepTableName(DataMap map) {
+	    return migrationTableName(map) + "_history_step";
+	}
+	
+	/**
+	 * The name of the table that holds the progress of background migrations.
+	 * @param map
+	 * @return
+	 */
+	protected String migrationBackgroundTableName(DataMap map) {
+	    return migrationTableName(map) + "_background";
+	}
+	
+	/**
+	 * The name of the table that holds the constraints waiting to be validated.
+	 * @param map
+	 * @return
+	 */
+	protected String migrationValidationTableName(DataMap map) {
+	    return migrationTableName(map) + "_validation";
+	}
+	
 	void createInternalMigrationSchema(DataMap map) throws SQLException {
-	    String schema = map.getDefaultSchema() != null ? map.getDefaultSchema() : null;
+	    String schema = schema(map);
 	    if (schema != null) {
 	        executeSqlWithUpdateCount("CREATE SCHEMA IF NOT EXISTS " + schema);
 	    }
 	    
-		executeSqlWithUpdateCount("CREATE TABLE " + migrationTableName(map) + "(dataMap VARCHAR(50) NOT NULL, version INTEGER DEFAULT -1 NOT NULL, locked SMALLINT DEFAULT 0 NOT NULL, PRIMARY KEY(dataMap))");
+		executeSqlWithUpdateCount("CREATE TABLE " + migrationTableName(map) + "(dataMap VARCHAR(" + DATA_MAP_LENGTH + ") NOT NULL, version INTEGER DEFAULT -1 NOT NULL, locked SMALLINT DEFAULT 0 NOT NULL, PRIMARY KEY(dataMap))");
 		getConnection().commit();
 	}
 	
 	int currentDbVersion(DataMap map) throws SQLException {
 	    String sql = String.format("SELECT version FROM %s WHERE dataMap = '%s'", migrationTableName(map), map.getName());
 	    Integer version = null;
+	    Object event = MigrationEvents.beginPhase(MigrationEvents.VERSION_CHECK, map.getName(), -1);
 	    try {
 	        version = executeSqlReturnInt(sql);
 	        return version != null ? version.intValue() : -1;
@@ -95,6 +243,68 @@ public class Migrator {
 	        return version != null ? version.intValue() : -1;
 	    } finally {
 	        getConnection().commit();
+	        MigrationEvents.end(event);
+	    }
+	}
+	
+	/**
+	 * The key of the row in the migration table that tracks the contract phase of the map.
+	 */
+	String contractKey(DataMap map) {
+	    String key = map.getName() + "#contract";
+	    if (key.length() > DATA_MAP_LENGTH) {
+	        throw new IllegalArgumentException("The name of dataMap '" + map.getName() + "' is too long to track its contract phase; it can have at most " + (DATA_MAP_LENGTH - "#contract".length()) + " characters.");
+	    }
+	    return key;
+	}
+	
+	/**
+	 * Migration tables created before the contract phase existed have a dataMap column of 50 characters, which
+	 * can't hold the contract key of a long map name, so the column is widened in them and in the history and
+	 * validation tables first. This should only be called while holding the migration lock.
+	 */
+	void widenDataMapColumns(DataMap map) throws SQLException {
+	    if (contractKey(map).length() <= LEGACY_DATA_MAP_LENGTH) {
+	        return;
+	    }
+	    MigrationHistory history = new MigrationHistory(this);
+	    DbEntity migrationEntity = MigrationHistory.entity(map, migrationTableName(map));
+	    MigrationHistory.addAttribute(migrationEntity, "dataMap", Types.VARCHAR, DATA_MAP_LENGTH, true);
+	    for (DbEntity entity : Arrays.asList(migrationEntity, history.historyEntity(map), history.stepEntity(map), ConstraintValidator.entity(this, map), BackgroundMigrationRunner.entity(this, map))) {
+	        SchemaCache.Column column = schemaCache.column(this, entity.getFullyQualifiedName(), "dataMap");
+	        if (column == null || column.type.size <= 0 || column.type.size >= DATA_MAP_LENGTH) {
+	            continue;
+	        }
+	        DbAttribute wide = entity.getAttribute("dataMap");
+	        DbAttribute narrow = new DbAttribute("dataMap", Types.VARCHAR, entity);
+	        narrow.setMaxLength(column.type.size);
+	        narrow.setPrimaryKey(true);
+	        narrow.setMandatory(true);
+	        MergerToken token = DbFamily.of(node.getAdapter()).mergerTokenFactory().createSetColumnTypeToDb(entity, narrow, wide);
+	        for (String sql : ((AbstractToDbToken) token).createSql(node.getAdapter())) {
+	            executeSqlWithUpdateCount(sql);
+	        }
+	        schemaCache.invalidate(entity.getFullyQualifiedName());
+	    }
+	    getConnection().commit();
+	}
+	
+	/**
+	 * @return the highest version of the map whose contract phase has been applied, or -1
+	 */
+	int contractDbVersion(DataMap map) throws SQLException {
+	    try {
+	        Integer version = executeSqlReturnInt(String.format("SELECT version FROM %s WHERE dataMap = '%s'", migrationTableName(map), contractKey(map)));
+	        return version != null ? version.intValue() : -1;
+	    } finally {
+	        getConnection().commit();
+	    }
+	}
+	
+	void setContractDbVersion(DataMap map, int version) throws SQLException {
+	    int count = executeSqlWithUpdateCount(String.format("UPDATE %s SET version = %d WHERE dataMap = '%s'", migrationTableName(map), version, contractKey(map)));
+	    if (count == 0) {
+	        executeSqlWithUpdateCount(String.format("INSERT INTO %s(dataMap, version, locked) VALUES ('%s', %d, 0)", migrationTableName(map), contractKey(map), version));
 	    }
 	}
 	
@@ -162,64 +372,981 @@ public class Migrator {
 	 */
 	public void migrateToLatest() throws SQLException {
 		synchronized (node) {
-            try {
-				getConnection();
-	            
-				for (DataMap map : node.getDataMaps()) {
-					
-                    int version = currentDbVersion(map)+1;
+		    migrateAllMaps();
+		}
+	}
+	
+	/**
+	 * Applies a single phase of the pending migrations, for deploying schema changes without downtime:
+	 * {@link MigrationPhase#EXPAND} applies the upgrade method of the migrations and is meant to run before a new
+	 * version of the application is rolled out, {@link MigrationPhase#CONTRACT} applies the contract method of
+	 * the migrations that have been expanded and is meant to run once the rollout is complete. The phases keep
+	 * separate versions, so the contract phase of a version is applied exactly once and never before its expand phase.
+	 * 
+	 * @throws SQLException
+	 */
+	public void migrateToLatest(MigrationPhase phase) throws SQLException {
+		synchronized (node) {
+		    migrateAllMaps(EnumSet.of(phase));
+		}
+	}
+	
+	/**
+	 * Performs {@link #migrateToLatest()} on a separate daemon thread.
+	 * 
+	 * @see #migrateToLatestAsync(Executor)
+	 */
+	public CompletableFuture<Map<String, Integer>> migrateToLatestAsync() {
+	    return migrateToLatestAsync(new Executor() {
+	        @Override
+	        public void execute(Runnable command) {
+	            Thread thread = new Thread(command, "Migrator-" + node.getName());
+	            thread.setDaemon(true);
+	            thread.start();
+	        }
+	    });
+	}
+	
+	/**
+	 * Performs {@link #migrateToLatest()} on the given executor and returns immediately, so the application can
+	 * go on initializing the parts that don't depend on the database. This is useful when many instances start
+	 * at once: one of them applies the migrations while the others wait for the migration lock, and they are
+	 * all notified through the returned future once the migrations are applied. Use {@link #setLockPollInterval(long)}
+	 * to control how quickly waiting instances notice. Deciding when the application is ready is left to the caller.
+	 * 
+	 * @return a future that completes with the version of each data map, by data map name, or completes
+	 * exceptionally if the migrations fail
+	 */
+	public CompletableFuture<Map<String, Integer>> migrateToLatestAsync(Executor executor) {
+	    final Injector injector = ServerRuntime.getThreadInjector();
+	    return CompletableFuture.supplyAsync(new Supplier<Map<String, Integer>>() {
+	        @Override
+	        public Map<String, Integer> get() {
+	            Injector previous = ServerRuntime.getThreadInjector();
+	            ServerRuntime.bindThreadInjector(injector);
+	            try {
+	                synchronized (node) {
+	                    if (!migrateAllMaps()) {
+	                        throw new CompletionException(new InterruptedException("Interrupted while waiting for the migration lock of node " + node.getName()));
+	                    }
+	                }
+	                return currentVersions();
+	            } catch (SQLException e) {
+	                throw new CompletionException(e);
+	            } finally {
+	                ServerRuntime.bindThreadInjector(previous);
+	            }
+	        }
+	    }, executor);
+	}
+	
+	/**
+	 * @return the current version of each data map of the node, by data map name
+	 */
+	public Map<String, Integer> currentVersions() throws SQLException {
+	    Map<String, Integer> versions = new LinkedHashMap<String, Integer>();
+	    try {
+	        for (DataMap map : node.getDataMaps()) {
+	            versions.put(map.getName(), currentDbVersion(map));
+	        }
+	    } finally {
+	        closeConnection();
+	    }
+	    return versions;
+	}
+	
+	/**
+	 * Discovers and executes the Migrations necessary to update each of the given schemas to the latest version.
+	 * The migrations are applied to each schema with its own connection, by setting it as the connection's
+	 * current schema, so they should use unqualified table names. Each schema keeps its own version table,
+	 * so a schema that fails doesn't affect the others and is resumed from its last version the next time.
+	 * 
+	 * The data source of the node needs to provide at least as many connections as there are threads.
+	 * 
+	 * @param schemas the schemas to migrate
+	 * @param threads the number of schemas to migrate in parallel
+	 * @return the exceptions of the schemas that failed to migrate, by schema
+	 * @throws InterruptedException
+	 */
+	public Map<String, Exception> migrateToLatest(Collection<String> schemas, int threads) throws InterruptedException {
+	    synchronized (node) {
+	        final Injector injector = ServerRuntime.getThreadInjector();
+	        ExecutorService executor = Executors.newFixedThreadPool(threads);
+	        Map<String, Future<Void>> results = new LinkedHashMap<String, Future<Void>>();
+	        try {
+	            for (String schema : schemas) {
+	                final Migrator migrator = copy(schema);
+	                results.put(schema, executor.submit(new Callable<Void>() {
+	                    @Override
+	                    public Void call() throws Exception {
+	                        Injector previous = ServerRuntime.getThreadInjector();
+	                        ServerRuntime.bindThreadInjector(injector);
+	                        try {
+	                            migrator.migrateAllMaps();
+	                        } finally {
+	                            ServerRuntime.bindThreadInjector(previous);
+	                        }
+	                        return null;
+	                    }
+	                }));
+	            }
+	        } finally {
+	            executor.shutdown();
+	        }
+	        
+	        Map<String, Exception> failures = new LinkedHashMap<String, Exception>();
+	        for (Map.Entry<String, Future<Void>> result : results.entrySet()) {
+	            try {
+	                result.getValue().get();
+	            } catch (ExecutionException e) {
+	                if (e.getCause() instanceof Error) {
+	                    throw (Error) e.getCause();
+	                }
+	                log.error("Failed to migrate schema " + result.getKey() + " of node " + node.getName() + ": " + e.getCause().getMessage(), e.getCause());
+	                failures.put(result.getKey(), (Exception) e.getCause());
+	            }
+	        }
+	        return failures;
+	    }
+	}
+	
+	/**
+	 * @return false if the thread was interrupted while waiting for a migration lock
+	 */
+	boolean migrateAllMaps() throws SQLException {
+	    return migrateAllMaps(EnumSet.allOf(MigrationPhase.class));
+	}
+	
+	boolean migrateAllMaps(Set<MigrationPhase> phases) throws SQLException {
+        try {
+			getConnection();
+			schemaCache.invalidateAll();
+			runSchema.clear();
+            
+			for (DataMap map : node.getDataMaps()) {
+			    if (phases.contains(MigrationPhase.EXPAND) && !migrateToLatest(map)) {
+			        return false;
+			    }
+			    if (phases.contains(MigrationPhase.CONTRACT) && !contractToLatest(map)) {
+			        return false;
+			    }
+			}
+			
+			if (phases.contains(MigrationPhase.EXPAND) && !runPartitionMaintenance()) {
+			    return false;
+			}
+		} finally {
+		    closeConnection();
+        }
+		
+		// also validates the constraints added as NOT VALID by either phase
+		getBackgroundMigrations().start(backgroundExecutor);
+		return true;
+	}
+	
+	/**
+	 * Applies the pending migrations of a single map while holding its migration lock. The migrations are
+	 * prepared before the lock is taken, so the lock is only held while their statements execute.
+	 * 
+	 * @return false if the thread was interrupted while waiting for the lock
+	 */
+	boolean migrateToLatest(DataMap map) throws SQLException {
+        int preparedVersion = currentDbVersion(map)+1;
 
-                    Migration migration = createMigrationClassForVersion(map, version);
-                    if (migration != null) {
-                        while (!lock(map)) {
-                            log.warn("Waiting to obtain migration lock for node: " + node.getName() + ". " +
-                                    "If you terminated the application while a migration was in progress " +
-                                    "you will need to clear the migration lock by running: " +
-                                    unlockSql(map));
-                            try {
-                                Thread.sleep(2000);
-                            } catch (InterruptedException e) {
-                                return;
-                            }
-                        }
-					
-                        version = currentDbVersion(map)+1;
-                        
-    					try {
-    						while ((migration = createMigrationClassForVersion(map, version)) != null) {
-    						    log.info(String.format("Updating dataMap '%s' to version %d", map.getName(), version));
-    						    migration.getDatabase().setDatabaseProductName(getConnection().getMetaData().getDatabaseProductName());
-    							migration.run();
-    							try {
-    							    executeOperations(migration.getDatabase().getOperations());
-    							} catch (Exception e) {
-    							    throw new RuntimeException("Failed to migrate node=" + node.getName() + ", dataMap=" + map.getName() + " to version=" + version + ": " + e.getMessage(), e);
-    							}
-    							setDbVersion(map, version);
-    							getConnection().commit();
-    							version++;
-    						}
-    					} finally {
-    						unlock(map);
-    					}
-                    }
-				}
-				
+        List<PreparedMigration> prepared = prepareMigrations(map, preparedVersion);
+        if (!prepared.isEmpty()) {
+            if (!awaitLock(map, preparedVersion)) {
+                return false;
+            }
+		
+            // another instance may have applied some of the versions while we were preparing them, and rows
+            // may have been inserted into tables the prepared versions took to be empty, so prepare them again
+            int version = currentDbVersion(map)+1;
+            if (version != preparedVersion) {
+                runSchema.clear();
+                prepared = prepareMigrations(map, version);
+            }
+            
+			try {
+			    applyMigrations(map, version, prepared);
 			} finally {
-	            if (getConnection() != null) {
+				unlock(map);
+				runMaintenance();
+			}
+        }
+        return true;
+	}
+	
+	/**
+	 * Runs the partition maintenance while holding the migration lock of the map the partitioned table belongs
+	 * to, so instances starting at the same time don't race to create the same partition.
+	 * 
+	 * @return false if the thread was interrupted while waiting for a lock
+	 */
+	private boolean runPartitionMaintenance() throws SQLException {
+	    Map<DataMap, List<PartitionMaintenance>> byMap = new LinkedHashMap<DataMap, List<PartitionMaintenance>>();
+	    for (PartitionMaintenance maintenance : partitionMaintenance) {
+	        DataMap map = mapOfTable(maintenance.getTableName());
+	        if (!byMap.containsKey(map)) {
+	            byMap.put(map, new ArrayList<PartitionMaintenance>());
+	        }
+	        byMap.get(map).add(maintenance);
+	    }
+	    
+	    for (Map.Entry<DataMap, List<PartitionMaintenance>> entry : byMap.entrySet()) {
+	        DataMap map = entry.getKey();
+	        if (!awaitLock(map, currentDbVersion(map))) {
+	            return false;
+	        }
+	        try {
+	            for (PartitionMaintenance maintenance : entry.getValue()) {
+	                maintenance.run(this, LocalDate.now());
+	            }
+	        } finally {
+	            unlock(map);
+	        }
+	    }
+	    return true;
+	}
+	
+	/**
+	 * @return the map containing the table, or the first map of the node when no map contains it
+	 */
+	private DataMap mapOfTable(String tableName) {
+	    String name = tableName.replaceFirst(".+\\.", "");
+	    for (DataMap map : node.getDataMaps()) {
+	        if (map.getDbEntity(name) != null) {
+	            return map;
+	        }
+	    }
+	    return node.getDataMaps().iterator().next();
+	}
+	
+	/**
+	 * Waits until the migration lock of the map is obtained.
+	 * @return false if the thread was interrupted while waiting
+	 */
+	private boolean awaitLock(DataMap map, int version) throws SQLException {
+        Object event = MigrationEvents.beginPhase(MigrationEvents.LOCK, map.getName(), version);
+        try {
+            while (!lock(map)) {
+                log.warn("Waiting to obtain migration lock for node: " + node.getName() + ". " +
+                        "If you terminated the application while a migration was in progress " +
+                        "you will need to clear the migration lock by running: " +
+                        unlockSql(map));
+                try {
+                    Thread.sleep(lockPollInterval);
+                } catch (InterruptedException e) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            MigrationEvents.end(event);
+        }
+	}
+	
+	/**
+	 * Applies the contract phase of the versions of a single map that have been expanded but not contracted,
+	 * while holding its migration lock.
+	 * 
+	 * @return false if the thread was interrupted while waiting for the lock
+	 */
+	boolean contractToLatest(DataMap map) throws SQLException {
+	    // the expanded version is read first because it creates the migration table if needed
+	    int expanded = currentDbVersion(map);
+	    if (contractDbVersion(map) >= expanded) {
+	        return true;
+	    }
+	    if (!awaitLock(map, -1)) {
+	        return false;
+	    }
+	    try {
+	        applyContractions(map);
+	    } finally {
+	        unlock(map);
+	        runMaintenance();
+	    }
+	    return true;
+	}
+	
+	/**
+	 * Applies the contract phase of each version up to the current version. Versions without a contract phase
+	 * are only counted, and each version that has one is committed on its own.
+	 */
+	void applyContractions(DataMap map) throws SQLException {
+	    MigrationHistory history = new MigrationHistory(this);
+	    history.createTablesIfNeeded(map);
+	    widenDataMapColumns(map);
+	    
+	    int expanded = currentDbVersion(map);
+	    int contracted = contractDbVersion(map);
+	    String productName = getConnection().getMetaData().getDatabaseProductName();
+	    getCapabilities();
+	    try {
+	        applyLockTimeout();
+	        
+	        // all contract phases are prepared before any is applied, so one the database doesn't support is rejected
+	        // before the ones ahead of it are committed
+	        List<PreparedMigration> contractions = new ArrayList<PreparedMigration>();
+	        for (int version = contracted + 1; version <= expanded; version++) {
+	            Migration migration = createMigrationClassForVersion(map, version);
+	            if (migration == null || !migration.hasContract()) {
+	                continue;
+	            }
+	            try {
+	                migration.getDatabase(MigrationPhase.CONTRACT).setCapabilities(capabilities());
+	                contractions.add(PreparedMigration.prepare(version, migration, MigrationPhase.CONTRACT, productName, node.getAdapter(), runSchema));
+	            } catch (RuntimeException e) {
+	                throw prepareFailure("Failed to prepare contract phase for node=" + node.getName() + ", dataMap=" + map.getName() + ", version=" + version + ": " + e.getMessage(), e);
+	            }
+	        }
+	        
+	        for (PreparedMigration prepared : contractions) {
+	            int version = prepared.getVersion();
+	            log.info(String.format("Contracting dataMap '%s' to version %d", map.getName(), version));
+	            Date startedAt = new Date();
+	            
+	            if (ConstraintValidator.hasValidations(prepared.getOperations())) {
+	                ConstraintValidator.createTableIfNeeded(this, map);
+	            }
+	            
+	            try {
+	                List<MigrationHistoryStep> steps;
 	                try {
-	                    getConnection().close();
-	                } catch (SQLException e) {}
+	                    steps = executeOperations(prepared.getOperations());
+	                } catch (MigrationLockException e) {
+	                    throw new MigrationLockException("Failed to contract node=" + node.getName() + ", dataMap=" + map.getName() + " to version=" + version + ": " + e.getMessage(), e);
+	                } catch (Exception e) {
+	                    throw new RuntimeException("Failed to contract node=" + node.getName() + ", dataMap=" + map.getName() + " to version=" + version + ": " + e.getMessage(), e);
+	                }
+	                history.record(map, new MigrationHistoryEntry(map.getName(), version, MigrationPhase.CONTRACT, MigrationHistory.hostName(), startedAt, new Date(), steps));
+	                recordMaintenance(prepared, MigrationPhase.CONTRACT);
+	                ConstraintValidator.register(this, map, contractKey(map), version, prepared.getOperations());
+	                setContractDbVersion(map, version);
+	            } catch (RuntimeException e) {
+	                rollback();
+	                throw e;
+	            } catch (SQLException e) {
+	                rollback();
+	                throw e;
+	            }
+	            commit(map, version);
+	            contracted = version;
+	        }
+	        
+	        if (contracted < expanded) {
+	            setContractDbVersion(map, expanded);
+	            commit(map, expanded);
+	        }
+	    } finally {
+	        resetLockTimeout();
+	    }
+	}
+	
+	/**
+	 * Instantiates the migrations starting with the given version until no migration class is found, then runs
+	 * their upgrade methods and renders their operations to SQL. Nothing is executed against the database, so
+	 * this doesn't require the migration lock. The migrations are prepared in parallel when there is more than
+	 * one and the first one that fails stops the migration before the lock is taken.
+	 */
+	List<PreparedMigration> prepareMigrations(final DataMap map, int version) throws SQLException {
+	    List<Migration> migrations = new ArrayList<Migration>();
+	    Migration migration;
+	    while (true) {
+	        Object event = MigrationEvents.beginPhase(MigrationEvents.LOAD, map.getName(), version + migrations.size());
+	        migration = createMigrationClassForVersion(map, version + migrations.size());
+	        MigrationEvents.end(event);
+	        if (migration == null) {
+	            break;
+	        }
+	        migrations.add(migration);
+	    }
+	    
+	    final String productName = getConnection().getMetaData().getDatabaseProductName();
+	    getCapabilities();
+	    List<PreparedMigration> prepared = new ArrayList<PreparedMigration>();
+	    int threads = Math.min(preparationThreads, migrations.size());
+	    if (threads <= 1) {
+	        for (int i = 0; i < migrations.size(); i++) {
+	            prepared.add(prepareMigration(map, version + i, migrations.get(i), productName));
+	        }
+	        return prepared;
+	    }
+	    
+	    // the migrations are run in parallel and rendered in order, so each one sees the tables of the ones before it
+	    final Injector injector = ServerRuntime.getThreadInjector();
+	    ExecutorService executor = Executors.newFixedThreadPool(threads);
+	    try {
+	        List<Future<PreparedMigration>> results = new ArrayList<Future<PreparedMigration>>();
+	        for (int i = 0; i < migrations.size(); i++) {
+	            final int migrationVersion = version + i;
+	            final Migration pending = migrations.get(i);
+	            results.add(executor.submit(new Callable<PreparedMigration>() {
+	                @Override
+	                public PreparedMigration call() {
+	                    Injector previous = ServerRuntime.getThreadInjector();
+	                    ServerRuntime.bindThreadInjector(injector);
+	                    try {
+	                        return runMigration(map, migrationVersion, pending, productName);
+	                    } finally {
+	                        ServerRuntime.bindThreadInjector(previous);
+	                    }
+	                }
+	            }));
+	        }
+	        
+	        for (int i = 0; i < results.size(); i++) {
+	            try {
+	                PreparedMigration planned = results.get(i).get();
+	                prepared.add(planned != null ? recordPlanned(map, version + i, planned, productName) : renderMigration(map, version + i, migrations.get(i)));
+	            } catch (ExecutionException e) {
+	                if (e.getCause() instanceof Error) {
+	                    throw (Error) e.getCause();
+	                }
+	                throw (RuntimeException) e.getCause();
+	            } catch (InterruptedException e) {
+	                Thread.currentThread().interrupt();
+	                throw new RuntimeException("Interrupted while preparing migrations for node=" + node.getName() + ", dataMap=" + map.getName(), e);
+	            }
+	        }
+	    } finally {
+	        executor.shutdownNow();
+	    }
+	    return prepared;
+	}
+	
+	PreparedMigration prepareMigration(DataMap map, int version, Migration migration, String productName) {
+	    PreparedMigration planned = runMigration(map, version, migration, productName);
+	    return planned != null ? recordPlanned(map, version, planned, productName) : renderMigration(map, version, migration);
+	}
+	
+	/**
+	 * Loads the precompiled plan of the migration or otherwise runs its upgrade method.
+	 * @return the planned migration, or null if the migration was run and still needs to be rendered
+	 */
+	PreparedMigration runMigration(DataMap map, int version, Migration migration, String productName) {
+	    migration.getDatabase(MigrationPhase.EXPAND).setCapabilities(capabilities());
+	    if (usePlans) {
+	        try {
+	            PreparedMigration planned = PreparedMigration.fromPlan(version, migration, productName, node.getAdapter());
+	            if (planned != null) {
+	                return planned;
 	            }
+	        } catch (IOException e) {
+	            log.warn("Failed to load the migration plan for dataMap=" + map.getName() + ", version=" + version + "; running the migration instead.", e);
 	        }
+	    }
+	    
+	    Object event = MigrationEvents.beginPhase(MigrationEvents.PREPARE, map.getName(), version);
+	    try {
+	        PreparedMigration.run(migration, MigrationPhase.EXPAND, productName);
+	        return null;
+	    } catch (RuntimeException e) {
+	        throw prepareFailure("Failed to prepare migration for node=" + node.getName() + ", dataMap=" + map.getName() + ", version=" + version + ": " + e.getMessage(), e);
+	    } finally {
+	        MigrationEvents.end(event);
+	    }
+	}
+	
+	/**
+	 * @return the exception reporting a failure to prepare a migration, keeping a rejected migration a {@link MigrationValidationException}
+	 */
+	private static RuntimeException prepareFailure(String message, RuntimeException e) {
+	    return e instanceof MigrationValidationException ? new MigrationValidationException(message, e) : new RuntimeException(message, e);
+	}
+	
+	/**
+	 * Renders a migration that has been run, in the order of the versions so that it sees the tables of the run.
+	 */
+	private PreparedMigration renderMigration(DataMap map, int version, Migration migration) {
+	    try {
+	        return PreparedMigration.render(version, migration, MigrationPhase.EXPAND, node.getAdapter(), runSchema);
+	    } catch (RuntimeException e) {
+	        throw prepareFailure("Failed to prepare migration for node=" + node.getName() + ", dataMap=" + map.getName() + ", version=" + version + ": " + e.getMessage(), e);
+	    }
+	}
+	
+	/**
+	 * Records a planned migration in the run's schema. A plan is rendered without knowing which tables are still
+	 * empty, so when it changes a table created earlier in the run the migration is run and rendered instead.
+	 */
+	private PreparedMigration recordPlanned(DataMap map, int version, PreparedMigration planned, String productName) {
+	    if (runSchema.touchesEmptyTable(planned.getOperations())) {
+	        Migration migration = planned.getMigration();
+	        try {
+	            PreparedMigration.run(migration, MigrationPhase.EXPAND, productName);
+	        } catch (RuntimeException e) {
+	            throw prepareFailure("Failed to prepare migration for node=" + node.getName() + ", dataMap=" + map.getName() + ", version=" + version + ": " + e.getMessage(), e);
+	        }
+	        return renderMigration(map, version, migration);
+	    }
+	    runSchema.record(planned.getOperations(), planned.getMigration().getDatabase());
+	    return planned;
+	}
+	
+	/**
+	 * Applies the migrations starting with the given version until no migration class is found. Each version is
+	 * committed on its own, or, when transaction grouping is enabled, together with the rest of its group.
+	 * Versions that were prepared ahead of time are executed as prepared and any others are prepared here.
+	 */
+	void applyMigrations(DataMap map, int version, List<PreparedMigration> prepared) throws SQLException {
+	    MigrationHistory history = new MigrationHistory(this);
+	    history.createTablesIfNeeded(map);
+	    
+	    boolean grouped = isTransactionGrouping();
+	    int versionsInGroup = 0;
+	    
+	    Map<Integer, PreparedMigration> preparedByVersion = new HashMap<Integer, PreparedMigration>();
+	    for (PreparedMigration each : prepared) {
+	        preparedByVersion.put(each.getVersion(), each);
+	    }
+	    
+		try {
+		    applyLockTimeout();
+		    
+		    PreparedMigration next;
+			while ((next = preparedByVersion.get(version)) != null || (next = prepareUnderLock(map, version)) != null) {
+			    Migration migration = next.getMigration();
+			    log.info(String.format("Updating dataMap '%s' to version %d", map.getName(), version));
+			    Date startedAt = new Date();
+				if (migration instanceof BackgroundMigration) {
+				    // creating the table commits, so finish the current group first
+				    commit(map, version);
+				    versionsInGroup = 0;
+				    BackgroundMigrationRunner.createTableIfNeeded(this, map);
+				}
+				if (ConstraintValidator.hasValidations(next.getOperations())) {
+				    // creating the table commits, so finish the current group first
+				    commit(map, version);
+				    versionsInGroup = 0;
+				    ConstraintValidator.createTableIfNeeded(this, map);
+				}
+				
+				if (grouped) {
+				    savepoint = getConnection().setSavepoint();
+				}
+				try {
+    				List<MigrationHistoryStep> steps;
+    				try {
+    				    if (parallelConnections > 1) {
+    				        steps = new ParallelOperationExecutor(this, parallelConnections).execute(next.getOperations(), migration.getDatabase());
+    				    } else {
+    				        steps = executeOperations(next.getOperations());
+    				    }
+    				} catch (MigrationLockException e) {
+    				    throw new MigrationLockException("Failed to migrate node=" + node.getName() + ", dataMap=" + map.getName() + " to version=" + version + ": " + e.getMessage(), e);
+    				} catch (Exception e) {
+    				    throw new RuntimeException("Failed to migrate node=" + node.getName() + ", dataMap=" + map.getName() + " to version=" + version + ": " + e.getMessage(), e);
+    				}
+    				history.record(map, new MigrationHistoryEntry(map.getName(), version, MigrationPhase.EXPAND, MigrationHistory.hostName(), startedAt, new Date(), steps));
+    				recordMaintenance(next, MigrationPhase.EXPAND);
+    				ConstraintValidator.register(this, map, map.getName(), version, next.getOperations());
+    				if (migration instanceof BackgroundMigration) {
+    				    BackgroundMigrationRunner.register(this, map, version);
+    				}
+    				setDbVersion(map, version);
+				} catch (RuntimeException e) {
+				    // keep the preceding versions of the group, they are committed along with the unlock
+				    rollback();
+				    throw e;
+				} catch (SQLException e) {
+				    rollback();
+				    throw e;
+				}
+				
+				if (grouped) {
+				    savepoint = null;
+				    if (++versionsInGroup == transactionGroupSize) {
+				        commit(map, version);
+				        versionsInGroup = 0;
+				    }
+				} else {
+				    commit(map, version);
+				}
+				version++;
+			}
+		    
+		    if (versionsInGroup > 0) {
+		        commit(map, version - 1);
+		    }
+		} finally {
+		    savepoint = null;
+		    resetLockTimeout();
+		}
+	}
+	
+	/**
+	 * Remembers the tables the migration changed for the maintenance that runs once the lock is released.
+	 */
+	void recordMaintenance(PreparedMigration prepared, MigrationPhase phase) {
+	    MigrationDatabase database = prepared.getMigration().getDatabase(phase);
+	    Set<MaintenanceAction> actions = database.getMaintenance() != null ? database.getMaintenance() : maintenance;
+	    if (actions.isEmpty()) {
+	        return;
+	    }
+	    for (String table : TableMaintenance.touchedTables(prepared.getOperations(), database)) {
+	        Set<MaintenanceAction> tableActions = pendingMaintenance.get(table);
+	        if (tableActions == null) {
+	            tableActions = EnumSet.noneOf(MaintenanceAction.class);
+	            pendingMaintenance.put(table, tableActions);
+	        }
+	        tableActions.addAll(actions);
+	    }
+	}
+	
+	/**
+	 * Performs the maintenance of the tables changed by the applied migrations. Tables changed by a version
+	 * that was rolled back are still maintained, which is harmless.
+	 */
+	private void runMaintenance() {
+	    try {
+	        new TableMaintenance(node, schema, maintenanceThreads).run(pendingMaintenance);
+	    } finally {
+	        pendingMaintenance.clear();
+	    }
+	}
+	
+	private void commit(DataMap map, int version) throws SQLException {
+	    Object event = MigrationEvents.beginPhase(MigrationEvents.COMMIT, map.getName(), version);
+	    try {
+	        getConnection().commit();
+	    } finally {
+	        MigrationEvents.end(event);
+	    }
+	}
+	
+	/**
+	 * Prepares a version that wasn't available when the migrations were prepared before taking the lock.
+	 * @return null if there is no migration class for the version
+	 */
+	private PreparedMigration prepareUnderLock(DataMap map, int version) throws SQLException {
+	    Migration migration = createMigrationClassForVersion(map, version);
+	    if (migration == null) {
+	        return null;
+	    }
+	    getCapabilities();
+	    return prepareMigration(map, version, migration, getConnection().getMetaData().getDatabaseProductName());
+	}
+	
+	/**
+	 * Sets the number of threads used to prepare pending migrations before the migration lock is taken.
+	 * Preparing a migration runs its upgrade method and renders its SQL, which can take a noticeable amount
+	 * of time when replaying a long history. The default is the number of available processors; 1 prepares
+	 * the migrations on the calling thread.
+	 */
+	public void setPreparationThreads(int preparationThreads) {
+	    if (preparationThreads < 1) {
+	        throw new IllegalArgumentException("preparationThreads must be positive.");
+	    }
+	    this.preparationThreads = preparationThreads;
+	}
+	
+	public int getPreparationThreads() {
+	    return preparationThreads;
+	}
+	
+	/**
+	 * Sets whether precompiled migration plans are executed instead of running the migrations. Plans are
+	 * created at build time by {@link MigrationPlanCompiler}; a migration without a plan for the database,
+	 * or with a plan that no longer matches the migration class, is always run. The default is true.
+	 */
+	public void setUsePlans(boolean usePlans) {
+	    this.usePlans = usePlans;
+	}
+	
+	public boolean isUsePlans() {
+	    return usePlans;
+	}
+	
+	/**
+	 * Sets the number of connections used to execute the operations of a migration concurrently. Operations on
+	 * different tables, like creating the tables of an initial migration, run in parallel, while operations on the
+	 * same table run in order and foreign keys wait for the table they refer to.
+	 * 
+	 * Each operation is then committed on its own, so a migration that fails part way is not rolled back, and
+	 * transaction grouping is not used. The default is 1, which executes the operations in order on a single connection.
+	 */
+	public void setParallelConnections(int parallelConnections) {
+	    if (parallelConnections < 1) {
+	        throw new IllegalArgumentException("parallelConnections must be positive.");
+	    }
+	    this.parallelConnections = parallelConnections;
+	}
+	
+	public int getParallelConnections() {
+	    return parallelConnections;
+	}
+	
+	/**
+	 * Sets what happens when a column type change would rewrite a table larger than the table rewrite limit.
+	 * The default is to log a warning.
+	 */
+	public void setTableRewritePolicy(TableRewritePolicy tableRewritePolicy) {
+		this.tableRewritePolicy = tableRewritePolicy;
+	}
+	
+	public TableRewritePolicy getTableRewritePolicy() {
+		return tableRewritePolicy;
+	}
+	
+	/**
+	 * Sets the size in MB, including indexes, above which rewriting a table is subject to the table rewrite policy.
+	 * The default is 100 MB.
+	 */
+	public void setTableRewriteLimit(long tableRewriteLimit) {
+		this.tableRewriteLimit = tableRewriteLimit;
+	}
+	
+	public long getTableRewriteLimit() {
+		return tableRewriteLimit;
+	}
+	
+	/**
+	 * Overrides whether the database supports a capability, which otherwise is determined from the adapter and
+	 * server version. Migrations can override this again with {@link MigrationDatabase#setCapability(Capability, boolean)}.
+	 * @param capability
+	 * @param supported
+	 */
+	public void setCapability(Capability capability, boolean supported) {
+		capabilityOverrides.put(capability, supported);
+	}
+	
+	/**
+	 * @return the tables and columns of the database as seen by the current run
+	 */
+	SchemaCache getSchemaCache() {
+		return schemaCache;
+	}
+	
+	/**
+	 * @return the capabilities of the database, reading its server version the first time
+	 */
+	DbCapabilities getCapabilities() throws SQLException {
+		if (serverCapabilities == null) {
+			serverCapabilities = DbCapabilities.of(node.getAdapter(), getConnection().getMetaData());
+		}
+		return capabilities();
+	}
+	
+	/**
+	 * @return the capabilities of the database, without the version dependent ones if the server version hasn't been read yet
+	 */
+	DbCapabilities capabilities() {
+		DbCapabilities result = serverCapabilities != null ? serverCapabilities : DbCapabilities.of(node.getAdapter());
+		return result.withOverrides(capabilityOverrides);
+	}
+	
+	/**
+	 * Sets the maintenance performed on the tables changed by the migrations after they are committed; by default
+	 * none is performed. Migrations can override this with {@link MigrationDatabase#setMaintenance(MaintenanceAction...)}.
+	 * Passing no actions turns the maintenance off.
+	 * @param actions
+	 */
+	public void setMaintenance(MaintenanceAction... actions) {
+		maintenance = actions.length == 0 ? EnumSet.noneOf(MaintenanceAction.class) : EnumSet.copyOf(Arrays.asList(actions));
+	}
+	
+	public Set<MaintenanceAction> getMaintenance() {
+		return Collections.unmodifiableSet(maintenance);
+	}
+	
+	/**
+	 * Sets how many tables are maintained at the same time, each on its own connection. The default is 4.
+	 */
+	public void setMaintenanceThreads(int maintenanceThreads) {
+		if (maintenanceThreads < 1) {
+			throw new IllegalArgumentException("maintenanceThreads must be positive.");
+		}
+		this.maintenanceThreads = maintenanceThreads;
+	}
+	
+	public int getMaintenanceThreads() {
+		return maintenanceThreads;
+	}
+	
+	/**
+	 * Keeps the future partitions of a partitioned table created; the missing partitions are created after
+	 * the migrations each time the Migrator runs.
+	 * @param maintenance
+	 */
+	public void addPartitionMaintenance(PartitionMaintenance maintenance) {
+		partitionMaintenance.add(maintenance);
+	}
+	
+	public List<PartitionMaintenance> getPartitionMaintenance() {
+		return Collections.unmodifiableList(partitionMaintenance);
+	}
+	
+	/**
+	 * Sets how long to wait between attempts to obtain the migration lock while another instance holds it.
+	 * The default is 2000 milliseconds.
+	 */
+	public void setLockPollInterval(long lockPollInterval) {
+	    if (lockPollInterval < 1) {
+	        throw new IllegalArgumentException("lockPollInterval must be positive.");
+	    }
+	    this.lockPollInterval = lockPollInterval;
+	}
+	
+	public long getLockPollInterval() {
+	    return lockPollInterval;
+	}
+	
+	/**
+	 * Sets how many versions are applied in a single transaction. Grouping versions saves a commit per
+	 * version, which adds up when replaying many small migrations. A savepoint is set for each version so a
+	 * failure still identifies the exact version, and the versions of the group preceding it are kept.
+	 * 
+	 * Grouping is only used for databases with transactional DDL (for example PostgreSQL, H2 or Derby) and is
+	 * ignored for databases that commit implicitly on DDL statements (for example MySQL or Oracle).
+	 * The default is 1, which commits every version.
+	 * 
+	 * @param transactionGroupSize
+	 */
+	public void setTransactionGroupSize(int transactionGroupSize) {
+	    if (transactionGroupSize < 1) {
+	        throw new IllegalArgumentException("transactionGroupSize must be positive.");
+	    }
+	    this.transactionGroupSize = transactionGroupSize;
+	}
+	
+	/**
+	 * @return the schema this Migrator applies migrations to, or null to use each map's default schema
+	 */
+	public String getSchema() {
+	    return schema;
+	}
+	
+	public int getTransactionGroupSize() {
+	    return transactionGroupSize;
+	}
+	
+	/**
+	 * Sets the policy that limits how long migration statements wait for locks and how they are retried when
+	 * they time out, deadlock or fail to serialize. By default statements wait as long as the database lets them
+	 * and are not retried.
+	 * 
+	 * @param lockTimeoutPolicy the policy, or null to not use one
+	 */
+	public void setLockTimeoutPolicy(LockTimeoutPolicy lockTimeoutPolicy) {
+	    this.lockTimeoutPolicy = lockTimeoutPolicy;
+	}
+	
+	public LockTimeoutPolicy getLockTimeoutPolicy() {
+	    return lockTimeoutPolicy;
+	}
+	
+	/**
+	 * Applies the lock timeout of the policy as a session setting, if the database has one.
+	 */
+	void applyLockTimeout() throws SQLException {
+	    if (lockTimeoutPolicy != null) {
+	        String sql = DbFamily.of(node.getAdapter()).lockTimeoutSql(lockTimeoutPolicy.getLockTimeoutMillis());
+	        if (sql != null) {
+	            executeSqlWithUpdateCount(sql);
+	            getConnection().commit();
+	        }
+	    }
+	}
+	
+	/**
+	 * Restores the default lock timeout so it doesn't stay in effect for a pooled connection.
+	 */
+	void resetLockTimeout() {
+	    if (lockTimeoutPolicy != null) {
+	        String sql = DbFamily.of(node.getAdapter()).resetLockTimeoutSql();
+	        if (sql != null) {
+	            try {
+	                executeSqlWithUpdateCount(sql);
+	                getConnection().commit();
+	            } catch (Exception e) {
+	                log.warn("Unable to reset lock timeout: " + e.getMessage());
+	            }
+	        }
+	    }
+	}
+	
+	boolean isTransactionGrouping() {
+	    return transactionGroupSize > 1 && parallelConnections == 1 && DbFamily.of(node.getAdapter()).hasTransactionalDdl();
+	}
+	
+	/**
+	 * Sets the executor that background migrations, and the validations of constraints added as NOT VALID, are
+	 * performed on once migrateToLatest has applied the other migrations. If no executor is set they are performed
+	 * before migrateToLatest returns.
+	 * 
+	 * @param backgroundExecutor
+	 */
+	public void setBackgroundExecutor(Executor backgroundExecutor) {
+		this.backgroundExecutor = backgroundExecutor;
+	}
+	
+	/**
+	 * Returns the runner for background migrations, which allows them to be paused, resumed, cancelled or throttled
+	 * and their progress to be checked.
+	 * 
+	 * @return
+	 */
+	public synchronized BackgroundMigrationRunner getBackgroundMigrations() {
+		if (backgroundMigrations == null) {
+			backgroundMigrations = new BackgroundMigrationRunner(this);
+		}
+		return backgroundMigrations;
+	}
+	
+	/**
+	 * Returns the recorded history of applied migrations for the given map, ordered by version, including the
+	 * contract phases. Only versions applied since the history table was introduced are included.
+	 * 
+	 * @param map
+	 * @return
+	 * @throws SQLException
+	 */
+	public List<MigrationHistoryEntry> history(DataMap map) throws SQLException {
+		synchronized (node) {
+			try {
+				return new MigrationHistory(this).load(map);
+			} finally {
+				closeConnection();
+			}
 		}
 	}
 
-	void executeOperations(List<MergerToken> operations) throws SQLException {
+	/**
+	 * Executes the SQL for each operation, timing each statement.
+	 * @return the executed statements with their durations and row counts
+	 */
+	List<MigrationHistoryStep> executeOperations(List<MergerToken> operations) throws SQLException {
+		ColumnTypeChangeToDb.checkRewrites(this, operations);
+		List<MigrationHistoryStep> steps = new ArrayList<MigrationHistoryStep>();
 		for (MergerToken token : operations) {
+			if (token instanceof DirectToDb) {
+				long start = System.nanoTime();
+				Object event = MigrationEvents.beginStatement(MigrationEvents.EXECUTE, token, token.getTokenValue());
+				long count = ((DirectToDb) token).execute(this);
+				MigrationEvents.end(event, count);
+				if (savepoint != null) {
+					// direct operations may commit, which releases the savepoint
+					savepoint = getConnection().setSavepoint();
+				}
+				steps.add(new MigrationHistoryStep(steps.size(), token.getTokenValue(), (System.nanoTime() - start) / 1000000, count));
+				continue;
+			}
+			
 			AbstractToDbToken dbToken = (AbstractToDbToken)token;
-			executeSqlWithUpdateCount(dbToken.createSql(node.getAdapter()));
+			Object renderEvent = MigrationEvents.beginStatement(MigrationEvents.RENDER, token, null);
+			List<String> statements = dbToken.createSql(node.getAdapter());
+			MigrationEvents.end(renderEvent);
+			for (String sql : statements) {
+				long start = System.nanoTime();
+				Object event = MigrationEvents.beginStatement(MigrationEvents.EXECUTE, token, sql);
+				int count = executeSqlWithRetry(sql);
+				MigrationEvents.end(event, count);
+				steps.add(new MigrationHistoryStep(steps.size(), sql, (System.nanoTime() - start) / 1000000, Math.max(count, 0)));
+			}
 		}
+		return steps;
 	}
 	
 	void executeSqlWithUpdateCount(List<String> sqlStatements) throws SQLException {
@@ -228,6 +1355,72 @@ public class Migrator {
 		}
     }
     
+	/**
+	 * Executes a migration statement, retrying it according to the lock timeout policy if it fails to acquire a lock.
+	 * On databases with transactional DDL each attempt is protected by a savepoint so only the failed attempt is
+	 * rolled back.
+	 */
+	int executeSqlWithRetry(String sql) throws SQLException {
+	    if (lockTimeoutPolicy == null) {
+	        int count = executeSqlWithUpdateCount(sql);
+	        schemaCache.statementExecuted(sql);
+	        return count;
+	    }
+	    
+	    DbFamily family = DbFamily.of(node.getAdapter());
+	    JdbcEventLogger logger = node.getJdbcEventLogger();
+	    for (int retry = 0; ; retry++) {
+	        Savepoint retrySavepoint = family.hasTransactionalDdl() ? getConnection().setSavepoint() : null;
+	        Statement st = null;
+	        try {
+	            logger.log(sql);
+	            st = getConnection().createStatement();
+	            if (!family.hasLockTimeout()) {
+	                st.setQueryTimeout(lockTimeoutPolicy.getQueryTimeoutSeconds());
+	            }
+	            st.execute(sql);
+	            if (retrySavepoint != null) {
+	                // on PostgreSQL each savepoint that isn't released stays open as a subtransaction
+	                getConnection().releaseSavepoint(retrySavepoint);
+	            }
+	            schemaCache.statementExecuted(sql);
+	            return st.getUpdateCount();
+	        } catch (SQLException e) {
+	            boolean restored = false;
+	            if (retrySavepoint != null) {
+	                try {
+	                    getConnection().rollback(retrySavepoint);
+	                    getConnection().releaseSavepoint(retrySavepoint);
+	                    restored = true;
+	                } catch (SQLException e2) {
+	                    // the database rolled back the whole transaction, like SQL Server does on a deadlock
+	                }
+	            }
+	            if (!LockTimeoutPolicy.isLockFailure(e, family, restored) || (retrySavepoint != null && !restored)) {
+	                rollback();
+	                throw new RuntimeException("SQL statement failed \"" + sql + "\": " + e.getMessage(), e);
+	            }
+	            
+	            if (retry >= lockTimeoutPolicy.getMaxRetries()) {
+	                rollback();
+	                throw new MigrationLockException("Unable to acquire lock for SQL statement after " + (retry + 1) + " attempts \"" + sql + "\": " + e.getMessage(), e);
+	            }
+	            
+	            long backoff = lockTimeoutPolicy.backoffMillis(retry);
+	            log.warn("Lock not acquired for SQL statement, retrying in " + backoff + "ms: " + e.getMessage());
+	            try {
+	                Thread.sleep(backoff);
+	            } catch (InterruptedException ie) {
+	                Thread.currentThread().interrupt();
+	                rollback();
+	                throw new MigrationLockException("Interrupted while waiting to retry SQL statement \"" + sql + "\"", e);
+	            }
+	        } finally {
+	            closeStatement(st);
+	        }
+	    }
+	}
+    
 	int executeSqlWithUpdateCount(String sql) throws SQLException {
         Statement st = null;
         JdbcEventLogger logger = node.getJdbcEventLogger();
@@ -237,7 +1430,7 @@ public class Migrator {
             try {
             	st.execute(sql);
             } catch (SQLException e) {
-                getConnection().rollback();
+                rollback();
             	throw new RuntimeException("SQL statement failed \"" + sql + "\": " + e.getMessage(), e);
             }
             return st.getUpdateCount();
@@ -246,6 +1439,25 @@ public class Migrator {
         }
     }
     
+	int executePreparedUpdate(String sql, Object... parameters) throws SQLException {
+	    PreparedStatement st = null;
+	    JdbcEventLogger logger = node.getJdbcEventLogger();
+	    try {
+	        logger.log(sql);
+	        st = getConnection().prepareStatement(sql);
+	        for (int i = 0; i < parameters.length; i++) {
+	            if (parameters[i] == null) {
+	                st.setNull(i + 1, Types.VARCHAR);
+	            } else {
+	                st.setObject(i + 1, parameters[i]);
+	            }
+	        }
+	        return st.executeUpdate();
+	    } finally {
+	        closeStatement(st);
+	    }
+	}
+    
 	Integer executeSqlReturnInt(String sql) throws SQLException {
         Statement st = null;
         JdbcEventLogger logger = node.getJdbcEventLogger();
@@ -261,7 +1473,7 @@ public class Migrator {
                 	return null;
                 }
             } catch (SQLException e) {
-                getConnection().rollback();
+                rollback();
                 throw new RuntimeException("SQL statement failed \"" + sql + "\": " + e.getMessage(), e);
             }
         } finally {
@@ -277,12 +1489,53 @@ public class Migrator {
 		}
 	}
 
+    DataNode getDataNode() {
+        return node;
+    }
+    
     Connection getConnection() throws SQLException {
         if (connection == null) {
             connection = node.getDataSource().getConnection();
             getConnection().setAutoCommit(false);
+            if (schema != null) {
+                originalSchema = connection.getSchema();
+                connection.setSchema(schema);
+            }
         }
         return connection;
     }
+    
+    /**
+     * Rolls back the current transaction, or only the current version when transaction grouping is used.
+     */
+    void rollback() throws SQLException {
+        // the cache may hold changes that are rolled back
+        schemaCache.invalidateAll();
+        if (savepoint != null) {
+            getConnection().rollback(savepoint);
+        } else {
+            getConnection().rollback();
+        }
+    }
+    
+    boolean hasConnection() {
+        return connection != null;
+    }
+    
+    void closeConnection() {
+        if (connection != null) {
+            try {
+                if (schema != null) {
+                    // don't leave the schema set on a pooled connection
+                    connection.rollback();
+                    connection.setSchema(originalSchema);
+                }
+            } catch (SQLException e) {}
+            try {
+                connection.close();
+            } catch (SQLException e) {}
+            connection = null;
+        }
+    }
 	
 }
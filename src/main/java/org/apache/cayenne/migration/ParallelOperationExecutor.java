@@ -0,0 +1,256 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.cayenne.configuration.server.ServerRuntime;
+import org.apache.cayenne.dbsync.merge.token.MergerToken;
+import org.apache.cayenne.dbsync.merge.token.db.AbstractToDbToken;
+import org.apache.cayenne.di.Injector;
+
+/**
+ * Executes the operations of a migration concurrently on several connections, following a dependency graph
+ * built from the tables the operations change:<br>
+ * 1) Operations on the same table run one at a time and in order, so a table has at most one statement running.<br>
+ * 2) A foreign key runs after the preceding operations on the table it refers to, so the target exists.<br>
+ * 3) Operations whose table isn't known, like arbitrary SQL or row transformations, run alone: after all the
+ * preceding operations and before any of the following ones.
+ * 
+ * Each operation is committed on its own, so a failure leaves the operations that completed in place.
+ * 
+ * @author john
+ *
+ */
+class ParallelOperationExecutor {
+
+	private final Migrator migrator;
+	private final int connections;
+	
+	ParallelOperationExecutor(Migrator migrator, int connections) {
+		this.migrator = migrator;
+		this.connections = connections;
+	}
+	
+	/**
+	 * @return for each operation, the indexes of the operations it has to wait for
+	 */
+	static List<List<Integer>> dependencies(List<MergerToken> operations, MigrationDatabase database) {
+		List<List<Integer>> result = new ArrayList<List<Integer>>();
+		Map<String, Integer> lastByTable = new HashMap<String, Integer>();
+		List<Integer> sinceBarrier = new ArrayList<Integer>();
+		Integer barrier = null;
+		
+		for (int i = 0; i < operations.size(); i++) {
+			MergerToken source = source(operations.get(i));
+			String table = key(database.tableOf(source));
+			List<Integer> dependsOn = new ArrayList<Integer>();
+			
+			if (table == null) {
+				dependsOn.addAll(sinceBarrier);
+				if (barrier != null && sinceBarrier.isEmpty()) {
+					dependsOn.add(barrier);
+				}
+				barrier = i;
+				sinceBarrier.clear();
+				lastByTable.clear();
+			} else {
+				List<String> tables = new ArrayList<String>();
+				tables.add(table);
+				String referenced = key(database.referencedTableOf(source));
+				if (referenced != null && !referenced.equals(table)) {
+					tables.add(referenced);
+				}
+				
+				for (String each : tables) {
+					Integer last = lastByTable.get(each);
+					if (last != null && !dependsOn.contains(last)) {
+						dependsOn.add(last);
+					}
+					lastByTable.put(each, i);
+				}
+				if (dependsOn.isEmpty() && barrier != null) {
+					dependsOn.add(barrier);
+				}
+				sinceBarrier.add(i);
+			}
+			result.add(dependsOn);
+		}
+		return result;
+	}
+	
+	private static MergerToken source(MergerToken operation) {
+		return operation instanceof RenderedSqlToDb ? ((RenderedSqlToDb) operation).getSource() : operation;
+	}
+	
+	private static String key(String table) {
+		return table == null ? null : table.toLowerCase();
+	}
+	
+	/**
+	 * Executes the operations, each on one of the worker connections.
+	 * @return the executed statements, in the order of the operations
+	 */
+	List<MigrationHistoryStep> execute(final List<MergerToken> operations, MigrationDatabase database) throws SQLException {
+		ColumnTypeChangeToDb.checkRewrites(migrator, operations);
+		List<List<Integer>> dependencies = dependencies(operations, database);
+		int[] remaining = new int[operations.size()];
+		List<List<Integer>> dependents = new ArrayList<List<Integer>>();
+		for (int i = 0; i < operations.size(); i++) {
+			dependents.add(new ArrayList<Integer>());
+		}
+		for (int i = 0; i < operations.size(); i++) {
+			remaining[i] = dependencies.get(i).size();
+			for (Integer dependency : dependencies.get(i)) {
+				dependents.get(dependency).add(i);
+			}
+		}
+		
+		final MigrationHistoryStep[] steps = new MigrationHistoryStep[operations.size()];
+		final BlockingQueue<Migrator> workers = new ArrayBlockingQueue<Migrator>(connections);
+		for (int i = 0; i < connections; i++) {
+			workers.add(migrator.copy(migrator.getSchema()));
+		}
+		
+		final Injector injector = ServerRuntime.getThreadInjector();
+		ExecutorService executor = Executors.newFixedThreadPool(connections);
+		CompletionService<Integer> completion = new ExecutorCompletionService<Integer>(executor);
+		Exception failure = null;
+		int running = 0;
+		try {
+			for (int i = 0; i < operations.size(); i++) {
+				if (remaining[i] == 0) {
+					submit(completion, workers, operations, steps, i, injector);
+					running++;
+				}
+			}
+			
+			while (running > 0) {
+				Future<Integer> result = completion.take();
+				running--;
+				try {
+					int done = result.get();
+					for (Integer dependent : dependents.get(done)) {
+						if (--remaining[dependent] == 0 && failure == null) {
+							submit(completion, workers, operations, steps, dependent, injector);
+							running++;
+						}
+					}
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof Error) {
+						throw (Error) e.getCause();
+					}
+					if (failure == null) {
+						failure = (Exception) e.getCause();
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while executing migration operations", e);
+		} finally {
+			executor.shutdownNow();
+			for (Migrator worker : workers) {
+				if (worker.hasConnection()) {
+					worker.resetLockTimeout();
+					worker.closeConnection();
+				}
+			}
+		}
+		
+		if (failure instanceof SQLException) {
+			throw (SQLException) failure;
+		} else if (failure != null) {
+			throw (RuntimeException) failure;
+		}
+		
+		List<MigrationHistoryStep> result = new ArrayList<MigrationHistoryStep>();
+		for (MigrationHistoryStep step : steps) {
+			result.add(step);
+		}
+		return result;
+	}
+	
+	private void submit(CompletionService<Integer> completion, final BlockingQueue<Migrator> workers, final List<MergerToken> operations,
+			final MigrationHistoryStep[] steps, final int index, final Injector injector) {
+		completion.submit(new Callable<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				Injector previous = ServerRuntime.getThreadInjector();
+				ServerRuntime.bindThreadInjector(injector);
+				Migrator worker = workers.take();
+				try {
+					steps[index] = execute(worker, operations.get(index), index);
+					return index;
+				} finally {
+					workers.put(worker);
+					ServerRuntime.bindThreadInjector(previous);
+				}
+			}
+		});
+	}
+	
+	private MigrationHistoryStep execute(Migrator worker, MergerToken operation, int index) throws SQLException {
+		if (!worker.hasConnection()) {
+			worker.getConnection();
+			worker.applyLockTimeout();
+		}
+		
+		long start = System.nanoTime();
+		Object event = MigrationEvents.beginStatement(MigrationEvents.EXECUTE, operation, operation.getTokenValue());
+		try {
+			long count;
+			String sql;
+			if (operation instanceof DirectToDb) {
+				count = ((DirectToDb) operation).execute(worker);
+				sql = operation.getTokenValue();
+			} else {
+				count = 0;
+				List<String> statements = ((AbstractToDbToken) operation).createSql(migrator.getDataNode().getAdapter());
+				for (String each : statements) {
+					count += Math.max(worker.executeSqlWithRetry(each), 0);
+				}
+				sql = statements.size() == 1 ? statements.get(0) : String.join(";\n", statements);
+			}
+			worker.getConnection().commit();
+			MigrationEvents.end(event, count);
+			return new MigrationHistoryStep(index, sql, (System.nanoTime() - start) / 1000000, count);
+		} catch (SQLException e) {
+			worker.rollback();
+			throw e;
+		} catch (RuntimeException e) {
+			worker.rollback();
+			throw e;
+		}
+	}
+	
+}
@@ -0,0 +1,145 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.math.BigDecimal;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The values that a single partition of a partitioned table holds.
+ * 
+ * @author john
+ *
+ */
+public class PartitionBounds {
+
+	private final PartitionType type;
+	private final Object from;
+	private final Object to;
+	private final List<Object> values;
+	private final int modulus;
+	private final int remainder;
+	
+	private PartitionBounds(PartitionType type, Object from, Object to, List<Object> values, int modulus, int remainder) {
+		this.type = type;
+		this.from = from;
+		this.to = to;
+		this.values = values;
+		this.modulus = modulus;
+		this.remainder = remainder;
+	}
+	
+	/**
+	 * A partition of a {@link PartitionType#RANGE} table holding the values from 'from' (inclusive) up to
+	 * 'to' (exclusive). MySQL only uses the upper bound, so its partitions need to be added in ascending order.
+	 */
+	public static PartitionBounds range(Object from, Object to) {
+		return new PartitionBounds(PartitionType.RANGE, from, to, Collections.emptyList(), 0, 0);
+	}
+	
+	/**
+	 * A partition of a {@link PartitionType#LIST} table holding the given values.
+	 */
+	public static PartitionBounds list(Object... values) {
+		if (values.length == 0) {
+			throw new IllegalArgumentException("A list partition needs at least one value.");
+		}
+		return new PartitionBounds(PartitionType.LIST, null, null, Collections.unmodifiableList(new ArrayList<Object>(Arrays.asList(values))), 0, 0);
+	}
+	
+	/**
+	 * A partition of a {@link PartitionType#HASH} table holding the rows whose hash divided by modulus leaves remainder.
+	 */
+	public static PartitionBounds hash(int modulus, int remainder) {
+		if (modulus < 1 || remainder < 0 || remainder >= modulus) {
+			throw new IllegalArgumentException("The remainder must be between 0 and modulus - 1.");
+		}
+		return new PartitionBounds(PartitionType.HASH, null, null, Collections.emptyList(), modulus, remainder);
+	}
+	
+	public PartitionType getType() {
+		return type;
+	}
+	
+	/**
+	 * @return the bounds as used by PostgreSQL's PARTITION OF and ATTACH PARTITION
+	 */
+	String postgresSql() {
+		switch (type) {
+		case RANGE:
+			return "FOR VALUES FROM (" + literal(from) + ") TO (" + literal(to) + ")";
+		case LIST:
+			return "FOR VALUES IN (" + literals(values) + ")";
+		default:
+			return "FOR VALUES WITH (MODULUS " + modulus + ", REMAINDER " + remainder + ")";
+		}
+	}
+	
+	/**
+	 * @return the definition of a partition with these bounds as used by MySQL
+	 */
+	String mysqlSql(String name) {
+		switch (type) {
+		case RANGE:
+			return "PARTITION " + name + " VALUES LESS THAN (" + literal(to) + ")";
+		case LIST:
+			return "PARTITION " + name + " VALUES IN (" + literals(values) + ")";
+		default:
+			return "PARTITION " + name;
+		}
+	}
+	
+	private static String literals(List<Object> values) {
+		StringBuilder result = new StringBuilder();
+		for (Object value : values) {
+			if (result.length() > 0) {
+				result.append(", ");
+			}
+			result.append(literal(value));
+		}
+		return result.toString();
+	}
+	
+	/**
+	 * @return 'value' as a literal sql string
+	 */
+	static String literal(Object value) {
+		if (value == null) {
+			return "null";
+		} else if (value instanceof String) {
+			return "'" + ((String) value).replace("'", "''") + "'";
+		} else if (value instanceof BigDecimal) {
+			return ((BigDecimal) value).toPlainString();
+		} else if (value instanceof Number) {
+			return value.toString();
+		} else if (value instanceof Date) {
+			SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+			return "'" + dateFormat.format(value) + "'";
+		} else {
+			// java.time values print in ISO format
+			return "'" + value + "'";
+		}
+	}
+	
+}
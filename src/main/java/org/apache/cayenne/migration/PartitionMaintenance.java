@@ -0,0 +1,138 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps a number of future partitions of a RANGE partitioned table created ahead of time, so rows never
+ * arrive for a period that has no partition. Register it with {@link Migrator#addPartitionMaintenance(PartitionMaintenance)}
+ * and it runs every time the Migrator migrates to the latest version, creating any partitions that are missing
+ * from the current period through the given number of periods ahead. It runs while holding the migration lock of the
+ * map containing the table, so only one instance creates a partition.
+ * 
+ * The partition key must be a date or timestamp column; partitions are named tableName_pYYYY, tableName_pYYYYMM or
+ * tableName_pYYYYMMDD.
+ * 
+ * @author john
+ *
+ */
+public class PartitionMaintenance {
+
+	private final String tableName;
+	private final ChronoUnit interval;
+	private final int ahead;
+	
+	PartitionMaintenance(String tableName, ChronoUnit interval, int ahead) {
+		if (ahead < 0) {
+			throw new IllegalArgumentException("ahead must not be negative");
+		}
+		this.tableName = tableName;
+		this.interval = interval;
+		this.ahead = ahead;
+	}
+	
+	public static PartitionMaintenance daily(String tableName, int ahead) {
+		return new PartitionMaintenance(tableName, ChronoUnit.DAYS, ahead);
+	}
+	
+	public static PartitionMaintenance monthly(String tableName, int ahead) {
+		return new PartitionMaintenance(tableName, ChronoUnit.MONTHS, ahead);
+	}
+	
+	public static PartitionMaintenance yearly(String tableName, int ahead) {
+		return new PartitionMaintenance(tableName, ChronoUnit.YEARS, ahead);
+	}
+	
+	public String getTableName() {
+		return tableName;
+	}
+	
+	/**
+	 * @return the start of the period containing date
+	 */
+	LocalDate periodStart(LocalDate date) {
+		switch (interval) {
+		case YEARS:
+			return date.withDayOfYear(1);
+		case MONTHS:
+			return date.withDayOfMonth(1);
+		default:
+			return date;
+		}
+	}
+	
+	String partitionName(LocalDate start) {
+		String pattern = interval == ChronoUnit.YEARS ? "yyyy" : interval == ChronoUnit.MONTHS ? "yyyyMM" : "yyyyMMdd";
+		return tableName.replaceFirst(".+\\.", "") + "_p" + start.format(DateTimeFormatter.ofPattern(pattern));
+	}
+	
+	/**
+	 * @return the partitions covering the current period through 'ahead' periods after it, in ascending order
+	 */
+	List<PartitionToDb> partitions(LocalDate today, MigrationDatabase database) {
+		MigrationTableExisting table = database.alterTable(tableName);
+		List<PartitionToDb> result = new ArrayList<PartitionToDb>();
+		LocalDate start = periodStart(today);
+		for (int i = 0; i <= ahead; i++) {
+			LocalDate end = start.plus(1, interval);
+			result.add(new PartitionToDb(table.getEntity(), PartitionToDb.Action.ADD, partitionName(start), PartitionBounds.range(start, end), null));
+			start = end;
+		}
+		return result;
+	}
+	
+	/**
+	 * Creates the partitions that don't exist yet.
+	 */
+	void run(Migrator migrator, LocalDate today) throws SQLException {
+		MigrationDatabase database = new MigrationDatabase(migrator.getDataNode());
+		DbFamily family = DbFamily.of(migrator.getDataNode().getAdapter());
+		for (PartitionToDb partition : partitions(today, database)) {
+			if (family == DbFamily.POSTGRES) {
+				for (String sql : partition.createSql(migrator.getDataNode().getAdapter())) {
+					migrator.executeSqlWithUpdateCount(sql.replaceFirst("^CREATE TABLE ", "CREATE TABLE IF NOT EXISTS "));
+				}
+			} else if (!exists(migrator, partition.getPartition())) {
+				migrator.executeSqlWithUpdateCount(partition.createSql(migrator.getDataNode().getAdapter()));
+			}
+		}
+		migrator.getConnection().commit();
+	}
+	
+	private boolean exists(Migrator migrator, String partitionName) throws SQLException {
+		String table = tableName.replaceFirst(".+\\.", "");
+		String schema = "DATABASE()";
+		if (!table.equals(tableName)) {
+			schema = PartitionBounds.literal(tableName.substring(0, tableName.length() - table.length() - 1));
+		} else if (migrator.getSchema() != null) {
+			schema = PartitionBounds.literal(migrator.getSchema());
+		}
+		String sql = "SELECT count(*) FROM information_schema.partitions WHERE table_schema = " + schema
+				+ " AND table_name = " + PartitionBounds.literal(table) + " AND partition_name = " + PartitionBounds.literal(partitionName);
+		Integer count = migrator.executeSqlReturnInt(sql);
+		return count != null && count > 0;
+	}
+	
+}
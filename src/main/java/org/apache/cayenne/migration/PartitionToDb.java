@@ -0,0 +1,123 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.cayenne.dba.DbAdapter;
+import org.apache.cayenne.dbsync.merge.factory.MergerTokenFactory;
+import org.apache.cayenne.dbsync.merge.token.DummyReverseToken;
+import org.apache.cayenne.dbsync.merge.token.MergerToken;
+import org.apache.cayenne.dbsync.merge.token.db.AbstractToDbToken;
+import org.apache.cayenne.map.DbEntity;
+
+/**
+ * Adds, attaches, detaches or drops a partition of a partitioned table, rendering the SQL for the database of the adapter.
+ * 
+ * @author john
+ *
+ */
+class PartitionToDb extends AbstractToDbToken.Entity {
+
+	enum Action {
+		ADD,
+		ATTACH,
+		DETACH,
+		DROP
+	}
+	
+	private final Action action;
+	private final String partition;
+	private final PartitionBounds bounds;
+	private final CreatePartitionedTableToDb create;
+	
+	/**
+	 * @param create the creation of the table when it is created by the same migration, since MySQL
+	 * defines the initial partitions as part of CREATE TABLE; otherwise null
+	 */
+	PartitionToDb(DbEntity entity, Action action, String partition, PartitionBounds bounds, CreatePartitionedTableToDb create) {
+		super(tokenName(action), 1, entity);
+		this.action = action;
+		this.partition = partition;
+		this.bounds = bounds;
+		this.create = create;
+	}
+	
+	private static String tokenName(Action action) {
+		switch (action) {
+		case ADD:
+			return "Add Partition";
+		case ATTACH:
+			return "Attach Partition";
+		case DETACH:
+			return "Detach Partition";
+		default:
+			return "Drop Partition";
+		}
+	}
+	
+	String getPartition() {
+		return partition;
+	}
+	
+	PartitionBounds getBounds() {
+		return bounds;
+	}
+	
+	@Override
+	public List<String> createSql(DbAdapter adapter) {
+		String table = getEntity().getName();
+		DbFamily family = DbFamily.of(adapter);
+		if (family == DbFamily.POSTGRES) {
+			switch (action) {
+			case ADD:
+				return Collections.singletonList("CREATE TABLE " + partition + " PARTITION OF " + table + " " + bounds.postgresSql());
+			case ATTACH:
+				return Collections.singletonList("ALTER TABLE " + table + " ATTACH PARTITION " + partition + " " + bounds.postgresSql());
+			case DETACH:
+				return Collections.singletonList("ALTER TABLE " + table + " DETACH PARTITION " + partition);
+			default:
+				return Collections.singletonList("DROP TABLE " + partition);
+			}
+		} else if (family == DbFamily.MYSQL) {
+			switch (action) {
+			case ADD:
+				if (create != null) {
+					// rendered as part of CREATE TABLE
+					return Collections.emptyList();
+				}
+				if (bounds.getType() == PartitionType.HASH) {
+					throw new UnsupportedOperationException("MySQL can't add a named partition to a HASH partitioned table.");
+				}
+				return Collections.singletonList("ALTER TABLE " + table + " ADD PARTITION (" + bounds.mysqlSql(partition) + ")");
+			case DROP:
+				return Collections.singletonList("ALTER TABLE " + table + " DROP PARTITION " + partition);
+			default:
+				throw new UnsupportedOperationException("MySQL can't attach or detach a partition as a table; use EXCHANGE PARTITION through executeSqlStatement instead.");
+			}
+		}
+		throw new UnsupportedOperationException("Partitioned tables are only supported for PostgreSQL and MySQL.");
+	}
+	
+	public MergerToken createReverse(MergerTokenFactory factory) {
+		return new DummyReverseToken(this);
+	}
+	
+}
@@ -0,0 +1,37 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+/**
+ * The ways a partitioned table can divide its rows among its partitions.
+ * 
+ * @see MigrationTableNew#partitionBy(PartitionType, String...)
+ * @author john
+ *
+ */
+public enum PartitionType {
+
+	/** Each partition holds a range of values, for example a month of dates. */
+	RANGE,
+	/** Each partition holds an explicit list of values. */
+	LIST,
+	/** Rows are spread evenly among the partitions by the hash of their values. */
+	HASH
+	
+}
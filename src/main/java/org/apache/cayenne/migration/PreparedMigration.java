@@ -0,0 +1,181 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.cayenne.dba.DbAdapter;
+import org.apache.cayenne.dbsync.merge.token.MergerToken;
+import org.apache.cayenne.dbsync.merge.token.db.AbstractToDbToken;
+import org.apache.cayenne.merge.ArbitrarySqlToDb;
+import org.apache.cayenne.migration.MigrationDatabase.EmptyTableForm;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A migration whose upgrade method has already been run and whose operations have been rendered to SQL
+ * for the node's adapter, so applying it only requires executing the statements.
+ * 
+ * @author john
+ *
+ */
+class PreparedMigration {
+
+	private static final Logger log = LoggerFactory.getLogger(PreparedMigration.class);
+
+	private final int version;
+	private final Migration migration;
+	private final List<MergerToken> operations;
+	
+	PreparedMigration(int version, Migration migration, List<MergerToken> operations) {
+		this.version = version;
+		this.migration = migration;
+		this.operations = Collections.unmodifiableList(operations);
+	}
+	
+	/**
+	 * Runs the migration's upgrade method and renders the queued operations with the given adapter.
+	 * Direct operations are kept as they are since they are executed through JDBC.
+	 */
+	static PreparedMigration prepare(int version, Migration migration, String databaseProductName, DbAdapter adapter) {
+		return prepare(version, migration, MigrationPhase.EXPAND, databaseProductName, adapter);
+	}
+	
+	/**
+	 * Runs the given phase of the migration and renders the queued operations with the given adapter.
+	 */
+	static PreparedMigration prepare(int version, Migration migration, MigrationPhase phase, String databaseProductName, DbAdapter adapter) {
+		return prepare(version, migration, phase, databaseProductName, adapter, new RunSchema());
+	}
+	
+	/**
+	 * Runs the given phase of the migration and renders the queued operations with the given adapter, using the
+	 * cheaper forms of operations on the tables that are still empty in the run.
+	 */
+	static PreparedMigration prepare(int version, Migration migration, MigrationPhase phase, String databaseProductName, DbAdapter adapter, RunSchema schema) {
+		run(migration, phase, databaseProductName);
+		return render(version, migration, phase, adapter, schema);
+	}
+	
+	/**
+	 * Runs the given phase of the migration, queueing its operations.
+	 */
+	static void run(Migration migration, MigrationPhase phase, String databaseProductName) {
+		migration.getDatabase(phase).setDatabaseProductName(databaseProductName);
+		try {
+			migration.run(phase);
+		} catch (UnsupportedOperationException e) {
+			throw new MigrationValidationException(e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * Renders the operations queued by running the given phase of the migration and records them in the run's schema.
+	 * Direct operations are kept as they are since they are executed through JDBC.
+	 */
+	static PreparedMigration render(int version, Migration migration, MigrationPhase phase, DbAdapter adapter, RunSchema schema) {
+		MigrationDatabase database = migration.getDatabase(phase);
+		List<MergerToken> operations = new ArrayList<MergerToken>();
+		for (MergerToken token : database.getOperations()) {
+			EmptyTableForm emptyTableForm = database.emptyTableFormOf(token);
+			if (emptyTableForm != null && schema.isEmptyTable(emptyTableForm.table)) {
+				if (emptyTableForm.replacement == null) {
+					continue;
+				}
+				token = emptyTableForm.replacement;
+			}
+			if (token instanceof DirectToDb) {
+				if (token instanceof ConditionalToDb) {
+					checkSupported(((ConditionalToDb) token).getOperations(), adapter);
+				}
+				operations.add(token);
+				continue;
+			}
+			Object event = MigrationEvents.beginStatement(MigrationEvents.RENDER, token, null);
+			try {
+				for (String sql : ((AbstractToDbToken) token).createSql(adapter)) {
+					operations.add(new RenderedSqlToDb(sql, token));
+				}
+			} catch (UnsupportedOperationException e) {
+				throw new MigrationValidationException(e.getMessage(), e);
+			} finally {
+				MigrationEvents.end(event);
+			}
+		}
+		schema.record(operations, database);
+		return new PreparedMigration(version, migration, operations);
+	}
+	
+	/**
+	 * Renders the operations that are only rendered when they are executed, so a feature the database doesn't
+	 * support rejects the migration while it is prepared rather than halfway through the run.
+	 */
+	private static void checkSupported(List<MergerToken> operations, DbAdapter adapter) {
+		for (MergerToken token : operations) {
+			if (token instanceof ConditionalToDb) {
+				checkSupported(((ConditionalToDb) token).getOperations(), adapter);
+			} else if (!(token instanceof DirectToDb)) {
+				try {
+					((AbstractToDbToken) token).createSql(adapter);
+				} catch (UnsupportedOperationException e) {
+					throw new MigrationValidationException(e.getMessage(), e);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Creates the prepared migration from the migration's precompiled plan, without running its upgrade method.
+	 * @return null if there is no plan for the database or if it is stale
+	 */
+	static PreparedMigration fromPlan(int version, Migration migration, String databaseProductName, DbAdapter adapter) throws IOException {
+		migration.getDatabase().setDatabaseProductName(databaseProductName);
+		MigrationPlan plan = MigrationPlan.load(migration, databaseProductName);
+		if (plan == null) {
+			return null;
+		}
+		String capabilities = migration.getDatabase().supportedCapabilities();
+		if (!plan.matches(adapter.unwrap().getClass().getName(), MigrationPlan.fingerprint(migration), capabilities)) {
+			log.info("Ignoring stale migration plan " + MigrationPlan.resourceName(migration.getClass(), databaseProductName));
+			return null;
+		}
+		
+		List<MergerToken> operations = new ArrayList<MergerToken>();
+		for (String sql : plan.getStatements()) {
+			operations.add(new ArbitrarySqlToDb(sql));
+		}
+		return new PreparedMigration(version, migration, operations);
+	}
+	
+	int getVersion() {
+		return version;
+	}
+	
+	Migration getMigration() {
+		return migration;
+	}
+	
+	List<MergerToken> getOperations() {
+		return operations;
+	}
+	
+}
@@ -0,0 +1,44 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import org.apache.cayenne.dbsync.merge.token.MergerToken;
+import org.apache.cayenne.merge.ArbitrarySqlToDb;
+
+/**
+ * A single statement rendered ahead of time from another MergerToken, which is kept so the
+ * statement can still be related to the table it changes.
+ * 
+ * @author john
+ *
+ */
+class RenderedSqlToDb extends ArbitrarySqlToDb {
+
+	private final MergerToken source;
+	
+	RenderedSqlToDb(String sql, MergerToken source) {
+		super(sql);
+		this.source = source;
+	}
+	
+	MergerToken getSource() {
+		return source;
+	}
+	
+}
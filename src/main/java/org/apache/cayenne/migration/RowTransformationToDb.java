@@ -0,0 +1,167 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Streams the rows of a query through a {@link RowTransformer} and writes the results back with a batched
+ * update statement.
+ * 
+ * The rows are read on a separate connection using a forward-only cursor with the configured fetch size, so
+ * memory use doesn't depend on the size of the table. The updates are executed on the migrator's connection
+ * and committed after every batch, so the transformation should be written to be safely re-run.
+ * 
+ * @author john
+ *
+ */
+class RowTransformationToDb extends DirectToDb {
+
+	private final String selectSql;
+	private final String updateSql;
+	private final int fetchSize;
+	private final int batchSize;
+	private final RowTransformer transformer;
+	
+	RowTransformationToDb(String selectSql, String updateSql, int fetchSize, int batchSize, RowTransformer transformer) {
+		super("Row Transformation");
+		if (fetchSize < 1 || batchSize < 1) {
+			throw new IllegalArgumentException("fetchSize and batchSize must be positive.");
+		}
+		this.selectSql = selectSql;
+		this.updateSql = updateSql;
+		this.fetchSize = fetchSize;
+		this.batchSize = batchSize;
+		this.transformer = transformer;
+	}
+	
+	public String getTokenValue() {
+		return selectSql + " -> " + updateSql;
+	}
+	
+	String getSelectSql() {
+		return selectSql;
+	}
+	
+	String getUpdateSql() {
+		return updateSql;
+	}
+	
+	int getFetchSize() {
+		return fetchSize;
+	}
+	
+	int getBatchSize() {
+		return batchSize;
+	}
+
+	@Override
+	long execute(Migrator migrator) throws SQLException {
+		Connection writeConnection = migrator.getConnection();
+		// make the preceding operations of the migration visible to the reading connection
+		writeConnection.commit();
+		
+		migrator.getDataNode().getJdbcEventLogger().log(selectSql);
+		migrator.getDataNode().getJdbcEventLogger().log(updateSql);
+		
+		long rowCount = 0;
+		Connection readConnection = migrator.getDataNode().getDataSource().getConnection();
+		String originalSchema = null;
+		try {
+			// read from the same schema the writing connection uses
+			if (migrator.getSchema() != null) {
+				originalSchema = readConnection.getSchema();
+				readConnection.setSchema(migrator.getSchema());
+			}
+			// PostgreSQL only uses a cursor outside of auto-commit mode
+			readConnection.setAutoCommit(false);
+			
+			Statement select = readConnection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			try {
+				select.setFetchSize(streamingFetchSize(migrator));
+				ResultSet rs = select.executeQuery(selectSql);
+				
+				PreparedStatement update = writeConnection.prepareStatement(updateSql);
+				try {
+					int pending = 0;
+					while (rs.next()) {
+						if (transformer.transform(rs, update)) {
+							update.addBatch();
+							pending++;
+						}
+						
+						if (pending == batchSize) {
+							rowCount += executeBatch(update);
+							writeConnection.commit();
+							pending = 0;
+						}
+					}
+					
+					if (pending > 0) {
+						rowCount += executeBatch(update);
+					}
+					writeConnection.commit();
+				} catch (SQLException e) {
+					writeConnection.rollback();
+					throw e;
+				} finally {
+					update.close();
+				}
+				rs.close();
+			} finally {
+				select.close();
+			}
+		} finally {
+			try {
+				readConnection.rollback();
+				// don't leave the schema set on a pooled connection
+				if (originalSchema != null) {
+					readConnection.setSchema(originalSchema);
+				}
+			} finally {
+				readConnection.close();
+			}
+		}
+		
+		return rowCount;
+	}
+	
+	/**
+	 * MySQL only streams results when the fetch size is Integer.MIN_VALUE.
+	 */
+	private int streamingFetchSize(Migrator migrator) {
+		if (DbFamily.of(migrator.getDataNode().getAdapter()) == DbFamily.MYSQL) {
+			return Integer.MIN_VALUE;
+		}
+		return fetchSize;
+	}
+	
+	private static long executeBatch(PreparedStatement update) throws SQLException {
+		long result = 0;
+		for (int count : update.executeBatch()) {
+			result += count == Statement.SUCCESS_NO_INFO ? 1 : Math.max(count, 0);
+		}
+		return result;
+	}
+	
+}
@@ -0,0 +1,44 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Transforms a row read by a row transformation into the parameters of its update statement.
+ * See {@link Migration#transformRows(String, String, RowTransformer)}.
+ * 
+ * @author john
+ *
+ */
+public interface RowTransformer {
+
+	/**
+	 * Reads the current row and sets the parameters of the update statement for it. Don't call
+	 * next() on the result set or execute the statement, that is done by the caller.
+	 * 
+	 * @param row the result set, positioned on the current row
+	 * @param update the update statement to set the parameters on
+	 * @return false to skip the row
+	 */
+	boolean transform(ResultSet row, PreparedStatement update) throws SQLException;
+	
+}
@@ -0,0 +1,142 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.cayenne.dbsync.merge.token.MergerToken;
+
+/**
+ * What the migrations prepared so far in a run have done to the schema, as far as it matters for rendering the
+ * migrations that follow: the tables that were created in the run and have had no rows inserted since. Operations on
+ * those tables can use their cheapest form, like adding a NOT NULL column without backfilling it.
+ * 
+ * The migrations are recorded in the order they are applied. A wrong guess is not harmless: on a table that has rows,
+ * a constraint added without NOT VALID takes a lock that blocks writes while it scans the table, and a NOT NULL column
+ * added without a backfill fails. So anything that might have added rows, like a script of several statements or a
+ * function call, removes the tables it may have touched, and the record is discarded when another instance applied
+ * versions after these were prepared.
+ * 
+ * @author john
+ *
+ */
+class RunSchema {
+
+	private static final Pattern CREATE_TABLE = Pattern.compile("^\\s*CREATE\\s+TABLE\\s+(?:IF\\s+NOT\\s+EXISTS\\s+)?([\\w.\"`\\[\\]]+)\\s*\\(", Pattern.CASE_INSENSITIVE);
+	private static final Pattern DROP_TABLE = Pattern.compile("^\\s*DROP\\s+TABLE\\s+(?:IF\\s+EXISTS\\s+)?([\\w.\"`\\[\\]]+)", Pattern.CASE_INSENSITIVE);
+	private static final Pattern INSERT = Pattern.compile("^\\s*INSERT\\s+INTO\\s+([\\w.\"`\\[\\]]+)", Pattern.CASE_INSENSITIVE);
+	private static final Pattern RENAME = Pattern.compile("^\\s*ALTER\\s+TABLE\\s+([\\w.\"`\\[\\]]+)\\s+RENAME\\s+TO\\b", Pattern.CASE_INSENSITIVE);
+	private static final Pattern SELECT = Pattern.compile("\\bSELECT\\b", Pattern.CASE_INSENSITIVE);
+	private static final Pattern KEEPS_ROWS = Pattern.compile("^\\s*(ALTER|CREATE|DROP|COMMENT|GRANT|REVOKE|UPDATE|DELETE)\\b.*", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+	
+	private final Set<String> emptyTables = new HashSet<String>();
+	
+	/**
+	 * @return true if the table was created in this run and no rows have been inserted into it
+	 */
+	boolean isEmptyTable(String table) {
+		return table != null && emptyTables.contains(key(table));
+	}
+	
+	/**
+	 * @return true if one of the statements changes a table that is empty in this run
+	 */
+	boolean touchesEmptyTable(List<MergerToken> operations) {
+		for (MergerToken operation : operations) {
+			if (isEmptyTable(TableMaintenance.tableOfSql(operation.getTokenValue()))) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Records the prepared operations of a migration.
+	 */
+	void record(List<MergerToken> operations, MigrationDatabase database) {
+		for (MergerToken operation : operations) {
+			if (operation instanceof DirectToDb) {
+				recordDirect((DirectToDb) operation, database);
+			} else {
+				recordSql(operation.getTokenValue());
+			}
+		}
+	}
+	
+	private void recordDirect(DirectToDb operation, MigrationDatabase database) {
+		if (operation instanceof ColumnTypeChangeToDb || operation instanceof ConstraintValidationToDb || operation instanceof ConditionalToDb) {
+			// these don't add rows
+			return;
+		}
+		String table = database.tableOf(operation);
+		if (table != null) {
+			emptyTables.remove(key(table));
+		} else {
+			emptyTables.clear();
+		}
+	}
+	
+	void recordSql(String sql) {
+		if (isScript(sql)) {
+			// a later statement may insert into a table the first one creates
+			emptyTables.clear();
+			return;
+		}
+		Matcher matcher = CREATE_TABLE.matcher(sql);
+		if (matcher.find() && !SELECT.matcher(sql).find()) {
+			emptyTables.add(key(matcher.group(1)));
+			return;
+		}
+		for (Pattern pattern : new Pattern[] { DROP_TABLE, INSERT, RENAME }) {
+			matcher = pattern.matcher(sql);
+			if (matcher.find()) {
+				emptyTables.remove(key(matcher.group(1)));
+				return;
+			}
+		}
+		if (!KEEPS_ROWS.matcher(sql).matches()) {
+			// anything else, like a function call, may insert rows anywhere
+			emptyTables.clear();
+		}
+	}
+	
+	/**
+	 * @return true if the SQL contains more than one statement; a separator inside a literal counts too
+	 */
+	private static boolean isScript(String sql) {
+		String trimmed = sql.trim();
+		if (trimmed.endsWith(";")) {
+			trimmed = trimmed.substring(0, trimmed.length() - 1);
+		}
+		return trimmed.indexOf(';') >= 0;
+	}
+	
+	void clear() {
+		emptyTables.clear();
+	}
+	
+	private static String key(String table) {
+		return table.replaceAll("[\"`\\[\\]]", "").toLowerCase();
+	}
+	
+}
@@ -0,0 +1,182 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.apache.cayenne.migration.ColumnTypeChangeToDb.ColumnType;
+
+/**
+ * The tables and columns of the database as seen by the operations of a migration run. The columns of a schema are
+ * loaded with a single metadata query the first time one of its tables is looked up, and a table is loaded again
+ * after a statement that may have changed it is executed.
+ * 
+ * @author john
+ *
+ */
+class SchemaCache {
+
+	private static final Pattern DATA_STATEMENT = Pattern.compile("^\\s*(SELECT|INSERT|UPDATE|DELETE|MERGE|WITH)\\b.*", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+	
+	/**
+	 * The type of a column and whether it allows null.
+	 */
+	static class Column {
+		final ColumnType type;
+		final boolean nullable;
+		
+		Column(ColumnType type, boolean nullable) {
+			this.type = type;
+			this.nullable = nullable;
+		}
+	}
+	
+	// columns by table by schema, with "" for the default schema of the connection
+	private final Map<String, Map<String, Map<String, Column>>> schemas = new HashMap<String, Map<String, Map<String, Column>>>();
+	private final Set<String> staleTables = new HashSet<String>();
+	
+	/**
+	 * @return the columns of the table by lower case name, or null if the table doesn't exist
+	 */
+	synchronized Map<String, Column> table(Migrator migrator, String table) throws SQLException {
+		String schema = schemaKey(table);
+		String name = tableKey(table);
+		Map<String, Map<String, Column>> tables = schemas.get(schema);
+		if (tables == null) {
+			tables = load(migrator, table, "%");
+			schemas.put(schema, tables);
+		} else if (staleTables.remove(schema + "." + name)) {
+			Map<String, Map<String, Column>> reloaded = load(migrator, table, unquote(table.substring(table.lastIndexOf('.') + 1)));
+			tables.remove(name);
+			if (reloaded.containsKey(name)) {
+				tables.put(name, reloaded.get(name));
+			}
+		}
+		return tables.get(name);
+	}
+	
+	/**
+	 * @return the column or null if it or its table doesn't exist
+	 */
+	Column column(Migrator migrator, String table, String column) throws SQLException {
+		Map<String, Column> columns = table(migrator, table);
+		return columns != null ? columns.get(column.toLowerCase()) : null;
+	}
+	
+	/**
+	 * Marks the table to be loaded again the next time it is looked up.
+	 */
+	synchronized void invalidate(String table) {
+		if (schemas.containsKey(schemaKey(table))) {
+			staleTables.add(schemaKey(table) + "." + tableKey(table));
+		}
+	}
+	
+	synchronized void invalidateAll() {
+		schemas.clear();
+		staleTables.clear();
+	}
+	
+	/**
+	 * Invalidates what an executed statement may have changed; statements that only change data keep the cache.
+	 */
+	void statementExecuted(String sql) {
+		if (DATA_STATEMENT.matcher(sql).matches()) {
+			return;
+		}
+		String table = TableMaintenance.tableOfSql(sql);
+		if (table != null) {
+			invalidate(table);
+		} else {
+			invalidateAll();
+		}
+	}
+	
+	/**
+	 * Reads the columns of the tables in the schema of the given table whose names match the pattern. Names are
+	 * tried as they are and then in lower and upper case, since databases differ in how they store unquoted names.
+	 */
+	private Map<String, Map<String, Column>> load(Migrator migrator, String table, String tablePattern) throws SQLException {
+		Connection connection = migrator.getConnection();
+		int dot = table.lastIndexOf('.');
+		String schema = dot < 0 ? null : unquote(table.substring(0, dot));
+		
+		DatabaseMetaData metaData = connection.getMetaData();
+		String catalog = null;
+		if (DbFamily.of(migrator.getDataNode().getAdapter()) == DbFamily.MYSQL) {
+			// MySQL databases are catalogs
+			catalog = schema != null ? schema : connection.getCatalog();
+			schema = null;
+		} else if (schema == null) {
+			schema = connection.getSchema();
+		}
+		
+		Map<String, Map<String, Column>> result = new HashMap<String, Map<String, Column>>();
+		for (int attempt = 0; attempt < 3 && result.isEmpty(); attempt++) {
+			String schemaPattern = schema;
+			String namePattern = tablePattern;
+			if (attempt == 1) {
+				schemaPattern = schema != null ? schema.toLowerCase() : null;
+				namePattern = tablePattern.toLowerCase();
+			} else if (attempt == 2) {
+				schemaPattern = schema != null ? schema.toUpperCase() : null;
+				namePattern = tablePattern.toUpperCase();
+			}
+			
+			ResultSet rs = metaData.getColumns(catalog, schemaPattern, namePattern, "%");
+			try {
+				while (rs.next()) {
+					String name = rs.getString("TABLE_NAME").toLowerCase();
+					Map<String, Column> columns = result.get(name);
+					if (columns == null) {
+						columns = new HashMap<String, Column>();
+						result.put(name, columns);
+					}
+					ColumnType type = new ColumnType(rs.getInt("DATA_TYPE"), rs.getInt("COLUMN_SIZE"), rs.getInt("DECIMAL_DIGITS"));
+					columns.put(rs.getString("COLUMN_NAME").toLowerCase(), new Column(type, rs.getInt("NULLABLE") != DatabaseMetaData.columnNoNulls));
+				}
+			} finally {
+				rs.close();
+			}
+		}
+		return result;
+	}
+	
+	private static String schemaKey(String table) {
+		int dot = table.lastIndexOf('.');
+		return dot < 0 ? "" : unquote(table.substring(0, dot)).toLowerCase();
+	}
+	
+	private static String tableKey(String table) {
+		return unquote(table.substring(table.lastIndexOf('.') + 1)).toLowerCase();
+	}
+	
+	private static String unquote(String name) {
+		return name.replaceAll("[\"`\\[\\]]", "");
+	}
+	
+}
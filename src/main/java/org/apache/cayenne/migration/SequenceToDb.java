@@ -0,0 +1,113 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.cayenne.dba.DbAdapter;
+import org.apache.cayenne.dbsync.merge.factory.MergerTokenFactory;
+import org.apache.cayenne.dbsync.merge.token.DummyReverseToken;
+import org.apache.cayenne.dbsync.merge.token.MergerToken;
+import org.apache.cayenne.dbsync.merge.token.db.AbstractToDbToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates, alters or drops a sequence.
+ * 
+ * @author john
+ *
+ */
+class SequenceToDb extends AbstractToDbToken {
+
+	private static final Logger log = LoggerFactory.getLogger(SequenceToDb.class);
+	
+	enum Action {
+		CREATE,
+		ALTER,
+		DROP
+	}
+	
+	private final Action action;
+	private final MigrationSequence sequence;
+	
+	SequenceToDb(Action action, MigrationSequence sequence) {
+		super(action == Action.CREATE ? "Create Sequence" : action == Action.ALTER ? "Alter Sequence" : "Drop Sequence", 1);
+		this.action = action;
+		this.sequence = sequence;
+	}
+	
+	public String getTokenValue() {
+		return sequence.getName();
+	}
+	
+	@Override
+	public List<String> createSql(DbAdapter adapter) {
+		String sql = createSql(DbFamily.of(adapter));
+		return sql == null ? Collections.<String>emptyList() : Collections.singletonList(sql);
+	}
+	
+	/**
+	 * @return the statement or null if an altered sequence has no changes
+	 */
+	String createSql(DbFamily family) {
+		if (family == DbFamily.MYSQL || family == DbFamily.SQLITE) {
+			throw new UnsupportedOperationException("Sequences are not supported by " + family + "; use an identity column instead.");
+		}
+		if (action == Action.DROP) {
+			return "DROP SEQUENCE " + sequence.getName() + (family == DbFamily.DERBY ? " RESTRICT" : "");
+		}
+		
+		StringBuilder sql = new StringBuilder(action == Action.CREATE ? "CREATE SEQUENCE " : "ALTER SEQUENCE ");
+		sql.append(sequence.getName());
+		int length = sql.length();
+		if (action == Action.CREATE && family == DbFamily.SQLSERVER) {
+			// the default type is tinyint
+			sql.append(" AS BIGINT");
+		}
+		if (sequence.getStartWith() != null) {
+			if (action == Action.CREATE) {
+				sql.append(" START WITH ");
+			} else {
+				sql.append(family == DbFamily.ORACLE ? " RESTART START WITH " : " RESTART WITH ");
+			}
+			sql.append(sequence.getStartWith());
+		}
+		if (sequence.getIncrementBy() != null) {
+			sql.append(" INCREMENT BY ").append(sequence.getIncrementBy());
+		}
+		if (sequence.getCache() != null) {
+			if (family == DbFamily.DERBY || family == DbFamily.HSQLDB) {
+				log.warn("Ignoring CACHE " + sequence.getCache() + " for sequence " + sequence.getName() + "; it isn't supported by " + family + ".");
+			} else {
+				sql.append(" CACHE ").append(sequence.getCache());
+			}
+		}
+		if (action == Action.ALTER && sql.length() == length) {
+			return null;
+		}
+		return sql.toString();
+	}
+	
+	public MergerToken createReverse(MergerTokenFactory factory) {
+		return new DummyReverseToken(this);
+	}
+	
+}
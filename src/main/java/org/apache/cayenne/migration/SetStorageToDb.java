@@ -0,0 +1,114 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.cayenne.dba.DbAdapter;
+import org.apache.cayenne.dbsync.merge.factory.MergerTokenFactory;
+import org.apache.cayenne.dbsync.merge.token.DummyReverseToken;
+import org.apache.cayenne.dbsync.merge.token.MergerToken;
+import org.apache.cayenne.dbsync.merge.token.db.AbstractToDbToken;
+import org.apache.cayenne.map.DbEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Applies the storage options to a table. A new table gets them right after it is created, while it is
+ * still empty, so the statements don't have any data to rewrite.
+ * 
+ * @author john
+ *
+ */
+class SetStorageToDb extends AbstractToDbToken.Entity {
+
+	private static final Logger log = LoggerFactory.getLogger(SetStorageToDb.class);
+	
+	private final StorageOptions options;
+	
+	SetStorageToDb(DbEntity entity, StorageOptions options) {
+		super("Set Storage", 1, entity);
+		this.options = options;
+	}
+	
+	@Override
+	public List<String> createSql(DbAdapter adapter) {
+		return createSql(DbFamily.of(adapter));
+	}
+	
+	List<String> createSql(DbFamily family) {
+		String table = getEntity().getName();
+		List<String> result = new ArrayList<String>();
+		if (family == DbFamily.POSTGRES) {
+			if (options.getFillFactor() != null) {
+				result.add("ALTER TABLE " + table + " SET (fillfactor = " + options.getFillFactor() + ")");
+			}
+			if (options.getUnlogged() != null) {
+				result.add("ALTER TABLE " + table + (options.getUnlogged() ? " SET UNLOGGED" : " SET LOGGED"));
+			}
+			if (options.getTablespace() != null) {
+				result.add("ALTER TABLE " + table + " SET TABLESPACE " + options.getTablespace());
+			}
+			for (Map.Entry<String, String> entry : options.getCompression().entrySet()) {
+				result.add("ALTER TABLE " + table + " ALTER COLUMN " + entry.getKey() + " SET COMPRESSION " + entry.getValue());
+			}
+			unsupported(family, "ROW_FORMAT", options.getRowFormat());
+			unsupported(family, "KEY_BLOCK_SIZE", options.getKeyBlockSize());
+		} else if (family == DbFamily.MYSQL) {
+			StringBuilder tableOptions = new StringBuilder();
+			if (options.getTablespace() != null) {
+				tableOptions.append(" TABLESPACE ").append(options.getTablespace());
+			}
+			if (options.getRowFormat() != null) {
+				tableOptions.append(" ROW_FORMAT=").append(options.getRowFormat());
+			}
+			if (options.getKeyBlockSize() != null) {
+				tableOptions.append(" KEY_BLOCK_SIZE=").append(options.getKeyBlockSize());
+			}
+			if (tableOptions.length() > 0) {
+				// a single statement so the table is rebuilt once
+				result.add("ALTER TABLE " + table + tableOptions);
+			}
+			unsupported(family, "fillfactor", options.getFillFactor());
+			unsupported(family, "UNLOGGED", options.getUnlogged());
+			unsupported(family, "column compression", options.getCompression().isEmpty() ? null : options.getCompression());
+		} else {
+			unsupported(family, "fillfactor", options.getFillFactor());
+			unsupported(family, "UNLOGGED", options.getUnlogged());
+			unsupported(family, "TABLESPACE", options.getTablespace());
+			unsupported(family, "column compression", options.getCompression().isEmpty() ? null : options.getCompression());
+			unsupported(family, "ROW_FORMAT", options.getRowFormat());
+			unsupported(family, "KEY_BLOCK_SIZE", options.getKeyBlockSize());
+		}
+		return result;
+	}
+	
+	private void unsupported(DbFamily family, String option, Object value) {
+		if (value != null) {
+			log.warn("Ignoring storage option " + option + "=" + value + " for " + getEntity().getName() + "; it isn't supported by " + family + ".");
+		}
+	}
+	
+	public MergerToken createReverse(MergerTokenFactory factory) {
+		return new DummyReverseToken(this);
+	}
+	
+}
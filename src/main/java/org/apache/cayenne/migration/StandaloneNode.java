@@ -0,0 +1,98 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Collections;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.apache.cayenne.access.DataNode;
+import org.apache.cayenne.access.types.DefaultValueObjectTypeRegistry;
+import org.apache.cayenne.access.types.ValueObjectTypeRegistry;
+import org.apache.cayenne.configuration.DefaultRuntimeProperties;
+import org.apache.cayenne.configuration.RuntimeProperties;
+import org.apache.cayenne.dba.DbAdapter;
+import org.apache.cayenne.di.spi.DefaultClassLoaderManager;
+import org.apache.cayenne.log.Slf4jJdbcEventLogger;
+import org.apache.cayenne.map.DataMap;
+import org.apache.cayenne.resource.ClassLoaderResourceLocator;
+import org.apache.cayenne.resource.ResourceLocator;
+
+/**
+ * Creates a DataNode for running migrations without a Cayenne runtime: only the adapter is created, and the data
+ * maps are empty maps that just name the migrations, so no project file is loaded and no ORM layer is started. This
+ * is meant for running migrations from the command line, an init container or a test, for example:
+ * 
+ * <code><pre>
+ * DataNode node = StandaloneNode.create(dataSource, PostgresAdapter.class, "MyMap");
+ * new Migrator(node, "com.example.migrations").migrateToLatest();
+ * </pre></code>
+ * 
+ * The node has no extended types, which the migrations don't need since they only render and execute SQL. The
+ * merger tokens come from the factory for the adapter instead of the DbSyncModule.
+ * 
+ * @author john
+ *
+ */
+public class StandaloneNode {
+
+	private StandaloneNode() {
+	}
+	
+	/**
+	 * @param dataSource the database to migrate
+	 * @param adapterType the adapter of the database, like PostgresAdapter.class
+	 * @param dataMapNames the names of the data maps whose migrations are applied, in order
+	 * @return the node
+	 */
+	public static DataNode create(DataSource dataSource, Class<? extends DbAdapter> adapterType, String... dataMapNames) {
+		RuntimeProperties properties = new DefaultRuntimeProperties(Collections.<String, String>emptyMap());
+		
+		DataNode node = new DataNode("migrations");
+		node.setDataSource(dataSource);
+		node.setAdapter(createAdapter(adapterType, properties));
+		node.setJdbcEventLogger(new Slf4jJdbcEventLogger(properties));
+		for (String name : dataMapNames) {
+			node.addDataMap(new DataMap(name));
+		}
+		return node;
+	}
+	
+	/**
+	 * Creates the adapter with the arguments its constructor would get from the Cayenne runtime.
+	 */
+	static DbAdapter createAdapter(Class<? extends DbAdapter> adapterType, RuntimeProperties properties) {
+		try {
+			Constructor<? extends DbAdapter> constructor = adapterType.getConstructor(RuntimeProperties.class, List.class, List.class, List.class,
+					ResourceLocator.class, ValueObjectTypeRegistry.class);
+			return constructor.newInstance(properties, Collections.emptyList(), Collections.emptyList(), Collections.emptyList(),
+					new ClassLoaderResourceLocator(new DefaultClassLoaderManager()), new DefaultValueObjectTypeRegistry(Collections.emptyList()));
+		} catch (NoSuchMethodException e) {
+			throw new IllegalArgumentException(adapterType.getName() + " doesn't have the constructor of the Cayenne adapters.", e);
+		} catch (InvocationTargetException e) {
+			throw new IllegalArgumentException("Failed to create " + adapterType.getName() + ": " + e.getCause().getMessage(), e.getCause());
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalArgumentException("Failed to create " + adapterType.getName() + ": " + e.getMessage(), e);
+		}
+	}
+	
+}
@@ -0,0 +1,129 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Physical storage settings of a table, for example:
+ * 
+ * <pre>
+ * db.createTable("import_staging", new StorageOptions().unlogged());
+ * db.alterTable("orders").setStorage(new StorageOptions().fillFactor(80).rowFormat("COMPRESSED").keyBlockSize(8));
+ * </pre>
+ * 
+ * Only the options a database supports are applied; the others are logged as warnings when the SQL is
+ * produced. PostgreSQL supports the fill factor, unlogged tables, tablespaces and column compression, and
+ * MySQL supports tablespaces, the row format and the key block size.
+ * 
+ * @author john
+ *
+ */
+public class StorageOptions {
+
+	private Integer fillFactor;
+	private Boolean unlogged;
+	private String tablespace;
+	private final Map<String, String> compression = new LinkedHashMap<String, String>();
+	private String rowFormat;
+	private Integer keyBlockSize;
+	
+	/**
+	 * The percentage of each page filled by inserts, leaving room for updates in place.
+	 */
+	public StorageOptions fillFactor(int fillFactor) {
+		if (fillFactor < 10 || fillFactor > 100) {
+			throw new IllegalArgumentException("fillFactor must be between 10 and 100.");
+		}
+		this.fillFactor = fillFactor;
+		return this;
+	}
+	
+	/**
+	 * Skips the write-ahead log for the table, which makes writes faster but empties the table after a crash.
+	 */
+	public StorageOptions unlogged() {
+		this.unlogged = true;
+		return this;
+	}
+	
+	/**
+	 * Turns an unlogged table back into a regular table.
+	 */
+	public StorageOptions logged() {
+		this.unlogged = false;
+		return this;
+	}
+	
+	public StorageOptions tablespace(String tablespace) {
+		this.tablespace = tablespace;
+		return this;
+	}
+	
+	/**
+	 * The compression method for the values of a column, such as lz4 or pglz.
+	 */
+	public StorageOptions compression(String columnName, String method) {
+		compression.put(columnName, method);
+		return this;
+	}
+	
+	/**
+	 * The row format, such as DYNAMIC or COMPRESSED.
+	 */
+	public StorageOptions rowFormat(String rowFormat) {
+		this.rowFormat = rowFormat;
+		return this;
+	}
+	
+	/**
+	 * The page size in KB of a COMPRESSED table.
+	 */
+	public StorageOptions keyBlockSize(int keyBlockSize) {
+		this.keyBlockSize = keyBlockSize;
+		return this;
+	}
+	
+	Integer getFillFactor() {
+		return fillFactor;
+	}
+	
+	Boolean getUnlogged() {
+		return unlogged;
+	}
+	
+	String getTablespace() {
+		return tablespace;
+	}
+	
+	Map<String, String> getCompression() {
+		return Collections.unmodifiableMap(compression);
+	}
+	
+	String getRowFormat() {
+		return rowFormat;
+	}
+	
+	Integer getKeyBlockSize() {
+		return keyBlockSize;
+	}
+	
+}
@@ -0,0 +1,227 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.cayenne.access.DataNode;
+import org.apache.cayenne.dbsync.merge.token.MergerToken;
+import org.apache.cayenne.dbsync.merge.token.db.DropTableToDb;
+import org.apache.cayenne.merge.ArbitrarySqlToDb;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Refreshes the statistics, and optionally vacuums or prewarms, the tables that migrations changed. This runs
+ * after the migrations are committed and the lock is released, with each table on its own connection in
+ * autocommit mode since VACUUM can't run in a transaction. Failures are logged rather than thrown because the
+ * migrations themselves have already succeeded.
+ * 
+ * @author john
+ *
+ */
+class TableMaintenance {
+
+	private static final Logger log = LoggerFactory.getLogger(TableMaintenance.class);
+	
+	private static final Pattern TABLE = Pattern.compile("^\\s*(?:INSERT\\s+INTO|UPDATE|DELETE\\s+FROM|TRUNCATE(?:\\s+TABLE)?"
+			+ "|ALTER\\s+TABLE(?:\\s+IF\\s+EXISTS)?(?:\\s+ONLY)?|CREATE\\s+TABLE(?:\\s+IF\\s+NOT\\s+EXISTS)?"
+			+ "|CREATE\\s+(?:UNIQUE\\s+)?INDEX(?:\\s+CONCURRENTLY)?(?:\\s+IF\\s+NOT\\s+EXISTS)?\\s+\\S+\\s+ON(?:\\s+ONLY)?)"
+			+ "\\s+([\\w.\"`\\[\\]]+)", Pattern.CASE_INSENSITIVE);
+	private static final Pattern DROP_TABLE = Pattern.compile("^\\s*DROP\\s+TABLE(?:\\s+IF\\s+EXISTS)?\\s+([\\w.\"`\\[\\]]+)", Pattern.CASE_INSENSITIVE);
+	
+	private final DataNode node;
+	private final String schema;
+	private final int threads;
+	
+	TableMaintenance(DataNode node, String schema, int threads) {
+		this.node = node;
+		this.schema = schema;
+		this.threads = threads;
+	}
+	
+	/**
+	 * @return the tables that the operations change, in order, leaving out those that were dropped
+	 */
+	static Set<String> touchedTables(List<MergerToken> operations, MigrationDatabase database) {
+		Set<String> tables = new LinkedHashSet<String>();
+		for (MergerToken operation : operations) {
+			MergerToken source = operation instanceof RenderedSqlToDb ? ((RenderedSqlToDb) operation).getSource() : operation;
+			String table = database.tableOf(source);
+			if (source instanceof DropTableToDb) {
+				tables.remove(table);
+				continue;
+			}
+			if (table == null && operation instanceof ArbitrarySqlToDb) {
+				String sql = operation.getTokenValue();
+				Matcher drop = DROP_TABLE.matcher(sql);
+				if (drop.find()) {
+					tables.remove(drop.group(1));
+					continue;
+				}
+				table = tableOfSql(sql);
+			}
+			if (table != null) {
+				tables.add(table);
+			}
+		}
+		return tables;
+	}
+	
+	/**
+	 * @return the table that the statement changes or null if it isn't recognized
+	 */
+	static String tableOfSql(String sql) {
+		Matcher matcher = TABLE.matcher(sql);
+		return matcher.find() ? matcher.group(1) : null;
+	}
+	
+	/**
+	 * @return the statements performing the actions on the table, which are empty when the database doesn't support them
+	 */
+	static List<String> maintenanceSql(String table, Set<MaintenanceAction> actions, DbFamily family) {
+		List<String> result = new ArrayList<String>();
+		boolean analyze = actions.contains(MaintenanceAction.ANALYZE);
+		boolean vacuum = actions.contains(MaintenanceAction.VACUUM);
+		switch (family) {
+		case POSTGRES:
+			if (vacuum) {
+				result.add(analyze ? "VACUUM (ANALYZE) " + table : "VACUUM " + table);
+			} else if (analyze) {
+				result.add("ANALYZE " + table);
+			}
+			if (actions.contains(MaintenanceAction.PREWARM)) {
+				result.add("SELECT pg_prewarm(" + PartitionBounds.literal(table) + ")");
+			}
+			break;
+		case MYSQL:
+			if (vacuum) {
+				// OPTIMIZE TABLE is the closest equivalent, but it rebuilds the whole table
+				log.warn("Skipping VACUUM of table " + table + ", which isn't supported on MySQL");
+			}
+			if (analyze) {
+				result.add("ANALYZE TABLE " + table);
+			}
+			break;
+		case SQLSERVER:
+			if (analyze) {
+				result.add("UPDATE STATISTICS " + table);
+			}
+			break;
+		case ORACLE:
+			if (analyze) {
+				int dot = table.lastIndexOf('.');
+				String owner = dot < 0 ? "USER" : PartitionBounds.literal(table.substring(0, dot).toUpperCase());
+				String name = PartitionBounds.literal(table.substring(dot + 1).toUpperCase());
+				result.add("BEGIN DBMS_STATS.GATHER_TABLE_STATS(" + owner + ", " + name + "); END;");
+			}
+			break;
+		case H2:
+			if (analyze) {
+				result.add("ANALYZE TABLE " + table);
+			}
+			break;
+		case SQLITE:
+			if (analyze) {
+				result.add("ANALYZE " + table);
+			}
+			break;
+		default:
+			break;
+		}
+		return result;
+	}
+	
+	/**
+	 * Performs the maintenance of each table in parallel and waits for it to finish.
+	 */
+	void run(Map<String, Set<MaintenanceAction>> tables) {
+		if (tables.isEmpty()) {
+			return;
+		}
+		final DbFamily family = DbFamily.of(node.getAdapter());
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, tables.size())));
+		try {
+			for (final Map.Entry<String, Set<MaintenanceAction>> entry : tables.entrySet()) {
+				final List<String> statements = maintenanceSql(entry.getKey(), entry.getValue(), family);
+				if (statements.isEmpty()) {
+					continue;
+				}
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						execute(entry.getKey(), statements);
+					}
+				});
+			}
+			executor.shutdown();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	private void execute(String table, List<String> statements) {
+		Connection connection = null;
+		String originalSchema = null;
+		try {
+			connection = node.getDataSource().getConnection();
+			connection.setAutoCommit(true);
+			if (schema != null) {
+				originalSchema = connection.getSchema();
+				connection.setSchema(schema);
+			}
+			for (String sql : statements) {
+				node.getJdbcEventLogger().log(sql);
+				Statement st = connection.createStatement();
+				try {
+					st.execute(sql);
+				} finally {
+					st.close();
+				}
+			}
+		} catch (SQLException e) {
+			log.warn("Maintenance of table " + table + " failed: " + e.getMessage());
+		} finally {
+			if (connection != null) {
+				try {
+					if (originalSchema != null) {
+						connection.setSchema(originalSchema);
+					}
+					connection.close();
+				} catch (SQLException e) {}
+			}
+		}
+	}
+	
+}
@@ -0,0 +1,40 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+/**
+ * What the {@link Migrator} does when a column type change would rewrite a table larger than its table rewrite limit.
+ * 
+ * @author john
+ *
+ */
+public enum TableRewritePolicy {
+	/**
+	 * Performs the change without checking the size of the table.
+	 */
+	ALLOW,
+	/**
+	 * Logs a warning and performs the change.
+	 */
+	WARN,
+	/**
+	 * Fails the migration with a {@link MigrationValidationException}.
+	 */
+	REFUSE
+}
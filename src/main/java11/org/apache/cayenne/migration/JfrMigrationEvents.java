@@ -0,0 +1,108 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The Flight Recorder events emitted through {@link MigrationEvents}. This is the only class that depends on
+ * the jdk.jfr API, so it is compiled for Java 11 separately from the rest of the library and only loaded by name.
+ * 
+ * @author john
+ *
+ */
+final class JfrMigrationEvents implements MigrationEvents.Recorder {
+
+	JfrMigrationEvents() {
+	}
+	
+	@Name("org.apache.cayenne.migration.Phase")
+	@Label("Migration Phase")
+	@Category({ "Cayenne", "Migrations" })
+	@Description("A phase of migrating a data map, like waiting for the migration lock or committing a version")
+	static class PhaseEvent extends Event {
+		@Label("Phase")
+		String phase;
+		@Label("Data Map")
+		String dataMap;
+		@Label("Version")
+		int version;
+	}
+	
+	@Name("org.apache.cayenne.migration.Statement")
+	@Label("Migration Statement")
+	@Category({ "Cayenne", "Migrations" })
+	@Description("Rendering or executing a statement of a migration")
+	static class StatementEvent extends Event {
+		@Label("Phase")
+		String phase;
+		@Label("Table")
+		String table;
+		@Label("Kind")
+		String kind;
+		@Label("SQL")
+		String sql;
+		@Label("Row Count")
+		long rowCount;
+	}
+	
+	@Override
+	public Object beginPhase(String phase, String dataMap, int version) {
+		PhaseEvent event = new PhaseEvent();
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.phase = phase;
+		event.dataMap = dataMap;
+		event.version = version;
+		event.begin();
+		return event;
+	}
+	
+	@Override
+	public Object beginStatement(String phase, String table, String kind, String sql) {
+		StatementEvent event = new StatementEvent();
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.phase = phase;
+		event.table = table;
+		event.kind = kind;
+		event.sql = sql;
+		event.begin();
+		return event;
+	}
+	
+	@Override
+	public void end(Object event, long rowCount) {
+		if (event instanceof StatementEvent) {
+			((StatementEvent) event).rowCount = rowCount;
+		}
+		Event jfrEvent = (Event) event;
+		jfrEvent.end();
+		if (jfrEvent.shouldCommit()) {
+			jfrEvent.commit();
+		}
+	}
+	
+}
@@ -0,0 +1,108 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.util.Collections;
+import java.util.Date;
+
+import junit.framework.TestCase;
+
+import org.apache.cayenne.access.DataNode;
+import org.apache.cayenne.access.types.DefaultValueObjectTypeRegistry;
+import org.apache.cayenne.configuration.DefaultRuntimeProperties;
+import org.apache.cayenne.configuration.RuntimeProperties;
+import org.apache.cayenne.dba.postgres.PostgresAdapter;
+import org.apache.cayenne.di.spi.DefaultClassLoaderManager;
+import org.apache.cayenne.map.DataMap;
+import org.apache.cayenne.migration.BackgroundMigrationProgress.Status;
+import org.apache.cayenne.resource.ClassLoaderResourceLocator;
+
+public class BackgroundMigrationRunnerTest extends TestCase {
+
+    private DataNode node;
+    private Migrator migrator;
+    private BackgroundMigrationRunner runner;
+    
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        node = new DataNode("node");
+        
+        RuntimeProperties props = new DefaultRuntimeProperties(Collections.EMPTY_MAP);
+        ClassLoaderResourceLocator resourceLocator = new ClassLoaderResourceLocator(new DefaultClassLoaderManager());
+        PostgresAdapter adapter = new PostgresAdapter(props, Collections.EMPTY_LIST, Collections.EMPTY_LIST, Collections.EMPTY_LIST, resourceLocator, new DefaultValueObjectTypeRegistry(Collections.emptyList()));
+        node.setAdapter(adapter);
+        node.addDataMap(new DataMap("MyMap"));
+        
+        migrator = new Migrator(node, getClass().getPackage().getName());
+        runner = migrator.getBackgroundMigrations();
+    }
+    
+    private BackgroundMigrationProgress progress(Status status, Date updatedAt) {
+        return new BackgroundMigrationProgress("MyMap", 1, status, 0, 0, "host", updatedAt, null);
+    }
+    
+    public void testGetBackgroundMigrations() {
+        assertSame(runner, migrator.getBackgroundMigrations());
+        assertFalse(runner.isRunning());
+    }
+    
+    public void testTableName() {
+        DataMap map = node.getDataMap("MyMap");
+        assertEquals("dbupdater_background", migrator.migrationBackgroundTableName(map));
+        
+        String sql = node.getAdapter().createTable(BackgroundMigrationRunner.entity(migrator, map));
+        assertTrue(sql, sql.startsWith("CREATE TABLE dbupdater_background "));
+        assertEquals(Migrator.DATA_MAP_LENGTH, BackgroundMigrationRunner.entity(migrator, map).getAttribute("dataMap").getMaxLength());
+    }
+    
+    public void testRunRequiresStart() {
+        try {
+            runner.run();
+            fail("The runner must be started first.");
+        } catch (IllegalStateException e) {
+            assertFalse(runner.isRunning());
+        }
+    }
+    
+    public void testIsClaimable() {
+        runner.setStaleMillis(60000);
+        Date recent = new Date();
+        Date old = new Date(System.currentTimeMillis() - 120000);
+        
+        assertTrue(runner.isClaimable(progress(Status.PENDING, recent)));
+        assertFalse(runner.isClaimable(progress(Status.RUNNING, recent)));
+        assertTrue(runner.isClaimable(progress(Status.RUNNING, old)));
+        assertTrue(runner.isClaimable(progress(Status.PAUSED, old)));
+        assertFalse(runner.isClaimable(progress(Status.COMPLETED, old)));
+        assertFalse(runner.isClaimable(progress(Status.CANCELLED, old)));
+        assertFalse(runner.isClaimable(progress(Status.FAILED, old)));
+    }
+    
+    public void testPauseResumeCancel() {
+        runner.pause();
+        assertTrue(runner.isPaused());
+        runner.resume();
+        assertFalse(runner.isPaused());
+        runner.cancel();
+        assertTrue(runner.isCancelled());
+    }
+    
+}
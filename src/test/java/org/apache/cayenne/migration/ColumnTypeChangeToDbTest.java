@@ -0,0 +1,160 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import junit.framework.TestCase;
+
+import org.apache.cayenne.access.DataNode;
+import org.apache.cayenne.access.types.DefaultValueObjectTypeRegistry;
+import org.apache.cayenne.configuration.DefaultRuntimeProperties;
+import org.apache.cayenne.configuration.RuntimeProperties;
+import org.apache.cayenne.dba.postgres.PostgresAdapter;
+import org.apache.cayenne.di.spi.DefaultClassLoaderManager;
+import org.apache.cayenne.log.NoopJdbcEventLogger;
+import org.apache.cayenne.migration.ColumnTypeChangeToDb.ColumnType;
+import org.apache.cayenne.migration.ColumnTypeChangeToDb.Cost;
+import org.apache.cayenne.resource.ClassLoaderResourceLocator;
+
+public class ColumnTypeChangeToDbTest extends TestCase {
+
+    private DataNode node;
+    private MigrationDatabase db;
+    
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        node = new DataNode("node");
+        
+        RuntimeProperties props = new DefaultRuntimeProperties(Collections.EMPTY_MAP);
+        ClassLoaderResourceLocator resourceLocator = new ClassLoaderResourceLocator(new DefaultClassLoaderManager());
+        PostgresAdapter adapter = new PostgresAdapter(props, Collections.EMPTY_LIST, Collections.EMPTY_LIST, Collections.EMPTY_LIST, resourceLocator, new DefaultValueObjectTypeRegistry(Collections.emptyList()));
+        node.setAdapter(adapter);
+        
+        db = new MigrationDatabase(node);
+    }
+
+	public void testClassifyPostgres() {
+		assertEquals(Cost.METADATA_ONLY, ColumnTypeChangeToDb.classify(DbFamily.POSTGRES, new ColumnType(Types.VARCHAR, 100, 0), new ColumnType(Types.VARCHAR, 200, 0)));
+		assertEquals(Cost.METADATA_ONLY, ColumnTypeChangeToDb.classify(DbFamily.POSTGRES, new ColumnType(Types.VARCHAR, 100, 0), new ColumnType(Types.LONGVARCHAR, 0, 0)));
+		assertEquals(Cost.REWRITE, ColumnTypeChangeToDb.classify(DbFamily.POSTGRES, new ColumnType(Types.VARCHAR, 200, 0), new ColumnType(Types.VARCHAR, 100, 0)));
+		assertEquals(Cost.METADATA_ONLY, ColumnTypeChangeToDb.classify(DbFamily.POSTGRES, new ColumnType(Types.NUMERIC, 10, 2), new ColumnType(Types.NUMERIC, 12, 2)));
+		assertEquals(Cost.REWRITE, ColumnTypeChangeToDb.classify(DbFamily.POSTGRES, new ColumnType(Types.NUMERIC, 10, 2), new ColumnType(Types.NUMERIC, 12, 4)));
+		assertEquals(Cost.REWRITE, ColumnTypeChangeToDb.classify(DbFamily.POSTGRES, new ColumnType(Types.INTEGER, 10, 0), new ColumnType(Types.BIGINT, 0, 0)));
+		assertEquals(Cost.METADATA_ONLY, ColumnTypeChangeToDb.classify(DbFamily.POSTGRES, new ColumnType(Types.INTEGER, 10, 0), new ColumnType(Types.INTEGER, 0, 0)));
+	}
+	
+	public void testClassifyMySQL() {
+		assertEquals(Cost.METADATA_ONLY, ColumnTypeChangeToDb.classify(DbFamily.MYSQL, new ColumnType(Types.VARCHAR, 100, 0), new ColumnType(Types.VARCHAR, 200, 0)));
+		assertEquals(Cost.REWRITE, ColumnTypeChangeToDb.classify(DbFamily.MYSQL, new ColumnType(Types.VARCHAR, 50, 0), new ColumnType(Types.VARCHAR, 100, 0)));
+		assertEquals(Cost.REWRITE, ColumnTypeChangeToDb.classify(DbFamily.H2, new ColumnType(Types.VARCHAR, 100, 0), new ColumnType(Types.VARCHAR, 200, 0)));
+	}
+	
+	public void testUsingClause() {
+		db.alterTable("artist").alterColumn("age").setDataType(Types.INTEGER);
+		ColumnTypeChangeToDb change = (ColumnTypeChangeToDb) db.getOperations().get(0);
+		
+		String sql = change.createSql(node.getAdapter(), DbFamily.POSTGRES, Cost.REWRITE, new ColumnType(Types.VARCHAR, 10, 0)).get(0);
+		assertTrue(sql, sql.contains(" USING age::"));
+		
+		sql = change.createSql(node.getAdapter(), DbFamily.POSTGRES, Cost.REWRITE, new ColumnType(Types.SMALLINT, 5, 0)).get(0);
+		assertFalse(sql, sql.contains(" USING "));
+	}
+	
+	public void testRewritePolicy() {
+		Migrator migrator = new Migrator(node, "org.apache.cayenne.migration");
+		assertEquals(TableRewritePolicy.WARN, migrator.getTableRewritePolicy());
+		migrator.setTableRewritePolicy(TableRewritePolicy.REFUSE);
+		migrator.setTableRewriteLimit(10);
+		assertEquals(TableRewritePolicy.REFUSE, migrator.copy(null).getTableRewritePolicy());
+		assertEquals(10, migrator.copy(null).getTableRewriteLimit());
+	}
+	
+	public void testRefusedBeforeAnyStatementRuns() throws Exception {
+		List<String> executed = new ArrayList<String>();
+		node.setJdbcEventLogger(NoopJdbcEventLogger.getInstance());
+		node.setDataSource(jdbc(DataSource.class, executed));
+		Migrator migrator = new Migrator(node, "org.apache.cayenne.migration");
+		migrator.setTableRewritePolicy(TableRewritePolicy.REFUSE);
+		migrator.setTableRewriteLimit(10);
+		
+		db.execute("UPDATE artist SET age = 1");
+		db.alterTable("artist").alterColumn("age").setDataType(Types.INTEGER);
+		try {
+			migrator.executeOperations(db.getOperations());
+			fail();
+		} catch (MigrationValidationException e) {
+			// expected
+		}
+		for (String sql : executed) {
+			assertFalse(sql, sql.startsWith("UPDATE") || sql.startsWith("ALTER"));
+		}
+	}
+	
+	/**
+	 * Creates a JDBC object that records the executed statements. The metadata has no columns, so every type
+	 * change rewrites the table, and queries return 1000 (MB).
+	 */
+	private <T> T jdbc(Class<T> type, final List<String> executed) {
+		InvocationHandler handler = (proxy, method, args) -> {
+			switch (method.getName()) {
+				case "getConnection":
+					return jdbc(Connection.class, executed);
+				case "getMetaData":
+					return jdbc(DatabaseMetaData.class, executed);
+				case "createStatement":
+				case "prepareStatement":
+					return jdbc(Statement.class, executed);
+				case "getColumns":
+					return jdbc(ResultSet.class, null);
+				case "getResultSet":
+					return jdbc(ResultSet.class, executed);
+				case "execute":
+				case "executeUpdate":
+					executed.add((String) args[0]);
+					return method.getReturnType() == int.class ? 0 : true;
+				case "next":
+					return executed != null;
+				case "getInt":
+					return 1000;
+				case "getAutoCommit":
+					return false;
+				case "toString":
+					return type.getSimpleName();
+				default:
+					return null;
+			}
+		};
+		return type.cast(Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { type }, handler));
+	}
+	
+}
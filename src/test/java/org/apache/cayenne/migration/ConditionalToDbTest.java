@@ -0,0 +1,122 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.sql.Types;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.cayenne.access.DataNode;
+import org.apache.cayenne.access.types.DefaultValueObjectTypeRegistry;
+import org.apache.cayenne.configuration.DefaultRuntimeProperties;
+import org.apache.cayenne.configuration.RuntimeProperties;
+import org.apache.cayenne.dba.postgres.PostgresAdapter;
+import org.apache.cayenne.di.spi.DefaultClassLoaderManager;
+import org.apache.cayenne.map.DbAttribute;
+import org.apache.cayenne.migration.ColumnTypeChangeToDb.ColumnType;
+import org.apache.cayenne.migration.ConditionalToDb.Condition;
+import org.apache.cayenne.migration.SchemaCache.Column;
+import org.apache.cayenne.resource.ClassLoaderResourceLocator;
+
+public class ConditionalToDbTest extends TestCase {
+
+    private MigrationDatabase db;
+    private Map<String, Column> columns;
+    
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        DataNode node = new DataNode("node");
+        
+        RuntimeProperties props = new DefaultRuntimeProperties(Collections.EMPTY_MAP);
+        ClassLoaderResourceLocator resourceLocator = new ClassLoaderResourceLocator(new DefaultClassLoaderManager());
+        PostgresAdapter adapter = new PostgresAdapter(props, Collections.EMPTY_LIST, Collections.EMPTY_LIST, Collections.EMPTY_LIST, resourceLocator, new DefaultValueObjectTypeRegistry(Collections.emptyList()));
+        node.setAdapter(adapter);
+        
+        db = new MigrationDatabase(node);
+        
+        columns = new HashMap<String, Column>();
+        columns.put("name", new Column(new ColumnType(Types.VARCHAR, 100, 0), true));
+        columns.put("id", new Column(new ColumnType(Types.INTEGER, 10, 0), false));
+    }
+
+	public void testNotIdempotent() {
+		db.alterTable("artist").addColumn("rank", Types.INTEGER);
+		db.alterTable("artist").dropColumn("name");
+		assertEquals(2, db.getOperations().size());
+		assertFalse(db.getOperations().get(0) instanceof ConditionalToDb);
+	}
+	
+	public void testGroupsOperations() {
+		db.setIdempotent(true);
+		db.alterTable("artist").addColumn("rank", Types.INTEGER, true, 0);
+		db.alterTable("artist").alterColumn("name").addNotNullConstraint();
+		db.dropTable("painting");
+		
+		assertEquals(3, db.getOperations().size());
+		ConditionalToDb addColumn = (ConditionalToDb) db.getOperations().get(0);
+		assertEquals(Condition.COLUMN_MISSING, addColumn.getCondition());
+		// add, default, update and not null
+		assertEquals(4, addColumn.getOperations().size());
+		assertEquals("artist", db.tableOf(addColumn));
+		
+		assertEquals(Condition.COLUMN_NULLABLE, ((ConditionalToDb) db.getOperations().get(1)).getCondition());
+		assertEquals(Condition.TABLE_EXISTS, ((ConditionalToDb) db.getOperations().get(2)).getCondition());
+		assertEquals(1, ((ConditionalToDb) db.getOperations().get(2)).getOperations().size());
+	}
+	
+	public void testColumnConditions() {
+		assertFalse(new ConditionalToDb(Condition.COLUMN_MISSING, "artist", new DbAttribute("name")).isNeeded(columns));
+		assertTrue(new ConditionalToDb(Condition.COLUMN_MISSING, "artist", new DbAttribute("rank")).isNeeded(columns));
+		assertTrue(new ConditionalToDb(Condition.COLUMN_EXISTS, "artist", new DbAttribute("NAME")).isNeeded(columns));
+		assertFalse(new ConditionalToDb(Condition.COLUMN_EXISTS, "artist", new DbAttribute("rank")).isNeeded(columns));
+		assertTrue(new ConditionalToDb(Condition.COLUMN_NULLABLE, "artist", new DbAttribute("name")).isNeeded(columns));
+		assertFalse(new ConditionalToDb(Condition.COLUMN_NULLABLE, "artist", new DbAttribute("id")).isNeeded(columns));
+		assertTrue(new ConditionalToDb(Condition.COLUMN_NOT_NULL, "artist", new DbAttribute("id")).isNeeded(columns));
+		assertFalse(new ConditionalToDb(Condition.COLUMN_NOT_NULL, "artist", new DbAttribute("name")).isNeeded(columns));
+	}
+	
+	public void testMissingColumnIsNotChanged() {
+		DbAttribute rank = new DbAttribute("rank", Types.INTEGER, null);
+		assertFalse(new ConditionalToDb(Condition.COLUMN_NULLABLE, "artist", rank).isNeeded(columns));
+		assertFalse(new ConditionalToDb(Condition.COLUMN_NOT_NULL, "artist", rank).isNeeded(columns));
+		assertFalse(new ConditionalToDb(Condition.TYPE_DIFFERENT, "artist", rank).isNeeded(columns));
+		assertFalse(new ConditionalToDb(Condition.COLUMN_NULLABLE, "artist", rank).isNeeded(null));
+	}
+	
+	public void testTypeCondition() {
+		DbAttribute name = new DbAttribute("name", Types.VARCHAR, null);
+		name.setMaxLength(100);
+		assertFalse(new ConditionalToDb(Condition.TYPE_DIFFERENT, "artist", name).isNeeded(columns));
+		
+		name.setMaxLength(200);
+		assertTrue(new ConditionalToDb(Condition.TYPE_DIFFERENT, "artist", name).isNeeded(columns));
+	}
+	
+	public void testTableConditions() {
+		assertTrue(new ConditionalToDb(Condition.TABLE_EXISTS, "artist", null).isNeeded(columns));
+		assertFalse(new ConditionalToDb(Condition.TABLE_EXISTS, "artist", null).isNeeded(null));
+		assertTrue(new ConditionalToDb(Condition.COLUMN_MISSING, "artist", new DbAttribute("name")).isNeeded(null));
+	}
+	
+}
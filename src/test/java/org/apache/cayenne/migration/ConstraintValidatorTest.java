@@ -0,0 +1,184 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.sql.DataSource;
+
+import junit.framework.TestCase;
+
+import org.apache.cayenne.access.DataNode;
+import org.apache.cayenne.access.types.DefaultValueObjectTypeRegistry;
+import org.apache.cayenne.configuration.DefaultRuntimeProperties;
+import org.apache.cayenne.configuration.RuntimeProperties;
+import org.apache.cayenne.dba.postgres.PostgresAdapter;
+import org.apache.cayenne.dbsync.merge.token.MergerToken;
+import org.apache.cayenne.dbsync.merge.token.db.AddRelationshipToDb;
+import org.apache.cayenne.dbsync.merge.token.db.SetNotNullToDb;
+import org.apache.cayenne.di.spi.DefaultClassLoaderManager;
+import org.apache.cayenne.log.NoopJdbcEventLogger;
+import org.apache.cayenne.map.DataMap;
+import org.apache.cayenne.resource.ClassLoaderResourceLocator;
+
+public class ConstraintValidatorTest extends TestCase {
+
+    private DataNode node;
+    private MigrationDatabase db;
+    
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        node = new DataNode("node");
+        
+        RuntimeProperties props = new DefaultRuntimeProperties(Collections.EMPTY_MAP);
+        ClassLoaderResourceLocator resourceLocator = new ClassLoaderResourceLocator(new DefaultClassLoaderManager());
+        PostgresAdapter adapter = new PostgresAdapter(props, Collections.EMPTY_LIST, Collections.EMPTY_LIST, Collections.EMPTY_LIST, resourceLocator, new DefaultValueObjectTypeRegistry(Collections.emptyList()));
+        node.setAdapter(adapter);
+        
+        db = new MigrationDatabase(node);
+    }
+
+	public void testOfflineByDefault() {
+		db.alterTable("painting").addForeignKey("artist_id", "artist", "artist_id");
+		db.alterTable("painting").alterColumn("title").addNotNullConstraint();
+		
+		assertTrue(db.getOperations().get(0) instanceof AddRelationshipToDb);
+		assertTrue(db.getOperations().get(db.getOperations().size() - 1) instanceof SetNotNullToDb);
+		assertFalse(ConstraintValidator.hasValidations(db.getOperations()));
+	}
+	
+	public void testOnlineConstraints() {
+		db.setOnlineConstraints(true);
+		db.alterTable("app.painting").addForeignKey("artist_id", "artist", "artist_id");
+		db.alterTable("app.painting").addCheckConstraint("painting_price_check", "price >= 0");
+		
+		List<MergerToken> operations = db.getOperations();
+		assertEquals(4, operations.size());
+		assertEquals("ALTER TABLE app.painting ADD CONSTRAINT painting_artist_id_fkey FOREIGN KEY (artist_id) REFERENCES artist (artist_id) NOT VALID", operations.get(0).getTokenValue());
+		ConstraintValidationToDb validation = (ConstraintValidationToDb) operations.get(1);
+		assertEquals("painting_artist_id_fkey", validation.getConstraint());
+		assertEquals("artist", db.referencedTableOf(validation));
+		assertEquals("ALTER TABLE app.painting ADD CONSTRAINT painting_price_check CHECK (price >= 0) NOT VALID", operations.get(2).getTokenValue());
+		assertTrue(ConstraintValidator.hasValidations(operations));
+	}
+	
+	public void testOnlineNotNull() {
+		db.setCapabilities(new DbCapabilities(DbFamily.POSTGRES, 12, 0, Collections.<Capability, Boolean>emptyMap()));
+		db.setOnlineConstraints(true);
+		db.alterTable("painting").alterColumn("title").addNotNullConstraint();
+		
+		assertEquals("ALTER TABLE painting ADD CONSTRAINT painting_title_not_null CHECK (title IS NOT NULL) NOT VALID", db.getOperations().get(0).getTokenValue());
+		ConstraintValidationToDb validation = (ConstraintValidationToDb) db.getOperations().get(1);
+		assertEquals(Arrays.asList(
+				"ALTER TABLE painting VALIDATE CONSTRAINT painting_title_not_null",
+				"ALTER TABLE painting ALTER COLUMN title SET NOT NULL",
+				"ALTER TABLE painting DROP CONSTRAINT IF EXISTS painting_title_not_null"),
+				ConstraintValidator.validationSql(validation.getTable(), validation.getConstraint(), validation.getNotNullColumn()));
+	}
+	
+	public void testOnlineNotNullBeforePostgres12() {
+		db.setCapabilities(new DbCapabilities(DbFamily.POSTGRES, 11, 0, Collections.<Capability, Boolean>emptyMap()));
+		db.setOnlineConstraints(true);
+		db.alterTable("painting").alterColumn("title").addNotNullConstraint();
+		
+		// SET NOT NULL scans the table anyway, so the check constraint would only add a second scan
+		assertFalse(ConstraintValidator.hasValidations(db.getOperations()));
+	}
+	
+	public void testNewTablesAreNotValidatedLater() {
+		db.setOnlineConstraints(true);
+		db.createTable("painting").addCheckConstraint("painting_price_check", "price >= 0");
+		assertEquals("ALTER TABLE painting ADD CONSTRAINT painting_price_check CHECK (price >= 0)", db.getOperations().get(1).getTokenValue());
+		assertFalse(ConstraintValidator.hasValidations(db.getOperations()));
+	}
+	
+	public void testValidationsOfBothPhasesHaveDistinctKeys() throws Exception {
+		final List<List<Object>> inserts = new ArrayList<List<Object>>();
+		node.setJdbcEventLogger(NoopJdbcEventLogger.getInstance());
+		node.setDataSource(jdbc(DataSource.class, inserts));
+		Migrator migrator = new Migrator(node, "org.apache.cayenne.migration");
+		DataMap map = new DataMap("map");
+		
+		db.setOnlineConstraints(true);
+		db.alterTable("painting").addForeignKey("artist_id", "artist", "artist_id");
+		MigrationDatabase contract = new MigrationDatabase(node);
+		contract.setOnlineConstraints(true);
+		contract.alterTable("painting").addForeignKey("gallery_id", "gallery", "gallery_id");
+		
+		ConstraintValidator.register(migrator, map, map.getName(), 3, db.getOperations());
+		ConstraintValidator.register(migrator, map, migrator.contractKey(map), 3, contract.getOperations());
+		
+		assertEquals(2, inserts.size());
+		Set<List<Object>> keys = new HashSet<List<Object>>();
+		for (List<Object> insert : inserts) {
+			keys.add(insert.subList(0, 3));
+		}
+		assertEquals(2, keys.size());
+		assertEquals(Arrays.<Object>asList("map", 3, 0), inserts.get(0).subList(0, 3));
+		assertEquals(Arrays.<Object>asList("map#contract", 3, 0), inserts.get(1).subList(0, 3));
+	}
+	
+	/**
+	 * Creates a JDBC object that records the parameters of each executed prepared statement.
+	 */
+	private <T> T jdbc(final Class<T> type, final List<List<Object>> executed) {
+		final List<Object> parameters = new ArrayList<Object>();
+		InvocationHandler handler = (proxy, method, args) -> {
+			switch (method.getName()) {
+				case "getConnection":
+					return jdbc(Connection.class, executed);
+				case "prepareStatement":
+					return jdbc(PreparedStatement.class, executed);
+				case "setObject":
+				case "setNull":
+					parameters.add(method.getName().equals("setObject") ? args[1] : null);
+					return null;
+				case "executeUpdate":
+					executed.add(parameters);
+					return 1;
+				case "getAutoCommit":
+					return false;
+				case "toString":
+					return type.getSimpleName();
+				default:
+					return null;
+			}
+		};
+		return type.cast(Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { type }, handler));
+	}
+	
+	public void testValidationTable() {
+		Migrator migrator = new Migrator(node, "org.apache.cayenne.migration");
+		DataMap map = new DataMap("map");
+		assertEquals("dbupdater_validation", migrator.migrationValidationTableName(map));
+		assertEquals(7, ConstraintValidator.entity(migrator, map).getAttributes().size());
+	}
+	
+}
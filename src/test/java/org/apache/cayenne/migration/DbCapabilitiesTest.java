@@ -0,0 +1,121 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.sql.Types;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+import org.apache.cayenne.access.DataNode;
+import org.apache.cayenne.access.types.DefaultValueObjectTypeRegistry;
+import org.apache.cayenne.configuration.DefaultRuntimeProperties;
+import org.apache.cayenne.configuration.RuntimeProperties;
+import org.apache.cayenne.dba.postgres.PostgresAdapter;
+import org.apache.cayenne.di.spi.DefaultClassLoaderManager;
+import org.apache.cayenne.merge.ArbitrarySqlToDb;
+import org.apache.cayenne.resource.ClassLoaderResourceLocator;
+
+public class DbCapabilitiesTest extends TestCase {
+
+    private DataNode node;
+    
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        node = new DataNode("node");
+        
+        RuntimeProperties props = new DefaultRuntimeProperties(Collections.EMPTY_MAP);
+        ClassLoaderResourceLocator resourceLocator = new ClassLoaderResourceLocator(new DefaultClassLoaderManager());
+        PostgresAdapter adapter = new PostgresAdapter(props, Collections.EMPTY_LIST, Collections.EMPTY_LIST, Collections.EMPTY_LIST, resourceLocator, new DefaultValueObjectTypeRegistry(Collections.emptyList()));
+        node.setAdapter(adapter);
+    }
+
+	public void testAddColumnWithDefault() {
+		assertFalse(new DbCapabilities(DbFamily.POSTGRES, 10, 5, Collections.<Capability, Boolean>emptyMap()).supports(Capability.ADD_COLUMN_WITH_DEFAULT));
+		assertTrue(new DbCapabilities(DbFamily.POSTGRES, 11, 0, Collections.<Capability, Boolean>emptyMap()).supports(Capability.ADD_COLUMN_WITH_DEFAULT));
+		assertTrue(new DbCapabilities(DbFamily.MYSQL, 5, 7, Collections.<Capability, Boolean>emptyMap()).supports(Capability.ADD_COLUMN_WITH_DEFAULT));
+		assertTrue(new DbCapabilities(DbFamily.SQLITE, 3, 0, Collections.<Capability, Boolean>emptyMap()).supports(Capability.ADD_COLUMN_WITH_DEFAULT));
+		assertFalse(new DbCapabilities(DbFamily.OTHER, 99, 0, Collections.<Capability, Boolean>emptyMap()).supports(Capability.ADD_COLUMN_WITH_DEFAULT));
+		assertFalse(DbCapabilities.of(node.getAdapter()).supports(Capability.ADD_COLUMN_WITH_DEFAULT));
+	}
+	
+	public void testOverrides() {
+		DbCapabilities capabilities = new DbCapabilities(DbFamily.POSTGRES, 12, 0, Collections.<Capability, Boolean>emptyMap());
+		assertTrue(capabilities.supports(Capability.NOT_VALID_CONSTRAINTS));
+		assertFalse(capabilities.withOverrides(Collections.singletonMap(Capability.NOT_VALID_CONSTRAINTS, false)).supports(Capability.NOT_VALID_CONSTRAINTS));
+		assertTrue(capabilities.supports(Capability.NOT_VALID_CONSTRAINTS));
+	}
+	
+	public void testNotNullFromCheck() {
+		assertFalse(new DbCapabilities(DbFamily.POSTGRES, 11, 9, Collections.<Capability, Boolean>emptyMap()).supports(Capability.NOT_NULL_FROM_CHECK));
+		assertTrue(new DbCapabilities(DbFamily.POSTGRES, 12, 0, Collections.<Capability, Boolean>emptyMap()).supports(Capability.NOT_NULL_FROM_CHECK));
+		assertFalse(new DbCapabilities(DbFamily.MYSQL, 8, 0, Collections.<Capability, Boolean>emptyMap()).supports(Capability.NOT_NULL_FROM_CHECK));
+	}
+	
+	public void testAddColumnStrategy() {
+		MigrationDatabase db = new MigrationDatabase(node);
+		db.alterTable("artist").addColumn("rank", Types.INTEGER, true, 0);
+		assertFalse(db.getOperations().get(0) instanceof ArbitrarySqlToDb);
+		
+		db = new MigrationDatabase(node);
+		db.setCapabilities(new DbCapabilities(DbFamily.POSTGRES, 11, 0, Collections.<Capability, Boolean>emptyMap()));
+		db.alterTable("artist").addColumn("rank", Types.INTEGER, true, 0);
+		assertEquals(1, db.getOperations().size());
+		assertTrue(((ArbitrarySqlToDb) db.getOperations().get(0)).getTokenValue().endsWith(" DEFAULT 0 NOT NULL"));
+		
+		db = new MigrationDatabase(node);
+		db.setCapabilities(new DbCapabilities(DbFamily.POSTGRES, 11, 0, Collections.<Capability, Boolean>emptyMap()));
+		db.setCapability(Capability.ADD_COLUMN_WITH_DEFAULT, false);
+		db.alterTable("artist").addColumn("rank", Types.INTEGER, true, 0);
+		assertFalse(db.getOperations().get(0) instanceof ArbitrarySqlToDb);
+		
+		// an expression default is backfilled even when the column could be added in one statement
+		db = new MigrationDatabase(node);
+		db.setCapabilities(new DbCapabilities(DbFamily.POSTGRES, 11, 0, Collections.<Capability, Boolean>emptyMap()));
+		db.alterTable("artist").addColumn("uuid", Types.OTHER, false, ColumnDefault.timeOrderedUuid());
+		assertEquals(3, db.getOperations().size());
+		assertTrue(db.getOperations().get(2).getTokenValue().startsWith("UPDATE artist SET uuid = "));
+	}
+	
+	@SuppressWarnings("deprecation")
+	public void testLegacyFlagDoesNotReplaceOverride() {
+		Migrator.USE_EFFICIENT_ALTER_TABLE = true;
+		try {
+			MigrationDatabase db = new MigrationDatabase(node);
+			assertTrue(db.supports(Capability.ADD_COLUMN_WITH_DEFAULT));
+			
+			db.setCapability(Capability.ADD_COLUMN_WITH_DEFAULT, false);
+			assertFalse(db.supports(Capability.ADD_COLUMN_WITH_DEFAULT));
+		} finally {
+			Migrator.USE_EFFICIENT_ALTER_TABLE = false;
+		}
+	}
+	
+	public void testMigratorOverrides() {
+		Migrator migrator = new Migrator(node, "org.apache.cayenne.migration");
+		assertFalse(migrator.capabilities().supports(Capability.ADD_COLUMN_WITH_DEFAULT));
+		
+		migrator.setCapability(Capability.ADD_COLUMN_WITH_DEFAULT, true);
+		assertTrue(migrator.capabilities().supports(Capability.ADD_COLUMN_WITH_DEFAULT));
+		assertTrue(migrator.copy(null).capabilities().supports(Capability.ADD_COLUMN_WITH_DEFAULT));
+	}
+	
+}
@@ -0,0 +1,62 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+import org.apache.cayenne.access.types.DefaultValueObjectTypeRegistry;
+import org.apache.cayenne.configuration.DefaultRuntimeProperties;
+import org.apache.cayenne.configuration.RuntimeProperties;
+import org.apache.cayenne.dba.mysql.MySQLAdapter;
+import org.apache.cayenne.dba.postgres.PostgresAdapter;
+import org.apache.cayenne.di.spi.DefaultClassLoaderManager;
+import org.apache.cayenne.resource.ClassLoaderResourceLocator;
+
+public class DbFamilyTest extends TestCase {
+
+    public void testOf() {
+        RuntimeProperties props = new DefaultRuntimeProperties(Collections.EMPTY_MAP);
+        ClassLoaderResourceLocator resourceLocator = new ClassLoaderResourceLocator(new DefaultClassLoaderManager());
+        
+        assertEquals(DbFamily.POSTGRES, DbFamily.of(new PostgresAdapter(props, Collections.EMPTY_LIST, Collections.EMPTY_LIST, Collections.EMPTY_LIST, resourceLocator, new DefaultValueObjectTypeRegistry(Collections.emptyList()))));
+        assertEquals(DbFamily.MYSQL, DbFamily.of(new MySQLAdapter(props, Collections.EMPTY_LIST, Collections.EMPTY_LIST, Collections.EMPTY_LIST, resourceLocator, new DefaultValueObjectTypeRegistry(Collections.emptyList()))));
+        assertEquals(DbFamily.OTHER, DbFamily.of(null));
+    }
+    
+    public void testHasTransactionalDdl() {
+        assertTrue(DbFamily.POSTGRES.hasTransactionalDdl());
+        assertTrue(DbFamily.H2.hasTransactionalDdl());
+        assertFalse(DbFamily.MYSQL.hasTransactionalDdl());
+        assertFalse(DbFamily.ORACLE.hasTransactionalDdl());
+    }
+    
+    public void testLockTimeoutSql() {
+        assertEquals("SET lock_timeout = 5000", DbFamily.POSTGRES.lockTimeoutSql(5000));
+        assertEquals("RESET lock_timeout", DbFamily.POSTGRES.resetLockTimeoutSql());
+        assertEquals("SET SESSION lock_wait_timeout = 2", DbFamily.MYSQL.lockTimeoutSql(1500));
+        assertNull(DbFamily.DERBY.lockTimeoutSql(5000));
+        assertNull(DbFamily.DERBY.resetLockTimeoutSql());
+        assertEquals("SET LOCK_TIMEOUT 5000", DbFamily.H2.lockTimeoutSql(5000));
+        assertTrue(DbFamily.H2.hasLockTimeout());
+        assertFalse(DbFamily.DERBY.hasLockTimeout());
+    }
+    
+}
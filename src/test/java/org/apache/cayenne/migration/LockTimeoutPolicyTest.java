@@ -0,0 +1,100 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransactionRollbackException;
+
+import junit.framework.TestCase;
+
+public class LockTimeoutPolicyTest extends TestCase {
+
+    public void testInvalidPolicy() {
+        try {
+            new LockTimeoutPolicy(0, 3, 100, 1000);
+            fail("A lock timeout of zero should not be allowed.");
+        } catch (IllegalArgumentException e) {}
+        
+        try {
+            new LockTimeoutPolicy(1000, 3, 100, 10);
+            fail("The max backoff should not be allowed to be less than the initial backoff.");
+        } catch (IllegalArgumentException e) {}
+    }
+    
+    public void testQueryTimeoutSeconds() {
+        assertEquals(1, new LockTimeoutPolicy(200, 3, 100, 1000).getQueryTimeoutSeconds());
+        assertEquals(3, new LockTimeoutPolicy(2500, 3, 100, 1000).getQueryTimeoutSeconds());
+    }
+    
+    public void testBackoffMillis() {
+        LockTimeoutPolicy policy = new LockTimeoutPolicy(1000, 10, 100, 1000);
+        for (int i = 0; i < 20; i++) {
+            long first = policy.backoffMillis(0);
+            assertTrue(first >= 50 && first <= 100);
+            
+            long third = policy.backoffMillis(2);
+            assertTrue(third >= 200 && third <= 400);
+            
+            long capped = policy.backoffMillis(40);
+            assertTrue(capped >= 500 && capped <= 1000);
+        }
+    }
+    
+    public void testIsLockFailure() {
+        assertTrue(LockTimeoutPolicy.isLockFailure(new SQLException("lock timeout", "55P03"), DbFamily.POSTGRES, true));
+        assertTrue(LockTimeoutPolicy.isLockFailure(new SQLException("deadlock", "40P01"), DbFamily.POSTGRES, true));
+        assertTrue(LockTimeoutPolicy.isLockFailure(new SQLException("serialization failure", "40001"), DbFamily.POSTGRES, true));
+        assertTrue(LockTimeoutPolicy.isLockFailure(new SQLException("Lock wait timeout exceeded", "HY000", 1205), DbFamily.MYSQL, false));
+        assertTrue(LockTimeoutPolicy.isLockFailure(new SQLTimeoutException("query timeout"), DbFamily.POSTGRES, true));
+        
+        assertFalse(LockTimeoutPolicy.isLockFailure(new SQLException("syntax error", "42601"), DbFamily.POSTGRES, true));
+        assertFalse(LockTimeoutPolicy.isLockFailure(new SQLException("duplicate key", "23505"), DbFamily.POSTGRES, true));
+    }
+    
+    public void testTimeoutWithoutLockTimeout() {
+        // the query timeout also stops statements that run too long, like a large backfill
+        assertFalse(LockTimeoutPolicy.isLockFailure(new SQLTimeoutException("query timeout"), DbFamily.DERBY, true));
+        assertFalse(LockTimeoutPolicy.isLockFailure(new SQLException("timeout expired", "HYT00"), DbFamily.DERBY, true));
+        assertTrue(LockTimeoutPolicy.isLockFailure(new SQLException("deadlock", "40001"), DbFamily.DERBY, true));
+        assertTrue(LockTimeoutPolicy.isLockFailure(new SQLException("Timeout trying to lock table", "HYT00", 50200), DbFamily.H2, true));
+    }
+    
+    public void testDeadlockNeedsRestoredTransaction() {
+        // MySQL and SQL Server roll back the whole transaction, so retrying the statement would lose the ones before it
+        assertFalse(LockTimeoutPolicy.isLockFailure(new SQLException("Deadlock found", "40001", 1213), DbFamily.MYSQL, false));
+        assertFalse(LockTimeoutPolicy.isLockFailure(new SQLException("deadlock victim", "40001", 1205), DbFamily.SQLSERVER, false));
+        assertFalse(LockTimeoutPolicy.isLockFailure(new SQLTransactionRollbackException("deadlock", "40P01"), DbFamily.POSTGRES, false));
+        assertTrue(LockTimeoutPolicy.isLockFailure(new SQLException("deadlock", "40P01"), DbFamily.POSTGRES, true));
+        assertTrue(LockTimeoutPolicy.isLockFailure(new SQLException("Lock request time out", "S00051", 1222), DbFamily.SQLSERVER, false));
+    }
+    
+    public void testErrorCodesDependOnDatabase() {
+        assertFalse(LockTimeoutPolicy.isLockFailure(new SQLException("Lock wait timeout exceeded", "HY000", 1205), DbFamily.POSTGRES, true));
+        assertFalse(LockTimeoutPolicy.isLockFailure(new SQLException("some error", "HY000", 54), DbFamily.MYSQL, true));
+        assertTrue(LockTimeoutPolicy.isLockFailure(new SQLException("resource busy", "61000", 54), DbFamily.ORACLE, false));
+    }
+    
+    public void testIsLockFailureChained() {
+        SQLException e = new SQLException("batch failed", "42000");
+        e.setNextException(new SQLException("lock timeout", "55P03"));
+        assertTrue(LockTimeoutPolicy.isLockFailure(e, DbFamily.POSTGRES, true));
+    }
+    
+}
@@ -89,11 +89,11 @@ public class MigrationColumnExistingTest extends TestCase {
 	    table.alterColumn("column").setDataType(Types.BIGINT);
 
 	    assertEquals(1, table.getDatabase().getOperations().size());
-	    assertTrue(table.getDatabase().getOperations().get(0) instanceof SetColumnTypeToDb);
+	    assertTrue(table.getDatabase().getOperations().get(0) instanceof ColumnTypeChangeToDb);
 
-	    SetColumnTypeToDb operation = (SetColumnTypeToDb)table.getDatabase().getOperations().get(0);
+	    SetColumnTypeToDb operation = (SetColumnTypeToDb)((ColumnTypeChangeToDb) table.getDatabase().getOperations().get(0)).getChange();
 	    assertEquals(Types.BIGINT, operation.getColumnNew().getType());
-	    assertTrue(table.getDatabase().getOperations().get(0) instanceof SetColumnTypeToDb);
+	    assertEquals("table", table.getDatabase().tableOf(table.getDatabase().getOperations().get(0)));
 	}
 
 	public void testSetDataTypeWithMaxLength() {
@@ -101,9 +101,9 @@ public class MigrationColumnExistingTest extends TestCase {
         table.alterColumn("column").setDataType(Types.VARCHAR, 256);
 
         assertEquals(1, table.getDatabase().getOperations().size());
-        assertTrue(table.getDatabase().getOperations().get(0) instanceof SetColumnTypeToDb);
+        assertTrue(table.getDatabase().getOperations().get(0) instanceof ColumnTypeChangeToDb);
         
-        SetColumnTypeToDb operation = (SetColumnTypeToDb)table.getDatabase().getOperations().get(0);
+        SetColumnTypeToDb operation = (SetColumnTypeToDb)((ColumnTypeChangeToDb) table.getDatabase().getOperations().get(0)).getChange();
         assertEquals(Types.VARCHAR, operation.getColumnNew().getType());
         assertEquals(256, operation.getColumnNew().getMaxLength());
     }
@@ -113,9 +113,9 @@ public class MigrationColumnExistingTest extends TestCase {
         table.alterColumn("column").setDataType(Types.DECIMAL, 38, 4);
 
         assertEquals(1, table.getDatabase().getOperations().size());
-        assertTrue(table.getDatabase().getOperations().get(0) instanceof SetColumnTypeToDb);
+        assertTrue(table.getDatabase().getOperations().get(0) instanceof ColumnTypeChangeToDb);
         
-        SetColumnTypeToDb operation = (SetColumnTypeToDb)table.getDatabase().getOperations().get(0);
+        SetColumnTypeToDb operation = (SetColumnTypeToDb)((ColumnTypeChangeToDb) table.getDatabase().getOperations().get(0)).getChange();
         assertEquals(Types.DECIMAL, operation.getColumnNew().getType());
         assertEquals(38, operation.getColumnNew().getAttributePrecision());
         assertEquals(4, operation.getColumnNew().getScale());
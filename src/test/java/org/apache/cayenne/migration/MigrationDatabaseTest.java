@@ -19,6 +19,7 @@
 package org.apache.cayenne.migration;
 
 import java.util.Collections;
+import java.util.List;
 
 import junit.framework.TestCase;
 
@@ -27,8 +28,11 @@ import org.apache.cayenne.access.types.DefaultValueObjectTypeRegistry;
 import org.apache.cayenne.configuration.DefaultRuntimeProperties;
 import org.apache.cayenne.configuration.RuntimeProperties;
 import org.apache.cayenne.dba.postgres.PostgresAdapter;
+import org.apache.cayenne.dbsync.merge.token.MergerToken;
+import org.apache.cayenne.dbsync.merge.token.db.AddRelationshipToDb;
 import org.apache.cayenne.dbsync.merge.token.db.CreateTableToDb;
 import org.apache.cayenne.dbsync.merge.token.db.DropTableToDb;
+import org.apache.cayenne.dbsync.merge.token.db.SetPrimaryKeyToDb;
 import org.apache.cayenne.di.spi.DefaultClassLoaderManager;
 import org.apache.cayenne.merge.ArbitrarySqlToDb;
 import org.apache.cayenne.resource.ClassLoaderResourceLocator;
@@ -108,4 +112,97 @@ public class MigrationDatabaseTest extends TestCase {
 	    assertEquals("UPDATE x SET y=1", operation.getTokenValue());
 	}
 
+	public void testTransformRows() {
+	    RowTransformer transformer = (row, update) -> {
+	        update.setString(1, row.getString(2).toLowerCase());
+	        update.setInt(2, row.getInt(1));
+	        return true;
+	    };
+	    db.transformRows("SELECT id, name FROM x", "UPDATE x SET name = ? WHERE id = ?", 50, 100, transformer);
+
+	    assertEquals(1, db.getOperations().size());
+	    assertTrue(db.getOperations().get(0) instanceof RowTransformationToDb);
+
+	    RowTransformationToDb operation = (RowTransformationToDb) db.getOperations().get(0);
+	    assertEquals("SELECT id, name FROM x", operation.getSelectSql());
+	    assertEquals("UPDATE x SET name = ? WHERE id = ?", operation.getUpdateSql());
+	    assertEquals(50, operation.getFetchSize());
+	    assertEquals(100, operation.getBatchSize());
+	    assertTrue(operation.createSql(node.getAdapter()).isEmpty());
+	}
+	
+	public void testTransformRowsRequiresPositiveSizes() {
+	    try {
+	        db.transformRows("SELECT id FROM x", "UPDATE x SET y = 1 WHERE id = ?", 0, 100, (row, update) -> true);
+	        fail("A fetch size of zero should not be allowed.");
+	    } catch (IllegalArgumentException e) {}
+	}
+	
+	public void testBulkLoad() {
+	    db.beginBulkLoad();
+	    MigrationTableNew artist = db.createTable("Artist");
+	    artist.addIntegerColumn("artist_id", true, null);
+	    artist.addPrimaryKey("artist_id");
+	    MigrationTableNew painting = db.createTable("Painting");
+	    painting.addIntegerColumn("painting_id", true, null);
+	    painting.addForeignKey("artist_id", "Artist", "artist_id", true);
+	    db.execute("INSERT INTO Artist SELECT * FROM legacy_artist");
+	    db.execute("CREATE UNIQUE INDEX painting_idx ON Painting(painting_id)");
+	    db.endBulkLoad();
+	    
+	    List<MergerToken> operations = db.getOperations();
+	    int insert = operations.size() - 6;
+	    // the tables are created without their primary keys, which are added after the data
+	    assertTrue(operations.get(0) instanceof RenderedSqlToDb);
+	    assertTrue(operations.get(insert - 1) instanceof CreateTableToDb);
+	    assertEquals("INSERT INTO Artist SELECT * FROM legacy_artist", operations.get(insert).getTokenValue());
+	    assertTrue(operations.get(insert + 1) instanceof SetPrimaryKeyToDb);
+	    assertEquals("Artist", db.tableOf(operations.get(insert + 1)));
+	    assertTrue(artist.getEntity().getAttribute("artist_id").isPrimaryKey());
+	    assertEquals(Collections.singletonList("CREATE INDEX Painting_artist_id_idx ON Painting (artist_id)"), ((CreateIndexToDb) operations.get(insert + 2)).createSql(node.getAdapter()));
+	    assertEquals("CREATE UNIQUE INDEX painting_idx ON Painting(painting_id)", operations.get(insert + 3).getTokenValue());
+	    assertTrue(operations.get(insert + 4) instanceof ForeignKeyValidationToDb);
+	    assertTrue(operations.get(insert + 5) instanceof AddRelationshipToDb);
+	    assertEquals("Artist", db.referencedTableOf(operations.get(insert + 5)));
+	}
+	
+	public void testBulkLoadTablesCantBeChangedAfterwards() {
+	    db.beginBulkLoad();
+	    MigrationTableNew artist = db.createTable("Artist");
+	    artist.addIntegerColumn("artist_id", true, null);
+	    artist.addPrimaryKey("artist_id");
+	    db.endBulkLoad();
+	    
+	    try {
+	        artist.addVarcharColumn("name", 100);
+	        fail("A table of an ended bulk load has already been rendered.");
+	    } catch (IllegalStateException e) {}
+	    try {
+	        artist.addPrimaryKey("artist_id");
+	        fail("A table of an ended bulk load has already been rendered.");
+	    } catch (IllegalStateException e) {}
+	    
+	    // tables created after the section are unaffected, as are indexes, which are separate statements
+	    db.createTable("Painting").addIntegerColumn("painting_id");
+	    artist.addIndex("artist_id_idx", "artist_id");
+	}
+	
+	public void testBulkLoadMustBeStarted() {
+	    try {
+	        db.endBulkLoad();
+	        fail("A bulk load that wasn't started can't be ended.");
+	    } catch (IllegalStateException e) {}
+	    
+	    db.beginBulkLoad();
+	    try {
+	        db.beginBulkLoad();
+	        fail("Bulk loads can't be nested.");
+	    } catch (IllegalStateException e) {}
+	}
+	
+	public void testForeignKeyViolationSql() {
+	    assertEquals("SELECT COUNT(*) FROM Painting s WHERE s.artist_id IS NOT NULL AND NOT EXISTS (SELECT 1 FROM Artist r WHERE r.artist_id = s.artist_id)",
+	            ForeignKeyValidationToDb.violationSql("Painting", "artist_id", "Artist", "artist_id"));
+	}
+
 }
@@ -0,0 +1,193 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import junit.framework.TestCase;
+
+import org.apache.cayenne.access.DataNode;
+import org.apache.cayenne.access.types.DefaultValueObjectTypeRegistry;
+import org.apache.cayenne.configuration.DefaultRuntimeProperties;
+import org.apache.cayenne.configuration.RuntimeProperties;
+import org.apache.cayenne.dba.postgres.PostgresAdapter;
+import org.apache.cayenne.di.spi.DefaultClassLoaderManager;
+import org.apache.cayenne.log.NoopJdbcEventLogger;
+import org.apache.cayenne.map.DataMap;
+import org.apache.cayenne.resource.ClassLoaderResourceLocator;
+
+public class MigrationHistoryTest extends TestCase {
+
+    private DataNode node;
+    private DataMap map;
+    private MigrationHistory history;
+    
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        node = new DataNode("node");
+        
+        RuntimeProperties props = new DefaultRuntimeProperties(Collections.EMPTY_MAP);
+        ClassLoaderResourceLocator resourceLocator = new ClassLoaderResourceLocator(new DefaultClassLoaderManager());
+        PostgresAdapter adapter = new PostgresAdapter(props, Collections.EMPTY_LIST, Collections.EMPTY_LIST, Collections.EMPTY_LIST, resourceLocator, new DefaultValueObjectTypeRegistry(Collections.emptyList()));
+        node.setAdapter(adapter);
+        
+        map = new DataMap("MyMap");
+        node.addDataMap(map);
+        
+        history = new MigrationHistory(new Migrator(node, getClass().getPackage().getName()));
+    }
+    
+    public void testTableNames() {
+        Migrator migrator = new Migrator(node, getClass().getPackage().getName());
+        assertEquals("dbupdater_history", migrator.migrationHistoryTableName(map));
+        assertEquals("dbupdater_history_step", migrator.migrationHistoryStepTableName(map));
+        
+        map.setDefaultSchema("myschema");
+        assertEquals("myschema.dbupdater_history", migrator.migrationHistoryTableName(map));
+    }
+    
+    public void testCreateTableSql() {
+        map.setDefaultSchema("myschema");
+        String sql = node.getAdapter().createTable(history.historyEntity(map));
+        assertTrue(sql, sql.startsWith("CREATE TABLE myschema.dbupdater_history "));
+        assertTrue(sql, sql.contains("PRIMARY KEY"));
+        
+        sql = node.getAdapter().createTable(history.stepEntity(map));
+        assertTrue(sql, sql.startsWith("CREATE TABLE myschema.dbupdater_history_step "));
+        assertTrue(sql, sql.contains("sqlText"));
+    }
+
+    public void testChecksum() {
+        List<MigrationHistoryStep> steps = Arrays.asList(
+                new MigrationHistoryStep(0, "CREATE TABLE x (y INTEGER)", 5, 0),
+                new MigrationHistoryStep(1, "UPDATE x SET y=1", 10, 3));
+        List<MigrationHistoryStep> sameSqlOtherTimings = Arrays.asList(
+                new MigrationHistoryStep(0, "CREATE TABLE x (y INTEGER)", 7, 0),
+                new MigrationHistoryStep(1, "UPDATE x SET y=1", 1, 5));
+        
+        String checksum = MigrationHistory.checksum(steps);
+        assertEquals(64, checksum.length());
+        assertEquals(checksum, MigrationHistory.checksum(sameSqlOtherTimings));
+        assertFalse(checksum.equals(MigrationHistory.checksumOfSql(Collections.singletonList("UPDATE x SET y=1"))));
+    }
+    
+    public void testEntry() {
+        List<MigrationHistoryStep> steps = Arrays.asList(
+                new MigrationHistoryStep(0, "UPDATE x SET y=1", 5, 3),
+                new MigrationHistoryStep(1, "UPDATE x SET y=2", 10, 4));
+        MigrationHistoryEntry entry = new MigrationHistoryEntry("MyMap", 2, MigrationPhase.EXPAND, "host", new Date(1000), new Date(1500), steps);
+        
+        assertEquals(500, entry.getDurationMillis());
+        assertEquals(7, entry.getRowCount());
+        assertEquals(MigrationHistory.checksum(steps), entry.getChecksum());
+        assertEquals(2, entry.getSteps().size());
+    }
+    
+    public void testTruncate() {
+        StringBuilder sql = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            sql.append('x');
+        }
+        assertEquals(MigrationHistory.SQL_TEXT_LENGTH, MigrationHistory.truncate(sql.toString()).length());
+        assertEquals("UPDATE x SET y=1", MigrationHistory.truncate("UPDATE x SET y=1"));
+    }
+    
+    public void testLoadIncludesContractPhase() throws Exception {
+        final List<Object> parameters = new ArrayList<Object>();
+        final Object[][] entries = {
+                { 2, new Timestamp(1000), new Timestamp(1500), "host", 3L, "a", "MyMap" },
+                { 2, new Timestamp(2000), new Timestamp(2500), "host", 0L, "b", "MyMap#contract" } };
+        final Object[][] steps = {
+                { 2, new Timestamp(2000), 0, 500L, 0L, "ALTER TABLE x DROP COLUMN y", "MyMap#contract" } };
+        node.setJdbcEventLogger(NoopJdbcEventLogger.getInstance());
+        node.setDataSource(jdbc(DataSource.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                case "getConnection":
+                    return jdbc(Connection.class, this);
+                case "prepareStatement":
+                    final Object[][] rows = ((String) args[0]).contains(" step,") ? steps : entries;
+                    return jdbc(PreparedStatement.class, new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) {
+                            switch (method.getName()) {
+                            case "setString":
+                                parameters.add(args[1]);
+                                return null;
+                            case "executeQuery":
+                                return resultSet(rows);
+                            default:
+                                return null;
+                            }
+                        }
+                    });
+                case "getAutoCommit":
+                    return false;
+                default:
+                    return null;
+                }
+            }
+        }));
+        
+        List<MigrationHistoryEntry> loaded = history.load(map);
+        assertEquals(Arrays.<Object>asList("MyMap", "MyMap#contract", "MyMap", "MyMap#contract"), parameters);
+        assertEquals(2, loaded.size());
+        assertEquals(MigrationPhase.EXPAND, loaded.get(0).getPhase());
+        assertEquals(MigrationPhase.CONTRACT, loaded.get(1).getPhase());
+        assertEquals("MyMap", loaded.get(1).getDataMap());
+        assertTrue(loaded.get(0).getSteps().isEmpty());
+        assertEquals(1, loaded.get(1).getSteps().size());
+    }
+    
+    private ResultSet resultSet(final Object[][] rows) {
+        final int[] row = { -1 };
+        return jdbc(ResultSet.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("next")) {
+                    return ++row[0] < rows.length;
+                } else if (method.getName().startsWith("get") && args != null && args[0] instanceof Integer) {
+                    return rows[row[0]][(Integer) args[0] - 1];
+                }
+                return null;
+            }
+        });
+    }
+    
+    private <T> T jdbc(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { type }, handler));
+    }
+    
+}
@@ -0,0 +1,107 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+import org.apache.cayenne.access.DataNode;
+import org.apache.cayenne.access.types.DefaultValueObjectTypeRegistry;
+import org.apache.cayenne.configuration.DefaultRuntimeProperties;
+import org.apache.cayenne.configuration.RuntimeProperties;
+import org.apache.cayenne.dba.postgres.PostgresAdapter;
+import org.apache.cayenne.di.spi.DefaultClassLoaderManager;
+import org.apache.cayenne.resource.ClassLoaderResourceLocator;
+
+public class MigrationIndexTest extends TestCase {
+
+    private DataNode node;
+    private MigrationDatabase db;
+    
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        node = new DataNode("node");
+        
+        RuntimeProperties props = new DefaultRuntimeProperties(Collections.EMPTY_MAP);
+        ClassLoaderResourceLocator resourceLocator = new ClassLoaderResourceLocator(new DefaultClassLoaderManager());
+        PostgresAdapter adapter = new PostgresAdapter(props, Collections.EMPTY_LIST, Collections.EMPTY_LIST, Collections.EMPTY_LIST, resourceLocator, new DefaultValueObjectTypeRegistry(Collections.emptyList()));
+        node.setAdapter(adapter);
+        
+        db = new MigrationDatabase(node);
+    }
+    
+    private CreateIndexToDb lastCreate() {
+        return (CreateIndexToDb) db.getOperations().get(db.getOperations().size() - 1);
+    }
+
+	public void testAddIndex() {
+		MigrationTableExisting table = db.alterTable("users");
+		MigrationIndex index = table.addIndex("users_name_idx", "last_name", "first_name");
+		assertSame(table, index.getTable());
+		assertEquals(Collections.singletonList("CREATE INDEX users_name_idx ON users (last_name, first_name)"), lastCreate().createSql(node.getAdapter()));
+		assertEquals("users", db.tableOf(lastCreate()));
+	}
+	
+	public void testPostgres() {
+		db.alterTable("users").addIndex("users_email_idx").expression("lower(email)").unique().include("id").where("deleted = false");
+		assertEquals("CREATE UNIQUE INDEX users_email_idx ON users ((lower(email))) INCLUDE (id) WHERE deleted = false", lastCreate().createSql(DbFamily.POSTGRES));
+		
+		db.alterTable("users").addIndex("users_tags_idx", "tags").using(IndexMethod.GIN);
+		assertEquals("CREATE INDEX users_tags_idx ON users USING gin (tags)", lastCreate().createSql(DbFamily.POSTGRES));
+	}
+	
+	public void testDegradesOnOtherDatabases() {
+		db.alterTable("users").addIndex("users_name_idx", "last_name").include("first_name").where("deleted = false").using(IndexMethod.BRIN);
+		assertEquals("CREATE INDEX users_name_idx ON users (last_name, first_name)", lastCreate().createSql(DbFamily.MYSQL));
+		assertEquals("CREATE INDEX users_name_idx ON users (last_name) INCLUDE (first_name) WHERE deleted = false", lastCreate().createSql(DbFamily.SQLSERVER));
+		
+		db.alterTable("users").addIndex("users_id_idx", "id").using(IndexMethod.HASH);
+		assertEquals("CREATE INDEX users_id_idx ON users (id) USING HASH", lastCreate().createSql(DbFamily.MYSQL));
+		assertEquals("CREATE INDEX users_id_idx ON users (id)", lastCreate().createSql(DbFamily.H2));
+	}
+	
+	public void testUnsupported() {
+		db.alterTable("users").addIndex("users_email_idx").expression("lower(email)");
+		try {
+			lastCreate().createSql(DbFamily.DERBY);
+			fail();
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+		
+		db.alterTable("users").addIndex("users_email_idx", "email").unique().where("deleted = false");
+		try {
+			lastCreate().createSql(DbFamily.MYSQL);
+			fail();
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+	}
+	
+	public void testDropIndex() {
+		db.alterTable("app.users").dropIndex("users_name_idx");
+		DropIndexToDb drop = (DropIndexToDb) db.getOperations().get(0);
+		assertEquals("DROP INDEX app.users_name_idx", drop.createSql(DbFamily.POSTGRES));
+		assertEquals("DROP INDEX users_name_idx ON app.users", drop.createSql(DbFamily.MYSQL));
+	}
+	
+}
@@ -0,0 +1,185 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+import org.apache.cayenne.access.DataNode;
+import org.apache.cayenne.access.types.DefaultValueObjectTypeRegistry;
+import org.apache.cayenne.configuration.DefaultRuntimeProperties;
+import org.apache.cayenne.configuration.RuntimeProperties;
+import org.apache.cayenne.dba.postgres.PostgresAdapter;
+import org.apache.cayenne.di.spi.DefaultClassLoaderManager;
+import org.apache.cayenne.resource.ClassLoaderResourceLocator;
+
+public class MigrationPlanTest extends TestCase {
+
+    private DataNode node;
+    
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        node = new DataNode("node");
+        
+        RuntimeProperties props = new DefaultRuntimeProperties(Collections.EMPTY_MAP);
+        ClassLoaderResourceLocator resourceLocator = new ClassLoaderResourceLocator(new DefaultClassLoaderManager());
+        PostgresAdapter adapter = new PostgresAdapter(props, Collections.EMPTY_LIST, Collections.EMPTY_LIST, Collections.EMPTY_LIST, resourceLocator, new DefaultValueObjectTypeRegistry(Collections.emptyList()));
+        node.setAdapter(adapter);
+    }
+    
+    public void testResourceName() {
+        assertEquals("MyMap0-MicrosoftSQLServer.plan", MigrationPlan.resourceName(MyMap0.class, "Microsoft SQL Server"));
+    }
+    
+    public void testWriteAndRead() throws IOException {
+        MigrationPlan plan = new MigrationPlan(PostgresAdapter.class.getName(), "abc123", "NOT_VALID_CONSTRAINTS",
+                Arrays.asList("CREATE TABLE x (id INTEGER)", "CREATE FUNCTION f() RETURNS void AS $$\nBEGIN\n  UPDATE x SET id = 1;\nEND;\n$$ LANGUAGE plpgsql"));
+        StringWriter writer = new StringWriter();
+        plan.write(writer);
+        
+        MigrationPlan read = MigrationPlan.read(new StringReader(writer.toString()));
+        assertEquals(PostgresAdapter.class.getName(), read.getAdapterClass());
+        assertEquals("abc123", read.getFingerprint());
+        assertEquals(plan.getStatements(), read.getStatements());
+        assertTrue(read.matches(PostgresAdapter.class.getName(), "abc123", "NOT_VALID_CONSTRAINTS"));
+        assertFalse(read.matches(PostgresAdapter.class.getName(), "def456", "NOT_VALID_CONSTRAINTS"));
+        assertFalse(read.matches(PostgresAdapter.class.getName(), "abc123", "ADD_COLUMN_WITH_DEFAULT,NOT_VALID_CONSTRAINTS"));
+    }
+    
+    public void testPlanWithoutCapabilitiesNeverMatches() throws IOException {
+        MigrationPlan read = MigrationPlan.read(new StringReader("-- adapter: " + PostgresAdapter.class.getName() + "\n-- fingerprint: abc123\n-- statement 1\nCREATE TABLE x (id INTEGER)\n"));
+        assertFalse(read.matches(PostgresAdapter.class.getName(), "abc123", ""));
+    }
+    
+    public void testReadRequiresHeader() {
+        try {
+            MigrationPlan.read(new StringReader("-- statement 1\nCREATE TABLE x (id INTEGER)\n"));
+            fail("A plan without an adapter and fingerprint should be rejected.");
+        } catch (IOException e) {}
+    }
+    
+    public void testFingerprint() throws IOException {
+        String fingerprint = MigrationPlan.fingerprint(new MyMap0(node));
+        assertEquals(64, fingerprint.length());
+        assertEquals(fingerprint, MigrationPlan.fingerprint(new MyMap0(node)));
+        assertFalse(fingerprint.equals(MigrationPlan.fingerprint(new MyMap0(node) {})));
+    }
+    
+    public void testFingerprintCoversNestedClasses() throws IOException {
+        // the anonymous subclass is nested in this test, so every other class nested in it is hashed too
+        Migration migration = new MyMap0(node) {};
+        assertEquals(MigrationPlan.fingerprint(migration), MigrationPlan.fingerprint(migration));
+        
+        Migration other = new MyMap0(node) {
+            @Override
+            public void upgrade(MigrationDatabase db) {
+                db.execute("UPDATE x SET y=2");
+            }
+        };
+        assertEquals(MigrationPlan.fingerprint(migration), MigrationPlan.fingerprint(other));
+    }
+    
+    public void testCompilerPlan() throws IOException {
+        Migration migration = new MyMap0(node) {
+            @Override
+            public void upgrade(MigrationDatabase db) {
+                db.execute("UPDATE x SET y=1");
+            }
+        };
+        
+        MigrationPlan plan = new MigrationPlanCompiler().plan(migration, "PostgreSQL", node.getAdapter());
+        assertEquals(Collections.singletonList("UPDATE x SET y=1"), plan.getStatements());
+        assertTrue(plan.matches(PostgresAdapter.class.getName(), MigrationPlan.fingerprint(migration), migration.getDatabase().supportedCapabilities()));
+        
+        // compiled without knowing the server version, so a server adding columns in one statement runs the migration
+        DbCapabilities live = new DbCapabilities(DbFamily.POSTGRES, 11, 0, Collections.<Capability, Boolean>emptyMap());
+        migration.getDatabase().setCapabilities(live);
+        assertFalse(plan.matches(PostgresAdapter.class.getName(), MigrationPlan.fingerprint(migration), migration.getDatabase().supportedCapabilities()));
+    }
+    
+    public void testCompilerServerVersion() throws IOException {
+        Migration migration = new MyMap0(node) {
+            @Override
+            public void upgrade(MigrationDatabase db) {
+                db.execute("UPDATE x SET y=1");
+            }
+        };
+        
+        DbCapabilities target = MigrationPlanCompiler.capabilities(node.getAdapter(), "12");
+        assertTrue(target.supports(Capability.NOT_NULL_FROM_CHECK));
+        MigrationPlan plan = new MigrationPlanCompiler().plan(migration, "PostgreSQL", node.getAdapter(), target);
+        
+        // a live server of a later minor version has the same capabilities
+        migration.getDatabase().setCapabilities(new DbCapabilities(DbFamily.POSTGRES, 12, 4, Collections.<Capability, Boolean>emptyMap()));
+        assertTrue(plan.matches(PostgresAdapter.class.getName(), MigrationPlan.fingerprint(migration), migration.getDatabase().supportedCapabilities()));
+        
+        try {
+            MigrationPlanCompiler.capabilities(node.getAdapter(), "twelve");
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+    
+    public void testCompilerPlansTypeChanges() throws IOException {
+        Migration migration = new MyMap0(node) {
+            @Override
+            public void upgrade(MigrationDatabase db) {
+                db.alterTable("artist").alterColumn("age").setDataType(Types.BIGINT);
+            }
+        };
+        
+        MigrationPlan plan = new MigrationPlanCompiler().plan(migration, "PostgreSQL", node.getAdapter());
+        assertNotNull(plan);
+        assertEquals(1, plan.getStatements().size());
+        assertTrue(plan.getStatements().get(0), plan.getStatements().get(0).startsWith("ALTER TABLE artist ALTER COLUMN age TYPE"));
+    }
+    
+    public void testCompilerSkipsMaintenance() throws IOException {
+        Migration migration = new MyMap0(node) {
+            @Override
+            public void upgrade(MigrationDatabase db) {
+                db.setMaintenance();
+                db.execute("UPDATE x SET y=1");
+            }
+        };
+        
+        assertNull(new MigrationPlanCompiler().plan(migration, "PostgreSQL", node.getAdapter()));
+    }
+    
+    public void testCompilerSkipsRowTransformations() throws IOException {
+        Migration migration = new MyMap0(node) {
+            @Override
+            public void upgrade(MigrationDatabase db) {
+                db.transformRows("SELECT id FROM x", "UPDATE x SET z=? WHERE id=?", null);
+            }
+        };
+        
+        assertNull(new MigrationPlanCompiler().plan(migration, "PostgreSQL", node.getAdapter()));
+    }
+    
+}
@@ -0,0 +1,119 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.sql.Types;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+import org.apache.cayenne.access.DataNode;
+import org.apache.cayenne.access.types.DefaultValueObjectTypeRegistry;
+import org.apache.cayenne.configuration.DefaultRuntimeProperties;
+import org.apache.cayenne.configuration.RuntimeProperties;
+import org.apache.cayenne.dba.mysql.MySQLAdapter;
+import org.apache.cayenne.dba.postgres.PostgresAdapter;
+import org.apache.cayenne.di.spi.DefaultClassLoaderManager;
+import org.apache.cayenne.resource.ClassLoaderResourceLocator;
+
+public class MigrationSequenceTest extends TestCase {
+
+    private DataNode node;
+    private MigrationDatabase db;
+    
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        node = new DataNode("node");
+        
+        RuntimeProperties props = new DefaultRuntimeProperties(Collections.EMPTY_MAP);
+        ClassLoaderResourceLocator resourceLocator = new ClassLoaderResourceLocator(new DefaultClassLoaderManager());
+        PostgresAdapter adapter = new PostgresAdapter(props, Collections.EMPTY_LIST, Collections.EMPTY_LIST, Collections.EMPTY_LIST, resourceLocator, new DefaultValueObjectTypeRegistry(Collections.emptyList()));
+        node.setAdapter(adapter);
+        
+        db = new MigrationDatabase(node);
+    }
+    
+    private SequenceToDb operation(int index) {
+        return (SequenceToDb) db.getOperations().get(index);
+    }
+
+	public void testCreateSequence() {
+		db.createSequence("order_seq").startWith(1000).incrementBy(50).cache(100);
+		assertEquals(Collections.singletonList("CREATE SEQUENCE order_seq START WITH 1000 INCREMENT BY 50 CACHE 100"), operation(0).createSql(node.getAdapter()));
+		assertEquals("CREATE SEQUENCE order_seq AS BIGINT START WITH 1000 INCREMENT BY 50 CACHE 100", operation(0).createSql(DbFamily.SQLSERVER));
+		assertEquals("CREATE SEQUENCE order_seq START WITH 1000 INCREMENT BY 50", operation(0).createSql(DbFamily.DERBY));
+		try {
+			operation(0).createSql(DbFamily.MYSQL);
+			fail();
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+	}
+	
+	public void testAlterAndDropSequence() {
+		db.alterSequence("order_seq").cache(500);
+		db.alterSequence("order_seq");
+		db.dropSequence("order_seq");
+		assertEquals("ALTER SEQUENCE order_seq CACHE 500", operation(0).createSql(DbFamily.POSTGRES));
+		assertTrue(operation(1).createSql(node.getAdapter()).isEmpty());
+		assertEquals("DROP SEQUENCE order_seq", operation(2).createSql(DbFamily.POSTGRES));
+		
+		db.alterSequence("order_seq").startWith(1);
+		assertEquals("ALTER SEQUENCE order_seq RESTART WITH 1", operation(3).createSql(DbFamily.POSTGRES));
+	}
+	
+	public void testIdentityColumn() {
+		MigrationTableNew table = db.createTable("orders");
+		MigrationColumnNew id = table.addIdentityColumn("id", Types.BIGINT);
+		assertTrue(id.getAttribute().isGenerated());
+		assertTrue(id.getAttribute().isMandatory());
+		
+	}
+	
+	public void testIdentityColumnOfExistingTable() {
+		// one statement numbers the existing rows; a backfill or a separate NOT NULL would fail on a table with rows
+		db.alterTable("invoice").addIdentityColumn("id", Types.BIGINT);
+		assertEquals(1, db.getOperations().size());
+		assertEquals("ALTER TABLE invoice ADD COLUMN id bigint GENERATED BY DEFAULT AS IDENTITY", db.getOperations().get(0).getTokenValue());
+		
+		RuntimeProperties props = new DefaultRuntimeProperties(Collections.EMPTY_MAP);
+		ClassLoaderResourceLocator resourceLocator = new ClassLoaderResourceLocator(new DefaultClassLoaderManager());
+		DataNode mysqlNode = new DataNode("mysql");
+		mysqlNode.setAdapter(new MySQLAdapter(props, Collections.EMPTY_LIST, Collections.EMPTY_LIST, Collections.EMPTY_LIST, resourceLocator, new DefaultValueObjectTypeRegistry(Collections.emptyList())));
+		MigrationDatabase mysql = new MigrationDatabase(mysqlNode);
+		mysql.alterTable("invoice").addIdentityColumn("id", Types.BIGINT);
+		assertEquals("ALTER TABLE invoice ADD COLUMN id BIGINT NOT NULL AUTO_INCREMENT, ADD UNIQUE KEY (id)", mysql.getOperations().get(0).getTokenValue());
+	}
+	
+	public void testTimeOrderedUuidDefault() {
+		MigrationColumnNew column = db.createTable("orders").addColumn("uuid", Types.OTHER, true, ColumnDefault.timeOrderedUuid());
+		assertTrue(column.sqlForLiteral(column.getDefaultValue()).contains("gen_random_uuid()"));
+		assertFalse(ColumnDefault.timeOrderedUuid().sql(DbFamily.SQLSERVER).contains("NEWSEQUENTIALID()"));
+		assertEquals("now()", column.sqlForLiteral(ColumnDefault.expression("now()")));
+		try {
+			ColumnDefault.timeOrderedUuid().sql(DbFamily.ORACLE);
+			fail();
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+	}
+	
+}
@@ -20,6 +20,7 @@ package org.apache.cayenne.migration;
 
 import java.sql.Types;
 import java.util.Collections;
+import java.util.List;
 
 import junit.framework.TestCase;
 
@@ -33,7 +34,6 @@ import org.apache.cayenne.dbsync.merge.token.db.CreateTableToDb;
 import org.apache.cayenne.dbsync.merge.token.db.SetValueForNullToDb;
 import org.apache.cayenne.di.spi.DefaultClassLoaderManager;
 import org.apache.cayenne.map.DbAttribute;
-import org.apache.cayenne.merge.ArbitrarySqlToDb;
 import org.apache.cayenne.resource.ClassLoaderResourceLocator;
 
 public class MigrationTableNewTest extends TestCase {
@@ -122,7 +122,7 @@ public class MigrationTableNewTest extends TestCase {
         
         assertEquals(3, table.getDatabase().getOperations().size());
         assertTrue(table.getDatabase().getOperations().get(0) instanceof CreateTableToDb);
-        assertTrue(table.getDatabase().getOperations().get(1) instanceof ArbitrarySqlToDb);
+        assertTrue(table.getDatabase().getOperations().get(1) instanceof CreateIndexToDb);
         assertTrue(table.getDatabase().getOperations().get(2) instanceof AddRelationshipToDb);
 
         // FIXME getRelationship() does no longer exist on AddRelationshipToDb
@@ -133,4 +133,33 @@ public class MigrationTableNewTest extends TestCase {
 //        assertEquals("pk", relationship.getJoins().get(0).getTarget().getName());
     }
 
+    public void testPartitionBy() {
+        MigrationTableNew table = db.createTable("events");
+        table.addTimestampColumn("created");
+        table.partitionBy(PartitionType.RANGE, "created");
+        table.addPartition("events_p202601", PartitionBounds.range("2026-01-01", "2026-02-01"));
+        
+        assertEquals(2, db.getOperations().size());
+        assertTrue(db.getOperations().get(0) instanceof CreatePartitionedTableToDb);
+        assertSame(table.getCreateOperation(), db.getOperations().get(0));
+        
+        List<String> create = ((CreatePartitionedTableToDb) db.getOperations().get(0)).createSql(node.getAdapter());
+        assertTrue(create.get(create.size() - 1).endsWith(" PARTITION BY RANGE (created)"));
+        assertEquals(Collections.singletonList("CREATE TABLE events_p202601 PARTITION OF events FOR VALUES FROM ('2026-01-01') TO ('2026-02-01')"),
+                ((PartitionToDb) db.getOperations().get(1)).createSql(node.getAdapter()));
+        
+        CreatePartitionedTableToDb partitioned = (CreatePartitionedTableToDb) db.getOperations().get(0);
+        assertEquals(" PARTITION BY RANGE COLUMNS(created) (PARTITION events_p202601 VALUES LESS THAN ('2026-02-01'))", partitioned.partitionClause(DbFamily.MYSQL));
+    }
+    
+    public void testAddPartitionRequiresPartitionBy() {
+        MigrationTableNew table = db.createTable("events");
+        try {
+            table.addPartition("events_p1", PartitionBounds.list(1));
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
 }
@@ -0,0 +1,79 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+import org.apache.cayenne.access.DataNode;
+import org.apache.cayenne.access.types.DefaultValueObjectTypeRegistry;
+import org.apache.cayenne.configuration.DefaultRuntimeProperties;
+import org.apache.cayenne.configuration.RuntimeProperties;
+import org.apache.cayenne.dba.mysql.MySQLAdapter;
+import org.apache.cayenne.dba.postgres.PostgresAdapter;
+import org.apache.cayenne.di.spi.DefaultClassLoaderManager;
+import org.apache.cayenne.map.DataMap;
+import org.apache.cayenne.resource.ClassLoaderResourceLocator;
+
+public class MigrationTemplateTest extends TestCase {
+
+    private DataNode node;
+    
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        node = new DataNode("node");
+        
+        RuntimeProperties props = new DefaultRuntimeProperties(Collections.EMPTY_MAP);
+        ClassLoaderResourceLocator resourceLocator = new ClassLoaderResourceLocator(new DefaultClassLoaderManager());
+        PostgresAdapter adapter = new PostgresAdapter(props, Collections.EMPTY_LIST, Collections.EMPTY_LIST, Collections.EMPTY_LIST, resourceLocator, new DefaultValueObjectTypeRegistry(Collections.emptyList()));
+        node.setAdapter(adapter);
+        node.addDataMap(new DataMap("MyMap"));
+    }
+    
+    public void testKey() {
+        MigrationTemplate template = new MigrationTemplate(node, getClass().getPackage().getName(), new File("target"));
+        String key = template.key("PostgreSQL");
+        assertEquals(64, key.length());
+        assertEquals(key, template.key("PostgreSQL"));
+        assertEquals(new File("target", key + ".sql"), template.scriptFile(key));
+        
+        // the key changes along with the migrations
+        MigrationTemplate otherPackage = new MigrationTemplate(node, "org.example.none", new File("target"));
+        assertFalse(key.equals(otherPackage.key("PostgreSQL")));
+    }
+    
+    public void testCreateDatabaseFromTemplateRequiresPostgres() throws SQLException {
+        DataNode mysqlNode = new DataNode("mysql");
+        RuntimeProperties props = new DefaultRuntimeProperties(Collections.EMPTY_MAP);
+        ClassLoaderResourceLocator resourceLocator = new ClassLoaderResourceLocator(new DefaultClassLoaderManager());
+        mysqlNode.setAdapter(new MySQLAdapter(props, Collections.EMPTY_LIST, Collections.EMPTY_LIST, Collections.EMPTY_LIST, resourceLocator, new DefaultValueObjectTypeRegistry(Collections.emptyList())));
+        
+        MigrationTemplate template = new MigrationTemplate(mysqlNode, getClass().getPackage().getName(), new File("target"));
+        try {
+            template.provision(null, "tenant1");
+            fail("Only PostgreSQL can create a database from a template.");
+        } catch (MigrationValidationException e) {}
+    }
+    
+}
@@ -86,5 +86,30 @@ public class MigrationTest extends TestCase {
         ArbitrarySqlToDb operation = (ArbitrarySqlToDb) migration.getDatabase().getOperations().get(0);
         assertEquals("UPDATE x SET y=1;", operation.getTokenValue());
     }
+	
+	public void testContractPhase() {
+	    MyMigration migration = new MyMigration(node);
+	    assertFalse(migration.hasContract());
+	    
+	    Migration phased = new MyMigration(node) {
+	        @Override
+	        public void upgrade(MigrationDatabase db) {
+	            db.alterTable("Artist").addVarcharColumn("full_name", 100);
+	        }
+	        @Override
+	        public void contract(MigrationDatabase db) {
+	            db.alterTable("Artist").dropColumn("name");
+	        }
+	    };
+	    assertTrue(phased.hasContract());
+	    
+	    phased.run(MigrationPhase.EXPAND);
+	    assertEquals(1, phased.getDatabase().getOperations().size());
+	    assertTrue(phased.getDatabase(MigrationPhase.CONTRACT).getOperations().isEmpty());
+	    
+	    phased.run(MigrationPhase.CONTRACT);
+	    assertEquals(1, phased.getDatabase(MigrationPhase.CONTRACT).getOperations().size());
+	    assertEquals(1, phased.getDatabase().getOperations().size());
+	}
 
 }
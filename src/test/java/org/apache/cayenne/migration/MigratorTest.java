@@ -18,7 +18,19 @@
  ****************************************************************/
 package org.apache.cayenne.migration;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import javax.sql.DataSource;
 
 import junit.framework.TestCase;
 
@@ -26,8 +38,10 @@ import org.apache.cayenne.access.DataNode;
 import org.apache.cayenne.access.types.DefaultValueObjectTypeRegistry;
 import org.apache.cayenne.configuration.DefaultRuntimeProperties;
 import org.apache.cayenne.configuration.RuntimeProperties;
+import org.apache.cayenne.dba.mysql.MySQLAdapter;
 import org.apache.cayenne.dba.postgres.PostgresAdapter;
 import org.apache.cayenne.di.spi.DefaultClassLoaderManager;
+import org.apache.cayenne.log.NoopJdbcEventLogger;
 import org.apache.cayenne.map.DataMap;
 import org.apache.cayenne.resource.ClassLoaderResourceLocator;
 
@@ -61,6 +75,145 @@ public class MigratorTest extends TestCase {
     public void testSomething() {
     }
     
+    public void testCopyForSchema() {
+        Migrator migrator = new Migrator(node, getClass().getPackage().getName());
+        migrator.setTransactionGroupSize(10);
+        DataMap map = node.getDataMap("MyMap");
+        assertEquals("dbupdater", migrator.migrationTableName(map));
+        
+        Migrator tenant = migrator.copy("tenant1");
+        assertEquals("tenant1", tenant.getSchema());
+        assertEquals(10, tenant.getTransactionGroupSize());
+        assertEquals("tenant1.dbupdater", tenant.migrationTableName(map));
+        assertEquals("tenant1.dbupdater_history", tenant.migrationHistoryTableName(map));
+        
+        // the schema of the copy takes precedence over the default schema of the map
+        map.setDefaultSchema("public");
+        assertEquals("public.dbupdater", migrator.migrationTableName(map));
+        assertEquals("tenant1.dbupdater", tenant.migrationTableName(map));
+    }
+    
+    public void testTransactionGroupSize() {
+        Migrator migrator = new Migrator(node, getClass().getPackage().getName());
+        assertEquals(1, migrator.getTransactionGroupSize());
+        assertFalse(migrator.isTransactionGrouping());
+        
+        migrator.setTransactionGroupSize(50);
+        assertTrue(migrator.isTransactionGrouping());
+        
+        try {
+            migrator.setTransactionGroupSize(0);
+            fail("A group size of zero should not be allowed.");
+        } catch (IllegalArgumentException e) {}
+    }
+    
+    public void testPreparationThreads() {
+        Migrator migrator = new Migrator(node, getClass().getPackage().getName());
+        assertEquals(Runtime.getRuntime().availableProcessors(), migrator.getPreparationThreads());
+        
+        migrator.setPreparationThreads(1);
+        assertEquals(1, migrator.copy("tenant1").getPreparationThreads());
+        
+        try {
+            migrator.setPreparationThreads(0);
+            fail("Zero preparation threads should not be allowed.");
+        } catch (IllegalArgumentException e) {}
+    }
+    
+    public void testContractKey() {
+        Migrator migrator = new Migrator(node, getClass().getPackage().getName());
+        assertEquals("MyMap#contract", migrator.contractKey(node.getDataMap("MyMap")));
+    }
+    
+    public void testContractKeyFitsDataMapColumn() {
+        Migrator migrator = new Migrator(node, getClass().getPackage().getName());
+        StringBuilder name = new StringBuilder();
+        while (name.length() < Migrator.DATA_MAP_LENGTH - "#contract".length()) {
+            name.append('m');
+        }
+        assertEquals(Migrator.DATA_MAP_LENGTH, migrator.contractKey(new DataMap(name.toString())).length());
+        try {
+            migrator.contractKey(new DataMap(name.append('m').toString()));
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+    
+    public void testLockPollInterval() {
+        Migrator migrator = new Migrator(node, getClass().getPackage().getName());
+        assertEquals(2000, migrator.getLockPollInterval());
+        
+        migrator.setLockPollInterval(250);
+        assertEquals(250, migrator.copy("tenant1").getLockPollInterval());
+        
+        try {
+            migrator.setLockPollInterval(0);
+            fail("A poll interval of zero should not be allowed.");
+        } catch (IllegalArgumentException e) {}
+    }
+    
+    public void testMigrateToLatestAsyncFailure() throws InterruptedException {
+        // the node has no data source, so the migration fails once it runs
+        Migrator migrator = new Migrator(node, getClass().getPackage().getName());
+        CompletableFuture<Map<String, Integer>> future = migrator.migrateToLatestAsync(Runnable::run);
+        assertTrue(future.isCompletedExceptionally());
+        try {
+            future.get();
+            fail("The failure should be reported through the future.");
+        } catch (ExecutionException e) {}
+    }
+    
+    public void testRetrySavepointIsReleased() throws Exception {
+        List<String> calls = new ArrayList<String>();
+        node.setJdbcEventLogger(NoopJdbcEventLogger.getInstance());
+        node.setDataSource(recording(DataSource.class, calls));
+        Migrator migrator = new Migrator(node, getClass().getPackage().getName());
+        migrator.setLockTimeoutPolicy(new LockTimeoutPolicy(1000, 3, 100, 1000));
+        
+        migrator.executeSqlWithRetry("ALTER TABLE artist ADD COLUMN name VARCHAR(100)");
+        assertTrue(calls.toString(), calls.indexOf("setSavepoint") < calls.indexOf("execute"));
+        assertTrue(calls.toString(), calls.indexOf("execute") < calls.indexOf("releaseSavepoint"));
+    }
+    
+    /**
+     * Creates a JDBC object that records the names of the methods called on it.
+     */
+    private <T> T recording(final Class<T> type, final List<String> calls) {
+        InvocationHandler handler = (proxy, method, args) -> {
+            calls.add(method.getName());
+            switch (method.getName()) {
+                case "getConnection":
+                    return recording(Connection.class, calls);
+                case "createStatement":
+                    return recording(Statement.class, calls);
+                case "setSavepoint":
+                    return recording(Savepoint.class, calls);
+                case "getAutoCommit":
+                case "execute":
+                    return false;
+                case "getUpdateCount":
+                    return 0;
+                case "toString":
+                    return type.getSimpleName();
+                default:
+                    return null;
+            }
+        };
+        return type.cast(Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { type }, handler));
+    }
+    
+    public void testTransactionGroupingRequiresTransactionalDdl() {
+        DataNode mysqlNode = new DataNode("mysql");
+        RuntimeProperties props = new DefaultRuntimeProperties(Collections.EMPTY_MAP);
+        ClassLoaderResourceLocator resourceLocator = new ClassLoaderResourceLocator(new DefaultClassLoaderManager());
+        mysqlNode.setAdapter(new MySQLAdapter(props, Collections.EMPTY_LIST, Collections.EMPTY_LIST, Collections.EMPTY_LIST, resourceLocator, new DefaultValueObjectTypeRegistry(Collections.emptyList())));
+        
+        Migrator migrator = new Migrator(mysqlNode, getClass().getPackage().getName());
+        migrator.setTransactionGroupSize(50);
+        assertFalse(migrator.isTransactionGrouping());
+    }
+    
 //    
 //    public void testCreateMigrationClassForVersion() {
 //        Migrator migrator = new Migrator(node, getClass().getPackage().getName());
@@ -0,0 +1,104 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.cayenne.access.DataNode;
+import org.apache.cayenne.access.types.DefaultValueObjectTypeRegistry;
+import org.apache.cayenne.configuration.DefaultRuntimeProperties;
+import org.apache.cayenne.configuration.RuntimeProperties;
+import org.apache.cayenne.dba.postgres.PostgresAdapter;
+import org.apache.cayenne.di.spi.DefaultClassLoaderManager;
+import org.apache.cayenne.resource.ClassLoaderResourceLocator;
+
+public class ParallelOperationExecutorTest extends TestCase {
+
+    private DataNode node;
+    private MigrationDatabase db;
+    
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        node = new DataNode("node");
+        
+        RuntimeProperties props = new DefaultRuntimeProperties(Collections.EMPTY_MAP);
+        ClassLoaderResourceLocator resourceLocator = new ClassLoaderResourceLocator(new DefaultClassLoaderManager());
+        PostgresAdapter adapter = new PostgresAdapter(props, Collections.EMPTY_LIST, Collections.EMPTY_LIST, Collections.EMPTY_LIST, resourceLocator, new DefaultValueObjectTypeRegistry(Collections.emptyList()));
+        node.setAdapter(adapter);
+        
+        db = new MigrationDatabase(node);
+    }
+    
+    public void testDependencies() {
+        db.createTable("Artist");
+        MigrationTableNew painting = db.createTable("Painting");
+        db.alterTable("Gallery").addIntegerColumn("size");
+        painting.addForeignKey("artist_id", "Artist", "id");
+        db.execute("UPDATE Gallery SET size = 1");
+        db.createTable("Exhibit");
+        db.alterTable("Gallery").addIntegerColumn("rooms");
+        
+        List<List<Integer>> dependencies = ParallelOperationExecutor.dependencies(db.getOperations(), db);
+        assertEquals(7, dependencies.size());
+        assertEquals(Collections.emptyList(), dependencies.get(0));
+        assertEquals(Collections.emptyList(), dependencies.get(1));
+        assertEquals(Collections.emptyList(), dependencies.get(2));
+        // the foreign key waits for its table and for the table it refers to
+        assertEquals(Arrays.asList(1, 0), dependencies.get(3));
+        // arbitrary SQL waits for everything before it, and everything after it waits for it
+        assertEquals(Arrays.asList(0, 1, 2, 3), dependencies.get(4));
+        assertEquals(Arrays.asList(4), dependencies.get(5));
+        assertEquals(Arrays.asList(4), dependencies.get(6));
+    }
+    
+    public void testRenderedOperationsKeepTheirTable() {
+        Migration migration = new Migration(node) {
+            @Override
+            public void upgrade(MigrationDatabase database) {
+                database.alterTable("Artist").addIntegerColumn("age");
+                database.alterTable("Gallery").addIntegerColumn("size");
+                database.alterTable("Gallery").addIntegerColumn("rooms");
+            }
+        };
+        
+        PreparedMigration prepared = PreparedMigration.prepare(0, migration, "PostgreSQL", node.getAdapter());
+        List<List<Integer>> dependencies = ParallelOperationExecutor.dependencies(prepared.getOperations(), migration.getDatabase());
+        assertEquals(3, dependencies.size());
+        assertEquals(Collections.emptyList(), dependencies.get(0));
+        assertEquals(Collections.emptyList(), dependencies.get(1));
+        assertEquals(Arrays.asList(1), dependencies.get(2));
+    }
+    
+    public void testParallelConnectionsDisableGrouping() {
+        Migrator migrator = new Migrator(node, getClass().getPackage().getName());
+        migrator.setTransactionGroupSize(10);
+        assertTrue(migrator.isTransactionGrouping());
+        
+        migrator.setParallelConnections(4);
+        assertFalse(migrator.isTransactionGrouping());
+        assertEquals(4, migrator.copy(null).getParallelConnections());
+    }
+    
+}
@@ -0,0 +1,64 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+import junit.framework.TestCase;
+
+public class PartitionBoundsTest extends TestCase {
+
+	public void testRange() {
+		PartitionBounds bounds = PartitionBounds.range(LocalDate.of(2026, 1, 1), LocalDate.of(2026, 2, 1));
+		assertEquals(PartitionType.RANGE, bounds.getType());
+		assertEquals("FOR VALUES FROM ('2026-01-01') TO ('2026-02-01')", bounds.postgresSql());
+		assertEquals("PARTITION p1 VALUES LESS THAN ('2026-02-01')", bounds.mysqlSql("p1"));
+	}
+	
+	public void testList() {
+		PartitionBounds bounds = PartitionBounds.list("US", "O'Brien");
+		assertEquals("FOR VALUES IN ('US', 'O''Brien')", bounds.postgresSql());
+		assertEquals("PARTITION p1 VALUES IN ('US', 'O''Brien')", bounds.mysqlSql("p1"));
+		
+		try {
+			PartitionBounds.list();
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+	
+	public void testHash() {
+		assertEquals("FOR VALUES WITH (MODULUS 4, REMAINDER 3)", PartitionBounds.hash(4, 3).postgresSql());
+		try {
+			PartitionBounds.hash(4, 4);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+	
+	public void testLiteral() {
+		assertEquals("null", PartitionBounds.literal(null));
+		assertEquals("10", PartitionBounds.literal(10));
+		assertEquals("1000000000000", PartitionBounds.literal(new BigDecimal("1E+12")));
+	}
+	
+}
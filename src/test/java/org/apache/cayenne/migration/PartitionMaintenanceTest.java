@@ -0,0 +1,80 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.cayenne.access.DataNode;
+import org.apache.cayenne.access.types.DefaultValueObjectTypeRegistry;
+import org.apache.cayenne.configuration.DefaultRuntimeProperties;
+import org.apache.cayenne.configuration.RuntimeProperties;
+import org.apache.cayenne.dba.postgres.PostgresAdapter;
+import org.apache.cayenne.di.spi.DefaultClassLoaderManager;
+import org.apache.cayenne.resource.ClassLoaderResourceLocator;
+
+public class PartitionMaintenanceTest extends TestCase {
+
+    private DataNode node;
+    
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        node = new DataNode("node");
+        
+        RuntimeProperties props = new DefaultRuntimeProperties(Collections.EMPTY_MAP);
+        ClassLoaderResourceLocator resourceLocator = new ClassLoaderResourceLocator(new DefaultClassLoaderManager());
+        PostgresAdapter adapter = new PostgresAdapter(props, Collections.EMPTY_LIST, Collections.EMPTY_LIST, Collections.EMPTY_LIST, resourceLocator, new DefaultValueObjectTypeRegistry(Collections.emptyList()));
+        node.setAdapter(adapter);
+    }
+
+	public void testMonthly() {
+		PartitionMaintenance maintenance = PartitionMaintenance.monthly("public.events", 2);
+		List<PartitionToDb> partitions = maintenance.partitions(LocalDate.of(2026, 11, 15), new MigrationDatabase(node));
+		
+		assertEquals(3, partitions.size());
+		assertEquals("events_p202611", partitions.get(0).getPartition());
+		assertEquals("events_p202612", partitions.get(1).getPartition());
+		assertEquals("events_p202701", partitions.get(2).getPartition());
+		assertEquals(Collections.singletonList("CREATE TABLE events_p202701 PARTITION OF public.events FOR VALUES FROM ('2027-01-01') TO ('2027-02-01')"),
+				partitions.get(2).createSql(node.getAdapter()));
+	}
+	
+	public void testDailyAndYearly() {
+		PartitionMaintenance daily = PartitionMaintenance.daily("events", 0);
+		assertEquals(LocalDate.of(2026, 3, 7), daily.periodStart(LocalDate.of(2026, 3, 7)));
+		assertEquals("events_p20260307", daily.partitionName(LocalDate.of(2026, 3, 7)));
+		
+		PartitionMaintenance yearly = PartitionMaintenance.yearly("events", 1);
+		assertEquals(LocalDate.of(2026, 1, 1), yearly.periodStart(LocalDate.of(2026, 3, 7)));
+		assertEquals("events_p2026", yearly.partitionName(LocalDate.of(2026, 1, 1)));
+	}
+	
+	public void testMigratorRegistration() {
+		Migrator migrator = new Migrator(node, "org.apache.cayenne.migration");
+		migrator.addPartitionMaintenance(PartitionMaintenance.monthly("events", 3));
+		assertEquals(1, migrator.getPartitionMaintenance().size());
+		assertEquals(1, migrator.copy("other").getPartitionMaintenance().size());
+	}
+	
+}
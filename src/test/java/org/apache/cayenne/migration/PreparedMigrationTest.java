@@ -0,0 +1,170 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+import org.apache.cayenne.access.DataNode;
+import org.apache.cayenne.access.types.DefaultValueObjectTypeRegistry;
+import org.apache.cayenne.configuration.DefaultRuntimeProperties;
+import org.apache.cayenne.configuration.RuntimeProperties;
+import org.apache.cayenne.dba.mysql.MySQLAdapter;
+import org.apache.cayenne.dba.postgres.PostgresAdapter;
+import org.apache.cayenne.di.spi.DefaultClassLoaderManager;
+import org.apache.cayenne.map.DataMap;
+import org.apache.cayenne.resource.ClassLoaderResourceLocator;
+
+public class PreparedMigrationTest extends TestCase {
+
+    private DataNode node;
+    private DataNode mysqlNode;
+    
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        node = new DataNode("node");
+        
+        RuntimeProperties props = new DefaultRuntimeProperties(Collections.EMPTY_MAP);
+        ClassLoaderResourceLocator resourceLocator = new ClassLoaderResourceLocator(new DefaultClassLoaderManager());
+        PostgresAdapter adapter = new PostgresAdapter(props, Collections.EMPTY_LIST, Collections.EMPTY_LIST, Collections.EMPTY_LIST, resourceLocator, new DefaultValueObjectTypeRegistry(Collections.emptyList()));
+        node.setAdapter(adapter);
+        
+        mysqlNode = new DataNode("mysql");
+        mysqlNode.setAdapter(new MySQLAdapter(props, Collections.EMPTY_LIST, Collections.EMPTY_LIST, Collections.EMPTY_LIST, resourceLocator, new DefaultValueObjectTypeRegistry(Collections.emptyList())));
+    }
+    
+    public void testPrepare() {
+        Migration migration = new Migration(node) {
+            @Override
+            public void upgrade(MigrationDatabase db) {
+                db.execute("UPDATE x SET y=1");
+                db.transformRows("SELECT id FROM x", "UPDATE x SET z=? WHERE id=?", new RowTransformer() {
+                    @Override
+                    public boolean transform(ResultSet row, PreparedStatement update) {
+                        return false;
+                    }
+                });
+                db.execute("UPDATE x SET y=2");
+            }
+        };
+        
+        PreparedMigration prepared = PreparedMigration.prepare(3, migration, "PostgreSQL", node.getAdapter());
+        assertEquals(3, prepared.getVersion());
+        assertSame(migration, prepared.getMigration());
+        assertEquals("PostgreSQL", migration.getDatabase().getDatabaseProductName());
+        
+        assertEquals(3, prepared.getOperations().size());
+        assertTrue(prepared.getOperations().get(0) instanceof RenderedSqlToDb);
+        assertEquals("UPDATE x SET y=1", prepared.getOperations().get(0).getTokenValue());
+        assertSame(migration.getDatabase().getOperations().get(0), ((RenderedSqlToDb) prepared.getOperations().get(0)).getSource());
+        // direct operations are executed as they are
+        assertSame(migration.getDatabase().getOperations().get(1), prepared.getOperations().get(1));
+        assertEquals("UPDATE x SET y=2", prepared.getOperations().get(2).getTokenValue());
+    }
+    
+    public void testPrepareFailureIdentifiesVersion() {
+        Migration migration = new Migration(node) {
+            @Override
+            public void upgrade(MigrationDatabase db) {
+                throw new IllegalStateException("broken");
+            }
+        };
+        
+        Migrator migrator = new Migrator(node, getClass().getPackage().getName());
+        try {
+            migrator.prepareMigration(new DataMap("MyMap"), 7, migration, "PostgreSQL");
+            fail("The failure of the upgrade method should be reported.");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("version=7"));
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+    
+    public void testUnsupportedFeatureIsRejected() {
+        Migration migration = new Migration(mysqlNode) {
+            @Override
+            public void upgrade(MigrationDatabase db) {
+                db.execute("UPDATE x SET y=1");
+                db.alterTable("events").detachPartition("events_p1");
+            }
+        };
+        
+        try {
+            PreparedMigration.prepare(3, migration, "MySQL", mysqlNode.getAdapter());
+            fail("A partition can't be detached on MySQL.");
+        } catch (MigrationValidationException e) {
+            assertTrue(e.getCause() instanceof UnsupportedOperationException);
+        }
+    }
+    
+    public void testRejectionKeepsItsType() {
+        Migration migration = new Migration(mysqlNode) {
+            @Override
+            public void upgrade(MigrationDatabase db) {
+                db.alterTable("events").detachPartition("events_p1");
+            }
+        };
+        
+        Migrator migrator = new Migrator(mysqlNode, getClass().getPackage().getName());
+        try {
+            migrator.prepareMigration(new DataMap("MyMap"), 7, migration, "MySQL");
+            fail("A partition can't be detached on MySQL.");
+        } catch (MigrationValidationException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("version=7"));
+        }
+    }
+    
+    public void testUnsupportedIndexIsRejected() {
+        Migration migration = new Migration(mysqlNode) {
+            @Override
+            public void upgrade(MigrationDatabase db) {
+                db.alterTable("artist").addIndex("artist_name", "name").unique().where("deleted IS NULL");
+            }
+        };
+        
+        try {
+            PreparedMigration.prepare(3, migration, "MySQL", mysqlNode.getAdapter());
+            fail("MySQL has no partial unique indexes.");
+        } catch (MigrationValidationException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("artist_name"));
+        }
+    }
+    
+    public void testUnsupportedSequenceIsRejected() {
+        Migration migration = new Migration(mysqlNode) {
+            @Override
+            public void upgrade(MigrationDatabase db) {
+                db.createSequence("order_seq");
+            }
+        };
+        
+        try {
+            PreparedMigration.prepare(3, migration, "MySQL", mysqlNode.getAdapter());
+            fail("MySQL has no sequences.");
+        } catch (MigrationValidationException e) {
+            assertTrue(e.getCause() instanceof UnsupportedOperationException);
+        }
+    }
+    
+}
@@ -0,0 +1,128 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import junit.framework.TestCase;
+
+import org.apache.cayenne.access.DataNode;
+import org.apache.cayenne.access.types.DefaultValueObjectTypeRegistry;
+import org.apache.cayenne.configuration.DefaultRuntimeProperties;
+import org.apache.cayenne.configuration.RuntimeProperties;
+import org.apache.cayenne.dba.postgres.PostgresAdapter;
+import org.apache.cayenne.di.spi.DefaultClassLoaderManager;
+import org.apache.cayenne.log.NoopJdbcEventLogger;
+import org.apache.cayenne.resource.ClassLoaderResourceLocator;
+
+public class RowTransformationToDbTest extends TestCase {
+
+	private DataNode node;
+	private List<String> calls;
+	
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		
+		node = new DataNode("node");
+		
+		RuntimeProperties props = new DefaultRuntimeProperties(Collections.EMPTY_MAP);
+		ClassLoaderResourceLocator resourceLocator = new ClassLoaderResourceLocator(new DefaultClassLoaderManager());
+		PostgresAdapter adapter = new PostgresAdapter(props, Collections.EMPTY_LIST, Collections.EMPTY_LIST, Collections.EMPTY_LIST, resourceLocator, new DefaultValueObjectTypeRegistry(Collections.emptyList()));
+		node.setAdapter(adapter);
+		node.setJdbcEventLogger(NoopJdbcEventLogger.getInstance());
+		
+		calls = new ArrayList<>();
+		node.setDataSource(recording(DataSource.class, "ds"));
+	}
+	
+	/**
+	 * Creates a JDBC object that records the calls made to it. Connections, statements and an empty result set are
+	 * returned where the transformation needs them.
+	 */
+	private <T> T recording(Class<T> type, String name) {
+		InvocationHandler handler = (proxy, method, args) -> {
+			if (!method.getName().equals("toString")) {
+				calls.add(name + "." + method.getName() + (args != null && args.length == 1 && args[0] instanceof String ? "(" + args[0] + ")" : ""));
+			}
+			switch (method.getName()) {
+				case "getConnection":
+					return recording(Connection.class, "c" + calls.stream().filter(c -> c.startsWith("ds.")).count());
+				case "getSchema":
+					return "public";
+				case "createStatement":
+					return recording(Statement.class, name + ".select");
+				case "prepareStatement":
+					return recording(PreparedStatement.class, name + ".update");
+				case "executeQuery":
+					return recording(ResultSet.class, name + ".rs");
+				case "executeBatch":
+					return new int[0];
+				case "next":
+				case "getAutoCommit":
+					return false;
+				case "toString":
+					return name;
+				default:
+					return null;
+			}
+		};
+		return type.cast(Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { type }, handler));
+	}
+	
+	public void testReadsFromMigratorSchema() throws Exception {
+		Migrator migrator = new Migrator(node, "org.apache.cayenne.migration").copy("tenant1");
+		RowTransformationToDb operation = new RowTransformationToDb("SELECT id FROM t", "UPDATE t SET x = ? WHERE id = ?", 10, 10, (row, update) -> true);
+		
+		operation.execute(migrator);
+		
+		// the writing connection is c1, the reading connection is c2
+		assertTrue(calls.contains("c1.setSchema(tenant1)"));
+		int set = calls.indexOf("c2.setSchema(tenant1)");
+		int select = calls.indexOf("c2.select.executeQuery(SELECT id FROM t)");
+		int restore = calls.indexOf("c2.setSchema(public)");
+		int close = calls.indexOf("c2.close");
+		assertTrue(set >= 0);
+		assertTrue(set < select);
+		assertTrue(select < restore);
+		assertTrue(restore < close);
+	}
+	
+	public void testDefaultSchemaIsNotChanged() throws Exception {
+		Migrator migrator = new Migrator(node, "org.apache.cayenne.migration");
+		RowTransformationToDb operation = new RowTransformationToDb("SELECT id FROM t", "UPDATE t SET x = ? WHERE id = ?", 10, 10, (row, update) -> true);
+		
+		operation.execute(migrator);
+		
+		for (String call : calls) {
+			assertFalse(call, call.contains("setSchema"));
+		}
+	}
+	
+}
@@ -0,0 +1,148 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.sql.Types;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+import org.apache.cayenne.access.DataNode;
+import org.apache.cayenne.access.types.DefaultValueObjectTypeRegistry;
+import org.apache.cayenne.configuration.DefaultRuntimeProperties;
+import org.apache.cayenne.configuration.RuntimeProperties;
+import org.apache.cayenne.dba.postgres.PostgresAdapter;
+import org.apache.cayenne.dbsync.merge.token.MergerToken;
+import org.apache.cayenne.di.spi.DefaultClassLoaderManager;
+import org.apache.cayenne.merge.ArbitrarySqlToDb;
+import org.apache.cayenne.resource.ClassLoaderResourceLocator;
+
+public class RunSchemaTest extends TestCase {
+
+    private DataNode node;
+    
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        node = new DataNode("node");
+        
+        RuntimeProperties props = new DefaultRuntimeProperties(Collections.EMPTY_MAP);
+        ClassLoaderResourceLocator resourceLocator = new ClassLoaderResourceLocator(new DefaultClassLoaderManager());
+        PostgresAdapter adapter = new PostgresAdapter(props, Collections.EMPTY_LIST, Collections.EMPTY_LIST, Collections.EMPTY_LIST, resourceLocator, new DefaultValueObjectTypeRegistry(Collections.emptyList()));
+        node.setAdapter(adapter);
+    }
+    
+	public void testTouchesEmptyTable() {
+		RunSchema schema = new RunSchema();
+		schema.recordSql("CREATE TABLE artist (id INTEGER NOT NULL)");
+		assertTrue(schema.touchesEmptyTable(Collections.<MergerToken>singletonList(new ArbitrarySqlToDb("ALTER TABLE artist ADD COLUMN name VARCHAR(100)"))));
+		assertFalse(schema.touchesEmptyTable(Collections.<MergerToken>singletonList(new ArbitrarySqlToDb("ALTER TABLE painting ADD COLUMN name VARCHAR(100)"))));
+	}
+	
+	public void testRecordSql() {
+		RunSchema schema = new RunSchema();
+		schema.recordSql("CREATE TABLE \"Artist\" (id INTEGER NOT NULL)");
+		schema.recordSql("CREATE TABLE painting (id INTEGER NOT NULL)");
+		schema.recordSql("CREATE TABLE gallery AS SELECT * FROM legacy_gallery");
+		assertTrue(schema.isEmptyTable("artist"));
+		assertTrue(schema.isEmptyTable("painting"));
+		assertFalse(schema.isEmptyTable("gallery"));
+		
+		schema.recordSql("ALTER TABLE artist ADD COLUMN name VARCHAR(100)");
+		schema.recordSql("UPDATE artist SET name = 'x'");
+		assertTrue(schema.isEmptyTable("artist"));
+		
+		schema.recordSql("INSERT INTO artist (id) VALUES (1)");
+		assertFalse(schema.isEmptyTable("artist"));
+		assertTrue(schema.isEmptyTable("painting"));
+		
+		schema.recordSql("SELECT load_paintings()");
+		assertFalse(schema.isEmptyTable("painting"));
+	}
+	
+	public void testScript() {
+		RunSchema schema = new RunSchema();
+		schema.recordSql("CREATE TABLE painting (id INTEGER NOT NULL);");
+		assertTrue(schema.isEmptyTable("painting"));
+		
+		schema.recordSql("CREATE TABLE artist (id INTEGER NOT NULL); INSERT INTO artist (id) VALUES (1)");
+		assertFalse(schema.isEmptyTable("artist"));
+		assertFalse(schema.isEmptyTable("painting"));
+		
+		schema.recordSql("CREATE TABLE gallery (id INTEGER NOT NULL) SELECT id FROM legacy_gallery");
+		assertFalse(schema.isEmptyTable("gallery"));
+	}
+	
+	public void testDropTable() {
+		RunSchema schema = new RunSchema();
+		schema.recordSql("CREATE TABLE artist (id INTEGER NOT NULL)");
+		schema.recordSql("DROP TABLE artist");
+		assertFalse(schema.isEmptyTable("artist"));
+	}
+	
+	public void testAddColumnToEmptyTable() {
+		RunSchema schema = new RunSchema();
+		PreparedMigration.prepare(1, new Migration(node) {
+			@Override
+			public void upgrade(MigrationDatabase db) {
+				MigrationTableNew artist = db.createTable("artist");
+				artist.addColumn("id", Types.INTEGER, MANDATORY, null);
+				artist.addPrimaryKey("id");
+			}
+		}, MigrationPhase.EXPAND, "PostgreSQL", node.getAdapter(), schema);
+		assertTrue(schema.isEmptyTable("artist"));
+		
+		PreparedMigration prepared = PreparedMigration.prepare(2, new AddRank(node), MigrationPhase.EXPAND, "PostgreSQL", node.getAdapter(), schema);
+		assertEquals(1, prepared.getOperations().size());
+		assertTrue(prepared.getOperations().get(0).getTokenValue().endsWith(" DEFAULT 0 NOT NULL"));
+		
+		// a table that wasn't created in the run is backfilled
+		prepared = PreparedMigration.prepare(2, new AddRank(node), MigrationPhase.EXPAND, "PostgreSQL", node.getAdapter(), new RunSchema());
+		assertEquals(4, prepared.getOperations().size());
+	}
+	
+	public void testOnlineConstraintOnEmptyTable() {
+		RunSchema schema = new RunSchema();
+		schema.recordSql("CREATE TABLE painting (id INTEGER NOT NULL)");
+		
+		PreparedMigration prepared = PreparedMigration.prepare(2, new Migration(node) {
+			@Override
+			public void upgrade(MigrationDatabase db) {
+				db.setOnlineConstraints(true);
+				db.alterTable("painting").addForeignKey("artist_id", "artist", "id");
+			}
+		}, MigrationPhase.EXPAND, "PostgreSQL", node.getAdapter(), schema);
+		assertEquals(1, prepared.getOperations().size());
+		assertFalse(prepared.getOperations().get(0).getTokenValue().contains("NOT VALID"));
+		assertFalse(ConstraintValidator.hasValidations(prepared.getOperations()));
+	}
+	
+	private static class AddRank extends Migration {
+		AddRank(DataNode node) {
+			super(node);
+		}
+		
+		@Override
+		public void upgrade(MigrationDatabase db) {
+			db.alterTable("artist").addColumn("rank", Types.INTEGER, MANDATORY, 0);
+		}
+	}
+	
+}
@@ -0,0 +1,64 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+import org.apache.cayenne.access.DataNode;
+import org.apache.cayenne.configuration.DefaultRuntimeProperties;
+import org.apache.cayenne.dba.DbAdapter;
+import org.apache.cayenne.dba.mysql.MySQLAdapter;
+import org.apache.cayenne.dba.postgres.PostgresAdapter;
+import org.apache.cayenne.dbsync.merge.factory.MySQLMergerTokenFactory;
+import org.apache.cayenne.dbsync.merge.factory.PostgresMergerTokenFactory;
+
+public class StandaloneNodeTest extends TestCase {
+
+	public void testCreate() {
+		DataNode node = StandaloneNode.create(null, PostgresAdapter.class, "MyMap", "Other");
+		assertTrue(node.getAdapter() instanceof PostgresAdapter);
+		assertNotNull(node.getJdbcEventLogger());
+		assertEquals(2, node.getDataMaps().size());
+		assertNotNull(node.getDataMap("MyMap"));
+		assertNotNull(node.getDataMap("Other"));
+	}
+	
+	public void testMergerTokenFactory() {
+		assertTrue(new MigrationDatabase(StandaloneNode.create(null, PostgresAdapter.class)).factory() instanceof PostgresMergerTokenFactory);
+		assertTrue(new MigrationDatabase(StandaloneNode.create(null, MySQLAdapter.class)).factory() instanceof MySQLMergerTokenFactory);
+	}
+	
+	public void testMigrator() {
+		Migrator migrator = Migrator.create(null, PostgresAdapter.class, "org.apache.cayenne.migration", "MyMap");
+		assertTrue(migrator.getDataNode().getAdapter() instanceof PostgresAdapter);
+		assertNotNull(migrator.createMigrationClassForVersion(migrator.getDataNode().getDataMap("MyMap"), 0));
+	}
+	
+	public void testUnsupportedAdapter() {
+		try {
+			StandaloneNode.createAdapter(DbAdapter.class, new DefaultRuntimeProperties(Collections.<String, String>emptyMap()));
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+	
+}
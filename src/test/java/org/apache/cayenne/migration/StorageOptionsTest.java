@@ -0,0 +1,89 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.cayenne.access.DataNode;
+import org.apache.cayenne.access.types.DefaultValueObjectTypeRegistry;
+import org.apache.cayenne.configuration.DefaultRuntimeProperties;
+import org.apache.cayenne.configuration.RuntimeProperties;
+import org.apache.cayenne.dba.postgres.PostgresAdapter;
+import org.apache.cayenne.dbsync.merge.token.db.CreateTableToDb;
+import org.apache.cayenne.di.spi.DefaultClassLoaderManager;
+import org.apache.cayenne.resource.ClassLoaderResourceLocator;
+
+public class StorageOptionsTest extends TestCase {
+
+    private DataNode node;
+    private MigrationDatabase db;
+    
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        node = new DataNode("node");
+        
+        RuntimeProperties props = new DefaultRuntimeProperties(Collections.EMPTY_MAP);
+        ClassLoaderResourceLocator resourceLocator = new ClassLoaderResourceLocator(new DefaultClassLoaderManager());
+        PostgresAdapter adapter = new PostgresAdapter(props, Collections.EMPTY_LIST, Collections.EMPTY_LIST, Collections.EMPTY_LIST, resourceLocator, new DefaultValueObjectTypeRegistry(Collections.emptyList()));
+        node.setAdapter(adapter);
+        
+        db = new MigrationDatabase(node);
+    }
+
+	public void testCreateTable() {
+		db.createTable("staging", new StorageOptions().unlogged());
+		assertEquals(2, db.getOperations().size());
+		assertTrue(db.getOperations().get(0) instanceof CreateTableToDb);
+		assertEquals(Collections.singletonList("ALTER TABLE staging SET UNLOGGED"), ((SetStorageToDb) db.getOperations().get(1)).createSql(node.getAdapter()));
+	}
+	
+	public void testPostgres() {
+		db.alterTable("orders").setStorage(new StorageOptions().fillFactor(80).tablespace("fast").compression("notes", "lz4").rowFormat("COMPRESSED"));
+		List<String> sql = ((SetStorageToDb) db.getOperations().get(0)).createSql(DbFamily.POSTGRES);
+		assertEquals(Arrays.asList(
+				"ALTER TABLE orders SET (fillfactor = 80)",
+				"ALTER TABLE orders SET TABLESPACE fast",
+				"ALTER TABLE orders ALTER COLUMN notes SET COMPRESSION lz4"), sql);
+	}
+	
+	public void testMySQL() {
+		db.alterTable("orders").setStorage(new StorageOptions().fillFactor(80).rowFormat("COMPRESSED").keyBlockSize(8));
+		List<String> sql = ((SetStorageToDb) db.getOperations().get(0)).createSql(DbFamily.MYSQL);
+		assertEquals(Collections.singletonList("ALTER TABLE orders ROW_FORMAT=COMPRESSED KEY_BLOCK_SIZE=8"), sql);
+	}
+	
+	public void testUnsupported() {
+		db.alterTable("orders").setStorage(new StorageOptions().fillFactor(80));
+		assertTrue(((SetStorageToDb) db.getOperations().get(0)).createSql(DbFamily.H2).isEmpty());
+		
+		try {
+			new StorageOptions().fillFactor(5);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+	
+}
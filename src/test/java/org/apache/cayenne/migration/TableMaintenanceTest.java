@@ -0,0 +1,100 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.cayenne.access.DataNode;
+import org.apache.cayenne.access.types.DefaultValueObjectTypeRegistry;
+import org.apache.cayenne.configuration.DefaultRuntimeProperties;
+import org.apache.cayenne.configuration.RuntimeProperties;
+import org.apache.cayenne.dba.postgres.PostgresAdapter;
+import org.apache.cayenne.di.spi.DefaultClassLoaderManager;
+import org.apache.cayenne.resource.ClassLoaderResourceLocator;
+
+public class TableMaintenanceTest extends TestCase {
+
+    private DataNode node;
+    private MigrationDatabase db;
+    
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        node = new DataNode("node");
+        
+        RuntimeProperties props = new DefaultRuntimeProperties(Collections.EMPTY_MAP);
+        ClassLoaderResourceLocator resourceLocator = new ClassLoaderResourceLocator(new DefaultClassLoaderManager());
+        PostgresAdapter adapter = new PostgresAdapter(props, Collections.EMPTY_LIST, Collections.EMPTY_LIST, Collections.EMPTY_LIST, resourceLocator, new DefaultValueObjectTypeRegistry(Collections.emptyList()));
+        node.setAdapter(adapter);
+        
+        db = new MigrationDatabase(node);
+    }
+
+	public void testTouchedTables() {
+		db.alterTable("artist").addIntegerColumn("age");
+		db.execute("UPDATE painting SET price = 0");
+		db.execute("insert into gallery select * from legacy_gallery");
+		db.createTable("staging");
+		db.execute("DROP TABLE staging");
+		db.execute("SELECT 1");
+		
+		Set<String> tables = TableMaintenance.touchedTables(db.getOperations(), db);
+		assertEquals(Arrays.asList("artist", "painting", "gallery"), Arrays.asList(tables.toArray()));
+	}
+	
+	public void testTableOfSql() {
+		assertEquals("public.artist", TableMaintenance.tableOfSql("DELETE FROM public.artist WHERE 1=1"));
+		assertEquals("artist", TableMaintenance.tableOfSql("CREATE UNIQUE INDEX CONCURRENTLY artist_idx ON artist (name)"));
+		assertEquals("artist", TableMaintenance.tableOfSql("ALTER TABLE IF EXISTS artist ADD COLUMN x int"));
+		assertNull(TableMaintenance.tableOfSql("SELECT * FROM artist"));
+	}
+	
+	public void testMaintenanceSql() {
+		Set<MaintenanceAction> analyze = EnumSet.of(MaintenanceAction.ANALYZE);
+		Set<MaintenanceAction> all = EnumSet.allOf(MaintenanceAction.class);
+		assertEquals(Collections.singletonList("ANALYZE artist"), TableMaintenance.maintenanceSql("artist", analyze, DbFamily.POSTGRES));
+		assertEquals(Arrays.asList("VACUUM (ANALYZE) artist", "SELECT pg_prewarm('artist')"), TableMaintenance.maintenanceSql("artist", all, DbFamily.POSTGRES));
+		assertEquals(Collections.singletonList("ANALYZE TABLE artist"), TableMaintenance.maintenanceSql("artist", analyze, DbFamily.MYSQL));
+		assertEquals(Collections.singletonList("ANALYZE TABLE artist"), TableMaintenance.maintenanceSql("artist", all, DbFamily.MYSQL));
+		assertTrue(TableMaintenance.maintenanceSql("artist", EnumSet.of(MaintenanceAction.VACUUM), DbFamily.MYSQL).isEmpty());
+		assertEquals(Collections.singletonList("UPDATE STATISTICS artist"), TableMaintenance.maintenanceSql("artist", analyze, DbFamily.SQLSERVER));
+		assertEquals(Collections.singletonList("BEGIN DBMS_STATS.GATHER_TABLE_STATS('APP', 'ARTIST'); END;"), TableMaintenance.maintenanceSql("app.artist", analyze, DbFamily.ORACLE));
+		assertTrue(TableMaintenance.maintenanceSql("artist", all, DbFamily.DERBY).isEmpty());
+	}
+	
+	public void testMaintenanceSettings() {
+		Migrator migrator = new Migrator(node, "org.apache.cayenne.migration");
+		assertTrue(migrator.getMaintenance().isEmpty());
+		migrator.setMaintenance(MaintenanceAction.ANALYZE);
+		assertEquals(EnumSet.of(MaintenanceAction.ANALYZE), migrator.copy(null).getMaintenance());
+		migrator.setMaintenance();
+		assertTrue(migrator.copy(null).getMaintenance().isEmpty());
+		
+		assertNull(db.getMaintenance());
+		db.setMaintenance(MaintenanceAction.VACUUM);
+		assertEquals(EnumSet.of(MaintenanceAction.VACUUM), db.getMaintenance());
+	}
+	
+}
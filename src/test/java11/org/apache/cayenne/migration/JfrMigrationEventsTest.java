@@ -0,0 +1,91 @@
+/*****************************************************************
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package org.apache.cayenne.migration;
+
+import java.io.File;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import junit.framework.TestCase;
+
+import org.apache.cayenne.dbsync.merge.token.db.DropTableToDb;
+import org.apache.cayenne.map.DbEntity;
+import org.apache.cayenne.merge.ArbitrarySqlToDb;
+
+public class JfrMigrationEventsTest extends TestCase {
+
+    public void testRecordedEvents() throws Exception {
+        File file = File.createTempFile("migration", ".jfr");
+        try {
+            Recording recording = new Recording();
+            recording.enable("org.apache.cayenne.migration.Phase").withoutThreshold();
+            recording.enable("org.apache.cayenne.migration.Statement").withoutThreshold();
+            recording.start();
+            
+            MigrationEvents.end(MigrationEvents.beginPhase(MigrationEvents.LOCK, "MyMap", 3));
+            ArbitrarySqlToDb source = new ArbitrarySqlToDb("UPDATE x SET y=1");
+            MigrationEvents.end(MigrationEvents.beginStatement(MigrationEvents.EXECUTE, new RenderedSqlToDb("UPDATE x SET y=1", source), "UPDATE x SET y=1"), 5);
+            
+            recording.stop();
+            recording.dump(file.toPath());
+            recording.close();
+            
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file.toPath());
+            assertEquals(2, events.size());
+            RecordedEvent phase = events.get(0).getEventType().getName().endsWith("Phase") ? events.get(0) : events.get(1);
+            RecordedEvent statement = phase == events.get(0) ? events.get(1) : events.get(0);
+            
+            assertEquals(MigrationEvents.LOCK, phase.getString("phase"));
+            assertEquals("MyMap", phase.getString("dataMap"));
+            assertEquals(3, phase.getInt("version"));
+            
+            assertEquals(MigrationEvents.EXECUTE, statement.getString("phase"));
+            assertEquals(source.getTokenName(), statement.getString("kind"));
+            assertEquals("UPDATE x SET y=1", statement.getString("sql"));
+            assertEquals(5, statement.getLong("rowCount"));
+        } finally {
+            file.delete();
+        }
+    }
+    
+    public void testStatementTable() throws Exception {
+        File file = File.createTempFile("migration", ".jfr");
+        try {
+            Recording recording = new Recording();
+            recording.enable("org.apache.cayenne.migration.Statement").withoutThreshold();
+            recording.start();
+            
+            DbEntity entity = new DbEntity("Artist");
+            MigrationEvents.end(MigrationEvents.beginStatement(MigrationEvents.RENDER, new DropTableToDb(entity), null));
+            
+            recording.stop();
+            recording.dump(file.toPath());
+            recording.close();
+            
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file.toPath());
+            assertEquals(1, events.size());
+            assertEquals("Artist", events.get(0).getString("table"));
+        } finally {
+            file.delete();
+        }
+    }
+    
+}